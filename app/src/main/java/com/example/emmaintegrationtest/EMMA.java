@@ -7,11 +7,46 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.example.emmaintegrationtest.cache.DiskLruCache;
+import com.example.emmaintegrationtest.links.LinkDomainMatcher;
+import com.example.emmaintegrationtest.metrics.FacadeMethod;
+import com.example.emmaintegrationtest.metrics.FacadeMetrics;
+import com.example.emmaintegrationtest.metrics.RequestSpan;
+import com.example.emmaintegrationtest.metrics.RequestTracer;
+import com.example.emmaintegrationtest.metrics.ResponseTimer;
+import com.example.emmaintegrationtest.push.PushPipeline;
+import com.example.emmaintegrationtest.push.PushTokenRegistry;
+import com.example.emmaintegrationtest.push.RichPushPrefetcher;
+import com.example.emmaintegrationtest.push.RichPushWebViewClient;
+import com.example.emmaintegrationtest.queue.AdaptiveFlushScheduler;
+import com.example.emmaintegrationtest.queue.BatteryMonitor;
+import com.example.emmaintegrationtest.queue.ConnectivityMonitor;
+import com.example.emmaintegrationtest.queue.JournalFlusher;
+import com.example.emmaintegrationtest.queue.OperationJournal;
+import com.example.emmaintegrationtest.startup.ConfigurationSnapshot;
+import com.example.emmaintegrationtest.startup.InvocationCodec;
+import com.example.emmaintegrationtest.startup.PendingCall;
+import com.example.emmaintegrationtest.startup.PendingCallBuffer;
+import com.example.emmaintegrationtest.startup.PendingInvocation;
+import com.example.emmaintegrationtest.startup.StagedStartup;
+import com.example.emmaintegrationtest.startup.StartupReport;
+import com.example.emmaintegrationtest.tracking.CampaignEventCoalescer;
+import com.example.emmaintegrationtest.tracking.EventBatcher;
+import com.example.emmaintegrationtest.tracking.OrderBuilder;
 
 import io.emma.android.controllers.EMMAConfig;
 import io.emma.android.controllers.EMMAController;
@@ -54,7 +89,28 @@ public class EMMA {
 
     private static final String EMMA_SESSION_KEY = "io.emma.SESSION_KEY";
 
-    private EMMAController emmaController;
+    private static final int DEFAULT_EVENT_FLUSH_SECONDS = 5;
+    private static final int STARTUP_THREADS = 3;
+
+    private volatile EMMAController emmaController;
+    private EventBatcher<EMMAEventRequest> eventBatcher;
+    private CampaignEventCoalescer campaignEventCoalescer;
+    private volatile PushPipeline pushPipeline;
+    private volatile PushTokenRegistry pushTokenRegistry;
+    private volatile RichPushPrefetcher richPushPrefetcher;
+    private volatile LinkDomainMatcher linkDomains = LinkDomainMatcher.EMPTY;
+    private final Object startLock = new Object();
+    private PendingCallBuffer pendingCalls = new PendingCallBuffer(PendingCallBuffer.DEFAULT_CAPACITY, null);
+    private boolean holdCallsBeforeStart;
+    private boolean starting;
+    private CompletableFuture<StartupReport> startupFuture;
+    private volatile OperationJournal operationJournal;
+    private JournalFlusher journalFlusher;
+    private ConnectivityMonitor connectivityMonitor;
+    private BatteryMonitor batteryMonitor;
+    private volatile FacadeMetrics metrics;
+    private volatile RequestTracer requestTracer;
+    private volatile File configurationSnapshotFile;
     private Activity lastLoad;
 
     /**
@@ -136,6 +192,68 @@ public class EMMA {
             return waitForAttributionInfo;
         }
 
+        public Integer getEventBatchSize() {
+            return eventBatchSize;
+        }
+
+        public File getOperationJournalFile() {
+            return operationJournalFile;
+        }
+
+        public Long getCampaignEventWindow() {
+            return campaignEventWindow;
+        }
+
+        public Boolean isAdaptiveFlush() {
+            return adaptiveFlush;
+        }
+
+        public File getConfigurationSnapshotFile() {
+            return configurationSnapshotFile;
+        }
+
+        public Integer getPushWorkers() {
+            return pushWorkers;
+        }
+
+        public Integer getPushQueueCapacity() {
+            return pushQueueCapacity;
+        }
+
+        public File getPushTokenFile() {
+            return pushTokenFile;
+        }
+
+        public File getRichPushCacheDirectory() {
+            return richPushCacheDirectory;
+        }
+
+        public Long getRichPushCacheBytes() {
+            return richPushCacheBytes;
+        }
+
+        /**
+         * @return The settings the SDK stores, as kept in the configuration snapshot.
+         */
+        ConfigurationSnapshot toSnapshot() {
+            Map<String, String> settings = new LinkedHashMap<>();
+            settings.put("sdkVersion", EMMAConfig.SDK_VERSION);
+            settings.put("urlBase", urlBase);
+            settings.put("debugActive", String.valueOf(debugActive));
+            settings.put("queueTime", String.valueOf(queueTime));
+            settings.put("powlinkDomains", join(powlinkDomains));
+            settings.put("screenEvents", String.valueOf(screenEvents));
+            settings.put("shortPowlinkDomains", join(shortPowlinkDomains));
+            settings.put("testInstallReferrer", testInstallReferrer);
+            settings.put("familiesPolicyTreatment", String.valueOf(familiesPolicyTreatment));
+            settings.put("waitForAttributionInfo", String.valueOf(waitForAttributionInfo));
+            return new ConfigurationSnapshot(sessionKey, apiUser, apiKey, settings);
+        }
+
+        private static String join(String[] values) {
+            return values == null ? null : TextUtils.join(",", values);
+        }
+
         public static final class Builder {
             private Context context;
             private String sessionKey;
@@ -149,6 +267,16 @@ public class EMMA {
             private Boolean familiesPolicyTreatment;
             private EMMAInstallAttributionInterface installAttributionlistener;
             private Integer waitForAttributionInfo;
+            private Integer eventBatchSize;
+            private File operationJournalFile;
+            private Long campaignEventWindow;
+            private Boolean adaptiveFlush;
+            private File configurationSnapshotFile;
+            private Integer pushWorkers;
+            private Integer pushQueueCapacity;
+            private File pushTokenFile;
+            private File richPushCacheDirectory;
+            private Long richPushCacheBytes;
 
             public Builder(Context context) {
                 this.context = context;
@@ -214,6 +342,121 @@ public class EMMA {
                 this.waitForAttributionInfo = waitForAttributionInfo;
             }
 
+            /**
+             * Enables the event batching stage. Tracked events are enqueued and sent to
+             * the controller from a background thread in batches of up to
+             * <code>maxBatchSize</code> events, or after the queue time elapses.
+             *
+             * @param maxBatchSize Maximum number of events per batch.
+             */
+            public Builder setEventBatching(int maxBatchSize) {
+                this.eventBatchSize = maxBatchSize;
+                return this;
+            }
+
+            /**
+             * Enables the operation journal. Events, orders, user data, in-app impressions
+             * and clicks and push tokens are appended to a memory-mapped file and handed to
+             * the controller in bulk while the device is online, so the ones made offline
+             * survive process death. Calls that cannot be journaled, such as notifications,
+             * hand the journaled ones to the controller first so they keep their order.
+             *
+             * @param file The journal file, for example in {@link Context#getNoBackupFilesDir()}.
+             */
+            public Builder setOperationJournal(File file) {
+                this.operationJournalFile = file;
+                return this;
+            }
+
+            /**
+             * Enables the coalescing of campaign impressions and clicks. Repeated events
+             * for the same communication type and campaign within the window are dropped,
+             * and the rest are sent together when the window ends.
+             *
+             * @param windowMillis Length of the window in milliseconds.
+             */
+            public Builder setCampaignEventCoalescing(long windowMillis) {
+                this.campaignEventWindow = windowMillis;
+                return this;
+            }
+
+            /**
+             * Adapts the flushes of the operation journal to the device conditions. The
+             * queue time becomes the base interval, which is stretched on metered networks
+             * and on low battery and shortened on Wi-Fi or while charging. Requires
+             * {@link #setOperationJournal(File)}.
+             * <p>
+             * A flush hands the journaled calls to the SDK, which queues and sends them on
+             * its own, so network failures and round trip times are not seen here. Only a
+             * call that throws counts as a failed flush, retried with exponential backoff.
+             */
+            public Builder setAdaptiveFlush(boolean adaptive) {
+                this.adaptiveFlush = adaptive;
+                return this;
+            }
+
+            /**
+             * Keeps the configuration of the last session start in a snapshot file. The
+             * API user and key are then read from it instead of being derived from the
+             * session key, and the configuration is only saved to the SDK again when it
+             * changed, so warm starts skip the preferences writes.
+             *
+             * @param file The snapshot file, for example in {@link Context#getNoBackupFilesDir()}.
+             */
+            public Builder setConfigurationSnapshot(File file) {
+                this.configurationSnapshotFile = file;
+                return this;
+            }
+
+            /**
+             * Processes incoming notifications and rich push checks on a bounded pool of
+             * worker threads. Notifications with the message id of a recent one are
+             * coalesced, and when <code>capacity</code> notifications are waiting the
+             * delivering thread processes the next one itself. Work handed off to the
+             * workers can outlive the wakelock of the messaging service; see
+             * {@link PushPipeline}.
+             *
+             * @param workers  Maximum number of worker threads.
+             * @param capacity Maximum number of notifications waiting for a worker.
+             */
+            public Builder setPushPipeline(int workers, int capacity) {
+                this.pushWorkers = workers;
+                this.pushQueueCapacity = capacity;
+                return this;
+            }
+
+            /**
+             * Remembers the last push token sent for each provider, so
+             * {@link EMMA#addPushToken(String, EMMAPushType)} skips tokens already sent and
+             * sends only the latest of several tokens received in a short time. A token is
+             * sent again a day after it was handed to the SDK, in case that upload was lost.
+             *
+             * @param file File keeping the hashes of the sent tokens, for example in
+             *             {@link Context#getNoBackupFilesDir()}.
+             */
+            public Builder setPushTokenRegistry(File file) {
+                this.pushTokenFile = file;
+                return this;
+            }
+
+            /**
+             * Downloads the rich push page and picture of every incoming notification, and
+             * the media the page references, into a cache on disk. A
+             * {@link RichPushWebViewClient} then renders the page from disk when the user
+             * opens it. The download starts when the notification reaches
+             * {@link EMMA#onNewNotification(Intent, boolean)}, on the push pipeline worker
+             * if there is one, so call it from the messaging service as the message arrives.
+             *
+             * @param directory Directory used only by the cache, for example in
+             *                  {@link Context#getCacheDir()}.
+             * @param maxBytes  Maximum size of the cached content.
+             */
+            public Builder setRichPushCache(File directory, long maxBytes) {
+                this.richPushCacheDirectory = directory;
+                this.richPushCacheBytes = maxBytes;
+                return this;
+            }
+
             public Configuration build() {
                 try {
                     return new Configuration(this);
@@ -237,6 +480,18 @@ public class EMMA {
         final Boolean familiesPolicyTreatment;
         final EMMAInstallAttributionInterface installAttributionlistener;
         final Integer waitForAttributionInfo;
+        final Integer eventBatchSize;
+        final File operationJournalFile;
+        final Long campaignEventWindow;
+        final Boolean adaptiveFlush;
+        final File configurationSnapshotFile;
+        /** Snapshot found when the configuration was built, if any. */
+        final ConfigurationSnapshot savedSnapshot;
+        final Integer pushWorkers;
+        final Integer pushQueueCapacity;
+        final File pushTokenFile;
+        final File richPushCacheDirectory;
+        final Long richPushCacheBytes;
 
         private Configuration(Builder builder) throws EMMASessionKeyException {
             this.context = builder.context;
@@ -250,8 +505,16 @@ public class EMMA {
                 EMMALog.setLevel(EMMALog.NONE);
             }
 
-            this.apiUser = EMMAUtils.getApiUserFromSessionKey(this.sessionKey);
-            this.apiKey = EMMAUtils.getApiKeyFromSessionKey(this.sessionKey);
+            this.configurationSnapshotFile = builder.configurationSnapshotFile;
+            this.savedSnapshot = configurationSnapshotFile != null ?
+                    ConfigurationSnapshot.read(configurationSnapshotFile) : null;
+            if (savedSnapshot != null && savedSnapshot.matches(sessionKey)) {
+                this.apiUser = savedSnapshot.getApiUser();
+                this.apiKey = savedSnapshot.getApiKey();
+            } else {
+                this.apiUser = EMMAUtils.getApiUserFromSessionKey(this.sessionKey);
+                this.apiKey = EMMAUtils.getApiKeyFromSessionKey(this.sessionKey);
+            }
             this.queueTime = builder.queueTime;
             this.powlinkDomains = builder.powlinkDomains;
             this.screenEvents = builder.screenEvents;
@@ -260,6 +523,15 @@ public class EMMA {
             this.familiesPolicyTreatment = builder.familiesPolicyTreatment;
             this.installAttributionlistener = builder.installAttributionlistener;
             this.waitForAttributionInfo = builder.waitForAttributionInfo;
+            this.eventBatchSize = builder.eventBatchSize;
+            this.operationJournalFile = builder.operationJournalFile;
+            this.campaignEventWindow = builder.campaignEventWindow;
+            this.adaptiveFlush = builder.adaptiveFlush;
+            this.pushWorkers = builder.pushWorkers;
+            this.pushQueueCapacity = builder.pushQueueCapacity;
+            this.pushTokenFile = builder.pushTokenFile;
+            this.richPushCacheDirectory = builder.richPushCacheDirectory;
+            this.richPushCacheBytes = builder.richPushCacheBytes;
         }
     }
 
@@ -333,32 +605,613 @@ public class EMMA {
         startEMMAController(configuration, null, true);
     }
 
+    /**
+     * Starts the communication with EMMA Servers without blocking the calling thread.
+     * <p>
+     * The configuration is saved and the controller created on a background executor,
+     * then the session, install referrer and install attribution stages run in parallel.
+     * Facade calls made meanwhile are held and replayed in order once the controller is ready.
+     *
+     * <pre>
+     * {@code
+     *
+     * EMMA.getInstance().startSessionAsync(configuration, null)
+     *         .thenAccept(report -> Log.d(TAG, report.toString()));
+     * }
+     * </pre>
+     *
+     * @param configuration The EMMA configuration.
+     * @param sessionStartListener Listener to notify when the session is started
+     * @return Future completed with the per-stage timings when the controller is ready.
+     */
+    public CompletableFuture<StartupReport> startSessionAsync(Configuration configuration,
+                                                              EMMASessionStartListener sessionStartListener) {
+        final ExecutorService executor = Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "emma-startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletableFuture<StartupReport> future = startSessionAsync(configuration, sessionStartListener, executor);
+        future.whenComplete((report, error) -> executor.shutdown());
+        return future;
+    }
+
+    /**
+     * Same as {@link #startSessionAsync(Configuration, EMMASessionStartListener)} running the
+     * stages on the given executor.
+     *
+     * @param configuration The EMMA configuration.
+     * @param sessionStartListener Listener to notify when the session is started
+     * @param executor Executor for the startup stages. Should allow three parallel tasks.
+     * @return Future completed with the per-stage timings when the controller is ready.
+     */
+    public CompletableFuture<StartupReport> startSessionAsync(final Configuration configuration,
+                                                              final EMMASessionStartListener sessionStartListener,
+                                                              Executor executor) {
+        checkConfig(configuration);
+        synchronized (startLock) {
+            if (emmaController != null) {
+                EMMALog.i("Session already started");
+                return CompletableFuture.completedFuture(null);
+            }
+            if (startupFuture != null) {
+                EMMALog.i("Session already starting");
+                return startupFuture;
+            }
+            if (starting) {
+                EMMALog.i("Session already starting");
+                return CompletableFuture.completedFuture(null);
+            }
+            starting = true;
+            // Published before the stages start: an inline executor may finish them, and
+            // clear it in publishController, before this method returns
+            final CompletableFuture<StartupReport> result = new CompletableFuture<>();
+            startupFuture = result;
+
+            final Context appContext = configuration.getContext();
+            final StagedStartup startup = new StagedStartup(executor);
+            CompletableFuture<Context> configSaved = startup.supply(StartupReport.Stage.SAVE_CONFIG, () -> {
+                saveConfig(appContext, configuration);
+                return appContext;
+            });
+            final CompletableFuture<EMMAController> controllerCreated = startup.then(configSaved,
+                    StartupReport.Stage.CREATE_CONTROLLER, EMMAController::new);
+            CompletableFuture<Void> sessionStarted = startup.thenAccept(controllerCreated,
+                    StartupReport.Stage.START_SESSION,
+                    controller -> startSessionStage(controller, sessionStartListener));
+            CompletableFuture<Void> referrerStarted = startup.thenAccept(controllerCreated,
+                    StartupReport.Stage.INSTALL_REFERRER,
+                    controller -> installReferrerStage(controller, configuration));
+            CompletableFuture<Void> attributionStarted = startup.thenAccept(controllerCreated,
+                    StartupReport.Stage.INSTALL_ATTRIBUTION,
+                    controller -> installAttributionStage(controller, configuration));
+
+            CompletableFuture.allOf(sessionStarted, referrerStarted, attributionStarted)
+                    .thenApply(ignored -> {
+                        EMMAController controller = controllerCreated.join();
+                        startEventBatcher(controller, configuration);
+                        startOperationJournal(controller, configuration);
+                        startCampaignEventCoalescer(controller, configuration);
+                        startPushPipeline(controller, configuration);
+                        startPushTokenRegistry(controller, configuration);
+                        startRichPushPrefetcher(configuration);
+                        compileLinkDomains(configuration);
+                        publishController(controller);
+                        return startup.report();
+                    })
+                    .whenComplete((report, error) -> {
+                        if (error != null) {
+                            EMMALog.e("EMMA async session start failed: " + error);
+                            synchronized (startLock) {
+                                starting = false;
+                                startupFuture = null;
+                            }
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(report);
+                        }
+                    });
+            return result;
+        }
+    }
+
     private void startEMMAController(Configuration configuration,
                                      EMMASessionStartListener sessionStartListener,
                                      boolean backgroundSession) {
-        if (emmaController == null) {
+        synchronized (startLock) {
+            if (emmaController != null) {
+                EMMALog.i("Session already started");
+                return;
+            }
+            if (starting) {
+                EMMALog.i("Session already starting");
+                return;
+            }
+            starting = true;
+        }
+        try {
             final Context appContext = configuration.getContext();
-            EMMAConfig.saveConfig(appContext, configuration);
-            emmaController = new EMMAController(appContext);
+            saveConfig(appContext, configuration);
+            EMMAController controller = new EMMAController(appContext);
+            startEventBatcher(controller, configuration);
+            startOperationJournal(controller, configuration);
+            startCampaignEventCoalescer(controller, configuration);
+            startPushPipeline(controller, configuration);
+            startPushTokenRegistry(controller, configuration);
+            startRichPushPrefetcher(configuration);
+            compileLinkDomains(configuration);
+            publishController(controller);
 
             if (backgroundSession) {
-                emmaController.startSessionBackground();
+                controller.startSessionBackground();
             } else {
-                if (lastLoad != null) {
-                    emmaController.setCurrentActivity(lastLoad);
+                startSessionStage(controller, sessionStartListener);
+                installReferrerStage(controller, configuration);
+                installAttributionStage(controller, configuration);
+            }
+        } finally {
+            synchronized (startLock) {
+                starting = false;
+            }
+        }
+    }
+
+    /**
+     * Saves the configuration to the SDK unless the snapshot shows it is already saved. The
+     * in-memory settings that saving would set are applied either way.
+     */
+    private void saveConfig(Context appContext, Configuration configuration) {
+        File file = configuration.getConfigurationSnapshotFile();
+        configurationSnapshotFile = file;
+        if (file == null) {
+            EMMAConfig.saveConfig(appContext, configuration);
+            return;
+        }
+        ConfigurationSnapshot snapshot = configuration.toSnapshot();
+        if (snapshot.equals(configuration.savedSnapshot)) {
+            EMMALog.d("Configuration unchanged since the last start, not saving it");
+            // Only the preferences are up to date; the static URL starts at its default
+            if (configuration.getUrlBase() != null) {
+                EMMAConfig.BASE_URL = configuration.getUrlBase();
+            }
+            return;
+        }
+        EMMAConfig.saveConfig(appContext, configuration);
+        snapshot.write(file);
+    }
+
+    /**
+     * The SDK settings were changed outside the configuration, so the snapshot no longer
+     * describes what is saved.
+     */
+    private void invalidateConfigurationSnapshot() {
+        ConfigurationSnapshot.invalidate(configurationSnapshotFile);
+    }
+
+    private void startSessionStage(EMMAController controller,
+                                   EMMASessionStartListener sessionStartListener) {
+        if (lastLoad != null) {
+            controller.setCurrentActivity(lastLoad);
+        }
+        controller.startSession(sessionStartListener);
+    }
+
+    private void installReferrerStage(EMMAController controller, Configuration configuration) {
+        if (configuration.testInstallReferrer != null) {
+            controller.getReferrerController().testReferrer(configuration.testInstallReferrer);
+        }
+        controller.getReferrerController().startInstallReferrerConnection();
+    }
+
+    private void installAttributionStage(EMMAController controller, Configuration configuration) {
+        controller.getInstallAttributionController()
+                .getInstallAttributionInfoGlobal(configuration.getInstallAttributionListener(),
+                        configuration.getWaitForAttributionInfo());
+    }
+
+    /**
+     * Replays the calls held before the start and then makes the controller visible to
+     * the facade, so later calls cannot overtake the held ones.
+     */
+    private void publishController(EMMAController controller) {
+        synchronized (startLock) {
+            int replayed = pendingCalls.replay(invocation -> dispatch(controller, invocation));
+            if (replayed > 0) {
+                EMMALog.d("Replayed " + replayed + " calls made before session start");
+            }
+            emmaController = controller;
+            starting = false;
+            startupFuture = null;
+        }
+    }
+
+    /**
+     * Holds a call made while the controller is not ready, if a start is in progress or
+     * {@link #holdCallsBeforeStart(int, File)} was enabled. If the controller became ready
+     * in the meantime the call runs immediately.
+     */
+    private void deferUntilStarted(PendingCall call, Object... args) {
+        EMMAController controller;
+        synchronized (startLock) {
+            controller = emmaController;
+            if (controller == null) {
+                boolean held = (starting || holdCallsBeforeStart) &&
+                        pendingCalls.add(new PendingInvocation(call, args));
+                FacadeMetrics metrics = this.metrics;
+                if (metrics != null) {
+                    if (held) {
+                        metrics.recordDeferred(FacadeMethod.of(call));
+                    } else {
+                        metrics.recordDropped(FacadeMethod.of(call));
+                    }
+                }
+                return;
+            }
+        }
+        dispatch(controller, new PendingInvocation(call, args));
+    }
+
+    /**
+     * Runs a held call the way its public method runs once the session is started, so it
+     * goes through the operation journal, the event batcher, the push pipeline, the push
+     * token registry and the campaign event coalescer like a live call.
+     */
+    private void dispatch(EMMAController controller, PendingInvocation invocation) {
+        switch (invocation.getCall()) {
+            case TRACK_EVENT:
+                sendEvent(controller, (EMMAEventRequest) invocation.getArgument(0));
+                break;
+            case ON_NEW_NOTIFICATION:
+                sendNotification(controller, (Intent) invocation.getArgument(0),
+                        (Boolean) invocation.getArgument(1));
+                break;
+            case ADD_PUSH_TOKEN:
+                sendPushToken(controller, (String) invocation.getArgument(0),
+                        (EMMAPushType) invocation.getArgument(1));
+                break;
+            case SEND_IN_APP_CLICK:
+                offerCampaignEvent(controller, CampaignEventCoalescer.Kind.CLICK,
+                        (CommunicationTypes) invocation.getArgument(0), (EMMACampaign) invocation.getArgument(1));
+                break;
+            case SEND_IN_APP_DISMISSED_CLICK:
+                offerCampaignEvent(controller, CampaignEventCoalescer.Kind.DISMISSED_CLICK,
+                        (CommunicationTypes) invocation.getArgument(0), (EMMACampaign) invocation.getArgument(1));
+                break;
+            case SEND_IN_APP_IMPRESSION:
+                offerCampaignEvent(controller, CampaignEventCoalescer.Kind.IMPRESSION,
+                        (CommunicationTypes) invocation.getArgument(0), (EMMACampaign) invocation.getArgument(1));
+                break;
+            case START_PUSH_SYSTEM:
+            case ADD_COUPONS_CALLBACK:
+            case ADD_IN_APP_PLUGINS:
+                // Live calls do not journal these either
+                invocation.replay(controller);
+                break;
+            default:
+                if (operationJournal == null || !journal(invocation)) {
+                    invocation.replay(controller);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Keeps the calls made before the session is started, instead of dropping them, and
+     * replays them in order once the session starts. Calls made while a start is in
+     * progress are always kept.
+     * <p>
+     * Listeners, intents and other objects that cannot be serialized are only kept in memory.
+     *
+     * @param capacity Maximum number of calls kept in memory.
+     * @param overflowFile File where calls beyond the capacity are written, or <code>null</code>
+     *                     to drop them. Calls left there by a previous process are replayed
+     *                     first.
+     */
+    public void holdCallsBeforeStart(int capacity, File overflowFile) {
+        synchronized (startLock) {
+            if (pendingCalls.size() > 0) {
+                EMMALog.w("Pending calls buffer already in use, configuration ignored");
+            } else {
+                pendingCalls = new PendingCallBuffer(capacity, overflowFile);
+                EMMAController controller = emmaController;
+                if (controller != null) {
+                    pendingCalls.replay(invocation -> dispatch(controller, invocation));
+                }
+            }
+            holdCallsBeforeStart = true;
+        }
+    }
+
+    /**
+     * @return Counters of the calls held before the session start.
+     */
+    public PendingCallBuffer.Metrics getPendingCallMetrics() {
+        synchronized (startLock) {
+            return pendingCalls.metrics();
+        }
+    }
+
+    /**
+     * Measures the facade: calls, time spent in each method, calls held or dropped
+     * before the session start and the time until the SDK answers the listener of
+     * {@link #getInAppMessage(EMMAInAppRequest, EMMAInAppMessageInterface)}. The depth
+     * of the pending calls buffer, the operation journal, the event batcher and the push
+     * pipeline are registered as gauges.
+     * <p>
+     * Set it before {@link #startSession(Configuration)} to also count the calls made
+     * before the start. Metrics are disabled by default and then cost one volatile read
+     * per call.
+     *
+     * <pre>
+     * {@code
+     *  StripedFacadeMetrics metrics = new StripedFacadeMetrics();
+     *  EMMA.getInstance().setMetrics(metrics);
+     *  EMMALog.d(metrics.snapshot().toString());
+     *  }
+     *  </pre>
+     *
+     * @param metrics Receiver of the measurements, or <code>null</code> to disable them.
+     */
+    public void setMetrics(FacadeMetrics metrics) {
+        if (metrics != null) {
+            metrics.registerGauge("pendingCalls", () -> {
+                synchronized (startLock) {
+                    return pendingCalls.size();
+                }
+            });
+            metrics.registerGauge("operationJournal", () -> {
+                OperationJournal journal = operationJournal;
+                return journal == null ? 0 : journal.size();
+            });
+            metrics.registerGauge("eventBatcher", () -> {
+                EventBatcher<EMMAEventRequest> batcher = eventBatcher;
+                return batcher == null ? 0 : batcher.pending();
+            });
+            metrics.registerGauge("pushPipeline", () -> {
+                PushPipeline pipeline = pushPipeline;
+                return pipeline == null ? 0 : pipeline.pending();
+            });
+            metrics.registerGauge("richPushPrefetch", () -> {
+                RichPushPrefetcher prefetcher = richPushPrefetcher;
+                return prefetcher == null ? 0 : prefetcher.pending();
+            });
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * Traces every {@link #getInAppMessage(EMMAInAppRequest, EMMAInAppMessageInterface)}
+     * from the call to the end of its listener. The listener is wrapped so the span is
+     * finished and exported on its first callback.
+     *
+     * <pre>
+     * {@code
+     *  StageBreakdown breakdown = new StageBreakdown(span -> EMMALog.d(span.toString()));
+     *  EMMA.getInstance().setRequestTracer(new RequestTracer(breakdown));
+     *  }
+     *  </pre>
+     *
+     * @param tracer Tracer of the in-app requests, or <code>null</code> to disable tracing.
+     */
+    public void setRequestTracer(RequestTracer tracer) {
+        this.requestTracer = tracer;
+    }
+
+    /**
+     * @return Start time of a measured call, or <code>0</code> if metrics are disabled.
+     */
+    private long callStart() {
+        return metrics != null ? System.nanoTime() : 0L;
+    }
+
+    private void callDropped(FacadeMethod method) {
+        FacadeMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordDropped(method);
+        }
+    }
+
+    private void callEnd(FacadeMethod method, long start) {
+        FacadeMetrics metrics = this.metrics;
+        if (metrics != null && start != 0L) {
+            metrics.recordCall(method, System.nanoTime() - start);
+        }
+    }
+
+    private void startEventBatcher(final EMMAController controller, Configuration configuration) {
+        Integer batchSize = configuration.getEventBatchSize();
+        if (batchSize == null || batchSize <= 0) {
+            return;
+        }
+        Integer queueTime = configuration.getQueueTime();
+        long flushIntervalMillis = (queueTime != null && queueTime > 0 ?
+                queueTime : DEFAULT_EVENT_FLUSH_SECONDS) * 1000L;
+        eventBatcher = new EventBatcher<>(batch -> {
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                controller.getEventController().trackEvent(batch.get(i));
+            }
+        }, batchSize, flushIntervalMillis);
+    }
+
+    private void startPushPipeline(final EMMAController controller, Configuration configuration) {
+        Integer workers = configuration.getPushWorkers();
+        if (workers == null || workers <= 0) {
+            return;
+        }
+        Integer capacity = configuration.getPushQueueCapacity();
+        pushPipeline = new PushPipeline(new PushPipeline.Handler() {
+            @Override
+            public void onNotification(Intent intent, boolean checkForRichPush) {
+                // Intents cannot be journaled, and the notification does not depend on the
+                // journaled calls, so it goes straight to the controller
+                deliverNotification(controller, intent, checkForRichPush);
+            }
+
+            @Override
+            public void onRichPushCheck() {
+                controller.getPushController().checkForRichPushUrl();
+            }
+        }, workers, capacity != null && capacity > 0 ? capacity : PushPipeline.DEFAULT_CAPACITY);
+    }
+
+    private void startPushTokenRegistry(final EMMAController controller, Configuration configuration) {
+        File file = configuration.getPushTokenFile();
+        if (file == null) {
+            return;
+        }
+        pushTokenRegistry = new PushTokenRegistry(file,
+                (token, type) -> {
+                    if (operationJournal == null || !journal(PendingCall.ADD_PUSH_TOKEN, token, type)) {
+                        controller.getPushController().sendTokenToServer(token, type);
+                    }
+                },
+                PushTokenRegistry.DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    private void startRichPushPrefetcher(Configuration configuration) {
+        File directory = configuration.getRichPushCacheDirectory();
+        Long maxBytes = configuration.getRichPushCacheBytes();
+        if (directory == null || maxBytes == null || maxBytes <= 0) {
+            return;
+        }
+        try {
+            richPushPrefetcher = new RichPushPrefetcher(DiskLruCache.open(directory, maxBytes),
+                    RichPushPrefetcher.httpFetcher(RichPushPrefetcher.DEFAULT_MAX_RESOURCE_BYTES),
+                    RichPushPrefetcher.DEFAULT_THREADS);
+        } catch (IOException e) {
+            EMMALog.e("Unable to open rich push cache " + directory + ": " + e);
+        }
+    }
+
+    private void compileLinkDomains(Configuration configuration) {
+        linkDomains = linkDomains
+                .withPowlinkDomains(configuration.getPowlinkDomains())
+                .withShortPowlinkDomains(configuration.getShortPowlinkDomains());
+    }
+
+    private void startCampaignEventCoalescer(final EMMAController controller, Configuration configuration) {
+        Long window = configuration.getCampaignEventWindow();
+        if (window == null || window <= 0) {
+            return;
+        }
+        campaignEventCoalescer = new CampaignEventCoalescer(batch -> {
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                sendCampaignEvent(controller, batch.getKind(i), batch.getType(i), batch.getCampaign(i));
+            }
+        }, window);
+    }
+
+    private void sendCampaignEvent(EMMAController controller, CampaignEventCoalescer.Kind kind,
+                                   CommunicationTypes type, EMMACampaign campaign) {
+        switch (kind) {
+            case IMPRESSION:
+                if (operationJournal == null || !journal(PendingCall.SEND_IN_APP_IMPRESSION, type, campaign)) {
+                    controller.getCampaignController().sendImpression(type.getCommunicationId(), campaign);
+                }
+                break;
+            case CLICK:
+                if (operationJournal == null || !journal(PendingCall.SEND_IN_APP_CLICK, type, campaign)) {
+                    controller.getCampaignController().sendClick(type.getCommunicationId(), campaign);
                 }
+                break;
+            case DISMISSED_CLICK:
+                if (operationJournal == null || !journal(PendingCall.SEND_IN_APP_DISMISSED_CLICK, type, campaign)) {
+                    controller.getCampaignController().sendDismissedClick(type.getCommunicationId(), campaign);
+                }
+                break;
+        }
+    }
 
-                emmaController.startSession(sessionStartListener);
-                if (configuration.testInstallReferrer != null) {
-                    emmaController.getReferrerController().testReferrer(configuration.testInstallReferrer);
+    private void startOperationJournal(final EMMAController controller, Configuration configuration) {
+        File file = configuration.getOperationJournalFile();
+        if (file == null) {
+            return;
+        }
+        OperationJournal journal;
+        try {
+            journal = OperationJournal.open(file, OperationJournal.DEFAULT_SIZE);
+        } catch (IOException e) {
+            EMMALog.e("Unable to open operation journal " + file + ": " + e);
+            return;
+        }
+        // The controller queues the calls itself: a batch only fails if replaying throws
+        JournalFlusher.Sink sink = batch -> {
+            for (int i = 0, size = batch.size(); i < size; i++) {
+                try {
+                    InvocationCodec.decode(batch.get(i)).replay(controller);
+                } catch (IOException e) {
+                    EMMALog.e("Discarding unreadable journal record: " + e);
                 }
-                emmaController.getReferrerController().startInstallReferrerConnection();
-                emmaController.getInstallAttributionController()
-                        .getInstallAttributionInfoGlobal(configuration.getInstallAttributionListener(),
-                                configuration.getWaitForAttributionInfo());
             }
+            return true;
+        };
+        Boolean adaptive = configuration.isAdaptiveFlush();
+        if (adaptive != null && adaptive) {
+            Integer queueTime = configuration.getQueueTime();
+            AdaptiveFlushScheduler scheduler = new AdaptiveFlushScheduler((queueTime != null && queueTime > 0 ?
+                    queueTime : DEFAULT_EVENT_FLUSH_SECONDS) * 1000L, JournalFlusher.DEFAULT_BATCH_SIZE);
+            journalFlusher = new JournalFlusher(journal, sink, scheduler);
+            batteryMonitor = new BatteryMonitor(configuration.getContext(), scheduler);
+            batteryMonitor.start();
         } else {
-            EMMALog.i("Session already started");
+            journalFlusher = new JournalFlusher(journal, sink, JournalFlusher.DEFAULT_BATCH_SIZE);
+        }
+        connectivityMonitor = new ConnectivityMonitor(configuration.getContext(), journalFlusher);
+        connectivityMonitor.start();
+        operationJournal = journal;
+        if (journal.size() > 0) {
+            EMMALog.d("Operation journal recovered " + journal.size() + " operations");
+            journalFlusher.requestFlush();
+        }
+    }
+
+    /**
+     * Appends the call to the operation journal. If it cannot be journaled, the journaled
+     * calls are handed to the controller first so the caller can run it directly without
+     * overtaking them.
+     *
+     * @return <code>false</code> if it could not be journaled and has to run directly.
+     */
+    private boolean journal(PendingCall call, Object... args) {
+        return journal(new PendingInvocation(call, args));
+    }
+
+    private boolean journal(PendingInvocation invocation) {
+        OperationJournal journal = operationJournal;
+        if (journal == null) {
+            return false;
+        }
+        byte[] record = InvocationCodec.encode(invocation);
+        if (record == null || !journal.append(record)) {
+            if (journal.size() > 0) {
+                journalFlusher.drain();
+            }
+            return false;
+        }
+        journalFlusher.requestFlush();
+        return true;
+    }
+
+    /**
+     * Stops the journal and drops the calls still in it, which belong to the session being reset.
+     */
+    private void stopOperationJournal() {
+        OperationJournal journal = operationJournal;
+        if (journal == null) {
+            return;
+        }
+        operationJournal = null;
+        connectivityMonitor.stop();
+        if (batteryMonitor != null) {
+            batteryMonitor.stop();
+            batteryMonitor = null;
+        }
+        journalFlusher.shutdown();
+        journal.clear();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            EMMALog.e("Unable to close operation journal: " + e);
         }
     }
 
@@ -373,53 +1226,78 @@ public class EMMA {
      * Sets the current web services url. You can use this for proxies.
      */
     public void setWebServiceUrl(String webServiceURL) {
+        long start = callStart();
         EMMAConfig.BASE_URL = webServiceURL;
         if (isSdkStarted()) {
             EMMAConfig.getInstance(emmaController.getApplicationContext()).saveBaseUrl(webServiceURL);
+            invalidateConfigurationSnapshot();
         }
+        callEnd(FacadeMethod.SET_WEB_SERVICE_URL, start);
     }
 
     public void trackScreenEvents(boolean screenEvents) {
+        long start = callStart();
         if (isSdkStarted()) {
             EMMAConfig.getInstance(emmaController.getApplicationContext()).saveTrackScreenEvents(screenEvents);
+            invalidateConfigurationSnapshot();
+        } else {
+            callDropped(FacadeMethod.TRACK_SCREEN_EVENTS);
         }
+        callEnd(FacadeMethod.TRACK_SCREEN_EVENTS, start);
     }
 
     /**
      * Starts the tracking location in SDK. By default the tracking is enabled, when permission was accepted.
      */
     public void startTrackingLocation() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getDeviceController().startTrackingLocationWithPermissions();
+        } else {
+            callDropped(FacadeMethod.START_TRACKING_LOCATION);
         }
+        callEnd(FacadeMethod.START_TRACKING_LOCATION, start);
     }
 
     /**
      * Disable the tracking location.
      */
     public void disableTrackingLocation() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getDeviceController().stopTrackLocation();
+        } else {
+            callDropped(FacadeMethod.DISABLE_TRACKING_LOCATION);
         }
+        callEnd(FacadeMethod.DISABLE_TRACKING_LOCATION, start);
     }
 
     /**
      * Gets the user identifier added previously in login and register call.
      */
     public void getUserID() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getDataController().getUserID();
+        } else {
+            callDropped(FacadeMethod.GET_USER_ID);
         }
+        callEnd(FacadeMethod.GET_USER_ID, start);
     }
 
     /**
      * Gets the device UUID.
      */
     public String getUUID() {
+        long start = callStart();
+        String uuid = null;
         if (isSdkStarted()) {
-            return emmaController.getUserController().getUserUDID();
+            uuid = emmaController.getUserController().getUserUDID();
+        } else {
+            callDropped(FacadeMethod.GET_UUID);
         }
-        return null;
+        callEnd(FacadeMethod.GET_UUID, start);
+        return uuid;
     }
 
     /**
@@ -459,10 +1337,15 @@ public class EMMA {
     }
 
     public Context getApplicationContext() {
+        long start = callStart();
+        Context context = null;
         if (isSdkStarted()) {
-            return emmaController.getApplicationContext();
+            context = emmaController.getApplicationContext();
+        } else {
+            callDropped(FacadeMethod.GET_APPLICATION_CONTEXT);
         }
-        return null;
+        callEnd(FacadeMethod.GET_APPLICATION_CONTEXT, start);
+        return context;
     }
 
     /**
@@ -476,43 +1359,89 @@ public class EMMA {
      * }
      * </pre>
      *
+     * If event batching is enabled in the configuration, the request is only
+     * enqueued here and sent to the controller from the batching thread.
+     *
      * @param params The request
      */
     public void trackEvent(@NonNull EMMAEventRequest eventRequest) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getEventController().trackEvent(eventRequest);
+            sendEvent(emmaController, eventRequest);
+        } else {
+            deferUntilStarted(PendingCall.TRACK_EVENT, eventRequest);
+        }
+        callEnd(FacadeMethod.TRACK_EVENT, start);
+    }
+
+    private void sendEvent(EMMAController controller, EMMAEventRequest eventRequest) {
+        if (operationJournal == null || !journal(PendingCall.TRACK_EVENT, eventRequest)) {
+            EventBatcher<EMMAEventRequest> batcher = eventBatcher;
+            if (batcher == null || !batcher.offer(eventRequest)) {
+                controller.getEventController().trackEvent(eventRequest);
+            }
         }
     }
 
     public void loginUser(String userId, String mail) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().loginUser(userId, mail, null);
+            if (operationJournal == null || !journal(PendingCall.LOGIN_USER, userId, mail, null)) {
+                emmaController.getUserController().loginUser(userId, mail, null);
+            }
+        } else {
+            deferUntilStarted(PendingCall.LOGIN_USER, userId, mail, null);
         }
+        callEnd(FacadeMethod.LOGIN_USER, start);
     }
 
     public void loginUser(String userId, String mail, Map<String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().loginUser(userId, mail, extras);
+            if (operationJournal == null || !journal(PendingCall.LOGIN_USER, userId, mail, extras)) {
+                emmaController.getUserController().loginUser(userId, mail, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.LOGIN_USER, userId, mail, extras);
         }
+        callEnd(FacadeMethod.LOGIN_USER, start);
     }
 
     public void registerUser(@NonNull String userId, String mail) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().registerUser(userId, mail, null);
+            if (operationJournal == null || !journal(PendingCall.REGISTER_USER, userId, mail, null)) {
+                emmaController.getUserController().registerUser(userId, mail, null);
+            }
+        } else {
+            deferUntilStarted(PendingCall.REGISTER_USER, userId, mail, null);
         }
+        callEnd(FacadeMethod.REGISTER_USER, start);
     }
 
 
     public void registerUser(@NonNull String userId, String mail, Map<String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().registerUser(userId, mail, extras);
+            if (operationJournal == null || !journal(PendingCall.REGISTER_USER, userId, mail, extras)) {
+                emmaController.getUserController().registerUser(userId, mail, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.REGISTER_USER, userId, mail, extras);
         }
+        callEnd(FacadeMethod.REGISTER_USER, start);
     }
 
     public void trackExtraUserInfo(Map<String, String> info) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().trackExtraUserInfo(info);
+            if (operationJournal == null || !journal(PendingCall.TRACK_EXTRA_USER_INFO, info)) {
+                emmaController.getUserController().trackExtraUserInfo(info);
+            }
+        } else {
+            deferUntilStarted(PendingCall.TRACK_EXTRA_USER_INFO, info);
         }
+        callEnd(FacadeMethod.TRACK_EXTRA_USER_INFO, start);
     }
 
 
@@ -535,55 +1464,148 @@ public class EMMA {
      * @param extras Tags associated with order.
      */
     public void startOrder(String orderId, String customerId, float totalPrice, String coupon, Map<String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, coupon, extras);
+            if (operationJournal == null || !journal(PendingCall.START_ORDER, orderId, customerId, totalPrice, coupon, extras)) {
+                emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, coupon, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.START_ORDER, orderId, customerId, totalPrice, coupon, extras);
         }
+        callEnd(FacadeMethod.START_ORDER, start);
     }
 
     public void startOrder(String orderId, String customerId, float totalPrice, Map<String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, null, extras);
+            if (operationJournal == null || !journal(PendingCall.START_ORDER, orderId, customerId, totalPrice, null, extras)) {
+                emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, null, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.START_ORDER, orderId, customerId, totalPrice, null, extras);
         }
+        callEnd(FacadeMethod.START_ORDER, start);
     }
 
     public void startOrder(String orderId, String customerId, float totalPrice) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, null, null);
+            if (operationJournal == null || !journal(PendingCall.START_ORDER, orderId, customerId, totalPrice, null, null)) {
+                emmaController.getOrderController().startOrder(orderId, customerId, totalPrice, null, null);
+            }
+        } else {
+            deferUntilStarted(PendingCall.START_ORDER, orderId, customerId, totalPrice, null, null);
         }
+        callEnd(FacadeMethod.START_ORDER, start);
     }
 
     public void startOrder(String orderId, float totalPrice) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().startOrder(orderId, null, totalPrice, null, null);
+            if (operationJournal == null || !journal(PendingCall.START_ORDER, orderId, null, totalPrice, null, null)) {
+                emmaController.getOrderController().startOrder(orderId, null, totalPrice, null, null);
+            }
+        } else {
+            deferUntilStarted(PendingCall.START_ORDER, orderId, null, totalPrice, null, null);
         }
+        callEnd(FacadeMethod.START_ORDER, start);
     }
 
     public void startOrder(String orderId, float totalPrice, Map<String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().startOrder(orderId, null, totalPrice, null, extras);
+            if (operationJournal == null || !journal(PendingCall.START_ORDER, orderId, null, totalPrice, null, extras)) {
+                emmaController.getOrderController().startOrder(orderId, null, totalPrice, null, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.START_ORDER, orderId, null, totalPrice, null, extras);
         }
+        callEnd(FacadeMethod.START_ORDER, start);
     }
 
     public void addProduct(String productId, String name, float qty, float price, Map<
             String, String> extras) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().addProduct(productId, name, qty, price, extras);
+            if (operationJournal == null || !journal(PendingCall.ADD_PRODUCT, productId, name, qty, price, extras)) {
+                emmaController.getOrderController().addProduct(productId, name, qty, price, extras);
+            }
+        } else {
+            deferUntilStarted(PendingCall.ADD_PRODUCT, productId, name, qty, price, extras);
         }
+        callEnd(FacadeMethod.ADD_PRODUCT, start);
     }
 
     public void addProduct(String productId, String name, float qty, float price) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().addProduct(productId, name, qty, price, null);
+            if (operationJournal == null || !journal(PendingCall.ADD_PRODUCT, productId, name, qty, price, null)) {
+                emmaController.getOrderController().addProduct(productId, name, qty, price, null);
+            }
+        } else {
+            deferUntilStarted(PendingCall.ADD_PRODUCT, productId, name, qty, price, null);
         }
+        callEnd(FacadeMethod.ADD_PRODUCT, start);
     }
 
     /**
      * Finish the ordering process sending the order to EMMA.
      */
     public void trackOrder() {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().trackOrder();
+            if (operationJournal == null || !journal(PendingCall.TRACK_ORDER)) {
+                emmaController.getOrderController().trackOrder();
+            }
+        } else {
+            deferUntilStarted(PendingCall.TRACK_ORDER);
         }
+        callEnd(FacadeMethod.TRACK_ORDER, start);
+    }
+
+    /**
+     * Sends a whole order built with {@link OrderBuilder} with a single facade call. The
+     * order controller still receives a start, one call per product and the track, so
+     * this saves the per-step facade calls, not the work of the SDK. The builder is
+     * recycled afterwards and must not be used again.
+     *
+     * <pre>
+     * {@code
+     *  OrderBuilder order = OrderBuilder.obtain("A4UE312").setCustomerId("18743");
+     *  order.addProduct("1001", "Blue jeans", 1.0F, 10.0F);
+     *  EMMA.getInstance().trackOrder(order);
+     *  }
+     *  </pre>
+     * @param order The order to send.
+     */
+    public void trackOrder(@NonNull OrderBuilder order) {
+        long start = callStart();
+        try {
+            if (isSdkStarted() && operationJournal == null) {
+                sendOrder(emmaController, order);
+            } else {
+                startOrder(order.getOrderId(), order.getCustomerId(), order.getTotalPrice(),
+                        order.getCoupon(), order.getExtras());
+                for (int i = 0, count = order.getProductCount(); i < count; i++) {
+                    addProduct(order.getProductId(i), order.getProductName(i), order.getQuantity(i),
+                            order.getPrice(i), order.getProductExtras(i));
+                }
+                trackOrder();
+            }
+        } finally {
+            order.recycle();
+            callEnd(FacadeMethod.TRACK_BUILT_ORDER, start);
+        }
+    }
+
+    private static void sendOrder(EMMAController controller, OrderBuilder order) {
+        controller.getOrderController().startOrder(order.getOrderId(), order.getCustomerId(),
+                order.getTotalPrice(), order.getCoupon(), order.getExtras());
+        for (int i = 0, count = order.getProductCount(); i < count; i++) {
+            controller.getOrderController().addProduct(order.getProductId(i), order.getProductName(i),
+                    order.getQuantity(i), order.getPrice(i), order.getProductExtras(i));
+        }
+        controller.getOrderController().trackOrder();
     }
 
     /**
@@ -592,53 +1614,123 @@ public class EMMA {
      * @param orderId ID of the previous sent order.
      */
     public void cancelOrder(String orderId) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getOrderController().cancelOrder(orderId);
+            if (operationJournal == null || !journal(PendingCall.CANCEL_ORDER, orderId)) {
+                emmaController.getOrderController().cancelOrder(orderId);
+            }
+        } else {
+            deferUntilStarted(PendingCall.CANCEL_ORDER, orderId);
         }
+        callEnd(FacadeMethod.CANCEL_ORDER, start);
     }
 
     public void startPushSystem(EMMAPushOptions pushOptions) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getPushController().startPushSystem(pushOptions);
+        } else {
+            deferUntilStarted(PendingCall.START_PUSH_SYSTEM, pushOptions);
         }
+        callEnd(FacadeMethod.START_PUSH_SYSTEM, start);
     }
 
     public void onNewNotification(Intent intent, boolean checkForRichPush) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getPushController().onNewNotification(intent, checkForRichPush);
+            sendNotification(emmaController, intent, checkForRichPush);
+        } else {
+            deferUntilStarted(PendingCall.ON_NEW_NOTIFICATION, intent, checkForRichPush);
+        }
+        callEnd(FacadeMethod.ON_NEW_NOTIFICATION, start);
+    }
+
+    private void sendNotification(EMMAController controller, Intent intent, boolean checkForRichPush) {
+        PushPipeline pipeline = pushPipeline;
+        if (pipeline == null || pipeline.submit(intent, checkForRichPush) == PushPipeline.Result.REJECTED) {
+            deliverNotification(controller, intent, checkForRichPush);
         }
     }
 
+    /**
+     * Hands an arriving notification to the controller, once per message when the push
+     * pipeline coalesces redeliveries, and starts prefetching its rich push content.
+     */
+    private void deliverNotification(EMMAController controller, Intent intent, boolean checkForRichPush) {
+        RichPushPrefetcher prefetcher = richPushPrefetcher;
+        if (prefetcher != null) {
+            prefetcher.prefetch(intent);
+        }
+        controller.getPushController().onNewNotification(intent, checkForRichPush);
+    }
+
+    /**
+     * @return The prefetcher of rich push content configured with
+     * {@link Configuration.Builder#setRichPushCache(File, long)}, or <code>null</code>.
+     */
+    public RichPushPrefetcher getRichPushPrefetcher() {
+        return richPushPrefetcher;
+    }
+
     public void checkForRichPushUrl() {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getPushController().checkForRichPushUrl();
+            PushPipeline pipeline = pushPipeline;
+            if (pipeline != null) {
+                pipeline.requestRichPushCheck();
+            } else {
+                emmaController.getPushController().checkForRichPushUrl();
+            }
+        } else {
+            callDropped(FacadeMethod.CHECK_FOR_RICH_PUSH_URL);
         }
+        callEnd(FacadeMethod.CHECK_FOR_RICH_PUSH_URL, start);
     }
 
     public void setPowlinkDomains(String... domains) {
+        long start = callStart();
         if (isSdkStarted()) {
             EMMAConfig.getInstance(emmaController.getApplicationContext())
                     .savePowlinkDomains(domains);
+            invalidateConfigurationSnapshot();
+            linkDomains = linkDomains.withPowlinkDomains(domains);
+        } else {
+            callDropped(FacadeMethod.SET_POWLINK_DOMAINS);
         }
+        callEnd(FacadeMethod.SET_POWLINK_DOMAINS, start);
     }
 
     public void setShortPowlinkDomains(String... domains) {
+        long start = callStart();
         if (isSdkStarted()) {
             EMMAConfig.getInstance(emmaController.getApplicationContext())
                     .saveShortPowlinkDomains(domains);
+            invalidateConfigurationSnapshot();
+            linkDomains = linkDomains.withShortPowlinkDomains(domains);
+        } else {
+            callDropped(FacadeMethod.SET_SHORT_POWLINK_DOMAINS);
         }
+        callEnd(FacadeMethod.SET_SHORT_POWLINK_DOMAINS, start);
     }
 
     public void syncWithSdkWeb(String url) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getPushController().syncWithSDKWeb(url);
+        } else {
+            callDropped(FacadeMethod.SYNC_WITH_SDK_WEB);
         }
+        callEnd(FacadeMethod.SYNC_WITH_SDK_WEB, start);
     }
 
     public void addCouponsCallback(EMMACouponsInterface callback) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCouponsController().addCouponsCallback(callback);
+        } else {
+            deferUntilStarted(PendingCall.ADD_COUPONS_CALLBACK, callback);
         }
+        callEnd(FacadeMethod.ADD_COUPONS_CALLBACK, start);
     }
 
     public void setDebuggerOutput(boolean activate) {
@@ -650,51 +1742,91 @@ public class EMMA {
     }
 
     public void checkDelegateMethods() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.checkDelegateMethods();
+        } else {
+            callDropped(FacadeMethod.CHECK_DELEGATE_METHODS);
         }
+        callEnd(FacadeMethod.CHECK_DELEGATE_METHODS, start);
     }
 
     public void getUserInfo() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getDeviceController().getUserInfo();
+        } else {
+            callDropped(FacadeMethod.GET_USER_INFO);
         }
+        callEnd(FacadeMethod.GET_USER_INFO, start);
     }
 
     public void getNotificationInfo() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getPushController().getNotificationInfo();
+        } else {
+            callDropped(FacadeMethod.GET_NOTIFICATION_INFO);
         }
+        callEnd(FacadeMethod.GET_NOTIFICATION_INFO, start);
     }
 
     public void getPushToken() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getPushController().getPushToken();
+        } else {
+            callDropped(FacadeMethod.GET_PUSH_TOKEN);
         }
+        callEnd(FacadeMethod.GET_PUSH_TOKEN, start);
     }
 
     public void sendInAppClick(CommunicationTypes type, EMMACampaign campaign) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getCampaignController().sendClick(type.getCommunicationId(), campaign);
+            offerCampaignEvent(emmaController, CampaignEventCoalescer.Kind.CLICK, type, campaign);
+        } else {
+            deferUntilStarted(PendingCall.SEND_IN_APP_CLICK, type, campaign);
         }
+        callEnd(FacadeMethod.SEND_IN_APP_CLICK, start);
     }
 
     public void sendInAppDismissedClick(CommunicationTypes type, EMMACampaign campaign) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getCampaignController().sendDismissedClick(type.getCommunicationId(), campaign);
+            offerCampaignEvent(emmaController, CampaignEventCoalescer.Kind.DISMISSED_CLICK, type, campaign);
+        } else {
+            deferUntilStarted(PendingCall.SEND_IN_APP_DISMISSED_CLICK, type, campaign);
         }
+        callEnd(FacadeMethod.SEND_IN_APP_DISMISSED_CLICK, start);
     }
 
     public void sendInAppImpression(CommunicationTypes type, EMMACampaign campaign) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getCampaignController().sendImpression(type.getCommunicationId(), campaign);
+            offerCampaignEvent(emmaController, CampaignEventCoalescer.Kind.IMPRESSION, type, campaign);
+        } else {
+            deferUntilStarted(PendingCall.SEND_IN_APP_IMPRESSION, type, campaign);
+        }
+        callEnd(FacadeMethod.SEND_IN_APP_IMPRESSION, start);
+    }
+
+    private void offerCampaignEvent(EMMAController controller, CampaignEventCoalescer.Kind kind,
+                                    CommunicationTypes type, EMMACampaign campaign) {
+        CampaignEventCoalescer coalescer = campaignEventCoalescer;
+        if (coalescer == null || !coalescer.offer(kind, type, campaign)) {
+            sendCampaignEvent(controller, kind, type, campaign);
         }
     }
 
     public void unregisterPushService() {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getPushController().unregisterPush(emmaController.getApplicationContext());
+        } else {
+            callDropped(FacadeMethod.UNREGISTER_PUSH_SERVICE);
         }
+        callEnd(FacadeMethod.UNREGISTER_PUSH_SERVICE, start);
     }
 
     /**
@@ -713,9 +1845,13 @@ public class EMMA {
      * @param params The request
      */
     public void getInAppMessage(@NonNull EMMAInAppRequest params) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().getInAppMessage(params, null);
+        } else {
+            callDropped(FacadeMethod.GET_IN_APP_MESSAGE);
         }
+        callEnd(FacadeMethod.GET_IN_APP_MESSAGE, start);
     }
 
     /**
@@ -734,9 +1870,27 @@ public class EMMA {
      * @param params The request
      */
     public void getInAppMessage(@NonNull EMMAInAppRequest requestParams, EMMAInAppMessageInterface listener) {
+        long start = callStart();
         if (isSdkStarted()) {
+            FacadeMetrics metrics = this.metrics;
+            if (metrics != null && listener != null && start != 0L) {
+                listener = ResponseTimer.wrap(listener, EMMAInAppMessageInterface.class, metrics,
+                        FacadeMethod.GET_IN_APP_MESSAGE, start);
+            }
+            RequestTracer tracer = requestTracer;
+            RequestSpan span = null;
+            if (tracer != null && listener != null) {
+                span = tracer.begin(requestParams);
+                listener = tracer.trace(span, listener, EMMAInAppMessageInterface.class);
+            }
             emmaController.getCampaignController().getInAppMessage(requestParams, listener);
+            if (span != null) {
+                span.mark(RequestSpan.Stage.SUBMITTED);
+            }
+        } else {
+            callDropped(FacadeMethod.GET_IN_APP_MESSAGE);
         }
+        callEnd(FacadeMethod.GET_IN_APP_MESSAGE, start);
     }
 
     /**
@@ -745,73 +1899,142 @@ public class EMMA {
      * @param messageId previously passed in EMMAInAppRequest.inAppMessageId;
      */
     public void cancelInAppMessage(String messageId) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().cancelInAppMessage(messageId);
+        } else {
+            callDropped(FacadeMethod.CANCEL_IN_APP_MESSAGE);
         }
+        callEnd(FacadeMethod.CANCEL_IN_APP_MESSAGE, start);
     }
 
     public void addNativeAdListener(EMMANativeAdInterface listener, String templateId) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().addNativeAdInterface(listener, templateId);
+        } else {
+            callDropped(FacadeMethod.ADD_NATIVE_AD_LISTENER);
         }
+        callEnd(FacadeMethod.ADD_NATIVE_AD_LISTENER, start);
     }
 
     public void addBatchNativeAdListener(EMMABatchNativeAdInterface listener, String templateId) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().addNativeAdBatchInterface(listener, templateId);
+        } else {
+            callDropped(FacadeMethod.ADD_BATCH_NATIVE_AD_LISTENER);
         }
+        callEnd(FacadeMethod.ADD_BATCH_NATIVE_AD_LISTENER, start);
     }
 
     public void addInAppMessageListener(EMMAInAppMessageInterface listener) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().addInAppMessageInterface(listener);
+        } else {
+            callDropped(FacadeMethod.ADD_IN_APP_MESSAGE_LISTENER);
         }
+        callEnd(FacadeMethod.ADD_IN_APP_MESSAGE_LISTENER, start);
     }
 
     public void removeInAppMessageListener(EMMAInAppMessageInterface listener) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().removeInAppMessageInterface(listener);
+        } else {
+            callDropped(FacadeMethod.REMOVE_IN_APP_MESSAGE_LISTENER);
         }
+        callEnd(FacadeMethod.REMOVE_IN_APP_MESSAGE_LISTENER, start);
     }
 
     public void removeNativeAdListener(EMMANativeAdInterface listener) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().removeNativeAdInterface(listener);
+        } else {
+            callDropped(FacadeMethod.REMOVE_NATIVE_AD_LISTENER);
         }
+        callEnd(FacadeMethod.REMOVE_NATIVE_AD_LISTENER, start);
     }
 
     public void removeBatchNativeAdListenenr(EMMABatchNativeAdInterface listener) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().removeBatchNativeAdInterface(listener);
+        } else {
+            callDropped(FacadeMethod.REMOVE_BATCH_NATIVE_AD_LISTENER);
         }
+        callEnd(FacadeMethod.REMOVE_BATCH_NATIVE_AD_LISTENER, start);
     }
 
     public void openNativeAd(EMMANativeAd nativeAd) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().openNativeAd(nativeAd);
+        } else {
+            callDropped(FacadeMethod.OPEN_NATIVE_AD);
         }
+        callEnd(FacadeMethod.OPEN_NATIVE_AD, start);
     }
 
     public Set<EMMAInAppMessageInterface> getInAppListeners() {
+        long start = callStart();
+        Set<EMMAInAppMessageInterface> listeners = null;
         if (isSdkStarted()) {
-            return emmaController.getCampaignController().getInAppListeners();
+            listeners = emmaController.getCampaignController().getInAppListeners();
+        } else {
+            callDropped(FacadeMethod.GET_IN_APP_LISTENERS);
         }
-        return null;
+        callEnd(FacadeMethod.GET_IN_APP_LISTENERS, start);
+        return listeners;
     }
 
     public void setBannerParams(EMMABannerParams bannerParams) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().getBannerController().setBannerParams(bannerParams);
+        } else {
+            callDropped(FacadeMethod.SET_BANNER_PARAMS);
         }
+        callEnd(FacadeMethod.SET_BANNER_PARAMS, start);
     }
 
     public void reset() {
+        long start = callStart();
         if (isSdkStarted()) {
+            if (campaignEventCoalescer != null) {
+                campaignEventCoalescer.shutdown();
+                campaignEventCoalescer = null;
+            }
+            stopOperationJournal();
+            if (eventBatcher != null) {
+                eventBatcher.shutdown();
+                eventBatcher = null;
+            }
+            if (pushPipeline != null) {
+                pushPipeline.shutdown();
+                pushPipeline = null;
+            }
+            if (pushTokenRegistry != null) {
+                // The reset device data no longer holds the tokens sent so far
+                pushTokenRegistry.shutdown();
+                pushTokenRegistry.clear();
+                pushTokenRegistry = null;
+            }
+            if (richPushPrefetcher != null) {
+                richPushPrefetcher.shutdown();
+                richPushPrefetcher = null;
+            }
             emmaController.getOperationsQueue().reset();
             emmaController.getDataController().reset();
+            invalidateConfigurationSnapshot();
             lastLoad = emmaController.getCurrentActivity();
             emmaController = null;
+        } else {
+            callDropped(FacadeMethod.RESET);
         }
+        callEnd(FacadeMethod.RESET, start);
     }
 
     public boolean isSdkStarted() {
@@ -824,12 +2047,21 @@ public class EMMA {
      * @param deleteUser If this flag is set to true deletes all user data on server. *WARNING* Can alter dashboard stats
      */
     public void disableUserTracking(boolean deleteUser) {
+        long start = callStart();
         if (isSdkStarted()) {
             if (deleteUser) {
                 emmaController.getUserController().resetUser();
+                PushTokenRegistry registry = pushTokenRegistry;
+                if (registry != null) {
+                    registry.clear();
+                }
+                invalidateConfigurationSnapshot();
             }
             EMMAConfig.getInstance(emmaController.getApplicationContext()).saveUserTracking(true);
+        } else {
+            callDropped(FacadeMethod.DISABLE_USER_TRACKING);
         }
+        callEnd(FacadeMethod.DISABLE_USER_TRACKING, start);
     }
 
     /**
@@ -837,16 +2069,25 @@ public class EMMA {
      * If already enabled, does nothing
      */
     public void enableUserTracking() {
+        long start = callStart();
         if (isSdkStarted()) {
             EMMAConfig.getInstance(emmaController.getApplicationContext()).saveUserTracking(false);
+        } else {
+            callDropped(FacadeMethod.ENABLE_USER_TRACKING);
         }
+        callEnd(FacadeMethod.ENABLE_USER_TRACKING, start);
     }
 
     public Boolean isUserTrackingEnabled() {
+        long start = callStart();
+        Boolean enabled = false;
         if (isSdkStarted()) {
-            return !EMMAConfig.getInstance(emmaController.getApplicationContext()).isUserTrackingDisabled();
+            enabled = !EMMAConfig.getInstance(emmaController.getApplicationContext()).isUserTrackingDisabled();
+        } else {
+            callDropped(FacadeMethod.IS_USER_TRACKING_ENABLED);
         }
-        return false;
+        callEnd(FacadeMethod.IS_USER_TRACKING_ENABLED, start);
+        return enabled;
     }
 
     /**
@@ -857,15 +2098,23 @@ public class EMMA {
      */
 
     public void getInstallAttributionInfo(@NonNull EMMAInstallAttributionInterface attributionInfoInterface) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getInstallAttributionController().getInstallAttributionInfo(attributionInfoInterface);
+        } else {
+            callDropped(FacadeMethod.GET_INSTALL_ATTRIBUTION_INFO);
         }
+        callEnd(FacadeMethod.GET_INSTALL_ATTRIBUTION_INFO, start);
     }
 
     public void setCurrentActivity(Activity activity) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.setCurrentActivity(activity);
+        } else {
+            callDropped(FacadeMethod.SET_CURRENT_ACTIVITY);
         }
+        callEnd(FacadeMethod.SET_CURRENT_ACTIVITY, start);
     }
 
     /**
@@ -875,8 +2124,21 @@ public class EMMA {
      * @param pushType Push system used
      */
     public void addPushToken(String token, EMMAPushType pushType) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getPushController().sendTokenToServer(token, pushType);
+            sendPushToken(emmaController, token, pushType);
+        } else {
+            deferUntilStarted(PendingCall.ADD_PUSH_TOKEN, token, pushType);
+        }
+        callEnd(FacadeMethod.ADD_PUSH_TOKEN, start);
+    }
+
+    private void sendPushToken(EMMAController controller, String token, EMMAPushType pushType) {
+        PushTokenRegistry registry = pushTokenRegistry;
+        if (registry != null) {
+            registry.register(token, pushType);
+        } else if (operationJournal == null || !journal(PendingCall.ADD_PUSH_TOKEN, token, pushType)) {
+            controller.getPushController().sendTokenToServer(token, pushType);
         }
     }
 
@@ -886,16 +2148,25 @@ public class EMMA {
      * @param deviceIdListener listener called when device id is obtained.
      */
     public void getDeviceId(EMMADeviceIdListener deviceIdListener) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getDeviceController().getDeviceId(deviceIdListener);
+        } else {
+            callDropped(FacadeMethod.GET_DEVICE_ID);
         }
+        callEnd(FacadeMethod.GET_DEVICE_ID, start);
     }
 
     public String getDeviceId() {
+        long start = callStart();
+        String deviceId = Constants.TEXT_EMPTY;
         if (isSdkStarted()) {
-            return emmaController.getDeviceController().getDeviceId();
+            deviceId = emmaController.getDeviceController().getDeviceId();
+        } else {
+            callDropped(FacadeMethod.GET_DEVICE_ID);
         }
-        return Constants.TEXT_EMPTY;
+        callEnd(FacadeMethod.GET_DEVICE_ID, start);
+        return deviceId;
     }
 
     /**
@@ -904,9 +2175,15 @@ public class EMMA {
      * @param customerId The user identifier in customer's database.
      */
     public void setCustomerId(String customerId) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getUserController().setCustomerId(customerId);
+            if (operationJournal == null || !journal(PendingCall.SET_CUSTOMER_ID, customerId)) {
+                emmaController.getUserController().setCustomerId(customerId);
+            }
+        } else {
+            deferUntilStarted(PendingCall.SET_CUSTOMER_ID, customerId);
         }
+        callEnd(FacadeMethod.SET_CUSTOMER_ID, start);
     }
 
     /**
@@ -915,9 +2192,13 @@ public class EMMA {
      * @param plugins An plugin or multiples plugins.
      */
     public void addInAppPlugins(EMMAInAppPlugin ...plugins) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getInAppPluginController().addPlugins(plugins);
+        } else {
+            deferUntilStarted(PendingCall.ADD_IN_APP_PLUGINS, (Object) plugins);
         }
+        callEnd(FacadeMethod.ADD_IN_APP_PLUGINS, start);
     }
 
     /**
@@ -931,6 +2212,19 @@ public class EMMA {
         EMMALinkController.handleLink(context, uri);
     }
 
+    /**
+     * Classifies a link by the powlink and short powlink domains of the configuration and
+     * of {@link #setPowlinkDomains(String...)} and {@link #setShortPowlinkDomains(String...)},
+     * compiled once per change of the lists. Use it to decide whether a link opened by the
+     * app has to go through {@link #handleLink(Context, Uri)}.
+     *
+     * @param uri The link.
+     * @return The list its host belongs to, or <code>null</code> if it is not a powlink.
+     */
+    public LinkDomainMatcher.Kind matchLinkDomain(Uri uri) {
+        return linkDomains.match(uri);
+    }
+
     /**
      * On Android 13 shows the system notification permission prompt to enable displaying notifications.
      * This is required for apps that target Android API level 33 to subscribe the device for push notifications.
@@ -947,12 +2241,17 @@ public class EMMA {
      * @param permissionInterface interface fires when the user accepts or declines permission.
      */
     public void requestNotificationPermission(EMMAPermissionInterface permissionInterface) {
+        long start = callStart();
+        if (!isSdkStarted()) {
+            callDropped(FacadeMethod.REQUEST_NOTIFICATION_PERMISSION);
+        }
         if (isSdkStarted() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU &&
                 EMMAUtils.getTargetSdkVersion(emmaController.getApplicationContext()) >= Build.VERSION_CODES.TIRAMISU) {
             emmaController.getPushController().checkPushNotificationPermission(permissionInterface);
         } else {
             EMMALog.w("Check if your app support Android 13 to verify permission access for notifications");
         }
+        callEnd(FacadeMethod.REQUEST_NOTIFICATION_PERMISSION, start);
     }
 
     /**
@@ -962,10 +2261,15 @@ public class EMMA {
      * @return if notifications are enabled or disabled
      */
     public boolean areNotificationsEnabled() {
+        long start = callStart();
+        boolean enabled = true;
         if (isSdkStarted()) {
-            return EMMAUtils.areNotificationsEnabled(emmaController.getApplicationContext());
+            enabled = EMMAUtils.areNotificationsEnabled(emmaController.getApplicationContext());
+        } else {
+            callDropped(FacadeMethod.ARE_NOTIFICATIONS_ENABLED);
         }
-        return true;
+        callEnd(FacadeMethod.ARE_NOTIFICATIONS_ENABLED, start);
+        return enabled;
     }
 
     /**
@@ -974,19 +2278,28 @@ public class EMMA {
      * @param type Communication type.
      */
     public void closeInAppMessage(EMMACampaign.Type type) {
+        long start = callStart();
         if (isSdkStarted()) {
             emmaController.getCampaignController().closeInAppMessage(type);
+        } else {
+            callDropped(FacadeMethod.CLOSE_IN_APP_MESSAGE);
         }
+        callEnd(FacadeMethod.CLOSE_IN_APP_MESSAGE, start);
     }
 
     /**
      * This method gets the last click key associated with the rt attribution.
      */
     public String getLastRetargetingClickKey() {
+        long start = callStart();
+        String clickKey = Constants.TEXT_EMPTY;
         if (isSdkStarted()) {
-            return emmaController.getAttributionController().getLastRetargetingClickKey();
+            clickKey = emmaController.getAttributionController().getLastRetargetingClickKey();
+        } else {
+            callDropped(FacadeMethod.GET_LAST_RETARGETING_CLICK_KEY);
         }
-        return Constants.TEXT_EMPTY;
+        callEnd(FacadeMethod.GET_LAST_RETARGETING_CLICK_KEY, start);
+        return clickKey;
     }
 
     /**
@@ -998,9 +2311,15 @@ public class EMMA {
      * @param language The language code (e.g., "en", "es", "fr").
      */
     public void setUserLanguage(String language) {
+        long start = callStart();
         if (isSdkStarted()) {
-            emmaController.getDeviceController().setUserLanguage(language);
+            if (operationJournal == null || !journal(PendingCall.SET_USER_LANGUAGE, language)) {
+                emmaController.getDeviceController().setUserLanguage(language);
+            }
+        } else {
+            deferUntilStarted(PendingCall.SET_USER_LANGUAGE, language);
         }
+        callEnd(FacadeMethod.SET_USER_LANGUAGE, start);
     }
 }
 
@@ -8,6 +8,8 @@ import io.emma.android.model.EMMAPushOptions
 import androidx.core.content.ContextCompat
 import com.google.android.gms.tasks.OnCompleteListener
 import com.google.firebase.messaging.FirebaseMessaging
+import com.example.emmaintegrationtest.metrics.RequestTracer
+import com.example.emmaintegrationtest.ui.notification.NativeAdHandler
 import io.emma.plugin_prism.EMMAInAppPrismPlugin
 
 /**
@@ -24,6 +26,8 @@ class ExampleApplication : Application() {
 
         firebasePush()
 
+        requestTracing()
+
         EMMA.getInstance().setDebuggerOutput(true)
     }
 
@@ -54,6 +58,14 @@ class ExampleApplication : Application() {
         EMMA.getInstance().startPushSystem(pushOpt)
     }
 
+    /**
+     * En depuración, traza las peticiones de anuncios nativos y escribe en el log lo que tarda cada etapa
+     */
+    private fun requestTracing() {
+        if (!BuildConfig.DEBUG) return
+        NativeAdHandler.tracer = RequestTracer { span -> Log.d(TAG, span.toString()) }
+    }
+
     /**
      * Configuración para recibir mensajes push desde Firebase
      */
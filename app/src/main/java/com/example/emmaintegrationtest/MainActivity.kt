@@ -5,10 +5,14 @@ import android.os.Bundle
 import android.view.LayoutInflater
 import android.widget.Button
 import android.widget.RelativeLayout
-import android.widget.TextView
 import androidx.appcompat.app.AppCompatActivity
+import com.example.emmaintegrationtest.inapp.NativeAdPrefetcher
+import com.example.emmaintegrationtest.tracking.OrderBuilder
+import com.example.emmaintegrationtest.tracking.trackOrder
 import com.example.emmaintegrationtest.ui.notification.CouponsActivity
 import com.example.emmaintegrationtest.ui.notification.NativeAdHandler
+import com.example.emmaintegrationtest.ui.notification.NativeAdViewHolder
+import com.example.emmaintegrationtest.ui.notification.NativeAdViewPool
 import com.google.android.material.snackbar.Snackbar
 import io.emma.android.EMMA
 import io.emma.android.interfaces.EMMAUserInfoInterface
@@ -41,6 +45,7 @@ import org.json.JSONObject
  *     class MainActivity {
  *         #onCreate(savedInstanceState: Bundle?)
  *         #onPause()
+ *         #onDestroy()
  *         -registrar()
  *         -comprar()
  *         -cancelarCompra(orden: String)
@@ -67,6 +72,25 @@ import org.json.JSONObject
  */
 class MainActivity : AppCompatActivity(), EMMAUserInfoInterface {
 
+    /**
+     * Precarga el anuncio nativo mientras la pantalla está ociosa, para que se muestre sin esperar a
+     * la red al pulsar el botón.
+     */
+    private val nativeAdPrefetcher =
+        NativeAdPrefetcher(listOf("plantilla-nativead-android"), NativeAdHandler.responseCache)
+
+    /**
+     * Vistas de anuncios nativos ya infladas, por plantilla.
+     */
+    private val nativeAdViews = NativeAdViewPool(discard = NativeAdViewHolder::recycle) { templateId ->
+        NativeAdViewHolder.inflate(LayoutInflater.from(this), findViewById(R.id.nativead_container), templateId)
+    }
+
+    /**
+     * Vista del anuncio nativo que se muestra ahora en `nativead_container`.
+     */
+    private var shownNativeAd: NativeAdViewHolder? = null
+
     /**
      * Se ejecuta al iniciar la aplicación.
      *
@@ -100,6 +124,21 @@ class MainActivity : AppCompatActivity(), EMMAUserInfoInterface {
         recibirStartView("36713")                   // Funcionalidad de StartView
         recibirAdBall()                             // Recibir AdBall
         recibirBanner()                             // Recibir Banner
+
+        // Precarga de anuncios nativos en segundo plano
+        nativeAdPrefetcher.start()
+    }
+
+    /**
+     * Detiene la precarga de anuncios nativos al cerrar la actividad y devuelve las imágenes de sus
+     * vistas.
+     */
+    override fun onDestroy() {
+        nativeAdPrefetcher.stop()
+        shownNativeAd?.recycle()
+        shownNativeAd = null
+        nativeAdViews.clear()
+        super.onDestroy()
     }
 
     /**
@@ -132,10 +171,12 @@ class MainActivity : AppCompatActivity(), EMMAUserInfoInterface {
      */
     private fun comprar() {
         findViewById<Button>(R.id.button_compra).setOnClickListener {
-            EMMA.getInstance().startOrder("1000012","orden_pruebaa", 1000000.0F)
-            EMMA.getInstance().addProduct("1001", "prod1", 1.0F, 1.0F)
-            EMMA.getInstance().addProduct("1002", "prod2", 1.0F, 1.0F)
-            EMMA.getInstance().trackOrder()
+            val pedido = OrderBuilder.obtain("1000012")
+                .setCustomerId("orden_pruebaa")
+                .setTotalPrice(1000000.0F)
+            pedido.addProduct("1001", "prod1", 1.0F, 1.0F)
+            pedido.addProduct("1002", "prod2", 1.0F, 1.0F)
+            EMMA.getInstance().trackOrder(pedido)
             notificacion("Se ha realizado la compra correctamente.")
         }
     }
@@ -290,6 +331,9 @@ class MainActivity : AppCompatActivity(), EMMAUserInfoInterface {
      * Crea una plantilla para el contenido que se recibe de EMMA e infla la vista para poder mostrar
      * el NativeAd en la actividad principal.
      *
+     * Las vistas se reciclan con [nativeAdViews]: si el anuncio es de la misma plantilla que el que se
+     * muestra sólo se cambian los textos, y si no se toma una vista ya inflada para su plantilla.
+     *
      * @see EMMANativeAd
      * @see LayoutInflater
      * @see RelativeLayout
@@ -298,22 +342,22 @@ class MainActivity : AppCompatActivity(), EMMAUserInfoInterface {
     private fun extractAndInflate(): (EMMANativeAd) -> Unit {
         val recievedAd: (EMMANativeAd) -> Unit = { nativeAd ->
 
-            // Inflate the view from this activity to the nativead's activity
-            val inflater = LayoutInflater.from(this)
-            val adView = inflater.inflate(R.layout.activity_native_ads, null, false)
-
-            // Save the plain data from recieved json file
-            val title = nativeAd.nativeAdContent["Title"]?.fieldValue
-            val body = nativeAd.nativeAdContent["Body"]?.fieldValue
+            // Take a view already inflated for this template, or inflate a new one
+            val templateId = nativeAd.templateId.orEmpty()
+            val shown = shownNativeAd
+            val adView = if (shown != null && shown.templateId == templateId) shown else nativeAdViews.acquire(templateId)
 
             // Fullfill recieved data into advert's fields
-            adView.findViewById<TextView>(R.id.textview_titulo).text = title
-            adView.findViewById<TextView>(R.id.textview_cuerpo).text = body
+            adView.bind(nativeAd)
 
-            // By a referenced container, cleaning the view and adding the native ad
-            val container = findViewById<RelativeLayout>(R.id.nativead_container)
-            container.removeAllViews()  // Limpiar el contenedor
-            container.addView(adView)  // Añadir el nuevo anuncio
+            // By a referenced container, swapping the view only if it changed
+            if (adView !== shown) {
+                val container = findViewById<RelativeLayout>(R.id.nativead_container)
+                container.removeAllViews()  // Limpiar el contenedor
+                shown?.let { nativeAdViews.release(it.templateId, it) }
+                container.addView(adView.view)  // Añadir el nuevo anuncio
+                shownNativeAd = adView
+            }
         }
 
         return recievedAd
@@ -0,0 +1,391 @@
+package com.example.emmaintegrationtest.cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Content-addressed cache of downloaded resources on disk, bounded in bytes.
+ * <p>
+ * Each resource is stored once in a file named after the SHA-256 of its content, so
+ * the same image referenced from several URLs takes the space of one. An index file
+ * maps every key, usually a URL, to its content hash and type, in least recently used
+ * order. Reads check the content against its hash and drop entries whose file was
+ * damaged, so a torn write is never served.
+ * <p>
+ * When the stored content exceeds <code>maxBytes</code> the least recently used keys are
+ * removed, and their files once no other key references them.
+ */
+public final class DiskLruCache {
+
+    private static final String INDEX = "index";
+    private static final int MAGIC = 0x454D4443;
+    private static final int VERSION = 1;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * A cached resource.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final String contentType;
+        private final String hash;
+        private final long length;
+
+        Entry(String key, String contentType, String hash, long length) {
+            this.key = key;
+            this.contentType = contentType;
+            this.hash = hash;
+            this.length = length;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return Hex SHA-256 of the content.
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    // Guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> references = new HashMap<>();
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private DiskLruCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Opens the cache, creating the directory if needed. Entries whose file is missing
+     * are dropped, and files no entry references are deleted.
+     *
+     * @param directory Directory used only by this cache.
+     * @param maxBytes  Maximum total size of the stored content.
+     */
+    public static DiskLruCache open(File directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        DiskLruCache cache = new DiskLruCache(directory, maxBytes);
+        synchronized (cache) {
+            cache.readIndex();
+            cache.deleteOrphans();
+            cache.trim();
+        }
+        return cache;
+    }
+
+    /**
+     * Looks up a resource and marks it as recently used.
+     *
+     * @return The entry, or <code>null</code> if the key is not cached.
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the content of an entry and checks it against its hash.
+     *
+     * @return The content, or <code>null</code> if it was evicted or damaged meanwhile.
+     */
+    public byte[] read(Entry entry) {
+        File file = blob(entry.hash);
+        byte[] data;
+        try {
+            data = readFully(file, entry.length);
+        } catch (IOException e) {
+            data = null;
+        }
+        if (data == null || !entry.hash.equals(hash(data))) {
+            if (file.exists()) {
+                EMMALog.e("Dropping damaged cache entry " + entry.key);
+            }
+            remove(entry.key);
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * @return The content of the key, or <code>null</code> if it is not cached.
+     */
+    public byte[] get(String key, String[] contentType) {
+        Entry entry = get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (contentType != null && contentType.length > 0) {
+            contentType[0] = entry.contentType;
+        }
+        return read(entry);
+    }
+
+    /**
+     * Stores a resource, replacing the previous content of the key.
+     *
+     * @param key         Usually the URL the content was downloaded from.
+     * @param contentType MIME type of the content, or <code>null</code>.
+     * @param data        The content.
+     * @return The entry, or <code>null</code> if the content is larger than the whole cache.
+     */
+    public Entry put(String key, String contentType, byte[] data) throws IOException {
+        if (data.length > maxBytes) {
+            return null;
+        }
+        String hash = hash(data);
+        File file = blob(hash);
+        // Same hash means same content, so the file is written outside the lock and only once
+        if (!file.exists()) {
+            writeBlob(file, data);
+        }
+        Entry entry = new Entry(key, contentType, hash, data.length);
+        synchronized (this) {
+            // Releasing the last key of this content may have deleted the file meanwhile
+            if (!file.exists()) {
+                writeBlob(file, data);
+            }
+            // Retained before the previous entry is released, which may share the file
+            retain(entry);
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                release(previous);
+            }
+            trim();
+            writeIndex();
+            return entries.get(key);
+        }
+    }
+
+    private void writeBlob(File file, byte[] data) throws IOException {
+        File temp = new File(directory, file.getName() + ".tmp" + Thread.currentThread().getId());
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+        }
+        if (!temp.renameTo(file) && !file.exists()) {
+            temp.delete();
+            throw new IOException("Unable to store " + file);
+        }
+        temp.delete();
+    }
+
+    public synchronized boolean remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        release(entry);
+        writeIndex();
+        return true;
+    }
+
+    /**
+     * @return Total size of the stored content, counting shared files once.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Guarded by this
+    private void retain(Entry entry) {
+        Integer count = references.get(entry.hash);
+        if (count == null) {
+            references.put(entry.hash, 1);
+            size += entry.length;
+        } else {
+            references.put(entry.hash, count + 1);
+        }
+    }
+
+    // Guarded by this
+    private void release(Entry entry) {
+        Integer count = references.get(entry.hash);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            references.put(entry.hash, count - 1);
+            return;
+        }
+        references.remove(entry.hash);
+        size -= entry.length;
+        blob(entry.hash).delete();
+    }
+
+    // Guarded by this
+    private void trim() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            release(entry);
+            evictions++;
+        }
+    }
+
+    private File blob(String hash) {
+        return new File(directory, hash);
+    }
+
+    // Guarded by this
+    private void readIndex() {
+        File index = new File(directory, INDEX);
+        if (!index.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String contentType = in.readBoolean() ? in.readUTF() : null;
+                String hash = in.readUTF();
+                long length = in.readLong();
+                if (blob(hash).length() == length) {
+                    Entry entry = new Entry(key, contentType, hash, length);
+                    entries.put(key, entry);
+                    retain(entry);
+                }
+            }
+        } catch (IOException e) {
+            EMMALog.e("Unable to read cache index in " + directory + ": " + e);
+            entries.clear();
+            references.clear();
+            size = 0;
+        }
+    }
+
+    // Guarded by this
+    private void writeIndex() {
+        File temp = new File(directory, INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.key);
+                out.writeBoolean(entry.contentType != null);
+                if (entry.contentType != null) {
+                    out.writeUTF(entry.contentType);
+                }
+                out.writeUTF(entry.hash);
+                out.writeLong(entry.length);
+            }
+        } catch (IOException e) {
+            EMMALog.e("Unable to write cache index in " + directory + ": " + e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(new File(directory, INDEX))) {
+            temp.delete();
+        }
+    }
+
+    // Guarded by this
+    private void deleteOrphans() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> orphans = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.equals(INDEX) && !references.containsKey(name)) {
+                orphans.add(file);
+            }
+        }
+        for (File orphan : orphans) {
+            orphan.delete();
+        }
+    }
+
+    private static byte[] readFully(File file, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large");
+        }
+        byte[] data = new byte[(int) length];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(data);
+        }
+        return data;
+    }
+
+    static String hash(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime provides SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(data);
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
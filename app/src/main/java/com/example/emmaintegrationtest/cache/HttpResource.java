@@ -0,0 +1,67 @@
+package com.example.emmaintegrationtest.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A resource downloaded to be stored in a {@link DiskLruCache}.
+ * <p>
+ * {@link #fetch(String, int, int)} is the download shared by the rich push prefetcher and
+ * the image pipeline.
+ */
+public final class HttpResource {
+
+    private final String contentType;
+    private final byte[] body;
+
+    public HttpResource(String contentType, byte[] body) {
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * Downloads with {@link HttpURLConnection}, following redirects.
+     *
+     * @param url           The resource.
+     * @param maxBytes      Largest body accepted.
+     * @param timeoutMillis Connect and read timeout.
+     * @return The resource, or <code>null</code> if the response is not 200 or its body is
+     * larger than <code>maxBytes</code>.
+     */
+    public static HttpResource fetch(String url, int maxBytes, int timeoutMillis) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK
+                    || connection.getContentLength() > maxBytes) {
+                return null;
+            }
+            int length = connection.getContentLength();
+            ByteArrayOutputStream body = new ByteArrayOutputStream(length > 0 ? length : 8192);
+            byte[] buffer = new byte[8192];
+            try (InputStream in = connection.getInputStream()) {
+                for (int read; (read = in.read(buffer)) != -1; ) {
+                    if (body.size() + read > maxBytes) {
+                        return null;
+                    }
+                    body.write(buffer, 0, read);
+                }
+            }
+            return new HttpResource(connection.getContentType(), body.toByteArray());
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.emmaintegrationtest.coupons
+
+import io.emma.android.model.EMMACoupon
+
+/**
+ * Cupón del catálogo tal y como lo guarda [CouponStore].
+ *
+ * Los campos siguen la respuesta de cupones de EMMA (ver `logs/cupones.json`).
+ *
+ * @property id Identificador del cupón (`ID`).
+ * @property begin Inicio de la validez en milisegundos desde epoch (`BEGIN`).
+ * @property end Fin de la validez en milisegundos desde epoch (`END`).
+ * @property maxRedeem Canjes permitidos (`MAX_REDEEM`).
+ * @property currentRedeems Canjes ya hechos (`CURRENT_REDEEMS`).
+ */
+data class Coupon(
+    val id: Long,
+    val title: String?,
+    val description: String?,
+    val offerCode: String?,
+    val imageUrl: String?,
+    val begin: Long,
+    val end: Long,
+    val maxRedeem: Int,
+    val currentRedeems: Int = 0
+) {
+
+    /** Canjes que quedan disponibles. */
+    val validRedeems: Int get() = maxOf(0, maxRedeem - currentRedeems)
+
+    fun isActive(now: Long): Boolean = now in begin until end
+
+    fun isExpired(now: Long): Boolean = now >= end
+
+    companion object {
+
+        /**
+         * Convierte un cupón recibido en `onCouponsReceived`.
+         */
+        fun of(coupon: EMMACoupon): Coupon = Coupon(
+            id = coupon.campaignID ?: 0L,
+            title = coupon.title,
+            description = coupon.description,
+            offerCode = coupon.code,
+            imageUrl = coupon.imageUrl,
+            begin = coupon.begin?.time ?: Long.MIN_VALUE,
+            end = coupon.end?.time ?: Long.MAX_VALUE,
+            maxRedeem = coupon.maxRedeems,
+            currentRedeems = coupon.currentRedeems
+        )
+    }
+}
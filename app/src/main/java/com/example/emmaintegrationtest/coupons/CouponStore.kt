@@ -0,0 +1,289 @@
+package com.example.emmaintegrationtest.coupons
+
+import java.util.TreeMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Catálogo local de cupones con su estado de canje.
+ *
+ * Los cupones se indexan por identificador, por fin de validez, de modo que los caducados se
+ * eliminan sin consultar a EMMA, y por ventana de validez en un [IntervalIndex], que responde qué
+ * cupones están activos sin recorrer el catálogo. Los canjes y cancelaciones se aplican en local en cuanto se piden y
+ * se confirman o deshacen cuando llega la respuesta, así que los canjes disponibles se conocen sin
+ * pedir `COUPON_VALID_REDEEMS`.
+ *
+ * El catálogo completo sólo se vuelve a pedir cuando han pasado `refreshIntervalMillis`; entre tanto
+ * sólo se piden uno a uno los cupones de [couponsToRefresh], cuyo estado local puede no coincidir
+ * con el de la plataforma.
+ *
+ * @param refreshIntervalMillis Tiempo tras el que se vuelve a pedir el catálogo completo.
+ * @param clock Reloj en milisegundos desde epoch, el mismo que usan `BEGIN` y `END`.
+ */
+class CouponStore(
+    private val refreshIntervalMillis: Long = DEFAULT_REFRESH_INTERVAL_MILLIS,
+    private val clock: () -> Long = { System.currentTimeMillis() }
+) {
+
+    /**
+     * Resultado de [redeem].
+     */
+    enum class Redemption {
+        /** Canje aplicado en local, pendiente de confirmar. */
+        ACCEPTED,
+
+        /** No quedan canjes disponibles. */
+        EXHAUSTED,
+
+        /** El cupón todavía no es válido. */
+        NOT_STARTED,
+
+        /** El cupón ha caducado. */
+        EXPIRED,
+
+        /** El cupón no está en el catálogo. */
+        UNKNOWN
+    }
+
+    /**
+     * Cambios que ha producido una actualización del catálogo.
+     */
+    data class Delta(val added: List<Coupon>, val updated: List<Coupon>, val removed: List<Long>) {
+        val isEmpty: Boolean get() = added.isEmpty() && updated.isEmpty() && removed.isEmpty()
+    }
+
+    private val byId = LinkedHashMap<Long, Coupon>()
+    private val byEnd = TreeMap<Long, MutableSet<Long>>()
+    private val windows = IntervalIndex<Coupon>()
+    private val pendingRedeems = ArrayDeque<Long>()
+    private val pendingCancels = ArrayDeque<Long>()
+    private val stale = LinkedHashSet<Long>()
+    private var fetchedAt: Long? = null
+
+    @Synchronized
+    operator fun get(id: Long): Coupon? = byId[id]
+
+    @Synchronized
+    fun size(): Int = byId.size
+
+    /**
+     * Cupones válidos en `now`, ordenados por inicio de validez.
+     */
+    @Synchronized
+    fun active(now: Long = clock()): List<Coupon> = windows.active(now)
+
+    /**
+     * Canjes disponibles de un cupón según el estado local, o `null` si no está en el catálogo.
+     */
+    @Synchronized
+    fun validRedeems(id: Long): Int? = byId[id]?.validRedeems
+
+    /**
+     * Indica si hay que pedir el catálogo completo.
+     */
+    @Synchronized
+    fun needsCatalogue(now: Long = clock()): Boolean = fetchedAt.let { it == null || now - it >= refreshIntervalMillis }
+
+    /**
+     * Cupones que hay que pedir uno a uno porque su estado local puede estar desfasado.
+     */
+    @Synchronized
+    fun couponsToRefresh(): List<Long> = stale.toList()
+
+    /**
+     * Sustituye el catálogo por la respuesta completa de EMMA.
+     *
+     * Los cupones que no vienen en la respuesta o que ya han caducado se eliminan.
+     */
+    @Synchronized
+    fun applyCatalogue(coupons: Collection<Coupon>, now: Long = clock()): Delta {
+        val added = ArrayList<Coupon>()
+        val updated = ArrayList<Coupon>()
+        val removed = ArrayList<Long>()
+        val received = HashSet<Long>(coupons.size * 2)
+        for (coupon in coupons) {
+            received.add(coupon.id)
+            if (coupon.isExpired(now)) {
+                if (remove(coupon.id)) removed.add(coupon.id)
+                continue
+            }
+            when (val previous = store(coupon)) {
+                null -> added.add(coupon)
+                coupon -> Unit
+                else -> updated.add(coupon)
+            }
+        }
+        val iterator = byId.values.iterator()
+        while (iterator.hasNext()) {
+            val coupon = iterator.next()
+            if (coupon.id !in received) {
+                iterator.remove()
+                unindex(coupon)
+                windows.remove(coupon.id)
+                removed.add(coupon.id)
+            }
+        }
+        pruneExpired(now, removed)
+        stale.clear()
+        fetchedAt = now
+        return Delta(added, updated, removed)
+    }
+
+    /**
+     * Actualiza un cupón pedido individualmente por su identificador.
+     */
+    @Synchronized
+    fun applyCoupon(coupon: Coupon, now: Long = clock()): Delta {
+        stale.remove(coupon.id)
+        if (coupon.isExpired(now)) {
+            return if (remove(coupon.id)) Delta(emptyList(), emptyList(), listOf(coupon.id)) else EMPTY
+        }
+        return when (val previous = store(coupon)) {
+            null -> Delta(listOf(coupon), emptyList(), emptyList())
+            coupon -> EMPTY
+            else -> Delta(emptyList(), listOf(coupon), emptyList())
+        }
+    }
+
+    /**
+     * Elimina los cupones caducados en `now`.
+     *
+     * @return Identificadores eliminados.
+     */
+    @Synchronized
+    fun pruneExpired(now: Long = clock()): List<Long> = ArrayList<Long>().also { pruneExpired(now, it) }
+
+    /**
+     * Aplica un canje en local si el cupón es válido y le quedan canjes.
+     *
+     * Si se acepta, hay que enviar `REDEEM_COUPON` y pasar su respuesta a [redemptionResult].
+     */
+    @Synchronized
+    fun redeem(id: Long, now: Long = clock()): Redemption {
+        val coupon = byId[id] ?: return Redemption.UNKNOWN
+        return when {
+            now < coupon.begin -> Redemption.NOT_STARTED
+            coupon.isExpired(now) -> Redemption.EXPIRED
+            coupon.validRedeems == 0 -> Redemption.EXHAUSTED
+            else -> {
+                replace(coupon.copy(currentRedeems = coupon.currentRedeems + 1))
+                pendingRedeems.addLast(id)
+                Redemption.ACCEPTED
+            }
+        }
+    }
+
+    /**
+     * Confirma o deshace el canje pendiente más antiguo con la respuesta de EMMA.
+     *
+     * @return Cupón al que corresponde la respuesta, o `null` si no había canjes pendientes.
+     */
+    @Synchronized
+    fun redemptionResult(success: Boolean): Long? {
+        val id = pendingRedeems.removeFirstOrNull() ?: return null
+        if (!success) {
+            adjustRedeems(id, -1)
+        }
+        return id
+    }
+
+    /**
+     * Deshace en local un canje del cupón.
+     *
+     * Si se acepta, hay que enviar `CANCEL_COUPON` y pasar su respuesta a [cancellationResult].
+     *
+     * @return `false` si el cupón no está en el catálogo o no tiene canjes.
+     */
+    @Synchronized
+    fun cancel(id: Long): Boolean {
+        val coupon = byId[id] ?: return false
+        if (coupon.currentRedeems == 0) return false
+        replace(coupon.copy(currentRedeems = coupon.currentRedeems - 1))
+        pendingCancels.addLast(id)
+        return true
+    }
+
+    /**
+     * Confirma o deshace la cancelación pendiente más antigua con la respuesta de EMMA.
+     */
+    @Synchronized
+    fun cancellationResult(success: Boolean): Long? {
+        val id = pendingCancels.removeFirstOrNull() ?: return null
+        if (!success) {
+            adjustRedeems(id, 1)
+        }
+        return id
+    }
+
+    @Synchronized
+    fun clear() {
+        byId.clear()
+        byEnd.clear()
+        windows.clear()
+        pendingRedeems.clear()
+        pendingCancels.clear()
+        stale.clear()
+        fetchedAt = null
+    }
+
+    /**
+     * Un fallo puede deberse a que la plataforma tiene otro recuento, así que el cupón se vuelve a
+     * pedir.
+     */
+    private fun adjustRedeems(id: Long, delta: Int) {
+        val coupon = byId[id] ?: return
+        replace(coupon.copy(currentRedeems = (coupon.currentRedeems + delta).coerceIn(0, coupon.maxRedeem)))
+        stale.add(id)
+    }
+
+    private fun store(coupon: Coupon): Coupon? {
+        val previous = byId.put(coupon.id, coupon)
+        if (previous == null || previous.end != coupon.end) {
+            previous?.let { unindex(it) }
+            byEnd.getOrPut(coupon.end) { HashSet(2) }.add(coupon.id)
+        }
+        windows.put(coupon.id, coupon.begin, coupon.end, coupon)
+        return previous
+    }
+
+    /**
+     * Sustituye un cupón cuya ventana de validez no cambia.
+     */
+    private fun replace(coupon: Coupon) {
+        byId[coupon.id] = coupon
+        windows.put(coupon.id, coupon.begin, coupon.end, coupon)
+    }
+
+    private fun remove(id: Long): Boolean {
+        val coupon = byId.remove(id) ?: return false
+        unindex(coupon)
+        windows.remove(id)
+        stale.remove(id)
+        return true
+    }
+
+    private fun unindex(coupon: Coupon) {
+        val ids = byEnd[coupon.end] ?: return
+        ids.remove(coupon.id)
+        if (ids.isEmpty()) byEnd.remove(coupon.end)
+    }
+
+    private fun pruneExpired(now: Long, removed: MutableList<Long>) {
+        val expired = byEnd.headMap(now, true)
+        for (ids in expired.values) {
+            for (id in ids) {
+                byId.remove(id)
+                windows.remove(id)
+                stale.remove(id)
+                removed.add(id)
+            }
+        }
+        expired.clear()
+    }
+
+    companion object {
+        /** Tiempo por defecto entre peticiones del catálogo completo. */
+        val DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15)
+
+        private val EMPTY = Delta(emptyList(), emptyList(), emptyList())
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.emmaintegrationtest.coupons
+
+/**
+ * Índice de ventanas de validez `[begin, end)` para saber qué elementos están activos en un instante.
+ *
+ * Es un árbol de intervalos: un árbol AVL ordenado por `begin` en el que cada nodo guarda el mayor
+ * `end` de su subárbol, así que [active] descarta las ramas que terminan antes de `now` y responde
+ * en O(log n + k) para k resultados. Las altas, bajas y cambios de ventana cuestan O(log n), de
+ * modo que el índice se actualiza con cada respuesta sin reconstruirlo.
+ *
+ * Sirve para cupones y campañas: los elementos se identifican por un `Long` (`ID` del cupón o de la
+ * campaña).
+ *
+ * No es seguro entre hilos; quien lo use debe sincronizar los accesos.
+ *
+ * @param V Tipo del elemento guardado.
+ */
+class IntervalIndex<V> {
+
+    private class Node<V>(val id: Long, val begin: Long, val end: Long, var value: V) {
+        var left: Node<V>? = null
+        var right: Node<V>? = null
+        var height = 1
+        var maxEnd = end
+    }
+
+    private val nodes = HashMap<Long, Node<V>>()
+    private var root: Node<V>? = null
+
+    val size: Int get() = nodes.size
+
+    operator fun get(id: Long): V? = nodes[id]?.value
+
+    /**
+     * Añade un elemento o cambia su ventana y su valor.
+     */
+    fun put(id: Long, begin: Long, end: Long, value: V) {
+        val existing = nodes[id]
+        if (existing != null) {
+            if (existing.begin == begin && existing.end == end) {
+                existing.value = value
+                return
+            }
+            root = delete(root, existing)
+        }
+        val node = Node(id, begin, end, value)
+        nodes[id] = node
+        root = insert(root, node)
+    }
+
+    /**
+     * @return El valor eliminado, o `null` si no estaba.
+     */
+    fun remove(id: Long): V? {
+        val node = nodes.remove(id) ?: return null
+        root = delete(root, node)
+        return node.value
+    }
+
+    fun clear() {
+        nodes.clear()
+        root = null
+    }
+
+    /**
+     * Entrega los elementos activos en `now` (`begin <= now < end`) ordenados por `begin`.
+     */
+    fun active(now: Long, action: (V) -> Unit) {
+        visit(root, now, action)
+    }
+
+    fun active(now: Long): List<V> = ArrayList<V>().also { result -> active(now) { result.add(it) } }
+
+    private fun visit(node: Node<V>?, now: Long, action: (V) -> Unit) {
+        if (node == null || node.maxEnd <= now) return
+        visit(node.left, now, action)
+        if (node.begin <= now) {
+            if (now < node.end) action(node.value)
+            visit(node.right, now, action)
+        }
+    }
+
+    private fun compare(a: Node<V>, b: Node<V>): Int {
+        val byBegin = a.begin.compareTo(b.begin)
+        return if (byBegin != 0) byBegin else a.id.compareTo(b.id)
+    }
+
+    private fun insert(node: Node<V>?, inserted: Node<V>): Node<V> {
+        if (node == null) return inserted
+        if (compare(inserted, node) < 0) {
+            node.left = insert(node.left, inserted)
+        } else {
+            node.right = insert(node.right, inserted)
+        }
+        return balance(node)
+    }
+
+    private fun delete(node: Node<V>?, deleted: Node<V>): Node<V>? {
+        if (node == null) return null
+        if (node !== deleted) {
+            if (compare(deleted, node) < 0) {
+                node.left = delete(node.left, deleted)
+            } else {
+                node.right = delete(node.right, deleted)
+            }
+            return balance(node)
+        }
+        val left = node.left ?: return node.right
+        val right = node.right ?: return left
+        // El sucesor ocupa el lugar del nodo eliminado
+        var successor: Node<V> = right
+        while (true) {
+            successor = successor.left ?: break
+        }
+        successor.right = removeMin(right)
+        successor.left = left
+        return balance(successor)
+    }
+
+    private fun removeMin(node: Node<V>): Node<V>? {
+        val left = node.left ?: return node.right
+        node.left = removeMin(left)
+        return balance(node)
+    }
+
+    private fun height(node: Node<V>?): Int = node?.height ?: 0
+
+    private fun update(node: Node<V>) {
+        node.height = 1 + maxOf(height(node.left), height(node.right))
+        var maxEnd = node.end
+        node.left?.let { if (it.maxEnd > maxEnd) maxEnd = it.maxEnd }
+        node.right?.let { if (it.maxEnd > maxEnd) maxEnd = it.maxEnd }
+        node.maxEnd = maxEnd
+    }
+
+    private fun balance(node: Node<V>): Node<V> {
+        update(node)
+        val factor = height(node.left) - height(node.right)
+        if (factor > 1) {
+            val left = node.left!!
+            if (height(left.left) < height(left.right)) node.left = rotateLeft(left)
+            return rotateRight(node)
+        }
+        if (factor < -1) {
+            val right = node.right!!
+            if (height(right.right) < height(right.left)) node.right = rotateRight(right)
+            return rotateLeft(node)
+        }
+        return node
+    }
+
+    private fun rotateRight(node: Node<V>): Node<V> {
+        val left = node.left!!
+        node.left = left.right
+        left.right = node
+        update(node)
+        update(left)
+        return left
+    }
+
+    private fun rotateLeft(node: Node<V>): Node<V> {
+        val right = node.right!!
+        node.right = right.left
+        right.left = node
+        update(node)
+        update(right)
+        return right
+    }
+
+    /**
+     * Altura del árbol, para comprobar que se mantiene equilibrado.
+     */
+    internal fun height(): Int = height(root)
+}
@@ -0,0 +1,46 @@
+package com.example.emmaintegrationtest.images
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+
+/**
+ * Decodifica las imágenes reducidas al tamaño de la vista y sobre bitmaps reutilizados del [pool].
+ *
+ * Primero se leen sólo las dimensiones, para calcular el `inSampleSize` con
+ * [ImagePipeline.sampleSize]; una imagen de 1080 px en una miniatura de 200 px se decodifica a 270 px
+ * y ocupa dieciséis veces menos.
+ */
+internal class BitmapDecoder(private val pool: BitmapPool) : ImagePipeline.Decoder<Bitmap> {
+
+    override fun decode(data: ByteArray, width: Int, height: Int): Bitmap? {
+        val options = BitmapFactory.Options()
+        options.inJustDecodeBounds = true
+        BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null
+
+        val sample = ImagePipeline.sampleSize(options.outWidth, options.outHeight, width, height)
+        options.inJustDecodeBounds = false
+        options.inSampleSize = sample
+        options.inMutable = true
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888
+        val decodedWidth = (options.outWidth + sample - 1) / sample
+        val decodedHeight = (options.outHeight + sample - 1) / sample
+        options.inBitmap = pool.get(decodedWidth * decodedHeight * BYTES_PER_PIXEL)
+        return try {
+            BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        } catch (e: IllegalArgumentException) {
+            // El bitmap del pool no sirve para este formato; se decodifica en uno nuevo
+            options.inBitmap?.recycle()
+            options.inBitmap = null
+            BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        }
+    }
+
+    override fun sizeOf(image: Bitmap): Long = image.allocationByteCount.toLong()
+
+    override fun recycle(image: Bitmap) = pool.put(image)
+
+    private companion object {
+        const val BYTES_PER_PIXEL = 4
+    }
+}
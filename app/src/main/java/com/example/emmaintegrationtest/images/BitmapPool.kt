@@ -0,0 +1,63 @@
+package com.example.emmaintegrationtest.images
+
+import android.graphics.Bitmap
+
+/**
+ * Bitmaps que ya no se muestran, guardados para decodificar sobre ellos con `inBitmap`.
+ *
+ * Reutilizar un bitmap evita reservar y liberar memoria del tamaño de una imagen en cada
+ * decodificación, que es lo que provoca pausas del recolector al desplazar un listado de cupones.
+ * Cuando el pool pasa de [maxBytes] se liberan los bitmaps más antiguos.
+ *
+ * @param maxBytes Memoria máxima de los bitmaps guardados.
+ */
+internal class BitmapPool(private val maxBytes: Long) {
+
+    private val free = ArrayDeque<Bitmap>()
+    private var size = 0L
+
+    /**
+     * Saca del pool el bitmap más pequeño donde caben [bytes], sin desperdiciar más de la mitad.
+     */
+    @Synchronized
+    fun get(bytes: Int): Bitmap? {
+        var best: Bitmap? = null
+        for (bitmap in free) {
+            val capacity = bitmap.allocationByteCount
+            if (capacity >= bytes && capacity <= bytes * 2L && (best == null || capacity < best.allocationByteCount)) {
+                best = bitmap
+            }
+        }
+        best?.let {
+            free.remove(it)
+            size -= it.allocationByteCount
+        }
+        return best
+    }
+
+    /**
+     * Guarda un bitmap que ya no se muestra. Los que no se pueden reutilizar se liberan.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (bitmap.isRecycled) return
+        if (!bitmap.isMutable || bitmap.allocationByteCount > maxBytes) {
+            bitmap.recycle()
+            return
+        }
+        free.addLast(bitmap)
+        size += bitmap.allocationByteCount
+        while (size > maxBytes) {
+            val eldest = free.removeFirst()
+            size -= eldest.allocationByteCount
+            eldest.recycle()
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        free.forEach(Bitmap::recycle)
+        free.clear()
+        size = 0
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.emmaintegrationtest.images
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.os.Handler
+import android.os.Looper
+import android.view.View
+import android.widget.ImageView
+import com.example.emmaintegrationtest.cache.DiskLruCache
+import io.emma.android.utils.EMMALog
+import java.io.File
+import java.io.IOException
+import java.util.WeakHashMap
+import java.util.concurrent.Executors
+
+/**
+ * Pinta imágenes remotas en `ImageView`, como las de los cupones (`IMAGE_URL`) o los anuncios nativos.
+ *
+ * Usa un [ImagePipeline] de bitmaps compartido por toda la aplicación, con la caché en disco en
+ * `cacheDir/images`. Cada vista recuerda la petición y el bitmap que muestra: al volver a pintarla con
+ * otra URL la petición anterior se cancela y su bitmap se devuelve para reutilizarlo, así que una vista
+ * reciclada nunca muestra una imagen que ha llegado tarde.
+ *
+ * El [ImagePipeline] no reutiliza un bitmap mientras una vista lo muestra, así que las vistas que se
+ * quitan de la ventana sin llamar a [clear] también lo devuelven: al separarse de la ventana se
+ * libera su bitmap, y si se vuelven a añadir se carga otra vez la misma URL, normalmente desde memoria.
+ *
+ * Se usa desde el hilo principal.
+ *
+ * ```kotlin
+ * ImageLoader.get(context).load(imageView, coupon.imageUrl)
+ * ```
+ */
+class ImageLoader private constructor(context: Context) {
+
+    private class Binding(val url: String) {
+        var request: ImagePipeline.Request? = null
+        var bitmap: Bitmap? = null
+    }
+
+    private val pool = BitmapPool(MEMORY_BYTES / 4)
+    private val displayMetrics = context.resources.displayMetrics
+    private val pipeline = ImagePipeline(
+        BitmapDecoder(pool),
+        ImagePipeline.httpFetcher(MAX_IMAGE_BYTES),
+        openDiskCache(File(context.cacheDir, DISK_DIRECTORY)),
+        MEMORY_BYTES,
+        Executors.newFixedThreadPool(THREADS) { runnable ->
+            Thread(runnable, "emma-images").apply { isDaemon = true }
+        },
+        Handler(Looper.getMainLooper())::post
+    )
+    private val bindings = WeakHashMap<ImageView, Binding>()
+
+    /** URL de las vistas que se liberaron al separarse de la ventana, para pintarlas si vuelven. */
+    private val detached = WeakHashMap<ImageView, String>()
+
+    private val attachListener = object : View.OnAttachStateChangeListener {
+        override fun onViewAttachedToWindow(view: View) {
+            val url = detached.remove(view) ?: return
+            load(view as ImageView, url)
+        }
+
+        override fun onViewDetachedFromWindow(view: View) {
+            val url = bindings[view]?.url ?: return
+            release(view as ImageView)
+            detached[view] = url
+        }
+    }
+
+    /**
+     * Pinta en [view] la imagen de [url], decodificada al tamaño de la vista. Con `url` nula o vacía
+     * sólo se limpia la vista.
+     */
+    fun load(view: ImageView, url: String?) {
+        val current = bindings[view]
+        if (current != null && current.url == url) return
+        clear(view)
+        if (url.isNullOrEmpty()) return
+
+        val binding = Binding(url)
+        bindings[view] = binding
+        view.addOnAttachStateChangeListener(attachListener)
+        binding.request = pipeline.load(url, targetWidth(view), targetHeight(view)) { bitmap ->
+            if (bindings[view] !== binding) {
+                bitmap?.let(pipeline::release)
+                return@load
+            }
+            if (bitmap == null) {
+                // Sin imagen la siguiente carga de la misma URL lo vuelve a intentar
+                bindings.remove(view)
+                return@load
+            }
+            binding.bitmap = bitmap
+            view.setImageBitmap(bitmap)
+        }
+    }
+
+    /**
+     * Cancela la carga de [view] y devuelve su bitmap para reutilizarlo.
+     */
+    fun clear(view: ImageView) {
+        detached.remove(view)
+        view.removeOnAttachStateChangeListener(attachListener)
+        release(view)
+    }
+
+    private fun release(view: ImageView) {
+        val binding = bindings.remove(view) ?: return
+        binding.request?.cancel()
+        view.setImageDrawable(null)
+        binding.bitmap?.let(pipeline::release)
+    }
+
+    /**
+     * Libera las imágenes en memoria que no se muestran, por ejemplo en `onTrimMemory`.
+     */
+    fun trimMemory() {
+        pipeline.clearMemory()
+        pool.clear()
+    }
+
+    fun stats(): ImagePipeline.Stats = pipeline.stats()
+
+    private fun targetWidth(view: ImageView): Int = when {
+        view.width > 0 -> view.width
+        (view.layoutParams?.width ?: 0) > 0 -> view.layoutParams.width
+        else -> displayMetrics.widthPixels
+    }
+
+    private fun targetHeight(view: ImageView): Int = when {
+        view.height > 0 -> view.height
+        (view.layoutParams?.height ?: 0) > 0 -> view.layoutParams.height
+        else -> displayMetrics.heightPixels
+    }
+
+    companion object {
+        private const val DISK_DIRECTORY = "images"
+        private const val DISK_BYTES = 32L * 1024 * 1024
+        private const val MAX_IMAGE_BYTES = 4 * 1024 * 1024
+        private const val THREADS = 3
+        private val MEMORY_BYTES = Runtime.getRuntime().maxMemory() / 8
+
+        @Volatile
+        private var instance: ImageLoader? = null
+
+        fun get(context: Context): ImageLoader =
+            instance ?: synchronized(this) {
+                instance ?: ImageLoader(context.applicationContext).also { instance = it }
+            }
+
+        private fun openDiskCache(directory: File): DiskLruCache? = try {
+            DiskLruCache.open(directory, DISK_BYTES)
+        } catch (e: IOException) {
+            EMMALog.e("Unable to open image cache $directory: $e")
+            null
+        }
+    }
+}
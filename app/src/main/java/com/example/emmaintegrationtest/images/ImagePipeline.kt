@@ -0,0 +1,355 @@
+package com.example.emmaintegrationtest.images
+
+import com.example.emmaintegrationtest.cache.DiskLruCache
+import com.example.emmaintegrationtest.cache.HttpResource
+import io.emma.android.utils.EMMALog
+import java.io.IOException
+import java.util.IdentityHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Carga de imágenes remotas con dos niveles de caché: memoria y disco.
+ *
+ * Cada imagen se decodifica al tamaño en el que se va a mostrar, y la memoria guarda ese resultado con
+ * expulsión LRU por bytes. El disco ([DiskLruCache]) guarda los bytes descargados, así que otro
+ * tamaño de la misma imagen o un nuevo arranque no vuelven a descargarla.
+ *
+ * Las peticiones iguales (misma URL y tamaño) que llegan mientras una está en curso se agrupan en ella,
+ * y las de la misma URL con otro tamaño comparten la lectura de disco o la descarga mientras quede
+ * alguna en curso, aunque no haya caché en disco.
+ *
+ * Las imágenes entregadas se consideran en uso hasta que se devuelven con [release]. Las que salen de
+ * la memoria y no están en uso se entregan a [Decoder.recycle] para reutilizar su memoria en la
+ * siguiente decodificación.
+ *
+ * ```kotlin
+ * val request = pipeline.load(url, view.width, view.height) { image -> show(image) }
+ * // Al reciclar la vista
+ * request.cancel()
+ * pipeline.release(image)
+ * ```
+ *
+ * @param T Tipo de la imagen decodificada, normalmente `Bitmap`.
+ * @param decoder Decodificación de los bytes al tamaño pedido.
+ * @param fetcher Descarga de las URL que no están en disco.
+ * @param disk Caché en disco de los bytes descargados, o `null` para no usarla.
+ * @param memoryBytes Tamaño máximo de las imágenes decodificadas en memoria.
+ * @param executor Hilos de descarga y decodificación.
+ * @param callbackExecutor Hilo de entrega de las imágenes, normalmente el principal.
+ */
+class ImagePipeline<T : Any>(
+    private val decoder: Decoder<T>,
+    private val fetcher: Fetcher,
+    private val disk: DiskLruCache?,
+    private val memoryBytes: Long,
+    private val executor: Executor,
+    private val callbackExecutor: Executor
+) {
+
+    /**
+     * Decodificación de las imágenes, en los hilos de [executor].
+     */
+    interface Decoder<T : Any> {
+        /**
+         * @param width Ancho en el que se va a mostrar, en píxeles.
+         * @param height Alto en el que se va a mostrar, en píxeles.
+         * @return La imagen, o `null` si los bytes no son una imagen válida.
+         */
+        fun decode(data: ByteArray, width: Int, height: Int): T?
+
+        /** Memoria que ocupa la imagen, en bytes. */
+        fun sizeOf(image: T): Long
+
+        /** Recibe las imágenes que ya no se usan, para reutilizar su memoria. */
+        fun recycle(image: T)
+    }
+
+    /**
+     * Descarga de una URL.
+     */
+    fun interface Fetcher {
+        /**
+         * @return Los bytes de la imagen, o `null` si no se pudo descargar.
+         */
+        @Throws(IOException::class)
+        fun fetch(url: String): ByteArray?
+    }
+
+    /**
+     * Petición en curso devuelta por [load].
+     */
+    class Request internal constructor(internal val callback: (Any?) -> Unit) {
+        @Volatile
+        var cancelled = false
+            private set
+
+        /**
+         * El callback ya no se llama; si la imagen llega, se devuelve sola con [release].
+         */
+        fun cancel() {
+            cancelled = true
+        }
+    }
+
+    /**
+     * Contadores desde la creación.
+     *
+     * @property memoryHits Peticiones servidas desde memoria.
+     * @property diskHits Decodificaciones de bytes leídos de disco.
+     * @property downloads Descargas hechas con el [Fetcher].
+     * @property decodes Decodificaciones hechas.
+     * @property coalesced Peticiones agrupadas en otra en curso.
+     * @property recycled Imágenes entregadas a [Decoder.recycle].
+     */
+    data class Stats(
+        val memoryHits: Long,
+        val diskHits: Long,
+        val downloads: Long,
+        val decodes: Long,
+        val coalesced: Long,
+        val recycled: Long
+    )
+
+    /**
+     * Lectura de los bytes de una URL compartida por las peticiones en curso de cualquier tamaño.
+     */
+    private class SharedRead(val task: FutureTask<ByteArray?>) {
+        // Protegido por lock
+        var calls = 0
+    }
+
+    private class Call(val url: String, val width: Int, val height: Int, val read: SharedRead) {
+        val waiters = ArrayList<Request>(1)
+    }
+
+    private val lock = Any()
+    // Protegidos por lock
+    private val memory = LinkedHashMap<String, T>(16, 0.75f, true)
+    private val cached = IdentityHashMap<T, Long>()
+    private val inUse = IdentityHashMap<T, Int>()
+    private val calls = HashMap<String, Call>()
+    private val reads = HashMap<String, SharedRead>()
+    private var memorySize = 0L
+
+    private val memoryHits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val downloads = AtomicLong()
+    private val decodes = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val recycled = AtomicLong()
+
+    /**
+     * Pide la imagen de [url] decodificada para un tamaño de [width] x [height] píxeles.
+     *
+     * Si está en memoria, [callback] se llama en el hilo actual antes de volver; si no, se llama en
+     * [callbackExecutor] con la imagen, o con `null` si no se pudo cargar.
+     */
+    fun load(url: String, width: Int, height: Int, callback: (T?) -> Unit): Request {
+        @Suppress("UNCHECKED_CAST")
+        val request = Request(callback as (Any?) -> Unit)
+        val key = key(url, width, height)
+        val hit: T?
+        val call: Call?
+        synchronized(lock) {
+            hit = memory[key]
+            if (hit != null) {
+                retain(hit)
+                call = null
+            } else {
+                val running = calls[key]
+                if (running != null) {
+                    running.waiters.add(request)
+                    coalesced.incrementAndGet()
+                    return request
+                }
+                // Se apunta ya a la lectura, para que siga disponible hasta que esta petición la use
+                val read = reads.getOrPut(url) { SharedRead(FutureTask { readDisk(url) ?: download(url) }) }
+                read.calls++
+                call = Call(url, width, height, read).also { it.waiters.add(request) }
+                calls[key] = call
+            }
+        }
+        if (call != null) {
+            executor.execute { run(key, call) }
+        } else {
+            memoryHits.incrementAndGet()
+            callback(hit)
+        }
+        return request
+    }
+
+    private fun run(key: String, call: Call) {
+        var image: T? = null
+        try {
+            val data = read(call.read)
+            if (data != null) {
+                decodes.incrementAndGet()
+                image = decoder.decode(data, call.width, call.height)
+            }
+        } catch (e: Exception) {
+            EMMALog.e("Unable to load image ${call.url}: $e")
+        }
+        val waiters: List<Request>
+        var evicted = emptyList<T>()
+        synchronized(lock) {
+            calls.remove(key)
+            if (--call.read.calls == 0) {
+                reads.remove(call.url)
+            }
+            waiters = call.waiters
+            if (image != null) {
+                waiters.forEach { retain(image) }
+                evicted = cache(key, image)
+            }
+        }
+        evicted.forEach(::recycle)
+        callbackExecutor.execute {
+            for (waiter in waiters) {
+                if (!waiter.cancelled) {
+                    waiter.callback(image)
+                } else if (image != null) {
+                    release(image)
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee los bytes de disco o los descarga. Sólo la primera petición que llega ejecuta la lectura; el
+     * resto espera su resultado.
+     */
+    private fun read(read: SharedRead): ByteArray? {
+        read.task.run()
+        return try {
+            read.task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause as? Exception ?: e
+        }
+    }
+
+    private fun readDisk(url: String): ByteArray? {
+        val data = disk?.get(url, null) ?: return null
+        diskHits.incrementAndGet()
+        return data
+    }
+
+    private fun download(url: String): ByteArray? {
+        val data = fetcher.fetch(url) ?: return null
+        downloads.incrementAndGet()
+        try {
+            disk?.put(url, null, data)
+        } catch (e: IOException) {
+            EMMALog.e("Unable to cache image $url: $e")
+        }
+        return data
+    }
+
+    /**
+     * Devuelve una imagen entregada por [load] que ya no se muestra.
+     */
+    fun release(image: T) {
+        synchronized(lock) {
+            val count = inUse[image] ?: return
+            if (count > 1) {
+                inUse[image] = count - 1
+                return
+            }
+            inUse.remove(image)
+            if (cached.containsKey(image)) return
+        }
+        recycle(image)
+    }
+
+    /**
+     * Vacía la memoria; las imágenes en uso se reciclan al devolverlas.
+     */
+    fun clearMemory() {
+        val evicted = ArrayList<T>()
+        synchronized(lock) {
+            memory.clear()
+            for (image in cached.keys) {
+                if (!inUse.containsKey(image)) evicted.add(image)
+            }
+            cached.clear()
+            memorySize = 0
+        }
+        evicted.forEach(::recycle)
+    }
+
+    fun memorySize(): Long = synchronized(lock) { memorySize }
+
+    fun stats(): Stats = Stats(
+        memoryHits.get(), diskHits.get(), downloads.get(), decodes.get(), coalesced.get(), recycled.get()
+    )
+
+    // Protegido por lock
+    private fun retain(image: T) {
+        inUse[image] = (inUse[image] ?: 0) + 1
+    }
+
+    /**
+     * @return Imágenes expulsadas que no están en uso, para reciclarlas fuera del bloqueo.
+     */
+    // Protegido por lock
+    private fun cache(key: String, image: T): List<T> {
+        val size = decoder.sizeOf(image)
+        val evicted = ArrayList<T>()
+        memory.put(key, image)?.let { previous -> if (uncache(previous)) evicted.add(previous) }
+        cached[image] = size
+        memorySize += size
+        val eldest = memory.values.iterator()
+        while (memorySize > memoryBytes && eldest.hasNext()) {
+            val old = eldest.next()
+            eldest.remove()
+            if (uncache(old)) evicted.add(old)
+        }
+        return evicted
+    }
+
+    /**
+     * @return `true` si la imagen ya no está en uso y se puede reciclar.
+     */
+    // Protegido por lock
+    private fun uncache(image: T): Boolean {
+        val size = cached.remove(image) ?: return false
+        memorySize -= size
+        return !inUse.containsKey(image)
+    }
+
+    private fun recycle(image: T) {
+        recycled.incrementAndGet()
+        decoder.recycle(image)
+    }
+
+    companion object {
+
+        private const val TIMEOUT_MILLIS = 10_000
+
+        private fun key(url: String, width: Int, height: Int) = "$url#${width}x$height"
+
+        /**
+         * Factor de reducción para decodificar una imagen de [width] x [height] en un hueco de
+         * [targetWidth] x [targetHeight]: la mayor potencia de dos que deja la imagen igual o más grande
+         * que el hueco en ambos lados.
+         */
+        fun sampleSize(width: Int, height: Int, targetWidth: Int, targetHeight: Int): Int {
+            if (targetWidth <= 0 || targetHeight <= 0) return 1
+            var sample = 1
+            while (width / (sample * 2) >= targetWidth && height / (sample * 2) >= targetHeight) {
+                sample *= 2
+            }
+            return sample
+        }
+
+        /**
+         * Descarga con [HttpResource.fetch], la misma descarga que usa la caché de rich push. Las
+         * respuestas distintas de 200 y las de más de [maxBytes] no se guardan.
+         */
+        fun httpFetcher(maxBytes: Int): Fetcher = Fetcher { url ->
+            HttpResource.fetch(url, maxBytes, TIMEOUT_MILLIS)?.body
+        }
+    }
+}
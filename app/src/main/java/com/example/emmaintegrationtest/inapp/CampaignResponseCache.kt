@@ -0,0 +1,163 @@
+package com.example.emmaintegrationtest.inapp
+
+import android.os.SystemClock
+import java.util.concurrent.TimeUnit
+
+/**
+ * Caché acotada de respuestas de campañas In-App.
+ *
+ * Cada entrada caduca en dos fases:
+ *
+ * - Durante `ttlMillis` desde que se guarda es **fresca** y se sirve sin pedir nada a EMMA.
+ * - Durante los `staleMillis` siguientes es **obsoleta**: se sirve igualmente para pintar sin esperar
+ *   a la red, pero se indica que hay que revalidarla (stale-while-revalidate).
+ * - Pasado ese tiempo se descarta y cuenta como fallo.
+ *
+ * Cuando se supera `maxEntries` se expulsa la entrada usada hace más tiempo (LRU).
+ *
+ * @param V Tipo de la respuesta guardada.
+ * @param maxEntries Número máximo de respuestas.
+ * @param ttlMillis Tiempo que una respuesta se considera fresca.
+ * @param staleMillis Tiempo adicional que una respuesta puede servirse mientras se revalida.
+ * @param clock Reloj monótono en milisegundos.
+ */
+class CampaignResponseCache<V : Any>(
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val ttlMillis: Long = DEFAULT_TTL_MILLIS,
+    private val staleMillis: Long = DEFAULT_STALE_MILLIS,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() }
+) {
+
+    /**
+     * Resultado de [get].
+     */
+    sealed class Lookup<out V> {
+        /** Respuesta vigente, no hace falta pedirla. */
+        data class Fresh<V>(val value: V) : Lookup<V>()
+
+        /**
+         * Respuesta caducada que se puede mostrar mientras se pide de nuevo.
+         *
+         * @property revalidate `true` sólo para el primero que la encuentra, que es quien debe
+         * lanzar la petición; el resto sólo la muestran.
+         */
+        data class Stale<V>(val value: V, val revalidate: Boolean) : Lookup<V>()
+
+        /** No hay respuesta utilizable. */
+        object Miss : Lookup<Nothing>()
+    }
+
+    /**
+     * Contadores de la caché desde su creación.
+     */
+    data class Stats(
+        val hits: Long,
+        val staleHits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val size: Int
+    )
+
+    private class Entry<V>(val value: V, val storedAt: Long) {
+        var revalidating = false
+    }
+
+    private val entries = LinkedHashMap<InAppCacheKey, Entry<V>>(16, 0.75f, true)
+    // Mismas entradas sin orden de acceso, para consultarlas sin cambiar el orden LRU
+    private val index = HashMap<InAppCacheKey, Entry<V>>()
+    private var hits = 0L
+    private var staleHits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    init {
+        require(maxEntries > 0) { "maxEntries must be positive" }
+    }
+
+    /**
+     * Busca la respuesta de una petición y la marca como usada recientemente.
+     */
+    @Synchronized
+    fun get(key: InAppCacheKey): Lookup<V> {
+        val entry = entries[key]
+        if (entry == null) {
+            misses++
+            return Lookup.Miss
+        }
+        val age = clock() - entry.storedAt
+        return when {
+            age < ttlMillis -> {
+                hits++
+                Lookup.Fresh(entry.value)
+            }
+
+            age < ttlMillis + staleMillis -> {
+                staleHits++
+                val revalidate = !entry.revalidating
+                entry.revalidating = true
+                Lookup.Stale(entry.value, revalidate)
+            }
+
+            else -> {
+                entries.remove(key)
+                index.remove(key)
+                misses++
+                Lookup.Miss
+            }
+        }
+    }
+
+    /**
+     * Indica si hay una respuesta fresca sin contarla como acceso ni cambiar el orden LRU.
+     */
+    @Synchronized
+    fun isFresh(key: InAppCacheKey): Boolean {
+        val entry = index[key] ?: return false
+        return clock() - entry.storedAt < ttlMillis
+    }
+
+    /**
+     * Guarda o sustituye la respuesta de una petición.
+     */
+    @Synchronized
+    fun put(key: InAppCacheKey, value: V) {
+        val entry = Entry(value, clock())
+        entries[key] = entry
+        index[key] = entry
+        if (entries.size > maxEntries) {
+            val eldest = entries.keys.iterator()
+            index.remove(eldest.next())
+            eldest.remove()
+            evictions++
+        }
+    }
+
+    /**
+     * Permite volver a revalidar una respuesta obsoleta, por ejemplo si la petición falló.
+     */
+    @Synchronized
+    fun revalidationFailed(key: InAppCacheKey) {
+        index[key]?.revalidating = false
+    }
+
+    @Synchronized
+    fun invalidate(key: InAppCacheKey) {
+        entries.remove(key)
+        index.remove(key)
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        index.clear()
+    }
+
+    @Synchronized
+    fun stats(): Stats = Stats(hits, staleHits, misses, evictions, entries.size)
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 32
+        val DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5)
+        val DEFAULT_STALE_MILLIS = TimeUnit.MINUTES.toMillis(30)
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.emmaintegrationtest.inapp
+
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMAInAppRequest
+import io.emma.android.model.EMMANativeAdRequest
+
+/**
+ * Identifica una petición In-App a efectos de la [CampaignResponseCache].
+ *
+ * @property type Tipo de campaña solicitada.
+ * @property inAppMessageId Identificador de la campaña, si la petición lo indica.
+ * @property templateId Plantilla de los anuncios nativos.
+ * @property batch Si se piden todos los anuncios nativos de la plantilla.
+ */
+data class InAppCacheKey(
+    val type: EMMACampaign.Type,
+    val inAppMessageId: String? = null,
+    val templateId: String? = null,
+    val batch: Boolean = false
+) {
+
+    companion object {
+
+        /**
+         * Construye la clave de una petición de EMMA.
+         */
+        fun of(request: EMMAInAppRequest): InAppCacheKey =
+            if (request is EMMANativeAdRequest) {
+                InAppCacheKey(request.type, request.inAppMessageId, request.templateId, request.isBatch)
+            } else {
+                InAppCacheKey(request.type, request.inAppMessageId)
+            }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.emmaintegrationtest.inapp
+
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdField
+
+/**
+ * Plan precompilado para volcar el contenido de los anuncios nativos de una plantilla en su vista.
+ *
+ * Se compila una vez por plantilla a partir de su esquema de campos (ver `logs/nativead_log.json`):
+ * cada campo de texto recibe un hueco (`slot`) numerado y se recuerda la posición que ocupa en la
+ * respuesta. Al pintar, el plan recorre los huecos por índice y entrega cada valor al [Target], sin
+ * buscar los campos por nombre ni crear objetos intermedios.
+ *
+ * Los campos de tipo `container` (anuncios en bloque) se compilan igual: sus filas comparten un
+ * esquema con sus propios huecos.
+ *
+ * Los campos opcionales de una plantilla no llegan en todos los anuncios. Si un anuncio trae campos que
+ * el plan no tiene ([covers] devuelve `false`), el plan se amplía con [merge], que conserva los huecos
+ * existentes y añade los nuevos al final.
+ *
+ * ```kotlin
+ * val plan = NativeAdBindingPlan.compile(nativeAd)
+ * plan.bind(nativeAd, holder)
+ * ```
+ *
+ * @property templateId Plantilla para la que se compiló el plan.
+ * @see NativeAdBindingPlans
+ */
+class NativeAdBindingPlan private constructor(
+    val templateId: String?,
+    private val fieldNames: Array<String>,
+    private val fieldPositions: IntArray,
+    private val containerName: String?,
+    private val containerPosition: Int,
+    private val containerFieldNames: Array<String>,
+    private val containerFieldPositions: IntArray
+) {
+
+    /**
+     * Destino de los valores de un anuncio, normalmente la vista reciclada que lo muestra.
+     */
+    interface Target {
+        /**
+         * @param slot Hueco del campo, entre 0 y [fieldCount].
+         * @param value Valor del campo, `null` si el anuncio no lo trae.
+         */
+        fun bindField(slot: Int, value: String?)
+
+        /**
+         * @param row Fila del contenedor.
+         * @param slot Hueco del campo dentro de la fila, entre 0 y [containerFieldCount].
+         * @param value Valor del campo, `null` si la fila no lo trae.
+         */
+        fun bindContainerField(row: Int, slot: Int, value: String?) {}
+    }
+
+    /** Número de campos de texto fuera del contenedor. */
+    val fieldCount: Int get() = fieldNames.size
+
+    /** Número de campos de texto de cada fila del contenedor. */
+    val containerFieldCount: Int get() = containerFieldNames.size
+
+    fun fieldName(slot: Int): String = fieldNames[slot]
+
+    fun containerFieldName(slot: Int): String = containerFieldNames[slot]
+
+    private val knownFields = fieldNames.toHashSet()
+    private val knownContainerFields = containerFieldNames.toHashSet()
+
+    /**
+     * Indica si el plan tiene un hueco para cada campo del anuncio. Como al compilar, sólo se tiene en
+     * cuenta un contenedor por plantilla.
+     */
+    fun covers(nativeAd: NativeAdPayload): Boolean = nativeAd.fields.all { field ->
+        val name = field.name ?: return@all true
+        when {
+            field.type != CONTAINER -> name in knownFields
+            containerName == null -> false
+            name != containerName -> true
+            else -> field.content.all { row -> row.all { it.name == null || it.name in knownContainerFields } }
+        }
+    }
+
+    /**
+     * Indica si el plan tiene un hueco para cada campo del anuncio. Como al compilar, sólo se tiene en
+     * cuenta un contenedor por plantilla.
+     */
+    fun covers(nativeAd: EMMANativeAd): Boolean {
+        val content = nativeAd.nativeAdContent ?: return true
+        for ((name, field) in content) {
+            val rows = field.fieldContainer
+            val covered = when {
+                rows.isNullOrEmpty() -> name in knownFields
+                containerName == null -> false
+                name != containerName -> true
+                else -> rows.all { knownContainerFields.containsAll(it.keys) }
+            }
+            if (!covered) return false
+        }
+        return true
+    }
+
+    /**
+     * Devuelve un plan con los huecos de este y, a continuación, los de [other] que le faltan, de modo
+     * que los huecos ya asociados a una vista no cambian.
+     */
+    fun merge(other: NativeAdBindingPlan): NativeAdBindingPlan {
+        val names = fieldNames.toMutableList()
+        val positions = fieldPositions.toMutableList()
+        other.fieldNames.forEachIndexed { slot, name ->
+            if (name !in knownFields) {
+                names.add(name)
+                positions.add(other.fieldPositions[slot])
+            }
+        }
+        val rowNames = containerFieldNames.toMutableList()
+        val rowPositions = containerFieldPositions.toMutableList()
+        if (containerName == null || containerName == other.containerName) {
+            other.containerFieldNames.forEachIndexed { slot, name ->
+                if (name !in knownContainerFields) {
+                    rowNames.add(name)
+                    rowPositions.add(other.containerFieldPositions[slot])
+                }
+            }
+        }
+        return NativeAdBindingPlan(
+            templateId,
+            names.toTypedArray(),
+            positions.toIntArray(),
+            containerName ?: other.containerName,
+            if (containerName != null) containerPosition else other.containerPosition,
+            rowNames.toTypedArray(),
+            rowPositions.toIntArray()
+        )
+    }
+
+    /**
+     * Vuelca un anuncio decodificado de la respuesta en bruto, como hace `NativeAdStreamDecoder` en las
+     * pruebas y los benchmarks.
+     *
+     * Si los campos llegan en el orden del esquema se accede a ellos por posición; si no, se buscan
+     * por nombre.
+     *
+     * @return Número de filas del contenedor.
+     */
+    fun bind(nativeAd: NativeAdPayload, target: Target): Int {
+        val fields = nativeAd.fields
+        for (slot in fieldNames.indices) {
+            target.bindField(slot, fieldAt(fields, fieldPositions[slot], fieldNames[slot])?.value)
+        }
+        val container = containerName?.let { fieldAt(fields, containerPosition, it) } ?: return 0
+        val rows = container.content
+        for (row in rows.indices) {
+            val rowFields = rows[row]
+            for (slot in containerFieldNames.indices) {
+                val field = fieldAt(rowFields, containerFieldPositions[slot], containerFieldNames[slot])
+                target.bindContainerField(row, slot, field?.value)
+            }
+        }
+        return rows.size
+    }
+
+    /**
+     * Vuelca un anuncio recibido del SDK.
+     *
+     * El SDK entrega el contenido como un mapa, así que cada hueco cuesta un acceso al mapa por su
+     * nombre precalculado; no se recorren las claves ni se crean objetos intermedios.
+     *
+     * @return Número de filas del contenedor.
+     */
+    fun bind(nativeAd: EMMANativeAd, target: Target): Int {
+        val content = nativeAd.nativeAdContent ?: return 0
+        for (slot in fieldNames.indices) {
+            target.bindField(slot, content[fieldNames[slot]]?.fieldValue)
+        }
+        val rows = containerName?.let { content[it]?.fieldContainer } ?: return 0
+        for (row in rows.indices) {
+            val rowFields = rows[row]
+            for (slot in containerFieldNames.indices) {
+                target.bindContainerField(row, slot, rowFields[containerFieldNames[slot]]?.fieldValue)
+            }
+        }
+        return rows.size
+    }
+
+    private fun fieldAt(fields: List<NativeAdPayloadField>, position: Int, name: String): NativeAdPayloadField? {
+        if (position < fields.size && fields[position].name == name) return fields[position]
+        for (i in fields.indices) {
+            if (fields[i].name == name) return fields[i]
+        }
+        return null
+    }
+
+    companion object {
+
+        private const val CONTAINER = "container"
+
+        /**
+         * Compila el plan a partir de un anuncio decodificado de la plantilla.
+         *
+         * El esquema de las filas del contenedor reúne los campos de todas ellas; la posición de cada
+         * campo es la de la primera fila que lo trae.
+         */
+        fun compile(schema: NativeAdPayload): NativeAdBindingPlan {
+            val fields = schema.fields
+            val names = ArrayList<String>()
+            val positions = ArrayList<Int>()
+            var container: NativeAdPayloadField? = null
+            var containerPosition = -1
+            fields.forEachIndexed { position, field ->
+                val name = field.name ?: return@forEachIndexed
+                if (field.type == CONTAINER) {
+                    if (container == null) {
+                        container = field
+                        containerPosition = position
+                    }
+                } else {
+                    names.add(name)
+                    positions.add(position)
+                }
+            }
+            val rowNames = ArrayList<String>()
+            val rowPositions = ArrayList<Int>()
+            container?.content?.forEach { row ->
+                row.forEachIndexed { position, field ->
+                    val name = field.name
+                    if (name != null && name !in rowNames) {
+                        rowNames.add(name)
+                        rowPositions.add(position)
+                    }
+                }
+            }
+            return NativeAdBindingPlan(
+                schema.templateId,
+                names.toTypedArray(),
+                positions.toIntArray(),
+                container?.name,
+                containerPosition,
+                rowNames.toTypedArray(),
+                rowPositions.toIntArray()
+            )
+        }
+
+        /**
+         * Compila el plan a partir de un anuncio de la plantilla recibido del SDK.
+         *
+         * El contenedor es el campo con filas en `fieldContainer`; el esquema de sus filas reúne los
+         * campos de todas ellas.
+         */
+        fun compile(schema: EMMANativeAd): NativeAdBindingPlan {
+            val content: Map<String, EMMANativeAdField> = schema.nativeAdContent ?: emptyMap()
+            val names = ArrayList<String>()
+            var containerName: String? = null
+            val rowNames = LinkedHashSet<String>()
+            for ((name, field) in content) {
+                val rows = field.fieldContainer
+                if (!rows.isNullOrEmpty()) {
+                    if (containerName == null) {
+                        containerName = name
+                        rows.forEach { rowNames.addAll(it.keys) }
+                    }
+                } else {
+                    names.add(name)
+                }
+            }
+            return NativeAdBindingPlan(
+                schema.templateId,
+                names.toTypedArray(),
+                IntArray(names.size) { it },
+                containerName,
+                -1,
+                rowNames.toTypedArray(),
+                IntArray(rowNames.size) { it }
+            )
+        }
+    }
+}
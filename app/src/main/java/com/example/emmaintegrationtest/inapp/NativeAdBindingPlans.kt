@@ -0,0 +1,50 @@
+package com.example.emmaintegrationtest.inapp
+
+import io.emma.android.model.EMMANativeAd
+
+/**
+ * Planes de pintado compilados, uno por plantilla.
+ *
+ * El primer anuncio de cada plantilla sirve de esquema para compilar su [NativeAdBindingPlan]; el
+ * resto de anuncios de la plantilla reutilizan el mismo plan mientras no traigan campos nuevos. Si un
+ * anuncio trae un campo opcional que el plan no tenía, el plan se amplía con él.
+ *
+ * Los planes de los anuncios del SDK y los de las respuestas decodificadas se guardan por separado:
+ * los primeros no conocen la posición de los campos en la respuesta.
+ */
+object NativeAdBindingPlans {
+
+    private val plans = HashMap<String?, NativeAdBindingPlan>()
+    private val payloadPlans = HashMap<String?, NativeAdBindingPlan>()
+
+    @Synchronized
+    fun of(nativeAd: EMMANativeAd): NativeAdBindingPlan {
+        val plan = plans[nativeAd.templateId]
+        if (plan != null && plan.covers(nativeAd)) return plan
+        val compiled = NativeAdBindingPlan.compile(nativeAd)
+        return (plan?.merge(compiled) ?: compiled).also { plans[nativeAd.templateId] = it }
+    }
+
+    @Synchronized
+    fun of(nativeAd: NativeAdPayload): NativeAdBindingPlan {
+        val plan = payloadPlans[nativeAd.templateId]
+        if (plan != null && plan.covers(nativeAd)) return plan
+        val compiled = NativeAdBindingPlan.compile(nativeAd)
+        return (plan?.merge(compiled) ?: compiled).also { payloadPlans[nativeAd.templateId] = it }
+    }
+
+    /**
+     * Descarta el plan de una plantilla, por ejemplo si se ha cambiado su esquema en la plataforma.
+     */
+    @Synchronized
+    fun invalidate(templateId: String?) {
+        plans.remove(templateId)
+        payloadPlans.remove(templateId)
+    }
+
+    @Synchronized
+    fun clear() {
+        plans.clear()
+        payloadPlans.clear()
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.emmaintegrationtest.inapp
+
+/**
+ * Anuncio nativo tal y como llega en las respuestas de EMMA (`native_ad` y `native_ads[]`).
+ *
+ * @property campaignId Identificador de la campaña (`campaign_id`).
+ * @property templateId Plantilla del anuncio (`id`).
+ * @property fields Campos del anuncio en el orden de la respuesta.
+ */
+data class NativeAdPayload(
+    val campaignId: Long,
+    val templateId: String?,
+    val cta: String?,
+    val tag: String?,
+    val showOn: Int,
+    val canClose: Boolean,
+    val params: Map<String, String>,
+    val fields: List<NativeAdPayloadField>
+)
+
+/**
+ * Campo de un [NativeAdPayload].
+ *
+ * Los campos de tipo `container` no tienen valor y agrupan sus campos en filas dentro de [content].
+ */
+data class NativeAdPayloadField(
+    val name: String?,
+    val type: String?,
+    val subtype: String?,
+    val value: String?,
+    val custom: Boolean = false,
+    val mandatory: Boolean = false,
+    val content: List<List<NativeAdPayloadField>> = emptyList()
+)
@@ -0,0 +1,126 @@
+package com.example.emmaintegrationtest.inapp
+
+import android.os.Looper
+import android.os.MessageQueue
+import android.os.SystemClock
+import io.emma.android.EMMA
+import io.emma.android.interfaces.EMMABatchNativeAdInterface
+import io.emma.android.interfaces.EMMANativeAdInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdRequest
+import java.util.concurrent.TimeUnit
+
+/**
+ * Precarga los anuncios nativos de unas plantillas cuando el hilo principal está ocioso.
+ *
+ * Las respuestas se guardan en la [CampaignResponseCache] que usa la pantalla, de modo que la
+ * primera vez que se muestra el anuncio ya está en memoria. Mientras está activo, vuelve a pedir
+ * las plantillas cuya respuesta ha caducado. Como mucho lanza una petición por cada pasada ociosa
+ * para no competir con la interfaz.
+ *
+ * Las precargas no envían impresiones: se envían cuando el anuncio se muestra.
+ *
+ * ```kotlin
+ * val prefetcher = NativeAdPrefetcher(listOf("plantilla-nativead-android"), NativeAdHandler.responseCache)
+ * prefetcher.start()
+ * ```
+ *
+ * @param templateIds Plantillas que se van a mostrar.
+ * @param cache Caché donde se dejan las respuestas.
+ * @param batch Si las plantillas se piden en bloque.
+ * @param queue Cola del hilo en el que se precarga.
+ * @param clock Reloj monótono en milisegundos.
+ * @param send Envío de la petición a EMMA.
+ */
+class NativeAdPrefetcher(
+    templateIds: Collection<String>,
+    private val cache: CampaignResponseCache<List<EMMANativeAd>>,
+    private val batch: Boolean = false,
+    private val queue: () -> MessageQueue = Looper::myQueue,
+    private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+    private val send: (EMMANativeAdRequest, NativeAdPrefetcher) -> Unit = { request, listener ->
+        EMMA.getInstance().getInAppMessage(request, listener)
+    }
+) : MessageQueue.IdleHandler, EMMANativeAdInterface, EMMABatchNativeAdInterface {
+
+    private val keys = templateIds.map { InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = it, batch = batch) }
+    private val requestedAt = HashMap<InAppCacheKey, Long>()
+    private var nextCheck = 0L
+    private var started = false
+
+    /**
+     * Empieza a precargar en las pasadas ociosas de [queue], por defecto la del hilo actual, que debe
+     * tener un [Looper].
+     */
+    fun start() {
+        if (!started) {
+            started = true
+            nextCheck = 0L
+            queue().addIdleHandler(this)
+        }
+    }
+
+    fun stop() {
+        if (started) {
+            started = false
+            queue().removeIdleHandler(this)
+        }
+    }
+
+    /**
+     * Se ejecuta cada vez que la cola de mensajes se queda vacía.
+     *
+     * @return `true` para seguir registrado.
+     */
+    override fun queueIdle(): Boolean {
+        val now = clock()
+        if (now < nextCheck) return started
+        nextCheck = now + CHECK_INTERVAL_MILLIS
+        val key = keys.firstOrNull { key ->
+            !cache.isFresh(key) && (requestedAt[key]?.let { now - it > REQUEST_TIMEOUT_MILLIS } ?: true)
+        } ?: return started
+        requestedAt[key] = now
+        val request = EMMANativeAdRequest()
+        request.templateId = key.templateId
+        request.isBatch = batch
+        send(request, this)
+        // Si quedan plantillas pendientes se piden en la siguiente pasada
+        nextCheck = now
+        return started
+    }
+
+    override fun onReceived(nativeAd: EMMANativeAd) {
+        store(nativeAd.templateId, listOf(nativeAd))
+    }
+
+    override fun onBatchReceived(nativeAds: MutableList<EMMANativeAd>) {
+        store(nativeAds.firstOrNull()?.templateId, nativeAds.toList())
+    }
+
+    private fun store(templateId: String?, nativeAds: List<EMMANativeAd>) {
+        val key = keys.firstOrNull { it.templateId == templateId } ?: return
+        requestedAt.remove(key)
+        cache.put(key, nativeAds)
+    }
+
+    override fun onShown(campaign: EMMACampaign?) {
+        // not implemented
+    }
+
+    override fun onHide(campaign: EMMACampaign?) {
+        // not implemented
+    }
+
+    override fun onClose(campaign: EMMACampaign?) {
+        // not implemented
+    }
+
+    companion object {
+        /** Tiempo mínimo entre comprobaciones de las plantillas. */
+        val CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30)
+
+        /** Tiempo tras el que una petición sin respuesta se vuelve a lanzar. */
+        val REQUEST_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1)
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.emmaintegrationtest.links;
+
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Powlink and short powlink domains compiled into hash tables, so classifying the host of
+ * a link costs one lookup per label instead of a scan of every configured domain.
+ * <p>
+ * Exact hosts are looked up directly. Wildcard domains sit in an open addressing table
+ * keyed by the {@link String#hashCode()} of the parent domain, which is computed
+ * incrementally while walking the host from its end, so no substring is created per label.
+ * <p>
+ * A domain matches its exact host. A domain starting with <code>*.</code> matches every
+ * subdomain of the rest, but not the rest itself. Domains are compared ignoring case, and
+ * a scheme, port or path copied along with them is ignored. The most specific domain
+ * wins: an exact host before a wildcard, and a longer wildcard before a shorter one. A
+ * domain in both lists counts as a powlink.
+ * <p>
+ * Matchers are immutable. The <code>with</code> methods return the same matcher when the
+ * list did not change, so it is compiled again only when the domains are updated.
+ *
+ * <pre>
+ * {@code
+ *
+ * LinkDomainMatcher matcher = LinkDomainMatcher.compile(
+ *         new String[]{"subdomain.powlink.io", "*.campaigns.example.com"},
+ *         new String[]{"shortsubdomain.pwlnk.io"});
+ * matcher.match("summer.campaigns.example.com"); // POWLINK
+ * }
+ * </pre>
+ */
+public final class LinkDomainMatcher {
+
+    /**
+     * List a host matched.
+     */
+    public enum Kind {
+        POWLINK,
+        SHORT_POWLINK
+    }
+
+    public static final LinkDomainMatcher EMPTY = compile(null, null);
+
+    private static final String WILDCARD = "*.";
+
+    private final String[] powlinkDomains;
+    private final String[] shortPowlinkDomains;
+    private final Map<String, Kind> exact;
+    private final String[] wildcardDomains;
+    private final Kind[] wildcardKinds;
+    private final int wildcardCount;
+
+    private LinkDomainMatcher(String[] powlinkDomains, String[] shortPowlinkDomains) {
+        this.powlinkDomains = powlinkDomains;
+        this.shortPowlinkDomains = shortPowlinkDomains;
+        int size = powlinkDomains.length + shortPowlinkDomains.length;
+        this.exact = new HashMap<>(size * 2);
+        Map<String, Kind> wildcards = new HashMap<>();
+        // Powlinks are added last so they win over short powlinks with the same domain
+        add(shortPowlinkDomains, Kind.SHORT_POWLINK, wildcards);
+        add(powlinkDomains, Kind.POWLINK, wildcards);
+
+        int capacity = Integer.highestOneBit(Math.max(wildcards.size(), 1) * 4 - 1) << 1;
+        this.wildcardDomains = new String[capacity];
+        this.wildcardKinds = new Kind[capacity];
+        this.wildcardCount = wildcards.size();
+        for (Map.Entry<String, Kind> entry : wildcards.entrySet()) {
+            int slot = slot(entry.getKey().hashCode());
+            while (wildcardDomains[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            wildcardDomains[slot] = entry.getKey();
+            wildcardKinds[slot] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param powlinkDomains      Powlink domains, or <code>null</code>.
+     * @param shortPowlinkDomains Short powlink domains, or <code>null</code>.
+     */
+    public static LinkDomainMatcher compile(String[] powlinkDomains, String[] shortPowlinkDomains) {
+        return new LinkDomainMatcher(copy(powlinkDomains), copy(shortPowlinkDomains));
+    }
+
+    /**
+     * @return A matcher with the given powlink domains, this one if they did not change.
+     */
+    public LinkDomainMatcher withPowlinkDomains(String... domains) {
+        if (Arrays.equals(powlinkDomains, copy(domains))) {
+            return this;
+        }
+        return new LinkDomainMatcher(copy(domains), shortPowlinkDomains);
+    }
+
+    /**
+     * @return A matcher with the given short powlink domains, this one if they did not change.
+     */
+    public LinkDomainMatcher withShortPowlinkDomains(String... domains) {
+        if (Arrays.equals(shortPowlinkDomains, copy(domains))) {
+            return this;
+        }
+        return new LinkDomainMatcher(powlinkDomains, copy(domains));
+    }
+
+    /**
+     * @return The list the host of an http or https link belongs to, or <code>null</code>.
+     */
+    public Kind match(Uri uri) {
+        if (uri == null) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        if (!"https".equalsIgnoreCase(scheme) && !"http".equalsIgnoreCase(scheme)) {
+            return null;
+        }
+        return match(uri.getHost());
+    }
+
+    /**
+     * @return The list the host belongs to, or <code>null</code>.
+     */
+    public Kind match(String host) {
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        host = normalizeHost(host);
+        if (host == null) {
+            return null;
+        }
+        Kind kind = exact.get(host);
+        if (kind != null || wildcardCount == 0) {
+            return kind;
+        }
+        // String.hashCode of host.substring(start), built from the last character backwards;
+        // parent domains are met shortest first, so the last match is the most specific
+        int hash = 0;
+        int power = 1;
+        for (int start = host.length() - 1; start > 0; start--) {
+            hash += host.charAt(start) * power;
+            power *= 31;
+            if (host.charAt(start - 1) == '.') {
+                Kind wildcard = wildcard(host, start, hash);
+                if (wildcard != null) {
+                    kind = wildcard;
+                }
+            }
+        }
+        return kind;
+    }
+
+    private Kind wildcard(String host, int start, int hash) {
+        int length = host.length() - start;
+        for (int slot = slot(hash); wildcardDomains[slot] != null; slot = (slot + 1) & (wildcardDomains.length - 1)) {
+            String domain = wildcardDomains[slot];
+            if (domain.hashCode() == hash && domain.length() == length
+                    && host.regionMatches(start, domain, 0, length)) {
+                return wildcardKinds[slot];
+            }
+        }
+        return null;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (wildcardDomains.length - 1);
+    }
+
+    /**
+     * @return Number of distinct domains compiled.
+     */
+    public int size() {
+        return exact.size() + wildcardCount;
+    }
+
+    private void add(String[] domains, Kind kind, Map<String, Kind> wildcards) {
+        for (String domain : domains) {
+            String normalized = normalize(domain);
+            if (normalized == null) {
+                continue;
+            }
+            if (normalized.startsWith(WILDCARD)) {
+                if (normalized.length() > WILDCARD.length()) {
+                    wildcards.put(normalized.substring(WILDCARD.length()), kind);
+                }
+            } else {
+                exact.put(normalized, kind);
+            }
+        }
+    }
+
+    /**
+     * @return The domain in lower case without scheme, port, path or final dot, or
+     * <code>null</code> if nothing is left.
+     */
+    static String normalize(String domain) {
+        if (domain == null) {
+            return null;
+        }
+        String normalized = domain.trim().toLowerCase(Locale.ROOT);
+        int scheme = normalized.indexOf("://");
+        if (scheme >= 0) {
+            normalized = normalized.substring(scheme + 3);
+        }
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c == '/' || c == ':' || c == '?' || c == '#') {
+                normalized = normalized.substring(0, i);
+                break;
+            }
+        }
+        if (normalized.endsWith(".")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    /**
+     * Lower cases the host only when needed; hosts parsed from links usually already are.
+     */
+    private static String normalizeHost(String host) {
+        for (int i = 0, length = host.length(); i < length; i++) {
+            char c = host.charAt(i);
+            if ((c >= 'A' && c <= 'Z') || c > 0x7F || (c == '.' && i == length - 1)) {
+                return normalize(host);
+            }
+        }
+        return host;
+    }
+
+    private static String[] copy(String[] domains) {
+        return domains == null ? new String[0] : domains.clone();
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.emmaintegrationtest.metrics;
+
+import com.example.emmaintegrationtest.startup.PendingCall;
+
+/**
+ * Facade methods measured by {@link FacadeMetrics}.
+ * <p>
+ * The first constants mirror {@link PendingCall}, in the same order, so a held or
+ * dropped call maps to its method without a lookup. The rest are the methods that are
+ * never held: they are recorded as dropped when the session is not started.
+ * <code>TRACK_BUILT_ORDER</code> is {@code trackOrder(OrderBuilder)}; when it has to
+ * be held or journaled, its steps are also recorded under their own methods.
+ */
+public enum FacadeMethod {
+
+    TRACK_EVENT,
+    LOGIN_USER,
+    REGISTER_USER,
+    TRACK_EXTRA_USER_INFO,
+    SET_CUSTOMER_ID,
+    START_ORDER,
+    ADD_PRODUCT,
+    TRACK_ORDER,
+    CANCEL_ORDER,
+    START_PUSH_SYSTEM,
+    ON_NEW_NOTIFICATION,
+    ADD_PUSH_TOKEN,
+    ADD_COUPONS_CALLBACK,
+    SEND_IN_APP_CLICK,
+    SEND_IN_APP_DISMISSED_CLICK,
+    SEND_IN_APP_IMPRESSION,
+    ADD_IN_APP_PLUGINS,
+    SET_USER_LANGUAGE,
+    GET_IN_APP_MESSAGE,
+    TRACK_BUILT_ORDER,
+    SET_WEB_SERVICE_URL,
+    TRACK_SCREEN_EVENTS,
+    START_TRACKING_LOCATION,
+    DISABLE_TRACKING_LOCATION,
+    GET_USER_ID,
+    GET_UUID,
+    GET_APPLICATION_CONTEXT,
+    CHECK_FOR_RICH_PUSH_URL,
+    SET_POWLINK_DOMAINS,
+    SET_SHORT_POWLINK_DOMAINS,
+    SYNC_WITH_SDK_WEB,
+    CHECK_DELEGATE_METHODS,
+    GET_USER_INFO,
+    GET_NOTIFICATION_INFO,
+    GET_PUSH_TOKEN,
+    UNREGISTER_PUSH_SERVICE,
+    CANCEL_IN_APP_MESSAGE,
+    CLOSE_IN_APP_MESSAGE,
+    ADD_NATIVE_AD_LISTENER,
+    ADD_BATCH_NATIVE_AD_LISTENER,
+    ADD_IN_APP_MESSAGE_LISTENER,
+    REMOVE_IN_APP_MESSAGE_LISTENER,
+    REMOVE_NATIVE_AD_LISTENER,
+    REMOVE_BATCH_NATIVE_AD_LISTENER,
+    OPEN_NATIVE_AD,
+    GET_IN_APP_LISTENERS,
+    SET_BANNER_PARAMS,
+    SET_CURRENT_ACTIVITY,
+    GET_DEVICE_ID,
+    GET_INSTALL_ATTRIBUTION_INFO,
+    GET_LAST_RETARGETING_CLICK_KEY,
+    REQUEST_NOTIFICATION_PERMISSION,
+    ARE_NOTIFICATIONS_ENABLED,
+    DISABLE_USER_TRACKING,
+    ENABLE_USER_TRACKING,
+    IS_USER_TRACKING_ENABLED,
+    RESET;
+
+    private static final FacadeMethod[] VALUES = values();
+
+    /**
+     * @return The method whose call is held as <code>call</code>.
+     */
+    public static FacadeMethod of(PendingCall call) {
+        return VALUES[call.ordinal()];
+    }
+}
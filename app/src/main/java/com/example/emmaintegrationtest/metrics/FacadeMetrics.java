@@ -0,0 +1,48 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Receives measurements of the EMMA facade.
+ * <p>
+ * Methods are called on the thread that calls the facade, or on the thread where the SDK
+ * answers a listener, so implementations must be thread-safe and must not block.
+ * {@link StripedFacadeMetrics} is the default implementation.
+ */
+public interface FacadeMetrics {
+
+    /**
+     * A facade call returned.
+     *
+     * @param method   The method called.
+     * @param duration Time spent in the facade, in nanoseconds.
+     */
+    void recordCall(FacadeMethod method, long duration);
+
+    /**
+     * A call made before the session start was held to be replayed later.
+     */
+    void recordDeferred(FacadeMethod method);
+
+    /**
+     * A call was dropped because the session was not started.
+     */
+    void recordDropped(FacadeMethod method);
+
+    /**
+     * The SDK answered the listener passed to a call.
+     *
+     * @param method  The method called.
+     * @param latency Time from the call to the first callback, in nanoseconds.
+     */
+    void recordResponse(FacadeMethod method, long latency);
+
+    /**
+     * Registers a value sampled when a snapshot is taken, such as the depth of a queue.
+     *
+     * @param name  Name of the value in the snapshot.
+     * @param gauge Supplier of the current value; it is called on the snapshot thread.
+     */
+    default void registerGauge(String name, LongSupplier gauge) {
+    }
+}
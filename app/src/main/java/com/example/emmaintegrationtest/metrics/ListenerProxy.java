@@ -0,0 +1,71 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Dynamic proxies that stand in for an SDK listener.
+ * <p>
+ * The proxy implements every public interface of the listener, so the SDK still sees a
+ * native ad, batch or coupon listener where it expects one.
+ */
+final class ListenerProxy {
+
+    private ListenerProxy() {
+    }
+
+    static <T> T create(T listener, Class<T> type, InvocationHandler handler) {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> c = listener.getClass(); c != null; c = c.getSuperclass()) {
+            collectInterfaces(c, interfaces);
+        }
+        interfaces.add(type);
+        Object proxy = Proxy.newProxyInstance(listener.getClass().getClassLoader(),
+                interfaces.toArray(new Class<?>[0]), handler);
+        return type.cast(proxy);
+    }
+
+    private static void collectInterfaces(Class<?> type, Set<Class<?>> interfaces) {
+        for (Class<?> implemented : type.getInterfaces()) {
+            // Non-public interfaces would tie the proxy to their package
+            if (Modifier.isPublic(implemented.getModifiers()) && interfaces.add(implemented)) {
+                collectInterfaces(implemented, interfaces);
+            }
+        }
+    }
+
+    static boolean isObjectMethod(Method invoked) {
+        return invoked.getDeclaringClass() == Object.class;
+    }
+
+    /**
+     * Answers the <code>Object</code> methods of the proxy as the listener would.
+     */
+    static Object invokeObjectMethod(Object proxy, Object listener, Method invoked, Object[] args)
+            throws Throwable {
+        switch (invoked.getName()) {
+            case "equals":
+                return proxy == args[0] || listener.equals(args[0]);
+            case "hashCode":
+                return listener.hashCode();
+            default:
+                return forward(listener, invoked, args);
+        }
+    }
+
+    /**
+     * Calls <code>invoked</code> on the listener, rethrowing what the listener threw.
+     */
+    static Object forward(Object listener, Method invoked, Object[] args) throws Throwable {
+        try {
+            return invoked.invoke(listener, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Counters and latencies of the facade at one point in time.
+ * <p>
+ * {@link #toString()} renders one line per method and gauge, suitable for logs or a
+ * debug screen; the getters give access to the raw values for other exporters.
+ */
+public final class MetricsSnapshot {
+
+    private final Map<FacadeMethod, MethodStats> methods;
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(Map<FacadeMethod, MethodStats> methods, Map<String, Long> gauges) {
+        this.methods = Collections.unmodifiableMap(methods);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * @return Stats of the methods that were used, in declaration order.
+     */
+    public Map<FacadeMethod, MethodStats> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return The stats of <code>method</code>, or <code>null</code> if it was not used.
+     */
+    public MethodStats get(FacadeMethod method) {
+        return methods.get(method);
+    }
+
+    /**
+     * @return Values of the registered gauges when the snapshot was taken.
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<FacadeMethod, MethodStats> method : methods.entrySet()) {
+            builder.append(method.getKey()).append(' ').append(method.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> gauge : gauges.entrySet()) {
+            builder.append(gauge.getKey()).append('=').append(gauge.getValue()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Counters of one facade method.
+     */
+    public static final class MethodStats {
+
+        private final long calls;
+        private final long deferred;
+        private final long dropped;
+        private final LatencyHistogram.Snapshot callLatency;
+        private final LatencyHistogram.Snapshot responseLatency;
+
+        MethodStats(long calls, long deferred, long dropped, LatencyHistogram.Snapshot callLatency,
+                    LatencyHistogram.Snapshot responseLatency) {
+            this.calls = calls;
+            this.deferred = deferred;
+            this.dropped = dropped;
+            this.callLatency = callLatency;
+            this.responseLatency = responseLatency;
+        }
+
+        /**
+         * @return Calls that returned, including the ones deferred or dropped.
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return Calls held before the session start.
+         */
+        public long getDeferred() {
+            return deferred;
+        }
+
+        /**
+         * @return Calls dropped because the session was not started.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return Time spent in the facade.
+         */
+        public LatencyHistogram.Snapshot getCallLatency() {
+            return callLatency;
+        }
+
+        /**
+         * @return Time until the SDK answered the listener, or <code>null</code> if the
+         * method has no listener or was never answered.
+         */
+        public LatencyHistogram.Snapshot getResponseLatency() {
+            return responseLatency;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + calls + " deferred=" + deferred + " dropped=" + dropped +
+                    " call[" + callLatency + "]" +
+                    (responseLatency == null ? "" : " response[" + responseLatency + "]");
+        }
+    }
+}
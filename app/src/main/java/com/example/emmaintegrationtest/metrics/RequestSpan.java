@@ -0,0 +1,108 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timeline of one in-app request, from the call to the facade to the end of its listener.
+ * <p>
+ * Each {@link Stage} is stamped once with {@link System#nanoTime()}, possibly from different
+ * threads. The time between two consecutive stages is the cost of one hop:
+ * <ul>
+ * <li>{@link Stage#SUBMITTED}: handing the request to the SDK.</li>
+ * <li>{@link Stage#RECEIVED}: everything the SDK does before answering, that is queue
+ * wait, network, parsing and the dispatch to the listener thread.</li>
+ * <li>{@link Stage#HANDLED}: the listener, including the render on the main thread.</li>
+ * </ul>
+ */
+public final class RequestSpan {
+
+    public enum Stage {
+        /** The request was built and is about to be sent. */
+        ISSUED,
+        /** The SDK accepted the request. */
+        SUBMITTED,
+        /** The SDK called the listener back. */
+        RECEIVED,
+        /** The listener returned. */
+        HANDLED
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final long correlationId;
+    private final String name;
+    private final AtomicLongArray timestamps = new AtomicLongArray(STAGES.length);
+
+    RequestSpan(long correlationId, String name) {
+        this.correlationId = correlationId;
+        this.name = name;
+        timestamps.set(Stage.ISSUED.ordinal(), System.nanoTime());
+    }
+
+    /**
+     * @return Identifier shared by every stage of this request.
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return Type of the request, such as <code>NATIVEAD</code>.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Stamps <code>stage</code> with the current time, unless it was already stamped.
+     */
+    public void mark(Stage stage) {
+        mark(stage, System.nanoTime());
+    }
+
+    void mark(Stage stage, long now) {
+        timestamps.compareAndSet(stage.ordinal(), 0L, now);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when <code>stage</code> was reached, or <code>0</code>
+     * if it was not.
+     */
+    public long getTimestamp(Stage stage) {
+        return timestamps.get(stage.ordinal());
+    }
+
+    /**
+     * @return Nanoseconds from the previous stage to <code>stage</code>, or <code>-1</code> if
+     * either was not reached.
+     */
+    public long getDuration(Stage stage) {
+        if (stage == Stage.ISSUED) {
+            return 0L;
+        }
+        long from = getTimestamp(STAGES[stage.ordinal() - 1]);
+        long to = getTimestamp(stage);
+        return from == 0L || to == 0L ? -1L : to - from;
+    }
+
+    /**
+     * @return Nanoseconds from {@link Stage#ISSUED} to {@link Stage#HANDLED}, or <code>-1</code>
+     * if the listener has not returned.
+     */
+    public long getTotal() {
+        long to = getTimestamp(Stage.HANDLED);
+        return to == 0L ? -1L : to - getTimestamp(Stage.ISSUED);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append(name).append('#').append(correlationId);
+        for (int i = 1; i < STAGES.length; i++) {
+            long duration = getDuration(STAGES[i]);
+            builder.append(' ').append(STAGES[i].name().toLowerCase(Locale.ROOT)).append('=')
+                    .append(duration < 0 ? "-" : String.format(Locale.ROOT, "%.3fms", duration / 1e6));
+        }
+        return builder.toString();
+    }
+}
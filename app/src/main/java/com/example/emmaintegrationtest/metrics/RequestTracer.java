@@ -0,0 +1,100 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.emma.android.model.EMMAInAppRequest;
+
+/**
+ * Traces in-app requests from the call to <code>getInAppMessage</code> to the end of the
+ * listener callback.
+ * <p>
+ * {@link #begin(EMMAInAppRequest)} opens a {@link RequestSpan} with a new correlation id and
+ * {@link #trace(RequestSpan, Object, Class)} wraps the listener in a proxy bound to that span.
+ * <code>EMMAInAppRequest</code> belongs to the SDK and has no free field to carry the id,
+ * since <code>inAppMessageId</code> already names the campaign or coupon, so the id travels
+ * with the listener instead. While the listener runs, {@link #current()} returns its span.
+ *
+ * <pre>
+ * {@code
+ *  RequestSpan span = tracer.begin(request);
+ *  EMMA.getInstance().getInAppMessage(request, tracer.trace(span, listener, EMMAInAppMessageInterface.class));
+ *  span.mark(RequestSpan.Stage.SUBMITTED);
+ *  }
+ *  </pre>
+ */
+public final class RequestTracer {
+
+    private static final ThreadLocal<RequestSpan> CURRENT = new ThreadLocal<>();
+
+    private final SpanExporter exporter;
+    private final AtomicLong ids = new AtomicLong();
+
+    public RequestTracer(SpanExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Opens the span of <code>request</code>, stamped as {@link RequestSpan.Stage#ISSUED}.
+     */
+    public RequestSpan begin(EMMAInAppRequest request) {
+        return new RequestSpan(ids.incrementAndGet(), String.valueOf(request.getType()));
+    }
+
+    /**
+     * @param listener Listener that will be passed to the SDK.
+     * @param type     Type the SDK expects for the listener.
+     * @return A listener of the same interfaces that finishes <code>span</code> on its first
+     * callback and exports it.
+     */
+    public <T> T trace(RequestSpan span, T listener, Class<T> type) {
+        return ListenerProxy.create(listener, type, new TracingHandler(listener, span, exporter));
+    }
+
+    /**
+     * @return Span of the request whose listener is running on this thread, or
+     * <code>null</code>.
+     */
+    public static RequestSpan current() {
+        return CURRENT.get();
+    }
+
+    private static final class TracingHandler implements InvocationHandler {
+
+        private final Object listener;
+        private final RequestSpan span;
+        private final SpanExporter exporter;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        TracingHandler(Object listener, RequestSpan span, SpanExporter exporter) {
+            this.listener = listener;
+            this.span = span;
+            this.exporter = exporter;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method invoked, Object[] args) throws Throwable {
+            if (ListenerProxy.isObjectMethod(invoked)) {
+                return ListenerProxy.invokeObjectMethod(proxy, listener, invoked, args);
+            }
+            if (!answered.compareAndSet(false, true)) {
+                return ListenerProxy.forward(listener, invoked, args);
+            }
+            // A callback that arrives before getInAppMessage returns still leaves a SUBMITTED stamp
+            long now = System.nanoTime();
+            span.mark(RequestSpan.Stage.SUBMITTED, now);
+            span.mark(RequestSpan.Stage.RECEIVED, now);
+            RequestSpan outer = CURRENT.get();
+            CURRENT.set(span);
+            try {
+                return ListenerProxy.forward(listener, invoked, args);
+            } finally {
+                span.mark(RequestSpan.Stage.HANDLED);
+                CURRENT.set(outer);
+                exporter.export(span);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps a listener so the time until the SDK first calls it back is recorded.
+ * <p>
+ * The wrapper is a dynamic proxy implementing every public interface of the listener, so the
+ * SDK still sees a native ad, batch or coupon listener where it expects one. Calls are
+ * forwarded unchanged; only the first callback other than the <code>Object</code>
+ * methods is timed.
+ */
+public final class ResponseTimer implements InvocationHandler {
+
+    private final Object listener;
+    private final FacadeMetrics metrics;
+    private final FacadeMethod method;
+    private final long start;
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    private ResponseTimer(Object listener, FacadeMetrics metrics, FacadeMethod method, long start) {
+        this.listener = listener;
+        this.metrics = metrics;
+        this.method = method;
+        this.start = start;
+    }
+
+    /**
+     * @param listener Listener passed to the facade.
+     * @param type     Type the facade expects for the listener.
+     * @param start    {@link System#nanoTime()} when the facade was called.
+     * @return A listener of the same interfaces that records the response latency.
+     */
+    public static <T> T wrap(T listener, Class<T> type, FacadeMetrics metrics, FacadeMethod method,
+                             long start) {
+        return ListenerProxy.create(listener, type, new ResponseTimer(listener, metrics, method, start));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method invoked, Object[] args) throws Throwable {
+        if (ListenerProxy.isObjectMethod(invoked)) {
+            return ListenerProxy.invokeObjectMethod(proxy, listener, invoked, args);
+        }
+        if (answered.compareAndSet(false, true)) {
+            metrics.recordResponse(method, System.nanoTime() - start);
+        }
+        return ListenerProxy.forward(listener, invoked, args);
+    }
+}
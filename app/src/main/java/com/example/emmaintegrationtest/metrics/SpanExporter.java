@@ -0,0 +1,14 @@
+package com.example.emmaintegrationtest.metrics;
+
+/**
+ * Receives the spans finished by a {@link RequestTracer}.
+ * <p>
+ * Spans are exported on the thread where the listener returned, usually the main thread,
+ * so implementations must be thread-safe and must not block. {@link StageBreakdown}
+ * aggregates them; a lambda that logs {@link RequestSpan#toString()} is enough to see
+ * individual requests.
+ */
+public interface SpanExporter {
+
+    void export(RequestSpan span);
+}
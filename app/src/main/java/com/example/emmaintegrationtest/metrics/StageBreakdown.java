@@ -0,0 +1,74 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.util.Locale;
+
+/**
+ * {@link SpanExporter} that aggregates the time spent in each stage of the traced requests.
+ * <p>
+ * Every stage has a {@link LatencyHistogram} of the time from the previous stage, plus one
+ * for the whole request, so the breakdown shows whether the time goes to the SDK or to
+ * the listener. Spans can be forwarded to another exporter, such as a log.
+ */
+public final class StageBreakdown implements SpanExporter {
+
+    private static final RequestSpan.Stage[] STAGES = RequestSpan.Stage.values();
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final SpanExporter next;
+
+    public StageBreakdown() {
+        this(null);
+    }
+
+    /**
+     * @param next Exporter that also receives every span, or <code>null</code>.
+     */
+    public StageBreakdown(SpanExporter next) {
+        this.next = next;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void export(RequestSpan span) {
+        for (int i = 1; i < STAGES.length; i++) {
+            long duration = span.getDuration(STAGES[i]);
+            if (duration >= 0) {
+                stages[i].record(duration);
+            }
+        }
+        long requestTotal = span.getTotal();
+        if (requestTotal >= 0) {
+            total.record(requestTotal);
+        }
+        if (next != null) {
+            next.export(span);
+        }
+    }
+
+    /**
+     * @return Time from the previous stage to <code>stage</code>.
+     */
+    public LatencyHistogram.Snapshot get(RequestSpan.Stage stage) {
+        return stages[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * @return Time from {@link RequestSpan.Stage#ISSUED} to {@link RequestSpan.Stage#HANDLED}.
+     */
+    public LatencyHistogram.Snapshot getTotal() {
+        return total.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 1; i < STAGES.length; i++) {
+            builder.append(STAGES[i].name().toLowerCase(Locale.ROOT)).append(' ')
+                    .append(stages[i].snapshot()).append('\n');
+        }
+        return builder.append("total ").append(total.snapshot()).append('\n').toString();
+    }
+}
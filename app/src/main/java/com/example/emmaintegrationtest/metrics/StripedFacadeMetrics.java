@@ -0,0 +1,99 @@
+package com.example.emmaintegrationtest.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link FacadeMetrics} backed by striped counters.
+ * <p>
+ * Every {@link FacadeMethod} has its own {@link LongAdder} counters and
+ * {@link LatencyHistogram}, so threads calling the facade concurrently do not contend on
+ * a shared cache line. Response histograms are created the first time a method records a
+ * response. {@link #snapshot()} reads everything without stopping the writers.
+ */
+public final class StripedFacadeMetrics implements FacadeMetrics {
+
+    private static final FacadeMethod[] METHODS = FacadeMethod.values();
+
+    private final LongAdder[] calls = adders();
+    private final LongAdder[] deferred = adders();
+    private final LongAdder[] dropped = adders();
+    private final LatencyHistogram[] callLatency = new LatencyHistogram[METHODS.length];
+    private final AtomicReferenceArray<LatencyHistogram> responseLatency =
+            new AtomicReferenceArray<>(METHODS.length);
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public StripedFacadeMetrics() {
+        for (int i = 0; i < METHODS.length; i++) {
+            callLatency[i] = new LatencyHistogram();
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[METHODS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public void recordCall(FacadeMethod method, long duration) {
+        calls[method.ordinal()].increment();
+        callLatency[method.ordinal()].record(duration);
+    }
+
+    @Override
+    public void recordDeferred(FacadeMethod method) {
+        deferred[method.ordinal()].increment();
+    }
+
+    @Override
+    public void recordDropped(FacadeMethod method) {
+        dropped[method.ordinal()].increment();
+    }
+
+    @Override
+    public void recordResponse(FacadeMethod method, long latency) {
+        int index = method.ordinal();
+        LatencyHistogram histogram = responseLatency.get(index);
+        if (histogram == null) {
+            responseLatency.compareAndSet(index, null, new LatencyHistogram());
+            histogram = responseLatency.get(index);
+        }
+        histogram.record(latency);
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return Counters of the methods called at least once, and the current gauge values.
+     */
+    public MetricsSnapshot snapshot() {
+        Map<FacadeMethod, MetricsSnapshot.MethodStats> methods = new LinkedHashMap<>();
+        for (FacadeMethod method : METHODS) {
+            int i = method.ordinal();
+            long callCount = calls[i].sum();
+            long deferredCount = deferred[i].sum();
+            long droppedCount = dropped[i].sum();
+            LatencyHistogram response = responseLatency.get(i);
+            if (callCount == 0 && deferredCount == 0 && droppedCount == 0 && response == null) {
+                continue;
+            }
+            methods.put(method, new MetricsSnapshot.MethodStats(callCount, deferredCount, droppedCount,
+                    callLatency[i].snapshot(), response == null ? null : response.snapshot()));
+        }
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return new MetricsSnapshot(methods, values);
+    }
+}
@@ -0,0 +1,280 @@
+package com.example.emmaintegrationtest.push;
+
+import android.content.Intent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Processes incoming push notifications on a bounded pool of worker threads.
+ * <p>
+ * Notifications wait in a queue of fixed capacity. When the queue is full the thread
+ * that delivered the notification processes it itself, which slows the delivery down
+ * to the speed of the workers instead of growing the queue without limit.
+ * <p>
+ * A notification with the same message id as one queued or processed within the
+ * dedup window is coalesced into it, so redelivered messages are handled once; the id
+ * is forgotten when its processing fails, so a redelivery is retried. Rich push URL
+ * checks are coalesced as well: while one is pending, further requests are dropped.
+ * <p>
+ * Notifications usually arrive from <code>FirebaseMessagingService.onMessageReceived</code>,
+ * and the system only keeps the device awake for the message until that method returns.
+ * A notification handed off to the workers can outlive that window: it may be delayed
+ * until the device wakes up again, or lost if the process is killed first. Leave the
+ * pipeline disabled to process notifications on the service thread when that matters.
+ *
+ * <pre>
+ * {@code
+ *
+ * PushPipeline pipeline = new PushPipeline(new PushPipeline.Handler() {
+ *     public void onNotification(Intent intent, boolean checkForRichPush) {
+ *         controller.getPushController().onNewNotification(intent, checkForRichPush);
+ *     }
+ *
+ *     public void onRichPushCheck() {
+ *         controller.getPushController().checkForRichPushUrl();
+ *     }
+ * }, 2, PushPipeline.DEFAULT_CAPACITY);
+ * pipeline.submit(intent, true);
+ * }
+ * </pre>
+ */
+public final class PushPipeline {
+
+    public static final int DEFAULT_WORKERS = 2;
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final long DEFAULT_DEDUP_WINDOW_MILLIS = 10 * 60 * 1000L;
+
+    /** Extra set by Firebase on every delivered message. */
+    static final String EXTRA_MESSAGE_ID = "google.message_id";
+    /** Extra with the EMMA push id, used when the Firebase id is missing. */
+    static final String EXTRA_PUSH_ID = "id";
+    /** Ids remembered for coalescing; older ones are forgotten first. */
+    static final int MAX_TRACKED_IDS = 4096;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Outcome of {@link #submit(Intent, boolean)}.
+     */
+    public enum Result {
+        /** Queued for a worker. */
+        QUEUED,
+        /** Same message id as a recent notification; not processed again. */
+        COALESCED,
+        /** The queue was full, so the calling thread processed it. */
+        RAN_INLINE,
+        /** The pipeline is shut down. */
+        REJECTED
+    }
+
+    /**
+     * Processes the notifications on the worker threads, or on the caller under back-pressure.
+     */
+    public interface Handler {
+
+        /**
+         * @param intent           The notification intent.
+         * @param checkForRichPush Whether its rich push URL must be resolved.
+         */
+        void onNotification(Intent intent, boolean checkForRichPush);
+
+        void onRichPushCheck();
+    }
+
+    private final Handler handler;
+    private final long dedupWindowMillis;
+    private final ThreadPoolExecutor executor;
+    // Guarded by itself; message id to the time it was last submitted
+    private final LinkedHashMap<String, Long> recentIds = new LinkedHashMap<>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_TRACKED_IDS;
+        }
+    };
+    private final AtomicBoolean richPushCheckRequested = new AtomicBoolean();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong ranInline = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public PushPipeline(Handler handler, int workers, int capacity) {
+        this(handler, workers, capacity, DEFAULT_DEDUP_WINDOW_MILLIS);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param handler           Processing of the notifications.
+     * @param workers           Maximum number of worker threads.
+     * @param capacity          Maximum number of notifications waiting for a worker.
+     * @param dedupWindowMillis Time during which a repeated message id is coalesced.
+     */
+    public PushPipeline(Handler handler, int workers, int capacity, long dedupWindowMillis) {
+        if (workers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Workers and capacity must be positive");
+        }
+        this.handler = handler;
+        this.dedupWindowMillis = dedupWindowMillis;
+        final AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), runnable -> {
+            Thread thread = new Thread(runnable, "emma-push-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Hands a notification to the workers.
+     *
+     * @param intent           The notification intent.
+     * @param checkForRichPush Whether its rich push URL must be resolved.
+     */
+    public Result submit(final Intent intent, final boolean checkForRichPush) {
+        if (executor.isShutdown()) {
+            return Result.REJECTED;
+        }
+        final String messageId = messageId(intent);
+        if (messageId != null && !remember(messageId, now())) {
+            coalesced.incrementAndGet();
+            return Result.COALESCED;
+        }
+        Runnable task = () -> process(intent, checkForRichPush, messageId);
+        try {
+            executor.execute(task);
+            return Result.QUEUED;
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                forget(messageId);
+                return Result.REJECTED;
+            }
+        }
+        ranInline.incrementAndGet();
+        task.run();
+        return Result.RAN_INLINE;
+    }
+
+    /**
+     * Checks for a pending rich push URL on a worker, unless a check is already pending.
+     */
+    public void requestRichPushCheck() {
+        if (!richPushCheckRequested.compareAndSet(false, true)) {
+            return;
+        }
+        Runnable task = () -> {
+            richPushCheckRequested.set(false);
+            try {
+                handler.onRichPushCheck();
+            } catch (RuntimeException e) {
+                EMMALog.e("Rich push check failed: " + e);
+            }
+        };
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                richPushCheckRequested.set(false);
+            } else {
+                task.run();
+            }
+        }
+    }
+
+    private void process(Intent intent, boolean checkForRichPush, String messageId) {
+        try {
+            handler.onNotification(intent, checkForRichPush);
+            processed.incrementAndGet();
+        } catch (RuntimeException e) {
+            EMMALog.e("Push notification processing failed: " + e);
+            failed.incrementAndGet();
+            // A redelivery of the same message gets another chance
+            forget(messageId);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the id was already seen within the dedup window.
+     */
+    private boolean remember(String messageId, long now) {
+        synchronized (recentIds) {
+            Long seenAt = recentIds.get(messageId);
+            if (seenAt != null && now - seenAt < dedupWindowMillis) {
+                return false;
+            }
+            // Reinsert so the id moves to the young end of the eviction order
+            recentIds.remove(messageId);
+            recentIds.put(messageId, now);
+            expire(now);
+            return true;
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Long> times = recentIds.values().iterator();
+        while (times.hasNext() && now - times.next() >= dedupWindowMillis) {
+            times.remove();
+        }
+    }
+
+    private void forget(String messageId) {
+        if (messageId != null) {
+            synchronized (recentIds) {
+                recentIds.remove(messageId);
+            }
+        }
+    }
+
+    static String messageId(Intent intent) {
+        String id = intent.getStringExtra(EXTRA_MESSAGE_ID);
+        return id != null ? id : intent.getStringExtra(EXTRA_PUSH_ID);
+    }
+
+    /**
+     * Approximate number of notifications waiting for a worker.
+     */
+    public int pending() {
+        return executor.getQueue().size();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRanInline() {
+        return ranInline.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting notifications. Queued ones are still processed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.emmaintegrationtest.push;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import io.emma.android.enums.EMMAPushType;
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Remembers the last push token sent for each provider and skips sending it again.
+ * <p>
+ * Only a SHA-256 hash of each token is kept, in a small file that survives restarts, so
+ * the token reported again on every launch is not uploaded again. A token counts as
+ * sent once the {@link Sender} returns without throwing. That may only mean the upload
+ * was queued, so the hash expires after the resend interval and the same token is then
+ * sent again.
+ * <p>
+ * Tokens are sent after a debounce delay. Tokens for the same provider that arrive
+ * meanwhile replace the waiting one, so rapid churn ends in a single request with the
+ * latest token.
+ */
+public final class PushTokenRegistry {
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 2000L;
+    public static final long DEFAULT_RESEND_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int MAGIC = 0x454D5054;
+    // Version 1 files have no send times and are ignored, so their tokens are sent once more
+    private static final int VERSION = 2;
+    private static final int HASH_SIZE = 32;
+
+    /**
+     * Outcome of {@link #register(String, EMMAPushType)}.
+     */
+    public enum Result {
+        /** Will be sent when the debounce delay ends. */
+        SCHEDULED,
+        /** Replaced a token of the same provider that was waiting to be sent. */
+        REPLACED,
+        /** Sent within the resend interval; nothing to do. */
+        UNCHANGED
+    }
+
+    /**
+     * Uploads a token, on the registry thread.
+     */
+    public interface Sender {
+
+        /**
+         * @throws RuntimeException If the token could not be handed over; it is then retried
+         *                          on the next registration.
+         */
+        void send(String token, EMMAPushType type);
+    }
+
+    private final File file;
+    private final Sender sender;
+    private final long debounceMillis;
+    private final long resendMillis;
+    private final LongSupplier clock;
+    private final ScheduledExecutorService executor;
+    // Guarded by this
+    private final Map<EMMAPushType, byte[]> sent = new EnumMap<>(EMMAPushType.class);
+    private final Map<EMMAPushType, Long> sentAt = new EnumMap<>(EMMAPushType.class);
+    private final Map<EMMAPushType, String> waiting = new EnumMap<>(EMMAPushType.class);
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public PushTokenRegistry(File file, Sender sender, long debounceMillis) {
+        this(file, sender, debounceMillis, DEFAULT_RESEND_MILLIS);
+    }
+
+    /**
+     * Class constructor. Reads the hashes saved by previous runs.
+     *
+     * @param file           File keeping the hashes of the sent tokens.
+     * @param sender         Upload of the tokens.
+     * @param debounceMillis Time a token waits for a newer one before being sent.
+     * @param resendMillis   Time after which a sent token is sent again.
+     */
+    public PushTokenRegistry(File file, Sender sender, long debounceMillis, long resendMillis) {
+        this(file, sender, debounceMillis, resendMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock Wall clock in milliseconds; send times are compared across restarts.
+     */
+    PushTokenRegistry(File file, Sender sender, long debounceMillis, long resendMillis, LongSupplier clock) {
+        this.file = file;
+        this.sender = sender;
+        this.debounceMillis = debounceMillis;
+        this.resendMillis = resendMillis;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "emma-push-tokens");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    /**
+     * Schedules the token to be sent unless it is the last one sent for the provider and
+     * the resend interval has not passed yet.
+     *
+     * @param token The push service registration token.
+     * @param type  Push provider.
+     */
+    public synchronized Result register(String token, EMMAPushType type) {
+        if (token == null || token.isEmpty()) {
+            return Result.UNCHANGED;
+        }
+        boolean replacing = waiting.containsKey(type);
+        if (Arrays.equals(sent.get(type), hash(token)) && !expired(type)) {
+            // A token reverting to the sent one cancels the waiting upload
+            waiting.remove(type);
+            skipped.incrementAndGet();
+            return Result.UNCHANGED;
+        }
+        waiting.put(type, token);
+        if (replacing) {
+            return Result.REPLACED;
+        }
+        try {
+            executor.schedule(() -> flush(type), debounceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            waiting.remove(type);
+            return Result.UNCHANGED;
+        }
+        return Result.SCHEDULED;
+    }
+
+    private void flush(EMMAPushType type) {
+        String token;
+        synchronized (this) {
+            token = waiting.remove(type);
+        }
+        if (token == null) {
+            return;
+        }
+        try {
+            sender.send(token, type);
+        } catch (RuntimeException e) {
+            EMMALog.e("Unable to send " + type + " push token: " + e);
+            return;
+        }
+        uploads.incrementAndGet();
+        synchronized (this) {
+            sent.put(type, hash(token));
+            sentAt.put(type, clock.getAsLong());
+            save();
+        }
+    }
+
+    // Guarded by this
+    private boolean expired(EMMAPushType type) {
+        Long at = sentAt.get(type);
+        long now = clock.getAsLong();
+        // A clock set back also counts, as the age of the upload is then unknown
+        return at == null || now - at >= resendMillis || now < at;
+    }
+
+    /**
+     * Forgets the sent tokens, so the next registration of each provider is sent again.
+     * Use it when the server may have lost them, for example after resetting the user.
+     */
+    public synchronized void clear() {
+        sent.clear();
+        sentAt.clear();
+        save();
+    }
+
+    public long getUploads() {
+        return uploads.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Sends the waiting tokens right away and stops the registry thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        for (EMMAPushType type : EMMAPushType.values()) {
+            flush(type);
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+                long at = in.readLong();
+                try {
+                    EMMAPushType type = EMMAPushType.valueOf(name);
+                    sent.put(type, hash);
+                    sentAt.put(type, at);
+                } catch (IllegalArgumentException e) {
+                    // Provider not known by this SDK version
+                }
+            }
+        } catch (IOException e) {
+            EMMALog.e("Unable to read push tokens " + file + ": " + e);
+            sent.clear();
+            sentAt.clear();
+        }
+    }
+
+    // Guarded by this
+    private void save() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeByte(sent.size());
+            for (Map.Entry<EMMAPushType, byte[]> entry : sent.entrySet()) {
+                data.writeUTF(entry.getKey().name());
+                data.write(entry.getValue());
+                data.writeLong(sentAt.get(entry.getKey()));
+            }
+            data.flush();
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } catch (IOException e) {
+            EMMALog.e("Unable to write push tokens " + file + ": " + e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            EMMALog.e("Unable to replace push tokens " + file);
+            temp.delete();
+        }
+    }
+
+    static byte[] hash(String token) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.emmaintegrationtest.push;
+
+import android.content.Intent;
+
+import com.example.emmaintegrationtest.cache.DiskLruCache;
+import com.example.emmaintegrationtest.cache.HttpResource;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Downloads the rich push page of a notification, and the media it references, into a
+ * {@link DiskLruCache} as soon as the notification arrives.
+ * <p>
+ * When the user opens the notification the page and its images are read from disk, for
+ * example by a {@link RichPushWebViewClient}, instead of waiting for the network.
+ * <p>
+ * The page is downloaded again for every notification, since its content may change;
+ * media already cached are not, since their URLs usually change with their content.
+ * Downloads of the same URL are never run twice at the same time, and when more pushes
+ * arrive than the prefetch threads can keep up with the oldest waiting ones are dropped.
+ */
+public final class RichPushPrefetcher {
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_MAX_RESOURCE_BYTES = 2 * 1024 * 1024;
+
+    /** Extra with the rich push page URL. */
+    static final String EXTRA_RICH_PUSH_URL = "url";
+    /** Extra with the big picture shown in the notification. */
+    static final String EXTRA_IMAGE = "image";
+    /** Media downloaded per page; the rest load from the network when the page opens. */
+    static final int MAX_MEDIA = 16;
+    static final int QUEUE_CAPACITY = 32;
+
+    private static final int TIMEOUT_MILLIS = 10_000;
+    private static final Pattern MEDIA = Pattern.compile(
+            "<(?:img|source|video|audio|script|link)\\b[^>]*?\\b(?:src|poster|href)\\s*=\\s*[\"']([^\"']+)[\"']",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A downloaded resource.
+     */
+    public static final class Response {
+
+        final String contentType;
+        final byte[] body;
+
+        public Response(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Downloads a URL, on a prefetch thread.
+     */
+    public interface Fetcher {
+
+        /**
+         * @return The resource, or <code>null</code> if it can not be cached.
+         */
+        Response fetch(String url) throws IOException;
+    }
+
+    private final DiskLruCache cache;
+    private final Fetcher fetcher;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong pages = new AtomicLong();
+    private final AtomicLong media = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Class constructor.
+     *
+     * @param cache   Cache receiving the pages and media.
+     * @param fetcher Download of the resources, see {@link #httpFetcher(int)}.
+     * @param threads Maximum number of concurrent downloads.
+     */
+    public RichPushPrefetcher(DiskLruCache cache, Fetcher fetcher, int threads) {
+        this.cache = cache;
+        this.fetcher = fetcher;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "emma-rich-push");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts downloading the rich push page and the picture of a notification, if it has any.
+     *
+     * @return <code>true</code> if there was something to download.
+     */
+    public boolean prefetch(Intent intent) {
+        String page = intent.getStringExtra(EXTRA_RICH_PUSH_URL);
+        String image = intent.getStringExtra(EXTRA_IMAGE);
+        boolean started = false;
+        if (isHttp(image)) {
+            started = submit(() -> fetchMedia(image));
+        }
+        if (isHttp(page)) {
+            started |= submit(() -> fetchPage(page));
+        }
+        return started;
+    }
+
+    private boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param contentType Receives the MIME type of the resource in its first element, if not <code>null</code>.
+     * @return The cached content of the URL, or <code>null</code> if it was not prefetched.
+     */
+    public byte[] get(String url, String[] contentType) {
+        return cache.get(url, contentType);
+    }
+
+    private void fetchPage(String url) {
+        Response response = download(url);
+        if (response == null) {
+            return;
+        }
+        pages.incrementAndGet();
+        String html = new String(response.body, charset(response.contentType));
+        for (String resource : findMedia(html, url)) {
+            if (cache.get(resource) == null) {
+                fetchMedia(resource);
+            }
+        }
+    }
+
+    private void fetchMedia(String url) {
+        if (download(url) != null) {
+            media.incrementAndGet();
+        }
+    }
+
+    private Response download(String url) {
+        if (!inFlight.add(url)) {
+            return null;
+        }
+        try {
+            Response response = fetcher.fetch(url);
+            if (response == null) {
+                return null;
+            }
+            cache.put(url, response.contentType, response.body);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            EMMALog.e("Unable to prefetch " + url + ": " + e);
+            return null;
+        } finally {
+            inFlight.remove(url);
+        }
+    }
+
+    /**
+     * @return Absolute URLs of the media referenced by the page, without duplicates.
+     */
+    static List<String> findMedia(String html, String pageUrl) {
+        URL base;
+        try {
+            base = new URL(pageUrl);
+        } catch (MalformedURLException e) {
+            return Collections.emptyList();
+        }
+        Set<String> found = new LinkedHashSet<>();
+        Matcher matcher = MEDIA.matcher(html);
+        while (matcher.find() && found.size() < MAX_MEDIA) {
+            String reference = matcher.group(1).trim().replace("&amp;", "&");
+            try {
+                String absolute = new URL(base, reference).toString();
+                if (isHttp(absolute) && !absolute.equals(pageUrl)) {
+                    found.add(absolute);
+                }
+            } catch (MalformedURLException e) {
+                // Not a resource the page loads, for example a data: URI
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    private static boolean isHttp(String url) {
+        if (url == null) {
+            return false;
+        }
+        String lower = url.toLowerCase(Locale.ROOT);
+        return lower.startsWith("https://") || lower.startsWith("http://");
+    }
+
+    static Charset charset(String contentType) {
+        if (contentType != null) {
+            int index = contentType.toLowerCase(Locale.ROOT).indexOf("charset=");
+            if (index >= 0) {
+                String name = contentType.substring(index + 8).replace("\"", "").trim();
+                int end = name.indexOf(';');
+                try {
+                    return Charset.forName(end >= 0 ? name.substring(0, end).trim() : name);
+                } catch (IllegalArgumentException e) {
+                    // Unknown charset, fall back to UTF-8
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    public long getPages() {
+        return pages.get();
+    }
+
+    public long getMedia() {
+        return media.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return Downloads waiting for a prefetch thread.
+     */
+    public int pending() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Downloads with {@link HttpResource#fetch(String, int, int)}. Responses other than 200
+     * and bodies larger than <code>maxBytes</code> are not cached.
+     */
+    public static Fetcher httpFetcher(final int maxBytes) {
+        return url -> {
+            HttpResource resource = HttpResource.fetch(url, maxBytes, TIMEOUT_MILLIS);
+            return resource == null ? null : new Response(resource.getContentType(), resource.getBody());
+        };
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.emmaintegrationtest.push;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Serves the resources prefetched by a {@link RichPushPrefetcher} from disk, so a rich
+ * push page opens without waiting for the network. Resources that were not prefetched
+ * load normally.
+ *
+ * <pre>
+ * {@code
+ *
+ * RichPushPrefetcher prefetcher = EMMA.getInstance().getRichPushPrefetcher();
+ * if (prefetcher != null) {
+ *     webView.setWebViewClient(new RichPushWebViewClient(prefetcher));
+ * }
+ * webView.loadUrl(richPushUrl);
+ * }
+ * </pre>
+ */
+public class RichPushWebViewClient extends WebViewClient {
+
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+
+    private final RichPushPrefetcher prefetcher;
+
+    public RichPushWebViewClient(RichPushPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        String[] contentType = new String[1];
+        byte[] body = prefetcher.get(request.getUrl().toString(), contentType);
+        if (body == null) {
+            return null;
+        }
+        String mimeType = DEFAULT_MIME_TYPE;
+        String encoding = null;
+        if (contentType[0] != null) {
+            int separator = contentType[0].indexOf(';');
+            mimeType = (separator >= 0 ? contentType[0].substring(0, separator) : contentType[0]).trim();
+            if (separator >= 0) {
+                encoding = RichPushPrefetcher.charset(contentType[0]).name();
+            }
+        }
+        return new WebResourceResponse(mimeType, encoding, new ByteArrayInputStream(body));
+    }
+}
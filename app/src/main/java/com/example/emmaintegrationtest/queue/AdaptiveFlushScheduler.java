@@ -0,0 +1,202 @@
+package com.example.emmaintegrationtest.queue;
+
+import java.util.Random;
+
+/**
+ * Decides when a {@link JournalFlusher} hands the journaled records to the SDK and how
+ * many it hands over at once.
+ * <p>
+ * A flush is local: the records go to the operations queue of the SDK, which decides on
+ * its own when to reach the network. The schedule therefore spaces out the hand-offs, and
+ * with them how much work the SDK's queue receives at a time, not the radio wake-ups.
+ * <p>
+ * The flush interval starts at the configured queue time and is stretched or shortened by
+ * the device conditions: it halves on unmetered networks or while charging, doubles on
+ * metered networks and grows up to four times on low battery. A flush starts early when a
+ * full batch is waiting.
+ * <p>
+ * The batch size follows additive increase and multiplicative decrease: it grows after
+ * every full batch delivered and halves after a failure. Failures also delay the next
+ * attempt with exponential backoff and jitter, so clients that failed together do not
+ * retry together.
+ * <p>
+ * Only the outcome of each batch is taken into account, not its round trip time: the
+ * sink may hand the batch to another queue, in which case the time it took says nothing
+ * about the network.
+ * <p>
+ * Times are passed in by the caller, in milliseconds of a monotonic clock, so the
+ * schedule can be replayed on a simulated clock.
+ */
+public final class AdaptiveFlushScheduler {
+
+    /**
+     * Connectivity of the default network.
+     */
+    public enum Network {
+        OFFLINE,
+        METERED,
+        UNMETERED
+    }
+
+    /**
+     * {@link #delayMillis(int, long)} when no flush is needed.
+     */
+    public static final long NEVER = -1L;
+
+    public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000L;
+    public static final long DEFAULT_MAX_INTERVAL_MILLIS = 15 * 60 * 1000L;
+
+    private static final float LOW_BATTERY = 0.3f;
+    private static final float CRITICAL_BATTERY = 0.15f;
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    private final long baseIntervalMillis;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final int maxBatchSize;
+    private final int batchStep;
+    private final Random random;
+
+    private Network network = Network.UNMETERED;
+    private float batteryLevel = 1f;
+    private boolean charging;
+    private int batchSize;
+    private int failures;
+    private long retryAt;
+    private long windowStart = NEVER;
+
+    /**
+     * @param baseIntervalMillis Flush interval under neutral conditions, usually the queue time.
+     * @param maxBatchSize       Largest number of records per flush.
+     */
+    public AdaptiveFlushScheduler(long baseIntervalMillis, int maxBatchSize) {
+        this(baseIntervalMillis, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS, maxBatchSize,
+                new Random());
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param baseIntervalMillis Flush interval under neutral conditions.
+     * @param minIntervalMillis  Shortest interval the conditions can lead to.
+     * @param maxIntervalMillis  Longest interval, also the longest backoff.
+     * @param maxBatchSize       Largest number of records per flush.
+     * @param random             Source of the backoff jitter.
+     */
+    public AdaptiveFlushScheduler(long baseIntervalMillis, long minIntervalMillis, long maxIntervalMillis,
+                                  int maxBatchSize, Random random) {
+        if (baseIntervalMillis < 1 || minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis
+                || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Intervals and batch size must be positive");
+        }
+        this.baseIntervalMillis = baseIntervalMillis;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.batchStep = Math.max(1, maxBatchSize / 10);
+        this.batchSize = Math.max(1, maxBatchSize / 2);
+        this.random = random;
+    }
+
+    public synchronized void setNetwork(Network network) {
+        this.network = network;
+    }
+
+    public synchronized Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * @param level    Battery level between 0 and 1.
+     * @param charging Whether the device is plugged in.
+     */
+    public synchronized void setBattery(float level, boolean charging) {
+        this.batteryLevel = level;
+        this.charging = charging;
+    }
+
+    /**
+     * @return Number of records to hand over in the next flush.
+     */
+    public synchronized int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return Flush interval for the current conditions.
+     */
+    public synchronized long intervalMillis() {
+        double factor = 1;
+        if (network == Network.METERED) {
+            factor *= 2;
+        } else if (network == Network.UNMETERED) {
+            factor /= 2;
+        }
+        if (charging) {
+            factor /= 2;
+        } else if (batteryLevel < CRITICAL_BATTERY) {
+            factor *= 4;
+        } else if (batteryLevel < LOW_BATTERY) {
+            factor *= 2;
+        }
+        long interval = (long) (baseIntervalMillis * factor);
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    /**
+     * @param pending Records waiting to be sent.
+     * @param now     Current time.
+     * @return Milliseconds until the next flush should start, <code>0</code> to flush now, or
+     * {@link #NEVER} if there is nothing to send or the device is offline.
+     */
+    public synchronized long delayMillis(int pending, long now) {
+        if (pending <= 0 || network == Network.OFFLINE) {
+            return NEVER;
+        }
+        if (now < retryAt) {
+            return retryAt - now;
+        }
+        if (failures > 0 || pending >= batchSize) {
+            return 0L;
+        }
+        if (windowStart == NEVER) {
+            windowStart = now;
+        }
+        return Math.max(0L, windowStart + intervalMillis() - now);
+    }
+
+    /**
+     * A batch was delivered.
+     *
+     * @param size Records in the batch.
+     */
+    public synchronized void onSent(int size) {
+        failures = 0;
+        retryAt = 0L;
+        windowStart = NEVER;
+        if (size >= batchSize) {
+            batchSize = Math.min(maxBatchSize, batchSize + batchStep);
+        }
+    }
+
+    /**
+     * A batch could not be delivered.
+     *
+     * @param now Current time.
+     * @return Milliseconds until the retry.
+     */
+    public synchronized long onFailed(long now) {
+        failures++;
+        batchSize = Math.max(1, batchSize / 2);
+        long backoff = Math.min(maxIntervalMillis,
+                baseIntervalMillis << Math.min(failures - 1, MAX_BACKOFF_SHIFT));
+        // Equal jitter: at least half of the backoff, at most all of it
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+        retryAt = now + delay;
+        return delay;
+    }
+
+    synchronized int failures() {
+        return failures;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.emmaintegrationtest.queue;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+/**
+ * Reports the battery level and charging state to an {@link AdaptiveFlushScheduler}.
+ */
+public final class BatteryMonitor extends BroadcastReceiver {
+
+    private final Context context;
+    private final AdaptiveFlushScheduler scheduler;
+
+    public BatteryMonitor(Context context, AdaptiveFlushScheduler scheduler) {
+        this.context = context.getApplicationContext();
+        this.scheduler = scheduler;
+    }
+
+    public void start() {
+        // The battery broadcast is sticky, so registering also returns the current state
+        Intent current = context.registerReceiver(this, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (current != null) {
+            onReceive(context, current);
+        }
+    }
+
+    public void stop() {
+        context.unregisterReceiver(this);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (level < 0 || scale <= 0) {
+            return;
+        }
+        boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        scheduler.setBattery(level / (float) scale, charging);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.emmaintegrationtest.queue;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+/**
+ * Reports connectivity changes of the default network to a {@link JournalFlusher}.
+ */
+public final class ConnectivityMonitor extends ConnectivityManager.NetworkCallback {
+
+    private final ConnectivityManager connectivityManager;
+    private final JournalFlusher flusher;
+
+    public ConnectivityMonitor(Context context, JournalFlusher flusher) {
+        this.connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.flusher = flusher;
+    }
+
+    public void start() {
+        Network network = connectivityManager.getActiveNetwork();
+        if (network != null) {
+            NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+            if (capabilities != null) {
+                flusher.setMetered(isMetered(capabilities));
+            }
+        }
+        flusher.setOnline(network != null);
+        connectivityManager.registerDefaultNetworkCallback(this);
+    }
+
+    public void stop() {
+        connectivityManager.unregisterNetworkCallback(this);
+    }
+
+    @Override
+    public void onAvailable(Network network) {
+        flusher.setOnline(true);
+    }
+
+    @Override
+    public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+        flusher.setMetered(isMetered(capabilities));
+    }
+
+    @Override
+    public void onLost(Network network) {
+        flusher.setOnline(false);
+    }
+
+    private static boolean isMetered(NetworkCapabilities capabilities) {
+        return !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    }
+}
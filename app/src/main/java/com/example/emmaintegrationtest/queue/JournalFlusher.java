@@ -0,0 +1,226 @@
+package com.example.emmaintegrationtest.queue;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Delivers the records of an {@link OperationJournal} in bulk while the device is online.
+ * <p>
+ * Records are only acknowledged once the {@link Sink} accepts the batch, so an
+ * interrupted flush resumes from the same point after reconnecting or restarting.
+ * <p>
+ * Without a scheduler every append is flushed right away. With an
+ * {@link AdaptiveFlushScheduler} records wait for the scheduled flush, which then sends
+ * everything pending in batches of the size the scheduler chooses, and failed batches
+ * are retried after the scheduler's backoff.
+ */
+public final class JournalFlusher {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Destination of the journaled operations.
+     */
+    public interface Sink {
+
+        /**
+         * @param batch Encoded operations in append order.
+         * @return <code>true</code> if the batch was delivered and can be removed from the journal.
+         */
+        boolean send(List<byte[]> batch);
+    }
+
+    private final OperationJournal journal;
+    private final Sink sink;
+    private final int batchSize;
+    private final AdaptiveFlushScheduler scheduler;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+    private volatile boolean online;
+    private volatile boolean metered;
+    // Guarded by this
+    private ScheduledFuture<?> scheduledFlush;
+    private long scheduledAt;
+
+    public JournalFlusher(OperationJournal journal, Sink sink, int batchSize) {
+        this(journal, sink, batchSize, null);
+    }
+
+    /**
+     * @param scheduler Decides when to flush and the batch size.
+     */
+    public JournalFlusher(OperationJournal journal, Sink sink, AdaptiveFlushScheduler scheduler) {
+        this(journal, sink, DEFAULT_BATCH_SIZE, scheduler);
+    }
+
+    private JournalFlusher(OperationJournal journal, Sink sink, int batchSize, AdaptiveFlushScheduler scheduler) {
+        this.journal = journal;
+        this.sink = sink;
+        this.batchSize = batchSize;
+        this.scheduler = scheduler;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "emma-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Updates the connectivity state. Going online triggers a flush.
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        updateNetwork();
+        if (online) {
+            requestFlush();
+        }
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Updates whether the default network is metered, such as a mobile connection.
+     */
+    public void setMetered(boolean metered) {
+        this.metered = metered;
+        updateNetwork();
+    }
+
+    private void updateNetwork() {
+        if (scheduler != null) {
+            scheduler.setNetwork(!online ? AdaptiveFlushScheduler.Network.OFFLINE :
+                    metered ? AdaptiveFlushScheduler.Network.METERED : AdaptiveFlushScheduler.Network.UNMETERED);
+        }
+    }
+
+    /**
+     * Schedules a flush on the flusher thread if the device is online. With a scheduler the
+     * flush runs when the scheduler decides; otherwise it runs right away.
+     */
+    public void requestFlush() {
+        if (!online) {
+            return;
+        }
+        if (scheduler != null) {
+            schedule();
+            return;
+        }
+        if (flushRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    flushRequested.set(false);
+                    flush();
+                });
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    private synchronized void schedule() {
+        long now = now();
+        long delay = scheduler.delayMillis(journal.size(), now);
+        if (delay == AdaptiveFlushScheduler.NEVER) {
+            return;
+        }
+        if (scheduledFlush != null && !scheduledFlush.isDone() && scheduledAt <= now + delay) {
+            return;
+        }
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        try {
+            scheduledFlush = executor.schedule(this::scheduledFlush, delay, TimeUnit.MILLISECONDS);
+            scheduledAt = now + delay;
+        } catch (RejectedExecutionException e) {
+            scheduledFlush = null;
+        }
+    }
+
+    private void scheduledFlush() {
+        synchronized (this) {
+            scheduledFlush = null;
+        }
+        flush();
+        // Leftovers wait for the next window, or for the backoff after a failure
+        requestFlush();
+    }
+
+    /**
+     * Sends every journaled record while the device stays online and the sink accepts them.
+     *
+     * @return Number of records delivered.
+     */
+    public int flush() {
+        return flush(false);
+    }
+
+    /**
+     * Sends every journaled record on the calling thread, even offline, while the sink
+     * accepts them. Used before running an operation that cannot be journaled, so it
+     * does not overtake the journaled ones.
+     *
+     * @return Number of records delivered.
+     */
+    public int drain() {
+        return flush(true);
+    }
+
+    private int flush(boolean force) {
+        synchronized (flushLock) {
+            return send(force);
+        }
+    }
+
+    // Guarded by flushLock, so two flushes never send the same records
+    private int send(boolean force) {
+        int delivered = 0;
+        while (force || online) {
+            List<byte[]> batch = journal.peek(scheduler != null ? scheduler.batchSize() : batchSize);
+            if (batch.isEmpty()) {
+                break;
+            }
+            boolean sent;
+            try {
+                sent = sink.send(batch);
+            } catch (RuntimeException e) {
+                EMMALog.e("Journal flush failed: " + e);
+                sent = false;
+            }
+            if (!sent) {
+                if (scheduler != null) {
+                    scheduler.onFailed(now());
+                }
+                break;
+            }
+            journal.acknowledge(batch.size());
+            delivered += batch.size();
+            if (scheduler != null) {
+                scheduler.onSent(batch.size());
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Stops the flusher thread. Journaled records are kept.
+     */
+    public void shutdown() {
+        online = false;
+        executor.shutdown();
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.emmaintegrationtest.queue;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Append-only journal of outgoing operations backed by a memory-mapped file.
+ * <p>
+ * The file starts with a header holding the read and write offsets, followed by
+ * records laid out as <code>[length][crc32][payload]</code>. A record is written
+ * before the write offset that covers it, so a process killed mid-append leaves the
+ * journal consistent. When the file is reopened every record is checked against its
+ * CRC and the journal is truncated at the first damaged one.
+ * <p>
+ * When the end of the file is reached, the unacknowledged records are moved back to the
+ * start. They are first saved to a side file next to the journal, and the move is
+ * redone from that copy if the process dies before it completes.
+ * <p>
+ * Consumers {@link #peek(int)} records and {@link #acknowledge(int)} them once they
+ * have been delivered; unacknowledged records survive process death.
+ */
+public final class OperationJournal implements Closeable {
+
+    public static final int DEFAULT_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x454D4A31;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_READ = 4;
+    private static final int OFFSET_WRITE = 8;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final File file;
+    private final File compactionFile;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final CRC32 crc = new CRC32();
+    private int readOffset;
+    private int writeOffset;
+    private int count;
+
+    private OperationJournal(File file, int size) throws IOException {
+        this.file = file;
+        this.compactionFile = compactionFile(file);
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        boolean existing = randomAccessFile.length() >= HEADER_SIZE;
+        int mappedSize = existing ? (int) Math.max(randomAccessFile.length(), size) : size;
+        this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+        deleteIfExists(temporaryFile(compactionFile));
+        if (existing && buffer.getInt(OFFSET_MAGIC) == MAGIC) {
+            if (compactionFile.exists()) {
+                finishCompaction();
+            }
+            recover();
+        } else {
+            clear();
+        }
+    }
+
+    /**
+     * @return Side file holding the live records while a compaction moves them.
+     */
+    static File compactionFile(File journal) {
+        return new File(journal.getPath() + ".compact");
+    }
+
+    /**
+     * Opens the journal, creating it if needed.
+     *
+     * @param file The journal file.
+     * @param size Size of the file in bytes for a new journal. Existing journals keep their size.
+     */
+    public static OperationJournal open(File file, int size) throws IOException {
+        if (size < HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Journal size too small: " + size);
+        }
+        return new OperationJournal(file, size);
+    }
+
+    /**
+     * @param payload The encoded operation.
+     * @return <code>false</code> if the journal has no room left for it.
+     */
+    public synchronized boolean append(byte[] payload) {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (writeOffset + recordSize > buffer.capacity()) {
+            compact();
+            if (writeOffset + recordSize > buffer.capacity()) {
+                return false;
+            }
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        buffer.position(writeOffset + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        buffer.putInt(writeOffset + 4, (int) crc.getValue());
+        buffer.putInt(writeOffset, payload.length);
+        writeOffset += recordSize;
+        buffer.putInt(OFFSET_WRITE, writeOffset);
+        count++;
+        return true;
+    }
+
+    /**
+     * @param maxRecords Maximum number of records to return.
+     * @return The oldest unacknowledged records, without removing them.
+     */
+    public synchronized List<byte[]> peek(int maxRecords) {
+        List<byte[]> records = new ArrayList<>(Math.min(maxRecords, count));
+        int position = readOffset;
+        while (records.size() < maxRecords && position < writeOffset) {
+            int length = buffer.getInt(position);
+            byte[] payload = new byte[length];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+            records.add(payload);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * Removes the oldest records once they have been delivered.
+     *
+     * @param records Number of records to remove.
+     */
+    public synchronized void acknowledge(int records) {
+        for (int i = 0; i < records && readOffset < writeOffset; i++) {
+            readOffset += RECORD_HEADER_SIZE + buffer.getInt(readOffset);
+            count--;
+        }
+        if (readOffset == writeOffset) {
+            readOffset = HEADER_SIZE;
+            writeOffset = HEADER_SIZE;
+            buffer.putInt(OFFSET_WRITE, writeOffset);
+        }
+        buffer.putInt(OFFSET_READ, readOffset);
+    }
+
+    /**
+     * @return Number of unacknowledged records.
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Discards every record.
+     */
+    public synchronized void clear() {
+        readOffset = HEADER_SIZE;
+        writeOffset = HEADER_SIZE;
+        count = 0;
+        buffer.putInt(OFFSET_READ, readOffset);
+        buffer.putInt(OFFSET_WRITE, writeOffset);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        deleteIfExists(compactionFile);
+    }
+
+    /**
+     * Writes the mapped pages to the storage device. Only needed to survive a power
+     * loss; the page cache already survives process death.
+     */
+    public synchronized void sync() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        randomAccessFile.close();
+    }
+
+    private void recover() {
+        readOffset = buffer.getInt(OFFSET_READ);
+        writeOffset = buffer.getInt(OFFSET_WRITE);
+        if (readOffset < HEADER_SIZE || writeOffset < readOffset || writeOffset > buffer.capacity()) {
+            EMMALog.e("Operation journal header damaged, discarding " + file);
+            clear();
+            return;
+        }
+        int position = readOffset;
+        count = 0;
+        while (position < writeOffset) {
+            int length = buffer.getInt(position);
+            if (length < 0 || length > writeOffset - position - RECORD_HEADER_SIZE ||
+                    !checksumMatches(position, length)) {
+                EMMALog.e("Operation journal damaged at " + position + ", dropping " +
+                        (writeOffset - position) + " bytes");
+                writeOffset = position;
+                buffer.putInt(OFFSET_WRITE, writeOffset);
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            count++;
+        }
+    }
+
+    private boolean checksumMatches(int position, int length) {
+        byte[] payload = new byte[length];
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.get(payload);
+        crc.reset();
+        crc.update(payload, 0, length);
+        return buffer.getInt(position + 4) == (int) crc.getValue();
+    }
+
+    private void compact() {
+        if (readOffset == HEADER_SIZE) {
+            return;
+        }
+        byte[] live = new byte[writeOffset - readOffset];
+        buffer.position(readOffset);
+        buffer.get(live);
+        // The records are copied aside before they are moved: the move overwrites them
+        // and the two offsets cannot be updated at once
+        try {
+            writeCompactionFile(live);
+        } catch (IOException e) {
+            EMMALog.e("Unable to compact operation journal " + file + ": " + e);
+            return;
+        }
+        move(live);
+        deleteIfExists(compactionFile);
+    }
+
+    private void move(byte[] live) {
+        buffer.position(HEADER_SIZE);
+        buffer.put(live);
+        readOffset = HEADER_SIZE;
+        writeOffset = HEADER_SIZE + live.length;
+        buffer.putInt(OFFSET_READ, readOffset);
+        buffer.putInt(OFFSET_WRITE, writeOffset);
+    }
+
+    private void writeCompactionFile(byte[] live) throws IOException {
+        File temporary = temporaryFile(compactionFile);
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(live);
+        }
+        if (!temporary.renameTo(compactionFile)) {
+            deleteIfExists(temporary);
+            throw new IOException("Unable to rename " + temporary);
+        }
+    }
+
+    /**
+     * Redoes a compaction interrupted by the death of the process.
+     */
+    private void finishCompaction() {
+        try (RandomAccessFile copy = new RandomAccessFile(compactionFile, "r")) {
+            long length = copy.length();
+            if (HEADER_SIZE + length > buffer.capacity()) {
+                throw new IOException("Compaction copy larger than the journal");
+            }
+            byte[] live = new byte[(int) length];
+            copy.readFully(live);
+            move(live);
+            EMMALog.w("Finished interrupted compaction of " + file);
+        } catch (IOException e) {
+            EMMALog.e("Unable to finish compaction of " + file + ": " + e);
+        }
+        deleteIfExists(compactionFile);
+    }
+
+    private static File temporaryFile(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            EMMALog.w("Unable to delete " + file);
+        }
+    }
+}
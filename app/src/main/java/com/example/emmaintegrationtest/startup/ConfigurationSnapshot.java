@@ -0,0 +1,238 @@
+package com.example.emmaintegrationtest.startup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Configuration saved by the last session start, kept in a small binary file.
+ * <p>
+ * The file holds a magic, a format version, the payload length and its CRC32, followed
+ * by the session key, the API user and key derived from it and the settings handed to
+ * the SDK. It is memory-mapped when read, and written to a temporary file that replaces
+ * the old one, so a reader never sees half a snapshot. Files of another version or with
+ * a bad checksum are ignored, which makes the next start save the configuration again.
+ */
+public final class ConfigurationSnapshot {
+
+    private static final int MAGIC = 0x454D4353;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /** Snapshots are a few hundred bytes; anything bigger is not one of ours. */
+    private static final int MAX_SIZE = 64 * 1024;
+
+    private final String sessionKey;
+    private final String apiUser;
+    private final String apiKey;
+    private final Map<String, String> settings;
+
+    /**
+     * Class constructor.
+     *
+     * @param sessionKey The session key.
+     * @param apiUser    API user derived from the session key.
+     * @param apiKey     API key derived from the session key.
+     * @param settings   Saved settings by name, in a stable order. Values may be <code>null</code>.
+     */
+    public ConfigurationSnapshot(String sessionKey, String apiUser, String apiKey, Map<String, String> settings) {
+        this.sessionKey = sessionKey;
+        this.apiUser = apiUser;
+        this.apiKey = apiKey;
+        this.settings = Collections.unmodifiableMap(new LinkedHashMap<>(settings));
+    }
+
+    public String getSessionKey() {
+        return sessionKey;
+    }
+
+    public String getApiUser() {
+        return apiUser;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return <code>true</code> if the API user and key were derived from this session key.
+     */
+    public boolean matches(String sessionKey) {
+        return sessionKey != null && sessionKey.equals(this.sessionKey) && apiUser != null && apiKey != null;
+    }
+
+    /**
+     * @param file The snapshot file.
+     * @return The snapshot, or <code>null</code> if there is none or it cannot be used.
+     */
+    public static ConfigurationSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > MAX_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return decode(buffer);
+        } catch (IOException e) {
+            EMMALog.e("Unable to read configuration snapshot " + file + ": " + e);
+            return null;
+        }
+    }
+
+    static ConfigurationSnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length != buffer.remaining()) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            buffer.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.wrap(body);
+            String sessionKey = readString(payload);
+            String apiUser = readString(payload);
+            String apiKey = readString(payload);
+            int count = payload.getInt();
+            Map<String, String> settings = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                settings.put(readString(payload), readString(payload));
+            }
+            return new ConfigurationSnapshot(sessionKey, apiUser, apiKey, settings);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot file with this snapshot.
+     *
+     * @param file The snapshot file.
+     * @return <code>false</code> if it could not be written; the old file is then left as it was.
+     */
+    public boolean write(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(encode());
+            out.getFD().sync();
+        } catch (IOException e) {
+            EMMALog.e("Unable to write configuration snapshot " + file + ": " + e);
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            EMMALog.e("Unable to replace configuration snapshot " + file);
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(payload);
+            writeString(out, sessionKey);
+            writeString(out, apiUser);
+            writeString(out, apiKey);
+            out.writeInt(settings.size());
+            for (Map.Entry<String, String> setting : settings.entrySet()) {
+                writeString(out, setting.getKey());
+                writeString(out, setting.getValue());
+            }
+            out.flush();
+        } catch (IOException e) {
+            // In-memory streams do not fail
+            throw new IllegalStateException(e);
+        }
+        byte[] body = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer file = ByteBuffer.allocate(HEADER_SIZE + body.length);
+        file.putInt(MAGIC).putInt(VERSION).putInt(body.length).putInt((int) crc.getValue()).put(body);
+        return file.array();
+    }
+
+    /**
+     * Deletes the snapshot file, so the next start saves the configuration again.
+     */
+    public static void invalidate(File file) {
+        if (file != null && file.exists() && !file.delete()) {
+            EMMALog.e("Unable to delete configuration snapshot " + file);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] utf8 = new byte[length];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConfigurationSnapshot)) {
+            return false;
+        }
+        ConfigurationSnapshot that = (ConfigurationSnapshot) o;
+        return equal(sessionKey, that.sessionKey) && equal(apiUser, that.apiUser) && equal(apiKey, that.apiKey)
+                && settings.equals(that.settings);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sessionKey != null ? sessionKey.hashCode() : 0;
+        return 31 * result + settings.hashCode();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.emmaintegrationtest.startup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary encoding of a {@link PendingInvocation}, used to keep invocations on disk.
+ * <p>
+ * Strings, boxed primitives, enums and string maps use a compact tagged format. Any
+ * other argument must be {@link Serializable}; invocations holding listeners, intents
+ * or other live objects cannot be encoded.
+ */
+public final class InvocationCodec {
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_FLOAT = 2;
+    private static final byte TAG_BOOLEAN = 3;
+    private static final byte TAG_ENUM = 4;
+    private static final byte TAG_STRING_MAP = 5;
+    private static final byte TAG_SERIALIZABLE = 6;
+
+    private InvocationCodec() {
+    }
+
+    /**
+     * @param invocation The invocation.
+     * @return The encoded bytes, or <code>null</code> if an argument cannot be encoded.
+     */
+    public static byte[] encode(PendingInvocation invocation) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(invocation.getCall().name());
+            Object[] args = invocation.args;
+            out.writeByte(args.length);
+            for (Object arg : args) {
+                if (!writeArg(out, arg)) {
+                    return null;
+                }
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static PendingInvocation decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        PendingCall call;
+        try {
+            call = PendingCall.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown pending call", e);
+        }
+        Object[] args = new Object[in.readUnsignedByte()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = readArg(in);
+        }
+        return new PendingInvocation(call, args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static boolean writeArg(DataOutputStream out, Object arg) throws IOException {
+        if (arg == null) {
+            out.writeByte(TAG_NULL);
+        } else if (arg instanceof String) {
+            out.writeByte(TAG_STRING);
+            out.writeUTF((String) arg);
+        } else if (arg instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) arg);
+        } else if (arg instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) arg);
+        } else if (arg instanceof Enum) {
+            out.writeByte(TAG_ENUM);
+            out.writeUTF(((Enum<?>) arg).getDeclaringClass().getName());
+            out.writeUTF(((Enum<?>) arg).name());
+        } else if (arg instanceof Map && isStringMap((Map<?, ?>) arg)) {
+            Map<String, String> map = (Map<String, String>) arg;
+            out.writeByte(TAG_STRING_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                writeNullableString(out, entry.getKey());
+                writeNullableString(out, entry.getValue());
+            }
+        } else if (arg instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(arg);
+            } catch (IOException e) {
+                return false;
+            }
+            out.writeByte(TAG_SERIALIZABLE);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readArg(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return in.readUTF();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_ENUM:
+                try {
+                    Class enumClass = Class.forName(in.readUTF());
+                    return Enum.valueOf(enumClass, in.readUTF());
+                } catch (ClassNotFoundException | IllegalArgumentException e) {
+                    throw new IOException("Unknown enum constant", e);
+                }
+            case TAG_STRING_MAP:
+                int size = in.readInt();
+                Map<String, String> map = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    map.put(readNullableString(in), readNullableString(in));
+                }
+                return map;
+            case TAG_SERIALIZABLE:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return objects.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown serialized class", e);
+                }
+            default:
+                throw new IOException("Unknown argument tag " + tag);
+        }
+    }
+
+    private static boolean isStringMap(Map<?, ?> map) {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) ||
+                    (entry.getValue() != null && !(entry.getValue() instanceof String))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.emmaintegrationtest.startup;
+
+import android.content.Intent;
+
+import java.util.Map;
+
+import io.emma.android.controllers.EMMAController;
+import io.emma.android.enums.CommunicationTypes;
+import io.emma.android.enums.EMMAPushType;
+import io.emma.android.interfaces.EMMACouponsInterface;
+import io.emma.android.model.EMMACampaign;
+import io.emma.android.model.EMMAEventRequest;
+import io.emma.android.model.EMMAPushOptions;
+import io.emma.android.plugins.EMMAInAppPlugin;
+
+/**
+ * Facade calls that can be held back while the controller is not ready and replayed
+ * later, in the same order, against the started controller.
+ * <p>
+ * Every constant documents the order of the arguments it expects.
+ */
+@SuppressWarnings("unchecked")
+public enum PendingCall {
+
+    /** eventRequest */
+    TRACK_EVENT {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getEventController().trackEvent((EMMAEventRequest) args[0]);
+        }
+    },
+    /** userId, mail, extras */
+    LOGIN_USER {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getUserController().loginUser((String) args[0], (String) args[1],
+                    (Map<String, String>) args[2]);
+        }
+    },
+    /** userId, mail, extras */
+    REGISTER_USER {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getUserController().registerUser((String) args[0], (String) args[1],
+                    (Map<String, String>) args[2]);
+        }
+    },
+    /** info */
+    TRACK_EXTRA_USER_INFO {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getUserController().trackExtraUserInfo((Map<String, String>) args[0]);
+        }
+    },
+    /** customerId */
+    SET_CUSTOMER_ID {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getUserController().setCustomerId((String) args[0]);
+        }
+    },
+    /** orderId, customerId, totalPrice, coupon, extras */
+    START_ORDER {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getOrderController().startOrder((String) args[0], (String) args[1],
+                    (Float) args[2], (String) args[3], (Map<String, String>) args[4]);
+        }
+    },
+    /** productId, name, qty, price, extras */
+    ADD_PRODUCT {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getOrderController().addProduct((String) args[0], (String) args[1],
+                    (Float) args[2], (Float) args[3], (Map<String, String>) args[4]);
+        }
+    },
+    /** no arguments */
+    TRACK_ORDER {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getOrderController().trackOrder();
+        }
+    },
+    /** orderId */
+    CANCEL_ORDER {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getOrderController().cancelOrder((String) args[0]);
+        }
+    },
+    /** pushOptions */
+    START_PUSH_SYSTEM {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getPushController().startPushSystem((EMMAPushOptions) args[0]);
+        }
+    },
+    /** intent, checkForRichPush */
+    ON_NEW_NOTIFICATION {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getPushController().onNewNotification((Intent) args[0], (Boolean) args[1]);
+        }
+    },
+    /** token, pushType */
+    ADD_PUSH_TOKEN {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getPushController().sendTokenToServer((String) args[0], (EMMAPushType) args[1]);
+        }
+    },
+    /** callback */
+    ADD_COUPONS_CALLBACK {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getCouponsController().addCouponsCallback((EMMACouponsInterface) args[0]);
+        }
+    },
+    /** type, campaign */
+    SEND_IN_APP_CLICK {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getCampaignController().sendClick(
+                    ((CommunicationTypes) args[0]).getCommunicationId(), (EMMACampaign) args[1]);
+        }
+    },
+    /** type, campaign */
+    SEND_IN_APP_DISMISSED_CLICK {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getCampaignController().sendDismissedClick(
+                    ((CommunicationTypes) args[0]).getCommunicationId(), (EMMACampaign) args[1]);
+        }
+    },
+    /** type, campaign */
+    SEND_IN_APP_IMPRESSION {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getCampaignController().sendImpression(
+                    ((CommunicationTypes) args[0]).getCommunicationId(), (EMMACampaign) args[1]);
+        }
+    },
+    /** plugins */
+    ADD_IN_APP_PLUGINS {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getInAppPluginController().addPlugins((EMMAInAppPlugin[]) args[0]);
+        }
+    },
+    /** language */
+    SET_USER_LANGUAGE {
+        @Override
+        void replay(EMMAController controller, Object[] args) {
+            controller.getDeviceController().setUserLanguage((String) args[0]);
+        }
+    };
+
+    abstract void replay(EMMAController controller, Object[] args);
+}
@@ -0,0 +1,289 @@
+package com.example.emmaintegrationtest.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+
+import io.emma.android.controllers.EMMAController;
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Bounded buffer of facade calls made before the controller is ready.
+ * <p>
+ * Up to <code>capacity</code> invocations are kept in memory. When an overflow file
+ * is given, the following ones are appended to it as length-prefixed
+ * {@link InvocationCodec} records; otherwise, or when an invocation cannot be encoded,
+ * they are dropped. {@link #replay(Dispatcher)} runs memory entries first and then
+ * the overflow file, which preserves the original call order.
+ * <p>
+ * Every record is flushed as it is written, so the overflow file survives the process.
+ * A buffer created on a file left by a previous process keeps its records, dropping a
+ * partially written last one, and replays them before any new call.
+ * <p>
+ * This class is not thread-safe; callers must synchronize.
+ */
+public final class PendingCallBuffer {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Runs the held invocations once the controller is ready.
+     */
+    public interface Dispatcher {
+
+        void dispatch(PendingInvocation invocation);
+    }
+
+    private final int capacity;
+    private final File overflowFile;
+    private final ArrayDeque<PendingInvocation> invocations;
+    private DataOutputStream overflow;
+    private int overflowCount;
+
+    private long buffered;
+    private long replayed;
+    private long dropped;
+    private long spilled;
+
+    /**
+     * Class constructor.
+     *
+     * @param capacity     Maximum number of invocations kept in memory.
+     * @param overflowFile File for the invocations beyond the capacity, or <code>null</code>
+     *                     to drop them.
+     */
+    public PendingCallBuffer(int capacity, File overflowFile) {
+        this.capacity = capacity;
+        this.overflowFile = overflowFile;
+        this.invocations = new ArrayDeque<>(Math.min(capacity, 16));
+        if (overflowFile != null && overflowFile.length() > 0) {
+            recover();
+        }
+    }
+
+    /**
+     * @param invocation The invocation to hold.
+     * @return <code>false</code> if it was dropped.
+     */
+    public boolean add(PendingInvocation invocation) {
+        if (invocations.size() < capacity && overflowCount == 0) {
+            invocations.add(invocation);
+            buffered++;
+            return true;
+        }
+        if (spill(invocation)) {
+            buffered++;
+            spilled++;
+            return true;
+        }
+        dropped++;
+        return false;
+    }
+
+    /**
+     * Runs every held invocation directly against the controller and empties the buffer.
+     *
+     * @return Number of invocations replayed.
+     */
+    public int replay(EMMAController controller) {
+        return replay(invocation -> invocation.replay(controller));
+    }
+
+    /**
+     * Hands every held invocation to the dispatcher and empties the buffer.
+     *
+     * @return Number of invocations replayed.
+     */
+    public int replay(Dispatcher dispatcher) {
+        int count = 0;
+        PendingInvocation invocation;
+        while ((invocation = invocations.poll()) != null) {
+            count += replay(dispatcher, invocation);
+        }
+        if (overflowCount > 0) {
+            count += replayOverflow(dispatcher);
+        }
+        return count;
+    }
+
+    public int size() {
+        return invocations.size() + overflowCount;
+    }
+
+    public Metrics metrics() {
+        return new Metrics(buffered, replayed, dropped, spilled, size());
+    }
+
+    private int replay(Dispatcher dispatcher, PendingInvocation invocation) {
+        try {
+            dispatcher.dispatch(invocation);
+            replayed++;
+            return 1;
+        } catch (RuntimeException e) {
+            dropped++;
+            EMMALog.e("Unable to replay " + invocation.getCall() + ": " + e);
+            return 0;
+        }
+    }
+
+    private boolean spill(PendingInvocation invocation) {
+        if (overflowFile == null) {
+            return false;
+        }
+        byte[] record = InvocationCodec.encode(invocation);
+        if (record == null) {
+            return false;
+        }
+        try {
+            if (overflow == null) {
+                overflow = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(overflowFile, overflowCount > 0)));
+            }
+            overflow.writeInt(record.length);
+            overflow.write(record);
+            overflow.flush();
+            overflowCount++;
+            return true;
+        } catch (IOException e) {
+            EMMALog.e("Unable to write pending call to " + overflowFile + ": " + e);
+            return false;
+        }
+    }
+
+    private int replayOverflow(Dispatcher dispatcher) {
+        int count = 0;
+        int processed = 0;
+        try {
+            if (overflow != null) {
+                overflow.close();
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(overflowFile)))) {
+                while (processed < overflowCount) {
+                    byte[] record = new byte[in.readInt()];
+                    in.readFully(record);
+                    PendingInvocation invocation = InvocationCodec.decode(record);
+                    processed++;
+                    count += replay(dispatcher, invocation);
+                }
+            }
+        } catch (EOFException e) {
+            EMMALog.e("Pending calls file truncated: " + overflowFile);
+        } catch (IOException e) {
+            EMMALog.e("Unable to read pending calls from " + overflowFile + ": " + e);
+        } finally {
+            dropped += overflowCount - processed;
+            overflow = null;
+            overflowCount = 0;
+            if (!overflowFile.delete()) {
+                EMMALog.w("Unable to delete " + overflowFile);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the complete records of an overflow file left by a previous process and
+     * cuts off a partially written last one, so new records are appended after them.
+     */
+    private void recover() {
+        long valid = 0;
+        try (RandomAccessFile file = new RandomAccessFile(overflowFile, "rw")) {
+            long length = file.length();
+            while (valid + 4 <= length) {
+                file.seek(valid);
+                int size = file.readInt();
+                if (size < 0 || valid + 4 + size > length) {
+                    break;
+                }
+                valid += 4 + size;
+                overflowCount++;
+            }
+            if (valid < length) {
+                EMMALog.w("Pending calls file truncated: " + overflowFile);
+                file.setLength(valid);
+            }
+        } catch (IOException e) {
+            EMMALog.e("Unable to recover pending calls from " + overflowFile + ": " + e);
+            overflowCount = 0;
+            if (!overflowFile.delete()) {
+                EMMALog.w("Unable to delete " + overflowFile);
+            }
+            return;
+        }
+        buffered += overflowCount;
+        if (overflowCount > 0) {
+            EMMALog.d("Recovered " + overflowCount + " pending calls from " + overflowFile);
+        }
+    }
+
+    /**
+     * Counters of a {@link PendingCallBuffer} since it was created.
+     */
+    public static final class Metrics {
+
+        private final long buffered;
+        private final long replayed;
+        private final long dropped;
+        private final long spilled;
+        private final int pending;
+
+        Metrics(long buffered, long replayed, long dropped, long spilled, int pending) {
+            this.buffered = buffered;
+            this.replayed = replayed;
+            this.dropped = dropped;
+            this.spilled = spilled;
+            this.pending = pending;
+        }
+
+        /**
+         * @return Calls accepted by the buffer, in memory or on disk.
+         */
+        public long getBuffered() {
+            return buffered;
+        }
+
+        /**
+         * @return Calls run against the controller.
+         */
+        public long getReplayed() {
+            return replayed;
+        }
+
+        /**
+         * @return Calls lost because the buffer was full, they could not be written to disk
+         * or their replay failed.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return Calls written to the overflow file.
+         */
+        public long getSpilled() {
+            return spilled;
+        }
+
+        /**
+         * @return Calls currently waiting to be replayed.
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        @Override
+        public String toString() {
+            return "PendingCalls{buffered=" + buffered + ", replayed=" + replayed +
+                    ", dropped=" + dropped + ", spilled=" + spilled + ", pending=" + pending + "}";
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.emmaintegrationtest.startup;
+
+import io.emma.android.controllers.EMMAController;
+
+/**
+ * A {@link PendingCall} together with the arguments it was made with.
+ */
+public final class PendingInvocation {
+
+    private final PendingCall call;
+    final Object[] args;
+
+    public PendingInvocation(PendingCall call, Object... args) {
+        this.call = call;
+        this.args = args;
+    }
+
+    public PendingCall getCall() {
+        return call;
+    }
+
+    /**
+     * @return The argument at the position documented by the {@link PendingCall} constant.
+     */
+    public Object getArgument(int index) {
+        return args[index];
+    }
+
+    /**
+     * Runs the call against the started controller.
+     */
+    public void replay(EMMAController controller) {
+        call.replay(controller, args);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.emmaintegrationtest.startup;
+
+import com.example.emmaintegrationtest.startup.StartupReport.Stage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the stages of a session start on an executor and records how long each one took.
+ * <p>
+ * Stages chained on the same future run in parallel; the resulting futures can be
+ * combined with {@link CompletableFuture#allOf(CompletableFuture[])}.
+ */
+public final class StagedStartup {
+
+    private final Executor executor;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+
+    public StagedStartup(Executor executor) {
+        this.executor = executor;
+    }
+
+    public <T> CompletableFuture<T> supply(Stage stage, Supplier<T> action) {
+        return CompletableFuture.supplyAsync(() -> {
+            long begin = System.nanoTime();
+            try {
+                return action.get();
+            } finally {
+                record(stage, begin);
+            }
+        }, executor);
+    }
+
+    public <T, R> CompletableFuture<R> then(CompletableFuture<T> previous, Stage stage,
+                                            Function<T, R> action) {
+        return previous.thenApplyAsync(value -> {
+            long begin = System.nanoTime();
+            try {
+                return action.apply(value);
+            } finally {
+                record(stage, begin);
+            }
+        }, executor);
+    }
+
+    public <T> CompletableFuture<Void> thenAccept(CompletableFuture<T> previous, Stage stage,
+                                                  Consumer<T> action) {
+        return then(previous, stage, value -> {
+            action.accept(value);
+            return null;
+        });
+    }
+
+    /**
+     * @return The timings recorded so far.
+     */
+    public StartupReport report() {
+        long[] snapshot = new long[stageNanos.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = stageNanos.get(i);
+        }
+        return new StartupReport(snapshot, System.nanoTime() - startNanos);
+    }
+
+    private void record(Stage stage, long begin) {
+        stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - begin);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.emmaintegrationtest.startup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of an asynchronous session start, one entry per {@link Stage}.
+ */
+public final class StartupReport {
+
+    /**
+     * Stages of the session start. The last three run in parallel once the
+     * controller has been created.
+     */
+    public enum Stage {
+        SAVE_CONFIG,
+        CREATE_CONTROLLER,
+        START_SESSION,
+        INSTALL_REFERRER,
+        INSTALL_ATTRIBUTION
+    }
+
+    private final long[] stageNanos;
+    private final long totalNanos;
+
+    StartupReport(long[] stageNanos, long totalNanos) {
+        this.stageNanos = stageNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @param stage The stage.
+     * @return Time spent running the stage, in the given unit.
+     */
+    public long getStageTime(Stage stage, TimeUnit unit) {
+        return unit.convert(stageNanos[stage.ordinal()], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return Time from the start request until the controller was ready, in the given unit.
+     */
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("StartupReport{");
+        for (Stage stage : Stage.values()) {
+            builder.append(stage).append('=')
+                    .append(getStageTime(stage, TimeUnit.MICROSECONDS)).append("us, ");
+        }
+        return builder.append("total=").append(getTotalTime(TimeUnit.MICROSECONDS))
+                .append("us}").toString();
+    }
+}
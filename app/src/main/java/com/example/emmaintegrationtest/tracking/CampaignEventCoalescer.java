@@ -0,0 +1,218 @@
+package com.example.emmaintegrationtest.tracking;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.emma.android.enums.CommunicationTypes;
+import io.emma.android.model.EMMACampaign;
+import io.emma.android.utils.EMMALog;
+
+/**
+ * De-duplicating stage for campaign impressions and clicks.
+ * <p>
+ * An event is dropped if an event of the same {@link Kind}, communication type and
+ * campaign id was already accepted in the current window. Windows are consecutive
+ * intervals of <code>windowMillis</code>; at the end of each one the accepted events
+ * are handed to the {@link Sink} as one batch and the seen keys are forgotten.
+ * <p>
+ * Keys are packed into a <code>long</code> and kept in a primitive set, so a
+ * duplicate costs a hash lookup and no allocation. Campaigns without id are never
+ * de-duplicated.
+ */
+public final class CampaignEventCoalescer {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 1000;
+
+    private static final int KIND_BITS = 2;
+    private static final int TYPE_BITS = 6;
+
+    /**
+     * Campaign events that can be coalesced.
+     */
+    public enum Kind {
+        IMPRESSION,
+        CLICK,
+        DISMISSED_CLICK
+    }
+
+    /**
+     * Receives the accepted events on the coalescer thread.
+     */
+    public interface Sink {
+
+        /**
+         * @param batch Events accepted during the window, in arrival order. The batch is
+         *              reused after the call returns, so it must not be retained.
+         */
+        void dispatch(Batch batch);
+    }
+
+    /**
+     * Events accepted during one window.
+     */
+    public static final class Batch {
+
+        private Kind[] kinds;
+        private CommunicationTypes[] types;
+        private EMMACampaign[] campaigns;
+        private int size;
+
+        Batch(int capacity) {
+            kinds = new Kind[capacity];
+            types = new CommunicationTypes[capacity];
+            campaigns = new EMMACampaign[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Kind getKind(int index) {
+            return kinds[index];
+        }
+
+        public CommunicationTypes getType(int index) {
+            return types[index];
+        }
+
+        public EMMACampaign getCampaign(int index) {
+            return campaigns[index];
+        }
+
+        void add(Kind kind, CommunicationTypes type, EMMACampaign campaign) {
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                types = Arrays.copyOf(types, capacity);
+                campaigns = Arrays.copyOf(campaigns, capacity);
+            }
+            kinds[size] = kind;
+            types[size] = type;
+            campaigns[size] = campaign;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(kinds, 0, size, null);
+            Arrays.fill(types, 0, size, null);
+            Arrays.fill(campaigns, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private final Sink sink;
+    private final ScheduledExecutorService executor;
+    private final LongHashSet seen = new LongHashSet(64);
+    private Batch pending = new Batch(16);
+    private Batch dispatching = new Batch(16);
+    private long duplicates;
+    private boolean shutdown;
+
+    /**
+     * Class constructor.
+     *
+     * @param sink         Destination of the accepted events.
+     * @param windowMillis Length of the de-duplication window, which is also the flush interval.
+     */
+    public CampaignEventCoalescer(Sink sink, long windowMillis) {
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.sink = sink;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "emma-campaign-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushWindow, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return <code>false</code> if the coalescer is shut down and the caller has to send
+     * the event itself. Duplicates are accepted and dropped.
+     */
+    public boolean offer(Kind kind, CommunicationTypes type, EMMACampaign campaign) {
+        Number campaignId = campaign != null ? campaign.getCampaignID() : null;
+        synchronized (this) {
+            if (shutdown) {
+                return false;
+            }
+            if (campaignId != null && !seen.add(key(kind, type, campaignId.longValue()))) {
+                duplicates++;
+                return true;
+            }
+            pending.add(kind, type, campaign);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the accepted events now and waits until the sink has received them. The
+     * seen keys are kept until the window ends.
+     */
+    public void flush() {
+        try {
+            executor.submit(this::dispatchPending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            EMMALog.e("Campaign events flush failed: " + e);
+        }
+    }
+
+    /**
+     * Sends the accepted events and stops the coalescer thread.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        flush();
+        executor.shutdown();
+    }
+
+    /**
+     * @return Number of events dropped as duplicates.
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    static long key(Kind kind, CommunicationTypes type, long campaignId) {
+        return campaignId << (KIND_BITS + TYPE_BITS) | (long) type.ordinal() << KIND_BITS | kind.ordinal();
+    }
+
+    private void flushWindow() {
+        synchronized (this) {
+            seen.clear();
+        }
+        dispatchPending();
+    }
+
+    /**
+     * Runs on the coalescer thread only, so the two batches can be swapped without
+     * holding the lock while the sink runs.
+     */
+    private void dispatchPending() {
+        Batch batch;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = pending;
+            pending = dispatching;
+            dispatching = batch;
+        }
+        try {
+            sink.dispatch(batch);
+        } catch (RuntimeException e) {
+            EMMALog.e("Campaign events dispatch failed: " + e);
+        } finally {
+            batch.clear();
+        }
+    }
+}
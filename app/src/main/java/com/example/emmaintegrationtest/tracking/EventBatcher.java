@@ -0,0 +1,202 @@
+package com.example.emmaintegrationtest.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.emma.android.utils.EMMALog;
+
+/**
+ * Batching stage placed in front of a controller.
+ * <p>
+ * Producers pay only the cost of {@link MpscRingBuffer#offer(Object)}. A single
+ * background thread drains the buffer and hands the elements to the {@link Sink}
+ * in batches of at most <code>maxBatchSize</code>, either when that many elements
+ * are waiting or when <code>flushIntervalMillis</code> has elapsed.
+ * <p>
+ * When the buffer is full the producer drains it itself before enqueuing, so
+ * elements always reach the sink in enqueue order.
+ *
+ * <pre>
+ * {@code
+ *
+ * EventBatcher<EMMAEventRequest> batcher = new EventBatcher<>(batch -> {
+ *     for (EMMAEventRequest request : batch) {
+ *         controller.getEventController().trackEvent(request);
+ *     }
+ * }, 64, 10000);
+ * batcher.offer(new EMMAEventRequest("token"));
+ * }
+ * </pre>
+ *
+ * @param <E> Type of the batched elements.
+ */
+public final class EventBatcher<E> {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Receives the drained batches on the batcher thread.
+     *
+     * @param <E> Type of the batched elements.
+     */
+    public interface Sink<E> {
+
+        /**
+         * @param batch Elements in enqueue order. The list is reused after the call
+         *              returns, so it must not be retained.
+         */
+        void dispatch(List<E> batch);
+    }
+
+    private final MpscRingBuffer<E> buffer;
+    private final Sink<E> sink;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService executor;
+    private final ArrayList<E> batch;
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+    private final Runnable drainTask = this::onDrainRequested;
+    private volatile boolean shutdown;
+
+    public EventBatcher(Sink<E> sink, int maxBatchSize, long flushIntervalMillis) {
+        this(sink, DEFAULT_CAPACITY, maxBatchSize, flushIntervalMillis);
+    }
+
+    /**
+     * Class constructor.
+     *
+     * @param sink                Destination of the batches.
+     * @param capacity            Maximum number of elements waiting to be drained.
+     * @param maxBatchSize        Maximum number of elements per batch.
+     * @param flushIntervalMillis Maximum time an element waits before being drained.
+     */
+    public EventBatcher(Sink<E> sink, int capacity, int maxBatchSize, long flushIntervalMillis) {
+        if (maxBatchSize < 1 || flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Batch size and flush interval must be positive");
+        }
+        this.sink = sink;
+        this.maxBatchSize = maxBatchSize;
+        this.buffer = new MpscRingBuffer<>(Math.max(capacity, maxBatchSize));
+        this.batch = new ArrayList<>(maxBatchSize);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "emma-event-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::drain, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enqueues an element to be dispatched in a later batch. If the buffer is full,
+     * the calling thread dispatches the waiting elements first.
+     *
+     * @param element The element.
+     * @return <code>false</code> if the batcher is shut down, in which case the caller
+     * still owns the element.
+     */
+    public boolean offer(E element) {
+        if (shutdown) {
+            return false;
+        }
+        while (!buffer.offer(element)) {
+            if (shutdown) {
+                return false;
+            }
+            drain();
+        }
+        if (shutdown) {
+            // Enqueued while shutting down, the final drain may already have run
+            drain();
+        } else if (buffer.size() >= maxBatchSize) {
+            requestDrain();
+        }
+        return true;
+    }
+
+    /**
+     * Dispatches everything enqueued so far and waits until the sink has received it.
+     */
+    public void flush() {
+        try {
+            executor.submit(this::drain).get();
+        } catch (RejectedExecutionException e) {
+            // Already shut down, nothing left to flush
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            EMMALog.e("Event batch flush failed: " + e.getCause());
+        }
+    }
+
+    /**
+     * Flushes the pending elements and stops the batcher thread.
+     */
+    public void shutdown() {
+        shutdown = true;
+        flush();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drain();
+    }
+
+    /**
+     * Approximate number of elements waiting to be dispatched.
+     */
+    public int pending() {
+        return buffer.size();
+    }
+
+    private void requestDrain() {
+        if (drainRequested.compareAndSet(false, true)) {
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                drainRequested.set(false);
+            }
+        }
+    }
+
+    private void onDrainRequested() {
+        drainRequested.set(false);
+        drain();
+    }
+
+    /**
+     * Runs on the batcher thread, or on a producer when the buffer is full; the lock
+     * keeps a single consumer and the batch order.
+     */
+    private synchronized void drain() {
+        E element;
+        while ((element = buffer.poll()) != null) {
+            batch.add(element);
+            if (batch.size() == maxBatchSize) {
+                dispatchBatch();
+            }
+        }
+        if (!batch.isEmpty()) {
+            dispatchBatch();
+        }
+    }
+
+    private void dispatchBatch() {
+        try {
+            sink.dispatch(batch);
+        } catch (RuntimeException e) {
+            EMMALog.e("Event batch dispatch failed: " + e);
+        } finally {
+            batch.clear();
+        }
+    }
+}
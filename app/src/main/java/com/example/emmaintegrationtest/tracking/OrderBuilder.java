@@ -0,0 +1,217 @@
+package com.example.emmaintegrationtest.tracking;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Reusable holder of an order and its products, handed to EMMA in a single facade call.
+ * <p>
+ * Products are stored in parallel arrays with primitive quantities and prices, so
+ * adding a line item to the builder does not allocate once the arrays have grown to
+ * the cart size. Sending it still makes one order controller call per product, and
+ * whatever the SDK allocates there is not saved.
+ * Builders are taken from a small pool with {@link #obtain(String)} and returned to
+ * it by the facade after the order is sent, or with {@link #recycle()} if the order
+ * is abandoned.
+ *
+ * <pre>
+ * {@code
+ *
+ * OrderBuilder order = OrderBuilder.obtain("A4UE312")
+ *         .setCustomerId("18743")
+ *         .setCoupon("EXTRA-10");
+ * order.addProduct("1001", "Blue jeans", 1.0F, 10.0F);
+ * EMMA.getInstance().trackOrder(order);
+ * }
+ * </pre>
+ * <p>
+ * Extras maps are kept by reference and never modified, so the caller can share
+ * the same map between orders.
+ */
+public final class OrderBuilder {
+
+    private static final int MAX_POOL_SIZE = 4;
+    private static final int INITIAL_PRODUCTS = 8;
+
+    private static final Object poolLock = new Object();
+    private static final OrderBuilder[] pool = new OrderBuilder[MAX_POOL_SIZE];
+    private static int poolSize;
+
+    private String orderId;
+    private String customerId;
+    private String coupon;
+    private float totalPrice;
+    private boolean totalPriceSet;
+    private Map<String, String> extras;
+
+    private int productCount;
+    private String[] productIds = new String[INITIAL_PRODUCTS];
+    private String[] productNames = new String[INITIAL_PRODUCTS];
+    private float[] quantities = new float[INITIAL_PRODUCTS];
+    private float[] prices = new float[INITIAL_PRODUCTS];
+    @SuppressWarnings("unchecked")
+    private Map<String, String>[] productExtras = new Map[INITIAL_PRODUCTS];
+
+    private boolean inPool;
+
+    private OrderBuilder() {
+    }
+
+    /**
+     * Takes a builder from the pool, or creates one if the pool is empty.
+     *
+     * @param orderId The ID is used to identify the order in EMMA.
+     */
+    public static OrderBuilder obtain(String orderId) {
+        OrderBuilder order = null;
+        synchronized (poolLock) {
+            if (poolSize > 0) {
+                order = pool[--poolSize];
+                pool[poolSize] = null;
+                order.inPool = false;
+            }
+        }
+        if (order == null) {
+            order = new OrderBuilder();
+        }
+        order.orderId = orderId;
+        return order;
+    }
+
+    /**
+     * Clears the builder and returns it to the pool. It must not be used afterwards.
+     */
+    public void recycle() {
+        orderId = null;
+        customerId = null;
+        coupon = null;
+        totalPrice = 0;
+        totalPriceSet = false;
+        extras = null;
+        Arrays.fill(productIds, 0, productCount, null);
+        Arrays.fill(productNames, 0, productCount, null);
+        Arrays.fill(productExtras, 0, productCount, null);
+        productCount = 0;
+        synchronized (poolLock) {
+            if (inPool) {
+                throw new IllegalStateException("Order already recycled");
+            }
+            if (poolSize < MAX_POOL_SIZE) {
+                inPool = true;
+                pool[poolSize++] = this;
+            }
+        }
+    }
+
+    /**
+     * @param customerId App session user ID. Also used in login and register.
+     */
+    public OrderBuilder setCustomerId(String customerId) {
+        this.customerId = customerId;
+        return this;
+    }
+
+    /**
+     * @param coupon Coupon applied to the order if needed.
+     */
+    public OrderBuilder setCoupon(String coupon) {
+        this.coupon = coupon;
+        return this;
+    }
+
+    /**
+     * @param totalPrice Total price of the order. If it is not set, the sum of the
+     *                   products (quantity by price) is sent.
+     */
+    public OrderBuilder setTotalPrice(float totalPrice) {
+        this.totalPrice = totalPrice;
+        this.totalPriceSet = true;
+        return this;
+    }
+
+    /**
+     * @param extras Tags associated with the order.
+     */
+    public OrderBuilder setExtras(Map<String, String> extras) {
+        this.extras = extras;
+        return this;
+    }
+
+    public OrderBuilder addProduct(String productId, String name, float qty, float price) {
+        return addProduct(productId, name, qty, price, null);
+    }
+
+    public OrderBuilder addProduct(String productId, String name, float qty, float price,
+                                   Map<String, String> extras) {
+        if (productCount == productIds.length) {
+            grow();
+        }
+        int i = productCount++;
+        productIds[i] = productId;
+        productNames[i] = name;
+        quantities[i] = qty;
+        prices[i] = price;
+        productExtras[i] = extras;
+        return this;
+    }
+
+    public String getOrderId() {
+        return orderId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public String getCoupon() {
+        return coupon;
+    }
+
+    public float getTotalPrice() {
+        if (totalPriceSet) {
+            return totalPrice;
+        }
+        float total = 0;
+        for (int i = 0; i < productCount; i++) {
+            total += quantities[i] * prices[i];
+        }
+        return total;
+    }
+
+    public Map<String, String> getExtras() {
+        return extras;
+    }
+
+    public int getProductCount() {
+        return productCount;
+    }
+
+    public String getProductId(int index) {
+        return productIds[index];
+    }
+
+    public String getProductName(int index) {
+        return productNames[index];
+    }
+
+    public float getQuantity(int index) {
+        return quantities[index];
+    }
+
+    public float getPrice(int index) {
+        return prices[index];
+    }
+
+    public Map<String, String> getProductExtras(int index) {
+        return productExtras[index];
+    }
+
+    private void grow() {
+        int capacity = productIds.length * 2;
+        productIds = Arrays.copyOf(productIds, capacity);
+        productNames = Arrays.copyOf(productNames, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        productExtras = Arrays.copyOf(productExtras, capacity);
+    }
+}
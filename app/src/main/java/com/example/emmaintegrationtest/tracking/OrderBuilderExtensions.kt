@@ -0,0 +1,30 @@
+package com.example.emmaintegrationtest.tracking
+
+import io.emma.android.EMMA
+
+/**
+ * Envía a EMMA un pedido construido con [OrderBuilder]: lo inicia, añade cada producto y lo registra.
+ *
+ * Para el código de la aplicación, que usa la instancia del SDK. Como en `trackOrder` de la fachada, el
+ * builder se recicla al terminar y no se puede volver a usar.
+ *
+ * ```kotlin
+ * val pedido = OrderBuilder.obtain("A4UE312").setCustomerId("18743")
+ * pedido.addProduct("1001", "Vaqueros", 1.0F, 10.0F)
+ * EMMA.getInstance().trackOrder(pedido)
+ * ```
+ */
+fun EMMA.trackOrder(order: OrderBuilder) {
+    try {
+        startOrder(order.orderId, order.customerId, order.totalPrice, order.coupon, order.extras)
+        for (i in 0 until order.productCount) {
+            addProduct(
+                order.getProductId(i), order.getProductName(i), order.getQuantity(i), order.getPrice(i),
+                order.getProductExtras(i)
+            )
+        }
+        trackOrder()
+    } finally {
+        order.recycle()
+    }
+}
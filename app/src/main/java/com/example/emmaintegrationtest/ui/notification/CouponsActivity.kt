@@ -3,9 +3,13 @@ package com.example.emmaintegrationtest.ui.notification
 import android.os.Bundle
 import android.util.Log
 import android.widget.Button
+import android.widget.ImageView
 import android.widget.TextView
 import androidx.appcompat.app.AppCompatActivity
 import com.example.emmaintegrationtest.R
+import com.example.emmaintegrationtest.coupons.Coupon
+import com.example.emmaintegrationtest.coupons.CouponStore
+import com.example.emmaintegrationtest.images.ImageLoader
 import io.emma.android.EMMA
 import io.emma.android.enums.CommunicationTypes
 import io.emma.android.interfaces.EMMACouponsInterface
@@ -13,45 +17,104 @@ import io.emma.android.model.EMMACampaign
 import io.emma.android.model.EMMACoupon
 import io.emma.android.model.EMMAInAppRequest
 
+/**
+ * Muestra los cupones de EMMA y permite canjearlos.
+ *
+ * Los cupones se sirven desde [couponStore]: el catálogo completo sólo se pide cuando ha caducado y,
+ * entre tanto, sólo se piden los cupones cuyo estado local puede estar desfasado. Las imágenes de los
+ * cupones se cargan con [ImageLoader], así que volver a la pantalla no las descarga ni decodifica otra vez.
+ */
 class CouponsActivity : AppCompatActivity(), EMMACouponsInterface {
     lateinit var cupon : TextView
     lateinit var canjear : Button
+    lateinit var imagen : ImageView
     lateinit var cuponId : String
 
+    /** Cupones pedidos uno a uno cuya respuesta no ha llegado. */
+    private val pendingCoupons = HashSet<Long>()
+
+    /** Si se ha pedido el catálogo completo y su respuesta no ha llegado. */
+    private var cataloguePending = false
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.activity_coupons)
 
         cupon = findViewById(R.id.textview_cupon)
         canjear = findViewById(R.id.button_canjear)
+        imagen = findViewById(R.id.imageview_cupon)
+
+        canjear.setOnClickListener { redeemCoupon() }
 
         EMMA.getInstance().addCouponsCallback(this)
-        getCoupons()
+        if (couponStore.needsCatalogue()) {
+            getCoupons()
+        } else {
+            showCoupons()
+            couponStore.couponsToRefresh().forEach { id ->
+                pendingCoupons.add(id)
+                getSingleCoupon(id)
+            }
+        }
     }
 
     private fun getCoupons() {
+        pendingCoupons.clear()
+        cataloguePending = true
         EMMA.getInstance().getInAppMessage(EMMAInAppRequest(EMMACampaign.Type.COUPON))
     }
 
-    private fun getSingleCoupon() {
+    /**
+     * Elimina los cupones caducados y selecciona el primero que sigue activo.
+     */
+    private fun showCoupons() {
+        couponStore.pruneExpired()
+        couponStore.active().firstOrNull()?.let { coupon ->
+            cuponId = coupon.id.toString()
+            cupon.text = coupon.title
+            ImageLoader.get(this).load(imagen, coupon.imageUrl)
+        }
+    }
+
+    override fun onDestroy() {
+        ImageLoader.get(this).clear(imagen)
+        super.onDestroy()
+    }
+
+    private fun getSingleCoupon(id: Long) {
         val couponsRequest = EMMAInAppRequest(EMMACampaign.Type.COUPON)
-        couponsRequest.inAppMessageId = cuponId
+        couponsRequest.inAppMessageId = id.toString()
         EMMA.getInstance().getInAppMessage(couponsRequest)
     }
 
     private fun redeemCoupon() {
+        if (!::cuponId.isInitialized) return
+        // Los canjes que no son válidos en local no se envían
+        val redemption = couponStore.redeem(cuponId.toLong())
+        if (redemption != CouponStore.Redemption.ACCEPTED) {
+            print("Coupon $cuponId not redeemed: $redemption")
+            return
+        }
         val redeemCouponRequest = EMMAInAppRequest(EMMACampaign.Type.REDEEM_COUPON)
-        redeemCouponRequest.inAppMessageId = "<COUPON_ID>"
+        redeemCouponRequest.inAppMessageId = cuponId
         EMMA.getInstance().getInAppMessage(redeemCouponRequest)
     }
 
     private fun cancelCoupon() {
+        if (!::cuponId.isInitialized) return
+        if (!couponStore.cancel(cuponId.toLong())) return
         val cancelCouponRequest = EMMAInAppRequest(EMMACampaign.Type.CANCEL_COUPON)
         cancelCouponRequest.inAppMessageId = cuponId
         EMMA.getInstance().getInAppMessage(cancelCouponRequest)
     }
 
     private fun couponValidRedeems() {
+        if (!::cuponId.isInitialized) return
+        // El recuento local evita la petición si el cupón está en el catálogo
+        couponStore.validRedeems(cuponId.toLong())?.let { validRedeems ->
+            onCouponValidRedeemsReceived(validRedeems)
+            return
+        }
         val couponValidRedeems = EMMAInAppRequest(EMMACampaign.Type.COUPON_VALID_REDEEMS)
         couponValidRedeems.inAppMessageId = cuponId
         EMMA.getInstance().getInAppMessage(couponValidRedeems)
@@ -59,26 +122,47 @@ class CouponsActivity : AppCompatActivity(), EMMACouponsInterface {
 
     override fun onCouponsReceived(coupons: List<EMMACoupon>) {
         coupons.let {
+            val received = coupons.map(Coupon::of)
+            // Las respuestas no dicen qué se pidió: una respuesta con un único cupón pedido uno a uno es la
+            // de ese cupón, y el resto son el catálogo si se pidió
+            val single = received.singleOrNull()?.takeIf { pendingCoupons.remove(it.id) }
+            if (single != null) {
+                couponStore.applyCoupon(single)
+            } else if (cataloguePending) {
+                cataloguePending = false
+                couponStore.applyCatalogue(received)
+            } else {
+                received.forEach { couponStore.applyCoupon(it) }
+            }
             // Show coupons
             coupons.forEach { coupon ->
                 EMMA.getInstance().sendInAppImpression(CommunicationTypes.COUPON, coupon)
             }
+            showCoupons()
         }
     }
 
     override fun onCouponsFailure() {
+        if (pendingCoupons.isEmpty()) cataloguePending = false
         print("An error has occurred obtaining coupons")
     }
 
     override fun onCouponRedemption(success: Boolean) {
+        couponStore.redemptionResult(success)
         print("Coupon redemption success: $success")
     }
 
     override fun onCouponCancelled(success: Boolean) {
+        couponStore.cancellationResult(success)
         print("Coupon cancelled success: $success")
     }
 
     override fun onCouponValidRedeemsReceived(numRedeems: Int) {
         print("Coupon redeems: $numRedeems")
     }
-}
\ No newline at end of file
+
+    companion object {
+        /** Catálogo de cupones compartido entre aperturas de la pantalla. */
+        val couponStore = CouponStore()
+    }
+}
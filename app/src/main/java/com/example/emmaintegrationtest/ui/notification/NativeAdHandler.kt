@@ -1,5 +1,11 @@
 package com.example.emmaintegrationtest.ui.notification
 
+import android.os.SystemClock
+import com.example.emmaintegrationtest.inapp.CampaignResponseCache
+import com.example.emmaintegrationtest.inapp.InAppCacheKey
+import com.example.emmaintegrationtest.inapp.NativeAdBindingPlans
+import com.example.emmaintegrationtest.metrics.RequestSpan
+import com.example.emmaintegrationtest.metrics.RequestTracer
 import io.emma.android.EMMA
 import io.emma.android.enums.CommunicationTypes
 import io.emma.android.interfaces.EMMABatchNativeAdInterface
@@ -8,24 +14,43 @@ import io.emma.android.interfaces.EMMANativeAdInterface
 import io.emma.android.model.EMMACampaign
 import io.emma.android.model.EMMANativeAd
 import io.emma.android.model.EMMANativeAdRequest
+import java.util.concurrent.TimeUnit
 
+/**
+ * Pide anuncios nativos a EMMA y los entrega a `onAdReceived`.
+ *
+ * Las respuestas se guardan en [responseCache], compartida por todas las instancias: si la plantilla
+ * ya se pidió hace poco el anuncio se pinta desde memoria sin esperar a la red, y si la respuesta
+ * está obsoleta se pinta igualmente mientras se vuelve a pedir.
+ *
+ * EMMA no avisa de las peticiones fallidas: una petición sin respuesta pasado [PENDING_TIMEOUT_MILLIS],
+ * o un bloque vacío, cuenta como revalidación fallida y la siguiente petición vuelve a revalidar.
+ */
 class NativeAdHandler(
     private val onAdReceived: (EMMANativeAd) -> Unit
 ) : EMMAInAppMessageInterface, EMMABatchNativeAdInterface, EMMANativeAdInterface {
 
+    private class Pending(val key: InAppCacheKey, val requestedAt: Long)
+
+    /** Peticiones enviadas a EMMA sin respuesta todavía, por plantilla. */
+    private val pending = HashMap<String?, Pending>()
+    private var shownAd: EMMANativeAd? = null
+
     override fun onReceived(nativeAd: EMMANativeAd) {
-        // Send impression to the platform
-        EMMA.getInstance().sendInAppImpression(CommunicationTypes.NATIVE_AD, nativeAd)
-        EMMA.getInstance().sendInAppClick(CommunicationTypes.NATIVE_AD, nativeAd)
-        onAdReceived(nativeAd)
+        val key = takePending(nativeAd.templateId)?.key
+            ?: InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = nativeAd.templateId)
+        responseCache.put(key, listOf(nativeAd))
+        // Una revalidación que devuelve la misma campaña no se vuelve a pintar
+        if (shownAd?.campaignID != nativeAd.campaignID) {
+            showNativeAd(nativeAd)
+        }
     }
 
     fun getNativeAd(templateId: String) {
         println("Se activa getNativeAd()")
         val nativeAdRequest = EMMANativeAdRequest()
         nativeAdRequest.templateId = templateId
-        EMMA.getInstance().getInAppMessage(nativeAdRequest, this)
-
+        requestCached(nativeAdRequest) { nativeAds -> nativeAds.firstOrNull()?.let(::showNativeAd) }
     }
 
     fun getNativeAdBatch(templateId: String) {
@@ -33,7 +58,48 @@ class NativeAdHandler(
         val nativeAdRequest = EMMANativeAdRequest()
         nativeAdRequest.templateId = templateId
         nativeAdRequest.isBatch = true
-        EMMA.getInstance().getInAppMessage(nativeAdRequest, this)
+        requestCached(nativeAdRequest, ::showNativeAdBatch)
+    }
+
+    /**
+     * Sirve la petición desde [responseCache] si es posible y sólo la envía a EMMA cuando no hay
+     * respuesta o hay que revalidarla.
+     */
+    private fun requestCached(request: EMMANativeAdRequest, show: (List<EMMANativeAd>) -> Unit) {
+        val key = InAppCacheKey.of(request)
+        expirePending(SystemClock.elapsedRealtime())
+        when (val cached = responseCache.get(key)) {
+            is CampaignResponseCache.Lookup.Fresh -> {
+                show(cached.value)
+                return
+            }
+
+            is CampaignResponseCache.Lookup.Stale -> {
+                show(cached.value)
+                if (!cached.revalidate) return
+            }
+
+            CampaignResponseCache.Lookup.Miss -> Unit
+        }
+        synchronized(pending) {
+            pending[key.templateId] = Pending(key, SystemClock.elapsedRealtime())
+        }
+        val tracer = tracer
+        if (tracer == null) {
+            EMMA.getInstance().getInAppMessage(request, this)
+            return
+        }
+        val span = tracer.begin(request)
+        EMMA.getInstance().getInAppMessage(request, tracer.trace(span, this, EMMAInAppMessageInterface::class.java))
+        span.mark(RequestSpan.Stage.SUBMITTED)
+    }
+
+    private fun showNativeAd(nativeAd: EMMANativeAd) {
+        shownAd = nativeAd
+        // Send impression to the platform
+        EMMA.getInstance().sendInAppImpression(CommunicationTypes.NATIVE_AD, nativeAd)
+        EMMA.getInstance().sendInAppClick(CommunicationTypes.NATIVE_AD, nativeAd)
+        onAdReceived(nativeAd)
     }
 
     /**
@@ -43,15 +109,50 @@ class NativeAdHandler(
      */
     override fun onBatchReceived(nativeAds: MutableList<EMMANativeAd>) {
         println("Se activa onBatchRecieved()")
+        if (nativeAds.isEmpty()) {
+            // Sin contenido: no dice de qué plantilla es, sólo se sabe si había una única pendiente
+            val only = synchronized(pending) {
+                pending.values.singleOrNull { it.key.batch }?.also { pending.remove(it.key.templateId) }
+            }
+            only?.let { responseCache.revalidationFailed(it.key) }
+            return
+        }
+        val templateId = nativeAds.first().templateId
+        val key = takePending(templateId)?.key
+            ?: InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = templateId, batch = true)
+        responseCache.put(key, nativeAds.toList())
+        showNativeAdBatch(nativeAds)
+    }
+
+    private fun takePending(templateId: String?): Pending? = synchronized(pending) { pending.remove(templateId) }
+
+    /**
+     * Da por fallidas las peticiones que llevan demasiado sin respuesta, para que su respuesta obsoleta
+     * se pueda volver a revalidar.
+     */
+    private fun expirePending(now: Long) {
+        val expired = synchronized(pending) {
+            val iterator = pending.values.iterator()
+            val expired = ArrayList<InAppCacheKey>(0)
+            while (iterator.hasNext()) {
+                val request = iterator.next()
+                if (now - request.requestedAt > PENDING_TIMEOUT_MILLIS) {
+                    iterator.remove()
+                    expired.add(request.key)
+                }
+            }
+            expired
+        }
+        expired.forEach(responseCache::revalidationFailed)
+    }
+
+    private fun showNativeAdBatch(nativeAds: List<EMMANativeAd>) {
         nativeAds.forEach { nativeAd ->
             // Send impression to the platform
             EMMA.getInstance().sendInAppImpression(CommunicationTypes.NATIVE_AD, nativeAd)
             EMMA.getInstance().sendInAppClick(CommunicationTypes.NATIVE_AD, nativeAd)
-            val content = nativeAd.nativeAdContent
-            val container = content["container"]
-            container?.fieldContainer?.forEach { containerSide ->
-                // extract field information
-            }
+            // Compile the template's binding plan once, before its first render
+            NativeAdBindingPlans.of(nativeAd)
         }
     }
 
@@ -72,4 +173,19 @@ class NativeAdHandler(
     override fun onClose(p0: EMMACampaign?) {
         // not implemented
     }
+
+    companion object {
+        /** Tiempo tras el que una petición sin respuesta se da por fallida. */
+        val PENDING_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30)
+
+        /** Respuestas de anuncios nativos por plantilla, compartidas entre pantallas. */
+        val responseCache = CampaignResponseCache<List<EMMANativeAd>>()
+
+        /**
+         * Trazador de las peticiones enviadas a EMMA, o `null` para no trazarlas. Cada petición
+         * abre un [RequestSpan] que se cierra cuando termina `onReceived` u `onBatchReceived`.
+         */
+        @Volatile
+        var tracer: RequestTracer? = null
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.example.emmaintegrationtest.ui.notification
+
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import android.widget.ImageView
+import android.widget.TextView
+import com.example.emmaintegrationtest.R
+import com.example.emmaintegrationtest.images.ImageLoader
+import com.example.emmaintegrationtest.inapp.NativeAdBindingPlan
+import com.example.emmaintegrationtest.inapp.NativeAdBindingPlans
+import io.emma.android.model.EMMANativeAd
+
+/**
+ * Vista inflada de un anuncio nativo con sus campos ya localizados.
+ *
+ * Los `findViewById` se hacen una sola vez al inflar, y los huecos del [NativeAdBindingPlan] de la
+ * plantilla se asocian a sus vistas la primera vez que se pinta (y de nuevo sólo si el plan se amplía
+ * con un campo nuevo), así que pintar un anuncio en una vista reciclada sólo cambia los textos y la
+ * imagen, que se carga con [ImageLoader].
+ *
+ * @property templateId Plantilla para la que se infló la vista.
+ */
+class NativeAdViewHolder private constructor(
+    val templateId: String,
+    val view: View,
+    private val title: TextView,
+    private val body: TextView,
+    private val image: ImageView
+) : NativeAdBindingPlan.Target {
+
+    private var plan: NativeAdBindingPlan? = null
+    private var slots = emptyArray<TextView?>()
+    private var imageSlot = -1
+
+    /**
+     * Rellena la vista con el contenido del anuncio.
+     */
+    fun bind(nativeAd: EMMANativeAd) {
+        // La vista es siempre de la misma plantilla, así que los huecos sólo se vuelven a asociar si el
+        // plan se ha ampliado
+        val plan = NativeAdBindingPlans.of(nativeAd)
+        if (plan !== this.plan) {
+            slots = Array(plan.fieldCount) { slot -> viewFor(plan.fieldName(slot)) }
+            imageSlot = (0 until plan.fieldCount).firstOrNull { plan.fieldName(it) == IMAGE_FIELD } ?: -1
+            this.plan = plan
+        }
+        plan.bind(nativeAd, this)
+    }
+
+    override fun bindField(slot: Int, value: String?) {
+        if (slot == imageSlot) {
+            image.visibility = if (value.isNullOrEmpty()) View.GONE else View.VISIBLE
+            ImageLoader.get(view.context).load(image, value)
+            return
+        }
+        slots[slot]?.text = value
+    }
+
+    /**
+     * Cancela la carga de la imagen y la devuelve al [ImageLoader], para las vistas que ya no se van a
+     * pintar.
+     */
+    fun recycle() {
+        ImageLoader.get(view.context).clear(image)
+    }
+
+    private fun viewFor(fieldName: String): TextView? = when (fieldName) {
+        "Title" -> title
+        "Body" -> body
+        else -> null
+    }
+
+    companion object {
+
+        /** Campo de las plantillas de EMMA con la imagen principal del anuncio. */
+        private const val IMAGE_FIELD = "Main picture"
+
+        /**
+         * Infla `R.layout.activity_native_ads` para la plantilla dada.
+         */
+        fun inflate(inflater: LayoutInflater, parent: ViewGroup?, templateId: String): NativeAdViewHolder {
+            val view = inflater.inflate(R.layout.activity_native_ads, parent, false)
+            return NativeAdViewHolder(
+                templateId,
+                view,
+                view.findViewById(R.id.textview_titulo),
+                view.findViewById(R.id.textview_cuerpo),
+                view.findViewById(R.id.imageview_imagen)
+            )
+        }
+    }
+}
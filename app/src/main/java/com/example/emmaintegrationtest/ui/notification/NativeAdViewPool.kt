@@ -0,0 +1,77 @@
+package com.example.emmaintegrationtest.ui.notification
+
+/**
+ * Pool de vistas de anuncios nativos agrupadas por plantilla.
+ *
+ * Una vista sólo se reutiliza para anuncios de la misma plantilla, ya que el diseño depende de ella.
+ * Las vistas que se devuelven con [release] se guardan hasta `maxPerTemplate` por plantilla; el
+ * resto se descartan. Las descartadas, y las libres al llamar a [clear], se entregan a `discard` para
+ * que suelten lo que muestran, como las imágenes.
+ *
+ * No es seguro entre hilos: se usa desde el hilo principal.
+ *
+ * @param H Tipo del contenedor de la vista, normalmente [NativeAdViewHolder].
+ * @param maxPerTemplate Vistas libres que se guardan por plantilla.
+ * @param discard Recibe las vistas que salen del pool sin volver a usarse.
+ * @param create Crea (infla) una vista nueva para la plantilla dada.
+ */
+class NativeAdViewPool<H : Any>(
+    private val maxPerTemplate: Int = DEFAULT_MAX_PER_TEMPLATE,
+    private val discard: (H) -> Unit = {},
+    private val create: (templateId: String) -> H
+) {
+
+    /**
+     * Contadores del pool desde su creación.
+     *
+     * @property inflations Vistas creadas con `create`.
+     * @property reuses Vistas servidas desde el pool.
+     * @property discarded Vistas devueltas con el pool lleno.
+     */
+    data class Stats(val inflations: Long, val reuses: Long, val discarded: Long)
+
+    private val free = HashMap<String, ArrayDeque<H>>()
+    private var inflations = 0L
+    private var reuses = 0L
+    private var discarded = 0L
+
+    /**
+     * Devuelve una vista libre de la plantilla o crea una nueva.
+     */
+    fun acquire(templateId: String): H {
+        val holder = free[templateId]?.removeLastOrNull()
+        if (holder != null) {
+            reuses++
+            return holder
+        }
+        inflations++
+        return create(templateId)
+    }
+
+    /**
+     * Devuelve al pool una vista que ya no se muestra.
+     */
+    fun release(templateId: String, holder: H) {
+        val holders = free.getOrPut(templateId) { ArrayDeque(maxPerTemplate) }
+        if (holders.size < maxPerTemplate) {
+            holders.addLast(holder)
+        } else {
+            discarded++
+            discard(holder)
+        }
+    }
+
+    /**
+     * Descarta todas las vistas libres.
+     */
+    fun clear() {
+        free.values.forEach { holders -> holders.forEach(discard) }
+        free.clear()
+    }
+
+    fun stats(): Stats = Stats(inflations, reuses, discarded)
+
+    companion object {
+        const val DEFAULT_MAX_PER_TEMPLATE = 4
+    }
+}
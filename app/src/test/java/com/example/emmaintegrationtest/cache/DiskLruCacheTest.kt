@@ -0,0 +1,132 @@
+package com.example.emmaintegrationtest.cache
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * Pruebas del [DiskLruCache] sobre un directorio temporal.
+ */
+class DiskLruCacheTest {
+
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("disk-cache").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun bytes(size: Int, seed: Int) = ByteArray(size) { (it * 31 + seed).toByte() }
+
+    @Test
+    fun identicalContentIsStoredOnce() {
+        val cache = DiskLruCache.open(directory, 10_000)
+        val banner = bytes(1000, 1)
+
+        cache.put("https://cdn.example.com/a/banner.png", "image/png", banner)
+        cache.put("https://cdn.example.com/b/banner.png?v=2", "image/png", banner.copyOf())
+
+        assertEquals(2, cache.count())
+        assertEquals(1000L, cache.size())
+        // Un fichero de contenido más el índice
+        assertEquals(2, directory.listFiles()!!.size)
+        val type = arrayOfNulls<String>(1)
+        assertArrayEquals(banner, cache.get("https://cdn.example.com/b/banner.png?v=2", type))
+        assertEquals("image/png", type[0])
+    }
+
+    @Test
+    fun leastRecentlyUsedKeysAreEvictedFirst() {
+        val cache = DiskLruCache.open(directory, 3000)
+        cache.put("a", null, bytes(1000, 1))
+        cache.put("b", null, bytes(1000, 2))
+        cache.put("c", null, bytes(1000, 3))
+        assertNotNull(cache.get("a"))
+
+        cache.put("d", null, bytes(1000, 4))
+
+        assertNull(cache.get("b"))
+        assertNotNull(cache.get("a"))
+        assertEquals(3000L, cache.size())
+        assertEquals(1L, cache.evictions)
+        assertNull(cache.put("enorme", null, bytes(3001, 5)))
+    }
+
+    @Test
+    fun entriesSurviveReopeningAndStrayFilesAreDeleted() {
+        DiskLruCache.open(directory, 10_000).apply {
+            put("pagina", "text/html; charset=utf-8", "<html></html>".toByteArray())
+        }
+        File(directory, "0123.tmp7").writeText("escritura interrumpida")
+
+        val reopened = DiskLruCache.open(directory, 10_000)
+
+        assertEquals("<html></html>", String(reopened.get("pagina", null)!!))
+        assertEquals(2, directory.listFiles()!!.size)
+    }
+
+    @Test
+    fun damagedContentIsNeverServed() {
+        val cache = DiskLruCache.open(directory, 10_000)
+        val entry = cache.put("imagen", "image/jpeg", bytes(500, 7))!!
+        RandomAccessFile(File(directory, entry.hash), "rw").use {
+            it.seek(100)
+            it.write(0x7F)
+        }
+
+        assertNull(cache.get("imagen", null))
+        assertEquals(0, cache.count())
+        assertEquals(0L, cache.size())
+    }
+
+    @Test
+    fun replacingAKeyWithTheSameContentKeepsTheFile() {
+        val cache = DiskLruCache.open(directory, 10_000)
+        cache.put("imagen", "image/png", bytes(500, 3))
+        cache.put("imagen", "image/png", bytes(500, 3))
+
+        assertArrayEquals(bytes(500, 3), cache.get("imagen", null))
+        assertEquals(500L, cache.size())
+    }
+
+    @Test
+    fun putRacingWithRemovalOfTheSameContentKeepsItReadable() {
+        val cache = DiskLruCache.open(directory, 10_000)
+        val content = bytes(200, 9)
+        val unreadable = AtomicInteger()
+        // Borrar la última clave de un contenido elimina su fichero mientras la otra clave lo guarda
+        val remover = thread {
+            repeat(ROUNDS) {
+                cache.put("otra", null, content)
+                cache.remove("otra")
+            }
+        }
+        repeat(ROUNDS) {
+            cache.put("banner", null, content)
+            if (cache.get("banner", null) == null) unreadable.incrementAndGet()
+            cache.remove("banner")
+        }
+        remover.join()
+
+        assertEquals(0, unreadable.get())
+        assertEquals(0L, cache.size())
+    }
+
+    private companion object {
+        const val ROUNDS = 2000
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.emmaintegrationtest.coupons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pruebas del [CouponStore] con los cupones de `logs/cupones.json`.
+ */
+class CouponStoreTest {
+
+    private val format = SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT).apply {
+        timeZone = TimeZone.getTimeZone("UTC")
+    }
+
+    private fun time(value: String): Long = format.parse(value)!!.time
+
+    private val spring = Coupon(
+        8285, "cupon-test-2", null, "TEST-PRIMAVERA25", null,
+        time("2025-04-23 13:10:00"), time("2025-05-23 00:00:00"), maxRedeem = 1
+    )
+    private val test = Coupon(
+        8282, "cupon-test", null, "cupon1", null,
+        time("2025-04-17 12:55:00"), time("2025-05-17 00:00:00"), maxRedeem = 1
+    )
+
+    @Test
+    fun appliesCatalogueAsDelta() {
+        val store = CouponStore()
+        val now = time("2025-05-01 00:00:00")
+
+        assertEquals(2, store.applyCatalogue(listOf(spring, test), now).added.size)
+        val delta = store.applyCatalogue(listOf(spring.copy(currentRedeems = 1)), now)
+
+        assertEquals(listOf(spring.copy(currentRedeems = 1)), delta.updated)
+        assertEquals(listOf(8282L), delta.removed)
+        assertTrue(store.applyCatalogue(listOf(spring.copy(currentRedeems = 1)), now).isEmpty)
+    }
+
+    @Test
+    fun prunesExpiredCouponsByEndOfValidity() {
+        val store = CouponStore()
+        store.applyCatalogue(listOf(spring, test), time("2025-05-01 00:00:00"))
+
+        assertEquals(listOf(8282L), store.pruneExpired(time("2025-05-17 00:00:00")))
+        assertEquals(listOf(spring), store.active(time("2025-05-17 00:00:00")))
+        assertEquals(listOf(8285L), store.pruneExpired(time("2025-06-01 00:00:00")))
+        assertEquals(0, store.size())
+    }
+
+    @Test
+    fun tracksRedeemsLocally() {
+        val store = CouponStore()
+        val now = time("2025-05-01 00:00:00")
+        store.applyCatalogue(listOf(spring), now)
+
+        assertEquals(CouponStore.Redemption.ACCEPTED, store.redeem(8285, now))
+        assertEquals(0, store.validRedeems(8285))
+        assertEquals(CouponStore.Redemption.EXHAUSTED, store.redeem(8285, now))
+        assertEquals(8285L, store.redemptionResult(true))
+        assertTrue(store.couponsToRefresh().isEmpty())
+
+        assertTrue(store.cancel(8285))
+        assertEquals(8285L, store.cancellationResult(false))
+        assertEquals(0, store.validRedeems(8285))
+        assertEquals(listOf(8285L), store.couponsToRefresh())
+    }
+
+    @Test
+    fun rollsBackFailedRedemption() {
+        val store = CouponStore()
+        val now = time("2025-05-01 00:00:00")
+        store.applyCatalogue(listOf(spring), now)
+
+        store.redeem(8285, now)
+        store.redemptionResult(false)
+
+        assertEquals(1, store.validRedeems(8285))
+        assertEquals(listOf(8285L), store.couponsToRefresh())
+        store.applyCoupon(spring, now)
+        assertTrue(store.couponsToRefresh().isEmpty())
+        assertNull(store.redemptionResult(true))
+    }
+
+    @Test
+    fun rejectsCouponsOutsideValidity() {
+        val store = CouponStore()
+        store.applyCatalogue(listOf(spring), time("2025-04-01 00:00:00"))
+
+        assertEquals(CouponStore.Redemption.NOT_STARTED, store.redeem(8285, time("2025-04-20 00:00:00")))
+        assertEquals(CouponStore.Redemption.EXPIRED, store.redeem(8285, time("2025-05-23 00:00:00")))
+        assertEquals(CouponStore.Redemption.UNKNOWN, store.redeem(1, time("2025-05-01 00:00:00")))
+        assertFalse(store.cancel(8285))
+    }
+
+    @Test
+    fun requestsCatalogueOnlyAfterRefreshInterval() {
+        val store = CouponStore(refreshIntervalMillis = TimeUnit.MINUTES.toMillis(15))
+        val now = time("2025-05-01 00:00:00")
+
+        assertTrue(store.needsCatalogue(now))
+        store.applyCatalogue(listOf(spring), now)
+        assertFalse(store.needsCatalogue(now + TimeUnit.MINUTES.toMillis(14)))
+        assertTrue(store.needsCatalogue(now + TimeUnit.MINUTES.toMillis(15)))
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.emmaintegrationtest.coupons
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Pruebas del [IntervalIndex] contra un recorrido completo de la lista.
+ */
+class IntervalIndexTest {
+
+    private data class Window(val id: Long, val begin: Long, val end: Long)
+
+    @Test
+    fun answersHalfOpenWindows() {
+        val index = IntervalIndex<String>()
+        index.put(1, 10, 20, "a")
+        index.put(2, 15, 30, "b")
+        index.put(3, 20, 25, "c")
+
+        assertEquals(listOf("a"), index.active(10))
+        assertEquals(listOf("a", "b"), index.active(19))
+        assertEquals(listOf("b", "c"), index.active(20))
+        assertEquals(emptyList<String>(), index.active(30))
+    }
+
+    @Test
+    fun updatesWindowAndValue() {
+        val index = IntervalIndex<String>()
+        index.put(1, 10, 20, "a")
+
+        index.put(1, 10, 20, "a2")
+        assertEquals(listOf("a2"), index.active(15))
+        index.put(1, 30, 40, "a3")
+        assertEquals(emptyList<String>(), index.active(15))
+        assertEquals(listOf("a3"), index.active(35))
+        assertEquals("a3", index.remove(1))
+        assertNull(index.remove(1))
+        assertEquals(0, index.size)
+    }
+
+    @Test
+    fun matchesScanUnderChurn() {
+        val random = Random(42)
+        val index = IntervalIndex<Long>()
+        val windows = HashMap<Long, Window>()
+
+        fun randomWindow(id: Long): Window {
+            val begin = random.nextLong(0, 1_000_000)
+            return Window(id, begin, begin + random.nextLong(1, 50_000))
+        }
+
+        repeat(WALL_SIZE) {
+            val window = randomWindow(it.toLong())
+            windows[window.id] = window
+            index.put(window.id, window.begin, window.end, window.id)
+        }
+        repeat(WALL_SIZE) {
+            val id = random.nextLong(0, WALL_SIZE.toLong())
+            if (random.nextBoolean()) {
+                windows.remove(id)
+                index.remove(id)
+            } else {
+                val window = randomWindow(id)
+                windows[id] = window
+                index.put(id, window.begin, window.end, id)
+            }
+        }
+
+        val instants = LongArray(QUERIES) { random.nextLong(0, 1_050_000) }
+        for (now in instants) {
+            val scanned = windows.values.filter { now >= it.begin && now < it.end }
+            assertEquals(scanned.map { it.id }.sorted(), index.active(now).sorted())
+        }
+
+        assertEquals(windows.size, index.size)
+        // Un árbol AVL no supera 1,44·log2(n)
+        assertTrue(index.height() <= 1.44 * Math.log(WALL_SIZE.toDouble()) / Math.log(2.0) + 1)
+    }
+
+    private companion object {
+        const val WALL_SIZE = 5000
+        const val QUERIES = 2000
+    }
+}
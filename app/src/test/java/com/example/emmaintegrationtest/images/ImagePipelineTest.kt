@@ -0,0 +1,196 @@
+package com.example.emmaintegrationtest.images
+
+import com.example.emmaintegrationtest.cache.DiskLruCache
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pruebas del [ImagePipeline] con imágenes simuladas, sin Android.
+ */
+class ImagePipelineTest {
+
+    /**
+     * Imagen simulada: recuerda de qué bytes y a qué tamaño se decodificó.
+     */
+    private class FakeImage(val data: ByteArray, val width: Int, val height: Int)
+
+    private class FakeDecoder : ImagePipeline.Decoder<FakeImage> {
+        val decodes = AtomicInteger()
+        val recycled: MutableList<FakeImage> = Collections.synchronizedList(mutableListOf())
+
+        override fun decode(data: ByteArray, width: Int, height: Int): FakeImage? {
+            decodes.incrementAndGet()
+            return if (data.isEmpty()) null else FakeImage(data, width, height)
+        }
+
+        override fun sizeOf(image: FakeImage): Long = image.width.toLong() * image.height * 4
+
+        override fun recycle(image: FakeImage) {
+            recycled += image
+        }
+    }
+
+    /**
+     * Descarga simulada que puede quedarse bloqueada hasta [release].
+     */
+    private class FakeFetcher : ImagePipeline.Fetcher {
+        val fetches = AtomicInteger()
+        val release = CountDownLatch(1)
+
+        override fun fetch(url: String): ByteArray? {
+            fetches.incrementAndGet()
+            release.await(5, TimeUnit.SECONDS)
+            return if (url.endsWith("roto.png")) ByteArray(0) else url.toByteArray()
+        }
+    }
+
+    private lateinit var directory: File
+    private val workers = Executors.newFixedThreadPool(4)
+    private val direct = Executor { it.run() }
+    private val decoder = FakeDecoder()
+    private val fetcher = FakeFetcher()
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("images").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        workers.shutdownNow()
+        directory.deleteRecursively()
+    }
+
+    private fun pipeline(memoryBytes: Long = 1_000_000, disk: DiskLruCache? = null, executor: Executor = workers) =
+        ImagePipeline(decoder, fetcher, disk, memoryBytes, executor, direct)
+
+    private fun <T : Any> ImagePipeline<T>.loadNow(url: String, width: Int, height: Int): T? {
+        val latch = CountDownLatch(1)
+        var result: T? = null
+        load(url, width, height) {
+            result = it
+            latch.countDown()
+        }
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        return result
+    }
+
+    @Test
+    fun identicalRequestsShareOneDownloadAndDecode() {
+        val pipeline = pipeline()
+        val results = Collections.synchronizedList(mutableListOf<FakeImage?>())
+        val done = CountDownLatch(21)
+        val url = "https://multimedia.emma.io/image/62694_1744887184.png"
+
+        // Una pared de cupones con la misma imagen en 20 celdas de 200x100 y una cabecera de 400x200
+        repeat(20) { pipeline.load(url, 200, 100) { results += it; done.countDown() } }
+        pipeline.load(url, 400, 200) { results += it; done.countDown() }
+        fetcher.release.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+
+        assertEquals(1, fetcher.fetches.get())
+        assertEquals(2, decoder.decodes.get())
+        assertEquals(2, results.distinct().size)
+        assertEquals(19L, pipeline.stats().coalesced)
+    }
+
+    @Test
+    fun sizeStartingAfterTheDownloadReusesItsBytesWithoutDisk() {
+        fetcher.release.countDown()
+        val queued = ArrayDeque<Runnable>()
+        val pipeline = pipeline(executor = { queued.addLast(it) })
+        val url = "https://multimedia.emma.io/image/62694_1744887184.png"
+        val results = ArrayList<FakeImage?>()
+
+        pipeline.load(url, 200, 100) { results += it }
+        pipeline.load(url, 400, 200) { results += it }
+        // La segunda decodificación empieza cuando la primera ya ha terminado
+        while (queued.isNotEmpty()) queued.removeFirst().run()
+
+        assertEquals(2, results.filterNotNull().size)
+        assertEquals(1, fetcher.fetches.get())
+        assertEquals(2, decoder.decodes.get())
+    }
+
+    @Test
+    fun memoryHitsAreDeliveredOnTheCallingThread() {
+        fetcher.release.countDown()
+        val pipeline = pipeline()
+        val first = pipeline.loadNow("https://cdn.example.com/a.png", 100, 100)
+
+        var second: FakeImage? = null
+        pipeline.load("https://cdn.example.com/a.png", 100, 100) { second = it }
+
+        assertSame(first, second)
+        assertEquals(1, decoder.decodes.get())
+        assertEquals(1L, pipeline.stats().memoryHits)
+    }
+
+    @Test
+    fun diskTierAvoidsDownloadingAgain() {
+        fetcher.release.countDown()
+        val url = "https://multimedia.emma.io/image/62781_1745406402.png"
+        pipeline(disk = DiskLruCache.open(directory, 1_000_000)).loadNow(url, 100, 100)
+
+        // Nuevo arranque: memoria vacía, disco conservado
+        val restarted = pipeline(disk = DiskLruCache.open(directory, 1_000_000))
+        assertNotNull(restarted.loadNow(url, 50, 50))
+
+        assertEquals(1, fetcher.fetches.get())
+        assertEquals(1L, restarted.stats().diskHits)
+        assertEquals(0L, restarted.stats().downloads)
+    }
+
+    @Test
+    fun evictedImagesAreRecycledOnlyOnceReleased() {
+        fetcher.release.countDown()
+        // Caben dos imágenes de 100x100
+        val pipeline = pipeline(memoryBytes = 80_000, executor = direct)
+        val shown = pipeline.loadNow("https://cdn.example.com/1.png", 100, 100)!!
+        val hidden = pipeline.loadNow("https://cdn.example.com/2.png", 100, 100)!!
+        pipeline.release(hidden)
+        assertTrue(decoder.recycled.isEmpty())
+
+        pipeline.loadNow("https://cdn.example.com/3.png", 100, 100)
+        pipeline.loadNow("https://cdn.example.com/4.png", 100, 100)
+
+        // La imagen en pantalla sale de memoria pero no se recicla hasta devolverla
+        assertEquals(listOf(hidden), decoder.recycled)
+        pipeline.release(shown)
+        assertEquals(listOf(hidden, shown), decoder.recycled)
+        assertEquals(80_000L, pipeline.memorySize())
+    }
+
+    @Test
+    fun failuresAreDeliveredAsNullAndNotCached() {
+        fetcher.release.countDown()
+        val pipeline = pipeline()
+
+        assertNull(pipeline.loadNow("https://cdn.example.com/roto.png", 100, 100))
+        assertNull(pipeline.loadNow("https://cdn.example.com/roto.png", 100, 100))
+        assertEquals(2, fetcher.fetches.get())
+    }
+
+    @Test
+    fun sampleSizeKeepsTheImageAtLeastAsLargeAsTheView() {
+        assertEquals(1, ImagePipeline.sampleSize(1080, 720, 1080, 720))
+        assertEquals(4, ImagePipeline.sampleSize(1080, 1080, 200, 200))
+        assertEquals(2, ImagePipeline.sampleSize(1080, 540, 400, 200))
+        assertEquals(1, ImagePipeline.sampleSize(100, 100, 400, 400))
+        assertEquals(1, ImagePipeline.sampleSize(1080, 720, 0, 0))
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.emmaintegrationtest.inapp
+
+import com.example.emmaintegrationtest.inapp.CampaignResponseCache.Lookup
+import io.emma.android.model.EMMACampaign
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Pruebas de la [CampaignResponseCache] con un reloj simulado.
+ */
+class CampaignResponseCacheTest {
+
+    private var now = 0L
+    private val cache = CampaignResponseCache<String>(
+        maxEntries = 2,
+        ttlMillis = 100,
+        staleMillis = 50,
+        clock = { now }
+    )
+
+    private val nativeAd = InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = "plantilla-nativead-android")
+    private val batch = InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = "nativead-batch", batch = true)
+    private val startView = InAppCacheKey(EMMACampaign.Type.STARTVIEW, inAppMessageId = "36713")
+
+    @Test
+    fun servesFreshThenStaleThenExpires() {
+        assertEquals(Lookup.Miss, cache.get(nativeAd))
+        cache.put(nativeAd, "ad-1")
+
+        now = 99
+        assertEquals(Lookup.Fresh("ad-1"), cache.get(nativeAd))
+
+        now = 100
+        assertEquals(Lookup.Stale("ad-1", revalidate = true), cache.get(nativeAd))
+        assertEquals(Lookup.Stale("ad-1", revalidate = false), cache.get(nativeAd))
+
+        now = 150
+        assertEquals(Lookup.Miss, cache.get(nativeAd))
+        assertEquals(CampaignResponseCache.Stats(1, 2, 2, 0, 0), cache.stats())
+    }
+
+    @Test
+    fun revalidatedResponseIsFreshAgain() {
+        cache.put(nativeAd, "ad-1")
+        now = 120
+        cache.get(nativeAd)
+
+        cache.put(nativeAd, "ad-2")
+
+        assertEquals(Lookup.Fresh("ad-2"), cache.get(nativeAd))
+    }
+
+    @Test
+    fun failedRevalidationCanBeRetried() {
+        cache.put(nativeAd, "ad-1")
+        now = 120
+        cache.get(nativeAd)
+
+        cache.revalidationFailed(nativeAd)
+
+        assertEquals(Lookup.Stale("ad-1", revalidate = true), cache.get(nativeAd))
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        cache.put(nativeAd, "ad")
+        cache.put(batch, "batch")
+        cache.get(nativeAd)
+
+        cache.put(startView, "startview")
+
+        assertEquals(Lookup.Fresh("ad"), cache.get(nativeAd))
+        assertEquals(Lookup.Miss, cache.get(batch))
+        assertEquals(1, cache.stats().evictions)
+    }
+
+    @Test
+    fun isFreshDoesNotCountAsUse() {
+        cache.put(nativeAd, "ad")
+        cache.put(batch, "batch")
+        assertTrue(cache.isFresh(nativeAd))
+
+        cache.put(startView, "startview")
+
+        assertFalse(cache.isFresh(nativeAd))
+        assertTrue(cache.isFresh(batch))
+        now = 100
+        assertFalse(cache.isFresh(batch))
+        assertEquals(CampaignResponseCache.Stats(0, 0, 0, 1, 2), cache.stats())
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.emmaintegrationtest.inapp
+
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdField
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import java.io.File
+
+/**
+ * Pruebas del [NativeAdBindingPlan] con las respuestas guardadas en `logs`.
+ */
+class NativeAdBindingPlanTest {
+
+    private val logs = File("src/main/java/com/example/emmaintegrationtest/logs")
+
+    /**
+     * Destino que guarda los valores recibidos por hueco.
+     */
+    private class RecordingTarget : NativeAdBindingPlan.Target {
+        val fields = HashMap<Int, String?>()
+        val containerFields = HashMap<Pair<Int, Int>, String?>()
+
+        override fun bindField(slot: Int, value: String?) {
+            fields[slot] = value
+        }
+
+        override fun bindContainerField(row: Int, slot: Int, value: String?) {
+            containerFields[row to slot] = value
+        }
+    }
+
+    private fun decode(name: String): List<NativeAdPayload> {
+        val ads = mutableListOf<NativeAdPayload>()
+        File(logs, name).reader().use { NativeAdStreamDecoder.decode(it, ads::add) }
+        return ads
+    }
+
+    @Test
+    fun compilesSlotsFromTemplateSchema() {
+        val ad = decode("nativead_log.json").single()
+        val plan = NativeAdBindingPlan.compile(ad)
+        val target = RecordingTarget()
+
+        assertEquals(0, plan.bind(ad, target))
+        assertEquals(listOf("Title", "Body"), List(plan.fieldCount) { plan.fieldName(it) })
+        assertEquals("Este es el título de la plantilla de los nativead", target.fields[0])
+        assertEquals("Este es el cuerpo de la plantilla de los native ad", target.fields[1])
+    }
+
+    @Test
+    fun bindsContainerRows() {
+        val ad = decode("nativead_batch_log.json").first()
+        val plan = NativeAdBindingPlan.compile(ad)
+        val target = RecordingTarget()
+
+        assertEquals(2, plan.bind(ad, target))
+        assertEquals(0, plan.fieldCount)
+        assertEquals(listOf("Title", "Body"), List(plan.containerFieldCount) { plan.containerFieldName(it) })
+        assertEquals("Este es el cuerpo de un anuncio dentro de un batch", target.containerFields[1 to 1])
+    }
+
+    @Test
+    fun fallsBackToNameWhenFieldsAreReordered() {
+        val ad = decode("nativead_log.json").single()
+        val plan = NativeAdBindingPlan.compile(ad)
+        val reordered = ad.copy(fields = listOf(NativeAdPayloadField("Body", "text", "body", "cuerpo")))
+        val target = RecordingTarget()
+
+        plan.bind(reordered, target)
+
+        assertNull(target.fields[0])
+        assertEquals("cuerpo", target.fields[1])
+    }
+
+    @Test
+    fun bindsSdkNativeAdAndCachesPlanPerTemplate() {
+        val title = mock(EMMANativeAdField::class.java)
+        doReturn("título").`when`(title).fieldValue
+        val nativeAd = mock(EMMANativeAd::class.java)
+        doReturn("plantilla-sdk").`when`(nativeAd).templateId
+        doReturn(linkedMapOf("Title" to title)).`when`(nativeAd).nativeAdContent
+        val target = RecordingTarget()
+
+        val plan = NativeAdBindingPlans.of(nativeAd)
+        plan.bind(nativeAd, target)
+
+        assertSame(plan, NativeAdBindingPlans.of(nativeAd))
+        assertEquals("título", target.fields[0])
+        NativeAdBindingPlans.invalidate("plantilla-sdk")
+    }
+
+    private fun sdkNativeAd(templateId: String, vararg fields: Pair<String, String>): EMMANativeAd {
+        val content = LinkedHashMap<String, EMMANativeAdField>()
+        for ((name, value) in fields) {
+            val field = mock(EMMANativeAdField::class.java)
+            doReturn(value).`when`(field).fieldValue
+            content[name] = field
+        }
+        val nativeAd = mock(EMMANativeAd::class.java)
+        doReturn(templateId).`when`(nativeAd).templateId
+        doReturn(content).`when`(nativeAd).nativeAdContent
+        return nativeAd
+    }
+
+    @Test
+    fun extendsPlanWhenAdBringsOptionalField() {
+        val first = sdkNativeAd("plantilla-opcional", "Title" to "sin imagen")
+        val withPicture = sdkNativeAd("plantilla-opcional", "Title" to "con imagen", "Main picture" to "https://img")
+        val target = RecordingTarget()
+
+        val plan = NativeAdBindingPlans.of(first)
+        val extended = NativeAdBindingPlans.of(withPicture)
+        extended.bind(withPicture, target)
+
+        assertNotSame(plan, extended)
+        assertEquals(listOf("Title", "Main picture"), List(extended.fieldCount) { extended.fieldName(it) })
+        assertEquals("https://img", target.fields[1])
+        assertSame(extended, NativeAdBindingPlans.of(first))
+        NativeAdBindingPlans.invalidate("plantilla-opcional")
+    }
+
+    @Test
+    fun bindsContainerFieldsMissingFromFirstRow() {
+        val ad = decode("nativead_batch_log.json").first()
+        val container = ad.fields.single { it.type == "container" }
+        val rows = container.content.toMutableList()
+        rows[1] = rows[1] + NativeAdPayloadField("CTA", "text", "cta", "compra")
+        val extended = ad.copy(fields = ad.fields.map { if (it === container) it.copy(content = rows) else it })
+        val plan = NativeAdBindingPlan.compile(extended)
+        val target = RecordingTarget()
+
+        plan.bind(extended, target)
+
+        assertEquals(listOf("Title", "Body", "CTA"), List(plan.containerFieldCount) { plan.containerFieldName(it) })
+        assertNull(target.containerFields[0 to 2])
+        assertEquals("compra", target.containerFields[1 to 2])
+    }
+
+    @Test
+    fun keepsSdkAndPayloadPlansApart() {
+        val payload = decode("nativead_log.json").single()
+        val nativeAd = sdkNativeAd(payload.templateId!!, "Title" to "título")
+
+        assertNotSame(NativeAdBindingPlans.of(payload), NativeAdBindingPlans.of(nativeAd))
+        assertSame(NativeAdBindingPlans.of(payload), NativeAdBindingPlans.of(payload))
+        NativeAdBindingPlans.invalidate(payload.templateId)
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.emmaintegrationtest.inapp
+
+import android.os.MessageQueue
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMANativeAd
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+
+/**
+ * Pruebas del [NativeAdPrefetcher] con una cola de mensajes simulada, un reloj simulado y un envío que
+ * sólo apunta las plantillas pedidas.
+ *
+ * Cada llamada a `queueIdle` representa una pasada ociosa del hilo principal.
+ */
+class NativeAdPrefetcherTest {
+
+    private var now = 0L
+    private val requested = ArrayList<String>()
+    private val queue = mock(MessageQueue::class.java)
+    private val cache = CampaignResponseCache<List<EMMANativeAd>>(ttlMillis = 60_000, staleMillis = 0, clock = { now })
+    private val prefetcher = NativeAdPrefetcher(
+        listOf("plantilla-a", "plantilla-b"), cache, queue = { queue }, clock = { now },
+        send = { request, _ -> requested += request.templateId }
+    )
+
+    private fun key(templateId: String) = InAppCacheKey(EMMACampaign.Type.NATIVEAD, templateId = templateId)
+
+    private fun nativeAd(templateId: String): EMMANativeAd =
+        mock(EMMANativeAd::class.java).also { doReturn(templateId).`when`(it).templateId }
+
+    @Test
+    fun registersOnQueueWhileStarted() {
+        prefetcher.start()
+        prefetcher.start()
+        verify(queue).addIdleHandler(prefetcher)
+        assertTrue(prefetcher.queueIdle())
+
+        prefetcher.stop()
+        verify(queue).removeIdleHandler(prefetcher)
+        assertFalse(prefetcher.queueIdle())
+    }
+
+    @Test
+    fun requestsOneTemplatePerIdlePass() {
+        prefetcher.start()
+
+        prefetcher.queueIdle()
+        assertEquals(listOf("plantilla-a"), requested)
+
+        prefetcher.queueIdle()
+        assertEquals(listOf("plantilla-a", "plantilla-b"), requested)
+    }
+
+    @Test
+    fun doesNotRepeatPendingRequestsUntilTimeout() {
+        prefetcher.start()
+        repeat(2) { prefetcher.queueIdle() }
+
+        now += NativeAdPrefetcher.CHECK_INTERVAL_MILLIS
+        prefetcher.queueIdle()
+        assertEquals(2, requested.size)
+
+        now += NativeAdPrefetcher.REQUEST_TIMEOUT_MILLIS
+        prefetcher.queueIdle()
+        assertEquals(listOf("plantilla-a", "plantilla-b", "plantilla-a"), requested)
+    }
+
+    @Test
+    fun storesResponsesAndSkipsFreshTemplates() {
+        prefetcher.start()
+        prefetcher.queueIdle()
+        prefetcher.onReceived(nativeAd("plantilla-a"))
+
+        assertTrue(cache.isFresh(key("plantilla-a")))
+        prefetcher.queueIdle()
+        prefetcher.onReceived(nativeAd("plantilla-b"))
+
+        now += NativeAdPrefetcher.CHECK_INTERVAL_MILLIS
+        prefetcher.queueIdle()
+        assertEquals(listOf("plantilla-a", "plantilla-b"), requested)
+    }
+
+    @Test
+    fun waitsForCheckIntervalBeforeLookingAgain() {
+        cache.put(key("plantilla-a"), emptyList())
+        cache.put(key("plantilla-b"), emptyList())
+        prefetcher.start()
+        now = 50_000
+        prefetcher.queueIdle()
+
+        // Caducan justo después de la comprobación: no se miran hasta el siguiente intervalo
+        now = 60_000
+        prefetcher.queueIdle()
+        assertTrue(requested.isEmpty())
+
+        now = 50_000 + NativeAdPrefetcher.CHECK_INTERVAL_MILLIS
+        prefetcher.queueIdle()
+        assertEquals(listOf("plantilla-a"), requested)
+    }
+
+    @Test
+    fun ignoresResponsesForOtherTemplates() {
+        prefetcher.onReceived(nativeAd("otra"))
+
+        assertEquals(0, cache.stats().size)
+    }
+}
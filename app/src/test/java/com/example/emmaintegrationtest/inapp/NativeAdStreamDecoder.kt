@@ -0,0 +1,220 @@
+package com.example.emmaintegrationtest.inapp
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import java.io.Reader
+
+/**
+ * Decodificador en streaming de las respuestas de anuncios nativos de EMMA.
+ *
+ * Recorre la respuesta con un [JsonReader] y entrega cada anuncio de
+ * `operations[].response.native_ad` y `operations[].response.native_ads[]` en cuanto se cierra su
+ * objeto, sin construir antes el árbol completo. La memoria necesaria depende del tamaño de un
+ * anuncio y no del lote, y los primeros anuncios se pueden pintar mientras llega el resto.
+ *
+ * ```kotlin
+ * NativeAdStreamDecoder.decode(response.body.charStream()) { nativeAd ->
+ *     mostrar(nativeAd)
+ * }
+ * ```
+ *
+ * Las operaciones de otros tipos y las claves desconocidas se saltan.
+ *
+ * En la aplicación el SDK decodifica él mismo las respuestas, así que este decodificador sólo lo usan
+ * las pruebas, el servidor simulado y los benchmarks, y Gson no forma parte del APK.
+ */
+object NativeAdStreamDecoder {
+
+    /**
+     * @param reader Respuesta JSON completa (`{"operations": [...]}`).
+     * @param onNativeAd Recibe cada anuncio en el orden de la respuesta.
+     * @return Número de anuncios decodificados.
+     */
+    fun decode(reader: Reader, onNativeAd: (NativeAdPayload) -> Unit): Int {
+        var count = 0
+        JsonReader(reader).use { json ->
+            json.beginObject()
+            while (json.hasNext()) {
+                if (json.nextName() != "operations") {
+                    json.skipValue()
+                    continue
+                }
+                json.beginArray()
+                while (json.hasNext()) {
+                    count += readOperation(json, onNativeAd)
+                }
+                json.endArray()
+            }
+            json.endObject()
+        }
+        return count
+    }
+
+    private fun readOperation(json: JsonReader, onNativeAd: (NativeAdPayload) -> Unit): Int {
+        var count = 0
+        json.beginObject()
+        while (json.hasNext()) {
+            if (json.nextName() != "response" || json.peek() != JsonToken.BEGIN_OBJECT) {
+                json.skipValue()
+                continue
+            }
+            json.beginObject()
+            while (json.hasNext()) {
+                when (json.nextName()) {
+                    "native_ad" -> if (json.peek() == JsonToken.BEGIN_OBJECT) {
+                        onNativeAd(readNativeAd(json))
+                        count++
+                    } else {
+                        json.skipValue()
+                    }
+
+                    "native_ads" -> if (json.peek() == JsonToken.BEGIN_ARRAY) {
+                        json.beginArray()
+                        while (json.hasNext()) {
+                            onNativeAd(readNativeAd(json))
+                            count++
+                        }
+                        json.endArray()
+                    } else {
+                        json.skipValue()
+                    }
+
+                    else -> json.skipValue()
+                }
+            }
+            json.endObject()
+        }
+        json.endObject()
+        return count
+    }
+
+    private fun readNativeAd(json: JsonReader): NativeAdPayload {
+        var campaignId = 0L
+        var templateId: String? = null
+        var cta: String? = null
+        var tag: String? = null
+        var showOn = 0
+        var canClose = false
+        var params = emptyMap<String, String>()
+        var fields = emptyList<NativeAdPayloadField>()
+        json.beginObject()
+        while (json.hasNext()) {
+            when (json.nextName()) {
+                "campaign_id" -> campaignId = nextLongOrZero(json)
+                "id" -> templateId = nextStringOrNull(json)
+                "cta" -> cta = nextStringOrNull(json)
+                "tag" -> tag = nextStringOrNull(json)
+                "show_on" -> showOn = nextLongOrZero(json).toInt()
+                "can_close" -> canClose = nextFlag(json)
+                "params" -> params = readParams(json)
+                "fields" -> fields = readFields(json)
+                else -> json.skipValue()
+            }
+        }
+        json.endObject()
+        return NativeAdPayload(campaignId, templateId, cta, tag, showOn, canClose, params, fields)
+    }
+
+    private fun readFields(json: JsonReader): List<NativeAdPayloadField> {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull()
+            return emptyList()
+        }
+        val fields = ArrayList<NativeAdPayloadField>()
+        json.beginArray()
+        while (json.hasNext()) {
+            fields.add(readField(json))
+        }
+        json.endArray()
+        return fields
+    }
+
+    private fun readField(json: JsonReader): NativeAdPayloadField {
+        var name: String? = null
+        var type: String? = null
+        var subtype: String? = null
+        var value: String? = null
+        var custom = false
+        var mandatory = false
+        var content = emptyList<List<NativeAdPayloadField>>()
+        json.beginObject()
+        while (json.hasNext()) {
+            when (json.nextName()) {
+                "name" -> name = nextStringOrNull(json)
+                "type" -> type = nextStringOrNull(json)
+                "subtype" -> subtype = nextStringOrNull(json)
+                "value" -> value = nextStringOrNull(json)
+                "custom" -> custom = nextFlag(json)
+                "mandatory" -> mandatory = nextFlag(json)
+                "content" -> content = readContent(json)
+                else -> json.skipValue()
+            }
+        }
+        json.endObject()
+        return NativeAdPayloadField(name, type, subtype, value, custom, mandatory, content)
+    }
+
+    private fun readContent(json: JsonReader): List<List<NativeAdPayloadField>> {
+        if (json.peek() != JsonToken.BEGIN_ARRAY) {
+            json.skipValue()
+            return emptyList()
+        }
+        val rows = ArrayList<List<NativeAdPayloadField>>()
+        json.beginArray()
+        while (json.hasNext()) {
+            rows.add(readFields(json))
+        }
+        json.endArray()
+        return rows
+    }
+
+    private fun readParams(json: JsonReader): Map<String, String> {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue()
+            return emptyMap()
+        }
+        val params = LinkedHashMap<String, String>()
+        json.beginObject()
+        while (json.hasNext()) {
+            val name = json.nextName()
+            nextStringOrNull(json)?.let { params[name] = it }
+        }
+        json.endObject()
+        return params
+    }
+
+    private fun nextStringOrNull(json: JsonReader): String? = when (json.peek()) {
+        JsonToken.NULL -> {
+            json.nextNull()
+            null
+        }
+
+        JsonToken.STRING, JsonToken.NUMBER -> json.nextString()
+        JsonToken.BOOLEAN -> json.nextBoolean().toString()
+        else -> {
+            json.skipValue()
+            null
+        }
+    }
+
+    private fun nextLongOrZero(json: JsonReader): Long = when (json.peek()) {
+        JsonToken.NUMBER, JsonToken.STRING -> json.nextString().toLongOrNull() ?: 0L
+        else -> {
+            json.skipValue()
+            0L
+        }
+    }
+
+    /**
+     * EMMA envía los indicadores como booleanos, números o cadenas (`"can_close": "1"`).
+     */
+    private fun nextFlag(json: JsonReader): Boolean = when (json.peek()) {
+        JsonToken.BOOLEAN -> json.nextBoolean()
+        JsonToken.NUMBER -> json.nextInt() != 0
+        JsonToken.STRING -> json.nextString().let { it == "1" || it.equals("true", ignoreCase = true) }
+        else -> {
+            json.skipValue()
+            false
+        }
+    }
+}
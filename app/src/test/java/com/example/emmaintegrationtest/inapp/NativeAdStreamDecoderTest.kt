@@ -0,0 +1,99 @@
+package com.example.emmaintegrationtest.inapp
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.io.Reader
+import java.io.StringReader
+
+/**
+ * Pruebas del [NativeAdStreamDecoder] con las respuestas guardadas en `logs`.
+ */
+class NativeAdStreamDecoderTest {
+
+    private val logs = File("src/main/java/com/example/emmaintegrationtest/logs")
+
+    /**
+     * Lector que cuenta los caracteres consumidos para comprobar que los anuncios se entregan antes
+     * de leer toda la respuesta.
+     */
+    private class CountingReader(private val delegate: Reader) : Reader() {
+        var consumed = 0L
+
+        override fun read(buffer: CharArray, offset: Int, length: Int): Int =
+            delegate.read(buffer, offset, minOf(length, 256)).also { if (it > 0) consumed += it }
+
+        override fun close() = delegate.close()
+    }
+
+    @Test
+    fun decodesSingleNativeAd() {
+        val ads = mutableListOf<NativeAdPayload>()
+        val count = File(logs, "nativead_log.json").reader().use { NativeAdStreamDecoder.decode(it, ads::add) }
+
+        assertEquals(1, count)
+        val ad = ads.single()
+        assertEquals(32558L, ad.campaignId)
+        assertEquals("plantilla-nativead-android", ad.templateId)
+        assertEquals(1, ad.showOn)
+        assertTrue(ad.canClose)
+        assertEquals(mapOf("msg_id" to "nativead-test-android", "type" to "native_ad"), ad.params)
+        assertEquals(listOf("Title", "Body"), ad.fields.map { it.name })
+        assertEquals("Este es el cuerpo de la plantilla de los native ad", ad.fields[1].value)
+    }
+
+    @Test
+    fun decodesBatchContainerRows() {
+        val ads = mutableListOf<NativeAdPayload>()
+        File(logs, "nativead_batch_log.json").reader().use { NativeAdStreamDecoder.decode(it, ads::add) }
+
+        val container = ads.single().fields.single()
+        assertEquals("container", container.type)
+        assertEquals(2, container.content.size)
+        assertEquals(listOf("Title", "Body"), container.content[0].map { it.name })
+    }
+
+    @Test
+    fun emitsEachAdBeforeTheWholeBatchIsRead() {
+        val response = scaledBatch(200)
+        val reader = CountingReader(StringReader(response))
+        val consumedAtAd = mutableListOf<Long>()
+
+        val count = NativeAdStreamDecoder.decode(reader) { consumedAtAd.add(reader.consumed) }
+
+        assertEquals(200, count)
+        assertTrue(consumedAtAd.first() < response.length / 100)
+        assertTrue(consumedAtAd.zipWithNext().all { (a, b) -> a <= b })
+    }
+
+    @Test
+    fun skipsOtherOperationsAndUnknownKeys() {
+        val response = """
+            {"meta": {"v": 1}, "operations": [
+              {"id": "1", "type": "event", "response": {"status": "216"}},
+              {"id": "2", "type": "native_ad", "response": {"status": "200", "native_ad": null}},
+              {"id": "3", "type": "native_ad", "response": {"native_ads": [
+                {"campaign_id": 1, "extra": [1, {"a": 2}], "can_close": true, "fields": null}
+              ]}}
+            ]}
+        """.trimIndent()
+
+        val ads = mutableListOf<NativeAdPayload>()
+        assertEquals(1, NativeAdStreamDecoder.decode(StringReader(response), ads::add))
+        assertEquals(1L, ads.single().campaignId)
+        assertTrue(ads.single().canClose)
+        assertEquals(emptyList<NativeAdPayloadField>(), ads.single().fields)
+    }
+
+    /**
+     * Respuesta de lote con `ads` copias del anuncio de `nativead_batch_log.json`.
+     */
+    private fun scaledBatch(ads: Int): String {
+        val log = File(logs, "nativead_batch_log.json").readText()
+        val start = log.indexOf('[', log.indexOf("\"native_ads\"")) + 1
+        val end = log.lastIndexOf(']', log.indexOf("\"error\""))
+        val ad = log.substring(start, end).trim()
+        return log.substring(0, start) + List(ads) { ad }.joinToString(",") + log.substring(end)
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.emmaintegrationtest.links
+
+import android.net.Uri
+import com.example.emmaintegrationtest.links.LinkDomainMatcher.Kind
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+
+/**
+ * Pruebas del [LinkDomainMatcher] con los dominios del manifiesto y comodines.
+ */
+class LinkDomainMatcherTest {
+
+    private val matcher = LinkDomainMatcher.compile(
+        arrayOf("subdomain.powlink.io", "*.campaigns.example.com", "https://Promo.Example.com/landing"),
+        arrayOf("shortsubdomain.pwlnk.io", "*.example.com", "subdomain.powlink.io")
+    )
+
+    private fun uri(scheme: String, host: String?): Uri {
+        val uri = mock(Uri::class.java)
+        doReturn(scheme).`when`(uri).scheme
+        doReturn(host).`when`(uri).host
+        return uri
+    }
+
+    @Test
+    fun exactHostsAreMatchedIgnoringCase() {
+        assertEquals(Kind.POWLINK, matcher.match("subdomain.powlink.io"))
+        assertEquals(Kind.POWLINK, matcher.match("SubDomain.Powlink.IO."))
+        assertEquals(Kind.SHORT_POWLINK, matcher.match("shortsubdomain.pwlnk.io"))
+        // El esquema y la ruta copiados con el dominio se ignoran
+        assertEquals(Kind.POWLINK, matcher.match("promo.example.com"))
+        assertNull(matcher.match("powlink.io"))
+        assertNull(matcher.match("other.powlink.io"))
+    }
+
+    @Test
+    fun theMostSpecificWildcardWins() {
+        assertEquals(Kind.POWLINK, matcher.match("summer.campaigns.example.com"))
+        assertEquals(Kind.POWLINK, matcher.match("a.b.campaigns.example.com"))
+        assertEquals(Kind.SHORT_POWLINK, matcher.match("campaigns.example.com"))
+        assertEquals(Kind.SHORT_POWLINK, matcher.match("go.example.com"))
+        // El comodín no incluye el propio dominio
+        assertNull(matcher.match("example.com"))
+        assertNull(matcher.match("example.com.evil.net"))
+    }
+
+    @Test
+    fun onlyWebLinksAreClassified() {
+        assertEquals(Kind.POWLINK, matcher.match(uri("https", "subdomain.powlink.io")))
+        assertNull(matcher.match(uri("emma.test.deeplink", "subdomain.powlink.io")))
+        assertNull(matcher.match(uri("https", null)))
+        assertNull(matcher.match(null as Uri?))
+    }
+
+    @Test
+    fun unchangedListsAreNotCompiledAgain() {
+        val same = matcher
+            .withPowlinkDomains("subdomain.powlink.io", "*.campaigns.example.com", "https://Promo.Example.com/landing")
+            .withShortPowlinkDomains("shortsubdomain.pwlnk.io", "*.example.com", "subdomain.powlink.io")
+        assertSame(matcher, same)
+
+        val updated = matcher.withShortPowlinkDomains()
+        assertNull(updated.match("shortsubdomain.pwlnk.io"))
+        assertEquals(Kind.POWLINK, updated.match("subdomain.powlink.io"))
+        assertEquals(3, updated.size())
+        assertEquals(0, LinkDomainMatcher.EMPTY.size())
+    }
+}
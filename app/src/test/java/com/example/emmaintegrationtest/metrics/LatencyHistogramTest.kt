@@ -0,0 +1,52 @@
+package com.example.emmaintegrationtest.metrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Pruebas de [LatencyHistogram].
+ */
+class LatencyHistogramTest {
+
+    @Test
+    fun bucketsAreContiguous() {
+        var previous = -1L
+        for (bucket in 0 until LatencyHistogram.BUCKETS) {
+            val upper = LatencyHistogram.upperBound(bucket)
+            assertEquals(bucket, LatencyHistogram.bucket(previous + 1))
+            assertEquals(bucket, LatencyHistogram.bucket(upper))
+            previous = upper
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE))
+    }
+
+    @Test
+    fun percentilesStayWithinRelativeError() {
+        val histogram = LatencyHistogram()
+        val random = Random(7)
+        val values = LongArray(100_000) { random.nextLong(1_000, 50_000_000) }
+        values.forEach(histogram::record)
+        values.sort()
+
+        val snapshot = histogram.snapshot()
+        for (quantile in doubleArrayOf(0.5, 0.9, 0.99, 0.999)) {
+            val exact = values[(quantile * values.size).toInt() - 1]
+            val reported = snapshot.getValueAt(quantile)
+            assertTrue("q=$quantile exact=$exact reported=$reported", reported >= exact)
+            assertTrue("q=$quantile exact=$exact reported=$reported", reported <= exact * 1.125 + 1)
+        }
+        assertEquals(values.size.toLong(), snapshot.count)
+        assertEquals(values.last(), snapshot.max)
+    }
+
+    @Test
+    fun emptyHistogramReportsZero() {
+        val snapshot = LatencyHistogram().snapshot()
+
+        assertEquals(0L, snapshot.count)
+        assertEquals(0L, snapshot.getValueAt(0.99))
+        assertEquals(0L, snapshot.mean)
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.emmaintegrationtest.metrics
+
+import com.sun.net.httpserver.HttpServer
+import io.emma.android.interfaces.EMMAInAppMessageInterface
+import io.emma.android.interfaces.EMMANativeAdInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.HttpURLConnection
+import java.net.InetSocketAddress
+import java.net.URL
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pruebas de [RequestTracer] contra un servidor local que hace de EMMA.
+ *
+ * El "SDK" de la prueba pide la campaña al servidor en otro hilo y llama al listener como lo
+ * haría EMMA, así que las etapas miden una petición de red real.
+ */
+class RequestTracerTest {
+
+    private lateinit var server: HttpServer
+    private val sdk = Executors.newSingleThreadExecutor()
+
+    @Before
+    fun startServer() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/campaign") { exchange ->
+            Thread.sleep(SERVER_DELAY_MS)
+            val body = """{"templateId":"plantilla-nativead-android"}""".toByteArray()
+            exchange.sendResponseHeaders(200, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+    }
+
+    @After
+    fun stopServer() {
+        server.stop(0)
+        sdk.shutdownNow()
+    }
+
+    /**
+     * Listener como `NativeAdHandler`: tarda [HANDLER_DELAY_MS] en pintar cada anuncio.
+     */
+    private class Listener(val done: CountDownLatch) : EMMAInAppMessageInterface, EMMANativeAdInterface {
+        val spans: MutableList<RequestSpan?> = Collections.synchronizedList(mutableListOf())
+
+        override fun onReceived(nativeAd: EMMANativeAd) {
+            spans.add(RequestTracer.current())
+            Thread.sleep(HANDLER_DELAY_MS)
+            done.countDown()
+        }
+
+        override fun onShown(campaign: EMMACampaign?) {}
+
+        override fun onHide(campaign: EMMACampaign?) {}
+
+        override fun onClose(campaign: EMMACampaign?) {}
+    }
+
+    /** Lo que hace EMMA con `getInAppMessage`: pedir la campaña y responder en otro hilo. */
+    private fun getInAppMessage(listener: EMMAInAppMessageInterface) {
+        val url = URL("http://127.0.0.1:${server.address.port}/campaign")
+        sdk.execute {
+            val connection = url.openConnection() as HttpURLConnection
+            val body = connection.inputStream.use { it.readBytes().decodeToString() }
+            check(body.contains("templateId"))
+            (listener as EMMANativeAdInterface).onReceived(EMMANativeAd())
+        }
+    }
+
+    @Test
+    fun breaksDownRequestLatencyByStage() {
+        val spans = Collections.synchronizedList(mutableListOf<RequestSpan>())
+        val breakdown = StageBreakdown { spans.add(it) }
+        val tracer = RequestTracer(breakdown)
+        val requests = 5
+        val done = CountDownLatch(requests)
+        val listener = Listener(done)
+
+        repeat(requests) {
+            val span = tracer.begin(EMMANativeAdRequest())
+            getInAppMessage(tracer.trace(span, listener, EMMAInAppMessageInterface::class.java))
+            span.mark(RequestSpan.Stage.SUBMITTED)
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        sdk.shutdown()
+        assertTrue(sdk.awaitTermination(10, TimeUnit.SECONDS))
+        assertEquals(requests, spans.size)
+        assertEquals((1L..requests).toList(), spans.map { it.correlationId }.sorted())
+        assertEquals(spans.toSet(), listener.spans.toSet())
+        assertNull(RequestTracer.current())
+        spans.forEach { span ->
+            assertTrue(span.toString(), span.getDuration(RequestSpan.Stage.RECEIVED) >= ms(SERVER_DELAY_MS))
+            assertTrue(span.toString(), span.getDuration(RequestSpan.Stage.HANDLED) >= ms(HANDLER_DELAY_MS))
+            assertEquals(span.total,
+                RequestSpan.Stage.values().drop(1).sumOf { span.getDuration(it) })
+        }
+        assertEquals(requests.toLong(), breakdown.total.count)
+        assertEquals(requests.toLong(), breakdown.get(RequestSpan.Stage.HANDLED).count)
+    }
+
+    @Test
+    fun exportsOnlyTheFirstCallback() {
+        val exported = mutableListOf<RequestSpan>()
+        val tracer = RequestTracer { exported.add(it) }
+        val listener = Listener(CountDownLatch(2))
+
+        val span = tracer.begin(EMMANativeAdRequest())
+        val traced = tracer.trace(span, listener, EMMAInAppMessageInterface::class.java) as EMMANativeAdInterface
+        // EMMA puede responder antes de que getInAppMessage devuelva el control
+        traced.onReceived(EMMANativeAd())
+        span.mark(RequestSpan.Stage.SUBMITTED)
+        traced.onReceived(EMMANativeAd())
+
+        assertEquals(listOf(span), exported)
+        assertEquals(listOf(span, null), listener.spans)
+        assertEquals(span.getTimestamp(RequestSpan.Stage.RECEIVED), span.getTimestamp(RequestSpan.Stage.SUBMITTED))
+    }
+
+    @Test
+    fun exportsWhenTheListenerThrows() {
+        val exported = mutableListOf<RequestSpan>()
+        val tracer = RequestTracer { exported.add(it) }
+        val failing = object : EMMAInAppMessageInterface {
+            override fun onShown(campaign: EMMACampaign?) = throw IllegalStateException("render")
+            override fun onHide(campaign: EMMACampaign?) {}
+            override fun onClose(campaign: EMMACampaign?) {}
+        }
+
+        val span = tracer.begin(EMMANativeAdRequest())
+        val traced = tracer.trace(span, failing, EMMAInAppMessageInterface::class.java)
+        val error = runCatching { traced.onShown(null) }.exceptionOrNull()
+
+        assertTrue(error is IllegalStateException)
+        assertSame(span, exported.single())
+        assertTrue(span.total >= 0)
+        assertNull(RequestTracer.current())
+    }
+
+    private fun ms(millis: Long) = TimeUnit.MILLISECONDS.toNanos(millis)
+
+    private companion object {
+        const val SERVER_DELAY_MS = 20L
+        const val HANDLER_DELAY_MS = 5L
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.emmaintegrationtest.metrics
+
+import com.example.emmaintegrationtest.startup.PendingCall
+import io.emma.android.interfaces.EMMAInAppMessageInterface
+import io.emma.android.interfaces.EMMANativeAdInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMANativeAd
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pruebas de [StripedFacadeMetrics] y de [ResponseTimer].
+ */
+class StripedFacadeMetricsTest {
+
+    /**
+     * Listener como el de `NativeAdHandler`, que implementa varias interfaces del SDK.
+     */
+    private class Listener : EMMAInAppMessageInterface, EMMANativeAdInterface {
+        var shown = 0
+
+        override fun onReceived(nativeAd: EMMANativeAd) {}
+
+        override fun onShown(campaign: EMMACampaign?) {
+            shown++
+        }
+
+        override fun onHide(campaign: EMMACampaign?) {}
+
+        override fun onClose(campaign: EMMACampaign?) {}
+    }
+
+    @Test
+    fun mapsEveryPendingCallToItsMethod() {
+        PendingCall.values().forEach { call ->
+            assertEquals(call.name, FacadeMethod.of(call).name)
+        }
+    }
+
+    @Test
+    fun countsConcurrentCalls() {
+        val metrics = StripedFacadeMetrics()
+        val threads = 4
+        val calls = 50_000
+        val done = CountDownLatch(threads)
+
+        repeat(threads) {
+            Thread {
+                repeat(calls) { metrics.recordCall(FacadeMethod.TRACK_EVENT, 1_000) }
+                done.countDown()
+            }.start()
+        }
+        metrics.recordDeferred(FacadeMethod.LOGIN_USER)
+        metrics.recordDropped(FacadeMethod.LOGIN_USER)
+
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        val snapshot = metrics.snapshot()
+        val trackEvent = snapshot.get(FacadeMethod.TRACK_EVENT)
+        assertEquals((threads * calls).toLong(), trackEvent.calls)
+        assertEquals((threads * calls).toLong(), trackEvent.callLatency.count)
+        assertEquals(1L, snapshot.get(FacadeMethod.LOGIN_USER).deferred)
+        assertEquals(1L, snapshot.get(FacadeMethod.LOGIN_USER).dropped)
+        assertNull(snapshot.get(FacadeMethod.CANCEL_ORDER))
+    }
+
+    @Test
+    fun samplesGauges() {
+        val metrics = StripedFacadeMetrics()
+        var depth = 3L
+        metrics.registerGauge("pendingCalls") { depth }
+
+        assertEquals(3L, metrics.snapshot().gauges["pendingCalls"])
+        depth = 7
+        assertEquals(7L, metrics.snapshot().gauges["pendingCalls"])
+        assertTrue(metrics.snapshot().toString().contains("pendingCalls=7"))
+    }
+
+    @Test
+    fun timesFirstListenerCallback() {
+        val metrics = StripedFacadeMetrics()
+        val listener = Listener()
+        val start = System.nanoTime()
+
+        val wrapped = ResponseTimer.wrap<EMMAInAppMessageInterface>(
+            listener, EMMAInAppMessageInterface::class.java, metrics, FacadeMethod.GET_IN_APP_MESSAGE, start
+        )
+        assertTrue(wrapped is EMMANativeAdInterface)
+        wrapped.onShown(null)
+        wrapped.onShown(null)
+
+        assertEquals(2, listener.shown)
+        assertEquals(listener.hashCode(), wrapped.hashCode())
+        val response = metrics.snapshot().get(FacadeMethod.GET_IN_APP_MESSAGE).responseLatency
+        assertNotNull(response)
+        assertEquals(1L, response.count)
+    }
+}
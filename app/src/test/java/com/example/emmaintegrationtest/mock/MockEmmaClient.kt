@@ -0,0 +1,198 @@
+package com.example.emmaintegrationtest.mock
+
+import com.example.emmaintegrationtest.inapp.NativeAdStreamDecoder
+import com.example.emmaintegrationtest.queue.OperationBatchCodec
+import com.example.emmaintegrationtest.queue.UploadEncoding
+import com.example.emmaintegrationtest.queue.UploadOperation
+import io.emma.android.controllers.EMMAController
+import io.emma.android.interfaces.EMMABatchNativeAdInterface
+import io.emma.android.interfaces.EMMAInAppMessageInterface
+import io.emma.android.interfaces.EMMANativeAdInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMAEventRequest
+import io.emma.android.model.EMMAInAppRequest
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdRequest
+import org.mockito.ArgumentMatchers.any
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.withSettings
+import java.io.Closeable
+import java.io.IOException
+import java.io.InputStreamReader
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Lado SDK del banco de pruebas: un [EMMAController] simulado que envía las peticiones de la
+ * fachada a un [MockEmmaServer] y responde a los listeners como lo haría EMMA.
+ *
+ * Cada `getInAppMessage` se envía en su propio sobre desde los hilos de red y, si la respuesta trae
+ * anuncios nativos, se decodifica con [NativeAdStreamDecoder] y se llama al listener en ese mismo
+ * hilo. Los eventos se acumulan y se envían juntos cada [eventFlushMillis], como la cola de
+ * operaciones del SDK. Las peticiones fallidas no se reintentan ni llegan al listener.
+ *
+ * @param url URL base del servidor, la que se pasaría a `EMMA.setWebServiceUrl`.
+ * @param encoding Formato de los envíos, como el de `EMMA.Configuration.getUploadEncoding`.
+ */
+class MockEmmaClient(
+    url: String,
+    networkThreads: Int = 16,
+    private val eventFlushMillis: Long = 50,
+    private val encoding: UploadEncoding = UploadEncoding.JSON,
+) : Closeable {
+
+    private val endpoint = URL(url)
+    private val network = Executors.newFixedThreadPool(networkThreads)
+    private val eventFlusher = Executors.newSingleThreadScheduledExecutor()
+    private val events = ConcurrentLinkedQueue<EMMAEventRequest>()
+    private val ids = AtomicLong()
+    private val inFlight = AtomicInteger()
+    private val nativeAd: EMMANativeAd = mock(EMMANativeAd::class.java, withSettings().stubOnly())
+
+    /** Operaciones enviadas al servidor. */
+    val sent = AtomicLong()
+
+    /** Operaciones que el servidor respondió. */
+    val answered = AtomicLong()
+
+    /** Operaciones perdidas por un error de red o del servidor. */
+    val failed = AtomicLong()
+
+    /** Bytes de cuerpo enviados, ya codificados. */
+    val sentBytes = AtomicLong()
+
+    /** Controlador que se instala en la fachada. */
+    val controller: EMMAController = controller()
+
+    init {
+        eventFlusher.scheduleWithFixedDelay(::flushEvents, eventFlushMillis, eventFlushMillis, TimeUnit.MILLISECONDS)
+    }
+
+    private fun controller(): EMMAController {
+        val stubOnly = withSettings().stubOnly()
+        val controller = mock(EMMAController::class.java, stubOnly)
+        val campaigns = mock(EMMAController::class.java.getMethod("getCampaignController").returnType, stubOnly)
+        val eventController = mock(EMMAController::class.java.getMethod("getEventController").returnType, stubOnly)
+        doReturn(campaigns).`when`(controller).campaignController
+        doReturn(eventController).`when`(controller).eventController
+        // Los sub-controladores se leen antes de empezar a simular sus métodos
+        val campaignController = controller.campaignController
+        val trackingController = controller.eventController
+        doAnswer { invocation ->
+            getInAppMessage(invocation.getArgument(0), invocation.getArgument(1))
+            null
+        }.`when`(campaignController).getInAppMessage(any(), any())
+        doAnswer { invocation ->
+            events.add(invocation.getArgument(0))
+            inFlight.incrementAndGet()
+            null
+        }.`when`(trackingController).trackEvent(any())
+        return controller
+    }
+
+    private fun getInAppMessage(request: EMMAInAppRequest, listener: EMMAInAppMessageInterface?) {
+        val operation = operation(request)
+        inFlight.incrementAndGet()
+        network.execute {
+            try {
+                val response = post(listOf(operation)) ?: return@execute
+                if (request is EMMANativeAdRequest) {
+                    respond(response, request.isBatch, listener)
+                }
+            } finally {
+                inFlight.decrementAndGet()
+            }
+        }
+    }
+
+    private fun respond(response: ByteArray, batch: Boolean, listener: EMMAInAppMessageInterface?) {
+        var ads = 0
+        NativeAdStreamDecoder.decode(InputStreamReader(response.inputStream(), Charsets.UTF_8)) { ads++ }
+        if (ads == 0) return
+        if (batch && listener is EMMABatchNativeAdInterface) {
+            listener.onBatchReceived(MutableList(ads) { nativeAd })
+        } else if (listener is EMMANativeAdInterface) {
+            listener.onReceived(nativeAd)
+        }
+    }
+
+    private fun operation(request: EMMAInAppRequest): UploadOperation {
+        val id = ids.incrementAndGet().toString()
+        if (request is EMMANativeAdRequest) {
+            val params = mapOf("batch" to request.isBatch.toString(), "template_id" to request.templateId)
+            return UploadOperation(id, "native_ad", "check", params)
+        }
+        return UploadOperation(id, if (request.type == EMMACampaign.Type.COUPON) "coupon" else "inapp", "check", null)
+    }
+
+    private fun flushEvents() {
+        val batch = ArrayList<UploadOperation>()
+        while (batch.size < MAX_EVENTS_PER_REQUEST) {
+            events.poll() ?: break
+            batch.add(UploadOperation(ids.incrementAndGet().toString(), "event", "none", null))
+        }
+        if (batch.isEmpty()) return
+        try {
+            post(batch)
+        } finally {
+            inFlight.addAndGet(-batch.size)
+        }
+    }
+
+    /**
+     * @return Cuerpo de la respuesta, o `null` si la petición falló.
+     */
+    private fun post(operations: List<UploadOperation>): ByteArray? {
+        val count = operations.size
+        sent.addAndGet(count.toLong())
+        return try {
+            val body = OperationBatchCodec.encode(operations, encoding)
+            sentBytes.addAndGet(body.size.toLong())
+            val connection = endpoint.openConnection() as HttpURLConnection
+            connection.requestMethod = "POST"
+            connection.doOutput = true
+            connection.setRequestProperty("Content-Type", encoding.contentType)
+            encoding.contentEncoding?.let { connection.setRequestProperty("Content-Encoding", it) }
+            connection.outputStream.use { it.write(body) }
+            if (connection.responseCode != HttpURLConnection.HTTP_OK) {
+                connection.errorStream?.close()
+                failed.addAndGet(count.toLong())
+                return null
+            }
+            connection.inputStream.use { it.readBytes() }.also { answered.addAndGet(count.toLong()) }
+        } catch (e: IOException) {
+            failed.addAndGet(count.toLong())
+            null
+        }
+    }
+
+    /**
+     * Espera a que todas las operaciones aceptadas se hayan enviado y respondido.
+     *
+     * @return `false` si no terminaron antes de [timeoutMillis].
+     */
+    fun awaitIdle(timeoutMillis: Long): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() > deadline) return false
+            Thread.sleep(1)
+        }
+        return true
+    }
+
+    override fun close() {
+        eventFlusher.shutdownNow()
+        network.shutdownNow()
+    }
+
+    private companion object {
+        const val MAX_EVENTS_PER_REQUEST = 500
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.emmaintegrationtest.mock
+
+import com.example.emmaintegrationtest.queue.OperationBatchCodec
+import com.example.emmaintegrationtest.queue.UploadEncoding
+import com.example.emmaintegrationtest.queue.UploadOperation
+import com.google.gson.JsonArray
+import com.google.gson.JsonElement
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.util.Random
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Sustituto local del backend de EMMA que responde con las capturas de `logs/`.
+ *
+ * Habla el mismo formato que las capturas: recibe un sobre `{"operations": [...]}` con el `id`, el
+ * `type` y el `action` de cada operación y devuelve el mismo sobre con la `response` grabada para
+ * ese tipo y acción. Una operación con `"batch": true` recibe la captura de anuncios en bloque. Las
+ * operaciones sin captura se confirman con `status` 200.
+ *
+ * El cuerpo de la petición puede llegar en cualquier [UploadEncoding], que se deduce de las cabeceras
+ * `Content-Type` y `Content-Encoding`; un formato desconocido se rechaza con HTTP 415 y uno dañado con
+ * HTTP 400. [receivedBytes] suma los bytes recibidos para comparar formatos.
+ *
+ * Cada petición tarda [latencyMillis] más un margen aleatorio de hasta [jitterMillis], y una
+ * fracción [errorRate] de ellas falla con HTTP 503 sin cuerpo. La URL de [url] es la que se pasa a
+ * `EMMA.setWebServiceUrl` para redirigir el tráfico.
+ *
+ * El margen y los fallos salen de generadores con semilla [seed], así que el número de peticiones
+ * fallidas entre las N primeras se repite de una ejecución a otra.
+ *
+ * @param logs Directorio con las capturas `.json`.
+ * @param threads Hilos que atienden peticiones; la latencia simulada no los bloquea entre sí.
+ */
+class MockEmmaServer(
+    logs: File = File(LOGS),
+    @Volatile var latencyMillis: Long = 0,
+    @Volatile var jitterMillis: Long = 0,
+    @Volatile var errorRate: Double = 0.0,
+    threads: Int = 16,
+    seed: Long = 1,
+) : Closeable {
+
+    private val fixtures: Map<String, JsonElement> = loadFixtures(logs)
+    private val executor: ExecutorService = Executors.newFixedThreadPool(threads)
+    private val server: HttpServer = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+    // Generadores separados: el margen no desplaza la secuencia de fallos
+    private val jitter = Random(seed)
+    private val failures = Random(seed + 1)
+
+    /** Peticiones HTTP atendidas, incluidas las fallidas. */
+    val requests = AtomicLong()
+
+    /** Operaciones respondidas dentro de peticiones correctas. */
+    val operations = AtomicLong()
+
+    /** Peticiones que fallaron a propósito. */
+    val errors = AtomicLong()
+
+    /** Bytes de cuerpo recibidos, tal como llegan por la red. */
+    val receivedBytes = AtomicLong()
+
+    val url: String
+        get() = "http://127.0.0.1:${server.address.port}/"
+
+    init {
+        server.createContext("/", ::handle)
+        server.executor = executor
+        server.start()
+    }
+
+    /**
+     * @return Tipos y acciones con respuesta grabada, como `native_ad/check`.
+     */
+    fun routes(): Set<String> = fixtures.keys
+
+    private fun handle(exchange: HttpExchange) {
+        exchange.use {
+            requests.incrementAndGet()
+            val body = exchange.requestBody.use { it.readBytes() }
+            receivedBytes.addAndGet(body.size.toLong())
+            val encoding = UploadEncoding.of(
+                exchange.requestHeaders.getFirst("Content-Type"),
+                exchange.requestHeaders.getFirst("Content-Encoding"),
+            )
+            if (encoding == null) {
+                exchange.sendResponseHeaders(415, -1)
+                return
+            }
+            val request = try {
+                OperationBatchCodec.decode(body, encoding)
+            } catch (e: IOException) {
+                exchange.sendResponseHeaders(400, -1)
+                return
+            }
+            val delay = latencyMillis + if (jitterMillis > 0) jitter.nextInt(jitterMillis.toInt() + 1) else 0
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay)
+            }
+            if (failures.nextDouble() < errorRate) {
+                errors.incrementAndGet()
+                exchange.sendResponseHeaders(503, -1)
+                return
+            }
+            val answered = JsonArray()
+            request.forEach { operation -> answered.add(answer(operation)) }
+            operations.addAndGet(answered.size().toLong())
+            val response = JsonObject().apply { add("operations", answered) }.toString().toByteArray(Charsets.UTF_8)
+            exchange.responseHeaders.add("Content-Type", UploadEncoding.JSON_CONTENT_TYPE)
+            exchange.sendResponseHeaders(200, response.size.toLong())
+            exchange.responseBody.write(response)
+        }
+    }
+
+    private fun answer(operation: UploadOperation): JsonObject {
+        val type = operation.type
+        val action = operation.action
+        val batch = operation.params["batch"].toBoolean()
+        val response = fixtures[route(type, action, batch)] ?: JsonObject().apply { addProperty("status", "200") }
+        return JsonObject().apply {
+            addProperty("id", operation.id)
+            addProperty("type", type)
+            addProperty("action", action)
+            add("response", response)
+        }
+    }
+
+    override fun close() {
+        server.stop(0)
+        executor.shutdownNow()
+    }
+
+    companion object {
+        /** Capturas reales, relativas al módulo `app`. */
+        const val LOGS = "src/main/java/com/example/emmaintegrationtest/logs"
+
+        private fun route(type: String?, action: String?, batch: Boolean) =
+            "$type/$action" + if (batch) "/batch" else ""
+
+        /**
+         * Indexa la primera respuesta grabada de cada tipo y acción. Las respuestas con
+         * `native_ads` son la variante en bloque.
+         */
+        private fun loadFixtures(logs: File): Map<String, JsonElement> {
+            val fixtures = LinkedHashMap<String, JsonElement>()
+            logs.listFiles { file -> file.extension == "json" }.orEmpty().sortedBy { it.name }.forEach { file ->
+                val capture = file.reader(Charsets.UTF_8).use(JsonParser::parseReader).asJsonObject
+                capture.getAsJsonArray("operations").forEach { element ->
+                    val operation = element.asJsonObject
+                    val response = operation.get("response")
+                    val batch = response.isJsonObject && response.asJsonObject.has("native_ads")
+                    val key = route(operation.get("type").asString, operation.get("action").asString, batch)
+                    fixtures.putIfAbsent(key, response)
+                }
+            }
+            require(fixtures.isNotEmpty()) { "No hay capturas en ${logs.absolutePath}" }
+            return fixtures
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.emmaintegrationtest.mock
+
+import com.example.emmaintegrationtest.queue.OperationBatchCodec
+import com.example.emmaintegrationtest.queue.UploadEncoding
+import com.example.emmaintegrationtest.queue.UploadOperation
+import com.google.gson.JsonParser
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.net.HttpURLConnection
+import java.net.URL
+
+/**
+ * Pruebas del [MockEmmaServer] con las capturas de `logs/`.
+ */
+class MockEmmaServerTest {
+
+    private val server = MockEmmaServer()
+
+    @After
+    fun stopServer() {
+        server.close()
+    }
+
+    private fun post(body: String): Pair<Int, String> = post(body.toByteArray(), UploadEncoding.JSON_CONTENT_TYPE, null)
+
+    private fun post(body: ByteArray, contentType: String, contentEncoding: String?): Pair<Int, String> {
+        val connection = URL(server.url).openConnection() as HttpURLConnection
+        connection.requestMethod = "POST"
+        connection.doOutput = true
+        connection.setRequestProperty("Content-Type", contentType)
+        contentEncoding?.let { connection.setRequestProperty("Content-Encoding", it) }
+        connection.outputStream.use { it.write(body) }
+        val code = connection.responseCode
+        val response = if (code == 200) connection.inputStream.use { it.readBytes().decodeToString() } else ""
+        return code to response
+    }
+
+    @Test
+    fun servesRecordedResponses() {
+        assertTrue(server.routes().containsAll(listOf("coupon/check", "native_ad/check", "native_ad/check/batch", "event/none")))
+
+        val (code, body) = post(
+            """{"operations":[
+                {"id":"1","type":"native_ad","action":"check"},
+                {"id":"2","type":"native_ad","action":"check","batch":true},
+                {"id":"3","type":"coupon","action":"check"},
+                {"id":"4","type":"event","action":"none"},
+                {"id":"5","type":"user","action":"login"}]}"""
+        )
+
+        assertEquals(200, code)
+        val operations = JsonParser.parseString(body).asJsonObject.getAsJsonArray("operations").map { it.asJsonObject }
+        assertEquals(listOf("1", "2", "3", "4", "5"), operations.map { it.get("id").asString })
+        val responses = operations.map { it.getAsJsonObject("response") }
+        assertEquals("plantilla-nativead-android", responses[0].getAsJsonObject("native_ad").get("id").asString)
+        assertEquals("nativead-batch", responses[1].getAsJsonArray("native_ads")[0].asJsonObject.get("id").asString)
+        assertEquals(8285, responses[2].getAsJsonArray("response")[0].asJsonObject.get("ID").asInt)
+        assertEquals("216", responses[3].get("status").asString)
+        assertEquals("200", responses[4].get("status").asString)
+        assertEquals(5L, server.operations.get())
+    }
+
+    @Test
+    fun injectsLatencyAndErrors() {
+        server.latencyMillis = 20
+        val start = System.nanoTime()
+        assertEquals(200, post("""{"operations":[]}""").first)
+        assertTrue(System.nanoTime() - start >= 20_000_000)
+
+        server.latencyMillis = 0
+        server.errorRate = 0.25
+        val codes = List(400) { post("""{"operations":[]}""").first }
+        val errors = codes.count { it == 503 }
+
+        assertEquals(400 - errors, codes.count { it == 200 })
+        assertEquals(errors.toLong(), server.errors.get())
+        assertTrue("errors=$errors", errors in 60..140)
+    }
+
+    @Test
+    fun negotiatesCompactUploads() {
+        val batch = listOf(
+            UploadOperation("1", "native_ad", "check", mapOf("batch" to "true", "template_id" to "nativead-batch")),
+            UploadOperation("2", "event", "none", mapOf("token" to "0f3e9c1a")),
+        )
+
+        UploadEncoding.values().forEach { encoding ->
+            val (code, body) = post(OperationBatchCodec.encode(batch, encoding), encoding.contentType, encoding.contentEncoding)
+
+            assertEquals(encoding.name, 200, code)
+            val responses = JsonParser.parseString(body).asJsonObject.getAsJsonArray("operations")
+                .map { it.asJsonObject.getAsJsonObject("response") }
+            assertEquals("nativead-batch", responses[0].getAsJsonArray("native_ads")[0].asJsonObject.get("id").asString)
+            assertEquals("216", responses[1].get("status").asString)
+        }
+        assertEquals(415, post(byteArrayOf(1), "application/x-protobuf", null).first)
+        assertEquals(415, post(byteArrayOf(1), UploadEncoding.FRAMED_CONTENT_TYPE, "br").first)
+        assertEquals(400, post(byteArrayOf(1, 2, 3), UploadEncoding.FRAMED_CONTENT_TYPE, null).first)
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.emmaintegrationtest.mock
+
+import com.example.emmaintegrationtest.EMMA
+import com.example.emmaintegrationtest.metrics.MetricsSnapshot
+import com.example.emmaintegrationtest.metrics.StripedFacadeMetrics
+import com.google.gson.JsonParser
+import io.emma.android.controllers.EMMAController
+import io.emma.android.interfaces.EMMABatchNativeAdInterface
+import io.emma.android.interfaces.EMMAInAppMessageInterface
+import io.emma.android.interfaces.EMMANativeAdInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMAEventRequest
+import io.emma.android.model.EMMAInAppRequest
+import io.emma.android.model.EMMANativeAd
+import io.emma.android.model.EMMANativeAdRequest
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Arnés de carga que reproduce contra la fachada [EMMA] las operaciones grabadas en `logs/`.
+ *
+ * La fachada se arranca con el controlador de un [MockEmmaClient], así que cada llamada recorre el
+ * mismo camino que en la app hasta llegar al [MockEmmaServer]. Las operaciones grabadas se repiten
+ * en orden desde varios hilos al ritmo pedido: las de anuncios nativos y cupones se convierten en
+ * `getInAppMessage` y las de eventos en `trackEvent`.
+ *
+ * @param logs Directorio con las capturas que se reproducen.
+ */
+class ReplayHarness(logs: File = File(MockEmmaServer.LOGS)) {
+
+    /**
+     * Operación grabada, en el orden en que aparece en las capturas.
+     */
+    enum class Step { NATIVE_AD, NATIVE_AD_BATCH, COUPON, EVENT }
+
+    /**
+     * Resultado de una reproducción.
+     *
+     * @property issued Llamadas hechas a la fachada.
+     * @property callbacks Respuestas que llegaron a los listeners.
+     * @property sent Operaciones enviadas al servidor.
+     * @property failed Operaciones perdidas por errores del servidor.
+     * @property elapsedNanos Duración de la reproducción, sin contar la espera final.
+     * @property metrics Contadores y latencias de la fachada durante la reproducción.
+     */
+    data class Report(
+        val issued: Long,
+        val callbacks: Long,
+        val sent: Long,
+        val failed: Long,
+        val elapsedNanos: Long,
+        val metrics: MetricsSnapshot,
+    ) {
+        val throughput: Double
+            get() = issued * 1e9 / elapsedNanos
+
+        override fun toString() =
+            "issued=$issued (%.0f ops/s) callbacks=$callbacks sent=$sent failed=$failed\n$metrics"
+                .format(throughput)
+    }
+
+    val steps: List<Step> = loadSteps(logs)
+
+    private val callbacks = AtomicLong()
+
+    private val listener = object : EMMAInAppMessageInterface, EMMANativeAdInterface, EMMABatchNativeAdInterface {
+        override fun onReceived(nativeAd: EMMANativeAd) {
+            callbacks.incrementAndGet()
+        }
+
+        override fun onBatchReceived(nativeAds: MutableList<EMMANativeAd>) {
+            callbacks.incrementAndGet()
+        }
+
+        override fun onShown(campaign: EMMACampaign?) {}
+
+        override fun onHide(campaign: EMMACampaign?) {}
+
+        override fun onClose(campaign: EMMACampaign?) {}
+    }
+
+    /**
+     * Reproduce las capturas durante [durationMillis] a [opsPerSecond] llamadas por segundo y espera
+     * a que el cliente termine de enviar lo pendiente.
+     */
+    fun run(client: MockEmmaClient, opsPerSecond: Int, durationMillis: Long, producers: Int = 2): Report {
+        val emma = EMMA.getInstance()
+        val metrics = StripedFacadeMetrics()
+        install(emma, client.controller)
+        emma.setMetrics(metrics)
+        callbacks.set(0)
+        val sentBefore = client.sent.get()
+        val failedBefore = client.failed.get()
+        try {
+            val issued = AtomicLong()
+            val done = CountDownLatch(producers)
+            val intervalNanos = TimeUnit.SECONDS.toNanos(1) * producers / opsPerSecond
+            val start = System.nanoTime()
+            val end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis)
+            repeat(producers) { producer ->
+                Thread({
+                    var next = start
+                    var step = producer
+                    while (next < end) {
+                        LockSupport.parkNanos(next - System.nanoTime())
+                        replay(emma, steps[step % steps.size])
+                        issued.incrementAndGet()
+                        step += producers
+                        next += intervalNanos
+                    }
+                    done.countDown()
+                }, "replay-$producer").start()
+            }
+            check(done.await(durationMillis + 10_000, TimeUnit.MILLISECONDS)) { "La reproducción no terminó" }
+            val elapsed = System.nanoTime() - start
+            check(client.awaitIdle(10_000)) { "El cliente no envió todas las operaciones" }
+            return Report(
+                issued.get(), callbacks.get(), client.sent.get() - sentBefore, client.failed.get() - failedBefore,
+                elapsed, metrics.snapshot()
+            )
+        } finally {
+            emma.setMetrics(null)
+            install(emma, null)
+        }
+    }
+
+    private fun replay(emma: EMMA, step: Step) {
+        when (step) {
+            Step.NATIVE_AD -> emma.getInAppMessage(nativeAdRequest(false), listener)
+            Step.NATIVE_AD_BATCH -> emma.getInAppMessage(nativeAdRequest(true), listener)
+            Step.COUPON -> emma.getInAppMessage(EMMAInAppRequest(EMMACampaign.Type.COUPON))
+            Step.EVENT -> emma.trackEvent(EMMAEventRequest(EVENT_TOKEN))
+        }
+    }
+
+    private fun nativeAdRequest(batch: Boolean) = EMMANativeAdRequest().apply {
+        templateId = TEMPLATE_ID
+        isBatch = batch
+    }
+
+    private companion object {
+        const val TEMPLATE_ID = "plantilla-nativead-android"
+        const val EVENT_TOKEN = "replay"
+
+        /**
+         * Arranca o detiene la fachada sin pasar por `startSession`, que necesita un `Context`.
+         */
+        fun install(emma: EMMA, controller: EMMAController?) {
+            val field = EMMA::class.java.getDeclaredField("emmaController")
+            field.isAccessible = true
+            field.set(emma, controller)
+        }
+
+        fun loadSteps(logs: File): List<Step> {
+            val steps = ArrayList<Step>()
+            logs.listFiles { file -> file.extension == "json" }.orEmpty().sortedBy { it.name }.forEach { file ->
+                val capture = file.reader(Charsets.UTF_8).use(JsonParser::parseReader).asJsonObject
+                capture.getAsJsonArray("operations").forEach { element ->
+                    val operation = element.asJsonObject
+                    val response = operation.get("response").asJsonObject
+                    when (operation.get("type").asString) {
+                        "native_ad" -> steps += if (response.has("native_ads")) Step.NATIVE_AD_BATCH else Step.NATIVE_AD
+                        "coupon" -> steps += Step.COUPON
+                        "event" -> steps += Step.EVENT
+                    }
+                }
+            }
+            require(steps.isNotEmpty()) { "No hay operaciones que reproducir en ${logs.absolutePath}" }
+            return steps
+        }
+    }
+}
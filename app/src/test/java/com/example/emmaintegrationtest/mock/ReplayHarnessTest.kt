@@ -0,0 +1,48 @@
+package com.example.emmaintegrationtest.mock
+
+import com.example.emmaintegrationtest.metrics.FacadeMethod
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Pruebas de carga de la integración con [ReplayHarness] contra el [MockEmmaServer].
+ *
+ * Comprueban que no se pierden operaciones; el rendimiento depende de la máquina y no se comprueba.
+ */
+class ReplayHarnessTest {
+
+    private val server = MockEmmaServer(latencyMillis = 2, jitterMillis = 3, seed = 7)
+    private val client = MockEmmaClient(server.url)
+    private val harness = ReplayHarness()
+
+    @After
+    fun stop() {
+        client.close()
+        server.close()
+    }
+
+    @Test
+    fun replaysRecordedOperationsAtTargetRate() {
+        val report = harness.run(client, opsPerSecond = 2000, durationMillis = 1000)
+
+        assertEquals(report.issued, report.metrics.methods.values.sumOf { it.calls })
+        assertEquals(0L, report.failed)
+        assertEquals(report.sent, server.operations.get())
+        // Sólo los anuncios nativos tienen listener
+        val nativeAds = harness.steps.count { it == ReplayHarness.Step.NATIVE_AD || it == ReplayHarness.Step.NATIVE_AD_BATCH }
+        assertTrue(report.callbacks > 0)
+        assertTrue(report.callbacks <= report.issued * nativeAds / harness.steps.size + nativeAds)
+        assertEquals(report.callbacks, report.metrics.get(FacadeMethod.GET_IN_APP_MESSAGE).responseLatency.count)
+    }
+
+    @Test
+    fun accountsForServerErrors() {
+        server.errorRate = 0.1
+        val report = harness.run(client, opsPerSecond = 500, durationMillis = 500)
+
+        assertTrue(report.toString(), report.failed > 0)
+        assertEquals(report.sent - report.failed, server.operations.get())
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.emmaintegrationtest.push
+
+import android.content.Intent
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.withSettings
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+/**
+ * Pruebas del [PushPipeline] con intents sintéticos, como los de un envío masivo.
+ */
+class PushPipelineTest {
+
+    private fun intent(messageId: String?, extra: String = PushPipeline.EXTRA_MESSAGE_ID): Intent {
+        val intent = mock(Intent::class.java, withSettings().stubOnly())
+        doReturn(messageId).`when`(intent).getStringExtra(extra)
+        return intent
+    }
+
+    /**
+     * Manejador que tarda [workMillis] por notificación y anota la concurrencia y la cola observadas.
+     */
+    private class SlowHandler(private val workMillis: Long = 0) : PushPipeline.Handler {
+        lateinit var pipeline: PushPipeline
+        val handled: MutableMap<Intent, AtomicInteger> = ConcurrentHashMap()
+        val running = AtomicInteger()
+        @Volatile var maxRunning = 0
+        @Volatile var maxPending = 0
+        @Volatile var failing: Intent? = null
+
+        override fun onNotification(intent: Intent, checkForRichPush: Boolean) {
+            val now = running.incrementAndGet()
+            synchronized(this) {
+                maxRunning = maxOf(maxRunning, now)
+                maxPending = maxOf(maxPending, pipeline.pending())
+            }
+            try {
+                if (intent === failing) throw IllegalStateException("fallo simulado")
+                handled.computeIfAbsent(intent) { AtomicInteger() }.incrementAndGet()
+                if (workMillis > 0) Thread.sleep(workMillis)
+            } finally {
+                running.decrementAndGet()
+            }
+        }
+
+        override fun onRichPushCheck() {}
+    }
+
+    private fun pipeline(handler: SlowHandler, workers: Int = 2, capacity: Int = 16, windowMillis: Long = 60_000) =
+        PushPipeline(handler, workers, capacity, windowMillis).also { handler.pipeline = it }
+
+    @Test
+    fun floodIsProcessedOnceWithBoundedQueue() {
+        val handler = SlowHandler(workMillis = 1)
+        val pipeline = pipeline(handler, workers = 2, capacity = 16)
+        // 1000 mensajes distintos, cada uno entregado tres veces por cuatro hilos de FCM
+        val messages = List(1000) { intent("0:${1_700_000_000_000 + it}%emma") }
+        val deliveries = (messages + messages + messages).shuffled(kotlin.random.Random(3))
+        val results = Collections.synchronizedList(mutableListOf<PushPipeline.Result>())
+        val producers = 4
+
+        List(producers) { p ->
+            thread {
+                for (i in p until deliveries.size step producers) {
+                    results += pipeline.submit(deliveries[i], true)
+                }
+            }
+        }.forEach { it.join() }
+        pipeline.shutdown()
+        assertTrue(pipeline.awaitTermination(30, TimeUnit.SECONDS))
+
+        assertEquals(messages.size, handler.handled.size)
+        assertTrue(handler.handled.values.all { it.get() == 1 })
+        assertEquals(2L * messages.size, pipeline.coalesced)
+        assertEquals(messages.size.toLong(), pipeline.processed)
+        assertEquals(results.count { it == PushPipeline.Result.RAN_INLINE }.toLong(), pipeline.ranInline)
+        // La cola nunca pasa de su capacidad; lo que no cabe lo procesa el hilo que lo entrega
+        assertTrue("maxPending=${handler.maxPending}", handler.maxPending <= 16)
+        assertTrue(pipeline.ranInline > 0)
+        assertTrue("maxRunning=${handler.maxRunning}", handler.maxRunning <= 2 + producers)
+    }
+
+    @Test
+    fun notificationsWithoutIdAreNeverCoalesced() {
+        val handler = SlowHandler()
+        val pipeline = pipeline(handler)
+        val anonymous = intent(null)
+        val emmaOnly = intent("8285", PushPipeline.EXTRA_PUSH_ID)
+
+        repeat(3) { pipeline.submit(anonymous, false) }
+        assertEquals(PushPipeline.Result.QUEUED, pipeline.submit(emmaOnly, false))
+        assertEquals(PushPipeline.Result.COALESCED, pipeline.submit(emmaOnly, false))
+        pipeline.shutdown()
+        pipeline.awaitTermination(5, TimeUnit.SECONDS)
+
+        assertEquals(3, handler.handled.getValue(anonymous).get())
+        assertEquals(1, handler.handled.getValue(emmaOnly).get())
+        assertEquals(PushPipeline.Result.REJECTED, pipeline.submit(intent("otro"), false))
+    }
+
+    @Test
+    fun idsAreForgottenAfterTheWindowOrAFailure() {
+        val handler = SlowHandler()
+        val pipeline = pipeline(handler, windowMillis = 50)
+        val message = intent("0:1%emma")
+        val failing = intent("0:2%emma").also { handler.failing = it }
+
+        assertEquals(PushPipeline.Result.QUEUED, pipeline.submit(message, false))
+        assertEquals(PushPipeline.Result.COALESCED, pipeline.submit(message, false))
+        Thread.sleep(80)
+        assertEquals(PushPipeline.Result.QUEUED, pipeline.submit(message, false))
+
+        pipeline.submit(failing, false)
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (pipeline.failed == 0L && System.nanoTime() < deadline) Thread.sleep(1)
+        assertEquals(1L, pipeline.failed)
+        handler.failing = null
+        // Tras el fallo la reentrega se procesa
+        assertEquals(PushPipeline.Result.QUEUED, pipeline.submit(failing, false))
+        pipeline.shutdown()
+        pipeline.awaitTermination(5, TimeUnit.SECONDS)
+
+        assertEquals(2, handler.handled.getValue(message).get())
+        assertEquals(1, handler.handled.getValue(failing).get())
+    }
+
+    @Test
+    fun richPushChecksCollapseWhilePending() {
+        val release = CountDownLatch(1)
+        val handler = object : PushPipeline.Handler {
+            val checks = AtomicInteger()
+            override fun onNotification(intent: Intent, checkForRichPush: Boolean) = release.await()
+            override fun onRichPushCheck() {
+                checks.incrementAndGet()
+            }
+        }
+        val pipeline = PushPipeline(handler, 1, 16)
+
+        // El único trabajador está ocupado, así que las comprobaciones esperan en la cola
+        pipeline.submit(intent("0:bloqueo"), false)
+        repeat(100) { pipeline.requestRichPushCheck() }
+        release.countDown()
+        pipeline.shutdown()
+        assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS))
+
+        assertEquals(1, handler.checks.get())
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.emmaintegrationtest.push
+
+import io.emma.android.enums.EMMAPushType
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.util.Collections
+
+/**
+ * Pruebas del [PushTokenRegistry] con un fichero temporal y un envío simulado.
+ */
+class PushTokenRegistryTest {
+
+    /**
+     * Envío simulado que anota los tokens y puede fallar a demanda.
+     */
+    private class FakeSender : PushTokenRegistry.Sender {
+        val sent: MutableList<Pair<String, EMMAPushType>> = Collections.synchronizedList(mutableListOf())
+        @Volatile var failing = false
+
+        override fun send(token: String, type: EMMAPushType) {
+            if (failing) throw IllegalStateException("sin red")
+            sent += token to type
+        }
+    }
+
+    private lateinit var file: File
+    private val sender = FakeSender()
+    private var now = 1_700_000_000_000L
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("push-tokens", ".bin")
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun registry() = PushTokenRegistry(file, sender, DEBOUNCE_MILLIS, RESEND_MILLIS) { now }
+
+    private fun settle() = Thread.sleep(DEBOUNCE_MILLIS * 4)
+
+    @Test
+    fun churnIsDebouncedIntoTheLatestToken() {
+        val registry = registry()
+
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, registry.register("token-0", EMMAPushType.FCM))
+        (1..9).forEach { assertEquals(PushTokenRegistry.Result.REPLACED, registry.register("token-$it", EMMAPushType.FCM)) }
+        settle()
+
+        assertEquals(listOf("token-9" to EMMAPushType.FCM), sender.sent)
+        assertEquals(1L, registry.uploads)
+    }
+
+    @Test
+    fun sentTokensAreSkippedAcrossRestarts() {
+        registry().apply { register("fcm-token", EMMAPushType.FCM) }
+        settle()
+
+        val restarted = registry()
+        assertEquals(PushTokenRegistry.Result.UNCHANGED, restarted.register("fcm-token", EMMAPushType.FCM))
+        // Cada proveedor recuerda su propio token
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, restarted.register("fcm-token", EMMAPushType.HCM))
+        settle()
+
+        assertEquals(listOf("fcm-token" to EMMAPushType.FCM, "fcm-token" to EMMAPushType.HCM), sender.sent)
+        assertEquals(1L, restarted.skipped)
+        // En disco sólo hay hashes
+        assertFalse(String(file.readBytes(), Charsets.ISO_8859_1).contains("fcm-token"))
+    }
+
+    @Test
+    fun revertingToTheSentTokenCancelsTheUpload() {
+        val registry = registry()
+        registry.register("a", EMMAPushType.FCM)
+        settle()
+
+        registry.register("b", EMMAPushType.FCM)
+        assertEquals(PushTokenRegistry.Result.UNCHANGED, registry.register("a", EMMAPushType.FCM))
+        settle()
+
+        assertEquals(listOf("a" to EMMAPushType.FCM), sender.sent)
+    }
+
+    @Test
+    fun failedUploadsAreRetriedOnTheNextRegistration() {
+        val registry = registry()
+        sender.failing = true
+        registry.register("token", EMMAPushType.FCM)
+        settle()
+        sender.failing = false
+
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, registry.register("token", EMMAPushType.FCM))
+        settle()
+        assertEquals(listOf("token" to EMMAPushType.FCM), sender.sent)
+
+        registry.clear()
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, registry.register("token", EMMAPushType.FCM))
+        registry.shutdown()
+        assertEquals(2, sender.sent.size)
+    }
+
+    @Test
+    fun sentTokensExpireAfterTheResendInterval() {
+        registry().apply { register("token", EMMAPushType.FCM) }.shutdown()
+
+        now += RESEND_MILLIS - 1
+        val restarted = registry()
+        assertEquals(PushTokenRegistry.Result.UNCHANGED, restarted.register("token", EMMAPushType.FCM))
+
+        // El envío sólo encoló el token: pasado el intervalo se vuelve a enviar
+        now += 1
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, restarted.register("token", EMMAPushType.FCM))
+        restarted.shutdown()
+        assertEquals(PushTokenRegistry.Result.UNCHANGED, restarted.register("token", EMMAPushType.FCM))
+        assertEquals(2, sender.sent.size)
+    }
+
+    @Test
+    fun unreadableFileStartsEmpty() {
+        file.writeText("basura")
+
+        assertEquals(PushTokenRegistry.Result.SCHEDULED, registry().register("token", EMMAPushType.FCM))
+    }
+
+    private companion object {
+        const val DEBOUNCE_MILLIS = 100L
+        const val RESEND_MILLIS = 24 * 60 * 60_000L
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.emmaintegrationtest.push
+
+import android.content.Intent
+import com.example.emmaintegrationtest.cache.DiskLruCache
+import com.sun.net.httpserver.HttpServer
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.withSettings
+import java.io.File
+import java.net.InetSocketAddress
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pruebas del [RichPushPrefetcher] contra un servidor HTTP local con una página rich push.
+ */
+class RichPushPrefetcherTest {
+
+    private lateinit var server: HttpServer
+    private lateinit var directory: File
+    private lateinit var base: String
+    private val requests = ConcurrentHashMap<String, AtomicInteger>()
+    private val banner = ByteArray(4096) { (it % 251).toByte() }
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("rich-push").toFile()
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/") { exchange ->
+            val path = exchange.requestURI.path
+            requests.computeIfAbsent(path) { AtomicInteger() }.incrementAndGet()
+            val (type, body) = when (path) {
+                "/promo/index.html" -> "text/html; charset=utf-8" to PAGE.toByteArray()
+                "/promo/banner.png", "/push.jpg" -> "image/png" to banner
+                "/css/promo.css" -> "text/css" to "body{margin:0}".toByteArray()
+                else -> null to ByteArray(0)
+            }
+            if (type == null) {
+                exchange.sendResponseHeaders(404, -1)
+            } else {
+                exchange.responseHeaders.add("Content-Type", type)
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.use { it.write(body) }
+            }
+            exchange.close()
+        }
+        server.start()
+        base = "http://127.0.0.1:${server.address.port}"
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        directory.deleteRecursively()
+    }
+
+    private fun intent(url: String?, image: String? = null): Intent {
+        val intent = mock(Intent::class.java, withSettings().stubOnly())
+        doReturn(url).`when`(intent).getStringExtra(RichPushPrefetcher.EXTRA_RICH_PUSH_URL)
+        doReturn(image).`when`(intent).getStringExtra(RichPushPrefetcher.EXTRA_IMAGE)
+        return intent
+    }
+
+    private fun prefetcher() = RichPushPrefetcher(
+        DiskLruCache.open(directory, 1024 * 1024),
+        RichPushPrefetcher.httpFetcher(RichPushPrefetcher.DEFAULT_MAX_RESOURCE_BYTES),
+        2
+    )
+
+    private fun awaitDownloads(prefetcher: RichPushPrefetcher, pages: Long, media: Long) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while ((prefetcher.pages < pages || prefetcher.media < media) && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun pageAndItsMediaAreServedFromDisk() {
+        val prefetcher = prefetcher()
+
+        assertTrue(prefetcher.prefetch(intent("$base/promo/index.html", "$base/push.jpg")))
+        awaitDownloads(prefetcher, pages = 1, media = 3)
+
+        val type = arrayOfNulls<String>(1)
+        assertEquals(PAGE, String(prefetcher.get("$base/promo/index.html", type)!!))
+        assertEquals("text/html; charset=utf-8", type[0])
+        assertArrayEquals(banner, prefetcher.get("$base/promo/banner.png", null))
+        assertArrayEquals(banner, prefetcher.get("$base/push.jpg", null))
+        assertEquals("body{margin:0}", String(prefetcher.get("$base/css/promo.css", null)!!))
+        // El 404 no se guarda ni impide el resto
+        assertNull(prefetcher.get("$base/promo/missing.gif", null))
+        prefetcher.shutdown()
+    }
+
+    @Test
+    fun cachedMediaIsNotDownloadedAgain() {
+        val prefetcher = prefetcher()
+        prefetcher.prefetch(intent("$base/promo/index.html"))
+        awaitDownloads(prefetcher, pages = 1, media = 2)
+
+        prefetcher.prefetch(intent("$base/promo/index.html"))
+        awaitDownloads(prefetcher, pages = 2, media = 2)
+        Thread.sleep(50)
+
+        // La página puede cambiar y se descarga de nuevo; sus imágenes no
+        assertEquals(2, requests.getValue("/promo/index.html").get())
+        assertEquals(1, requests.getValue("/promo/banner.png").get())
+        assertEquals(1, requests.getValue("/css/promo.css").get())
+        prefetcher.shutdown()
+    }
+
+    @Test
+    fun notificationsWithoutRichContentAreIgnored() {
+        val prefetcher = prefetcher()
+
+        assertEquals(false, prefetcher.prefetch(intent(null)))
+        assertEquals(false, prefetcher.prefetch(intent("emma://deeplink/coupons")))
+        prefetcher.shutdown()
+    }
+
+    @Test
+    fun mediaReferencesAreResolvedAgainstThePage() {
+        val media = RichPushPrefetcher.findMedia(PAGE, "https://promo.example.com/promo/index.html")
+
+        assertEquals(
+            listOf(
+                "https://promo.example.com/css/promo.css",
+                "https://promo.example.com/promo/banner.png",
+                "https://promo.example.com/promo/missing.gif"
+            ),
+            media
+        )
+    }
+
+    private companion object {
+        val PAGE = """
+            <html><head><link rel="stylesheet" href="/css/promo.css"></head>
+            <body><a href="https://example.com">enlace</a>
+            <img class="hero" src="banner.png"><img src='banner.png'>
+            <img src="data:image/gif;base64,R0lGOD"><img SRC="missing.gif"></body></html>
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.emmaintegrationtest.queue
+
+import com.example.emmaintegrationtest.queue.AdaptiveFlushScheduler.Network
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Pruebas del [AdaptiveFlushScheduler] sobre un reloj simulado.
+ *
+ * [Simulation] genera operaciones a ritmo constante y consulta al planificador como lo hace el
+ * [JournalFlusher], pero avanzando un reloj virtual, así que cada prueba es determinista y recorre
+ * horas de uso en milisegundos.
+ */
+class AdaptiveFlushSchedulerTest {
+
+    /**
+     * Cola de operaciones y red simuladas.
+     *
+     * @param opsPerMinute Operaciones que se encolan por minuto.
+     * @param rttMillis Tiempo de ida y vuelta de cada envío.
+     * @param failureRate Probabilidad de que un envío falle.
+     */
+    private class Simulation(
+        val scheduler: AdaptiveFlushScheduler,
+        val opsPerMinute: Int,
+        val rttMillis: Long = 100,
+        val failureRate: Double = 0.0,
+        seed: Int = 1,
+    ) {
+        private val network = Random(seed)
+        private val enqueuedAt = ArrayDeque<Long>()
+        var now = 0L
+        var wakeUps = 0
+        var failures = 0
+        var enqueued = 0
+        var delivered = 0
+        var maxWaitMillis = 0L
+        val flushTimes = mutableListOf<Long>()
+
+        fun run(durationMillis: Long) {
+            val end = now + durationMillis
+            val opInterval = 60_000L / opsPerMinute
+            var nextOp = now
+            var nextFlush = AdaptiveFlushScheduler.NEVER
+            while (now < end) {
+                // Siguiente suceso: una operación nueva o el flush programado
+                now = if (nextFlush == AdaptiveFlushScheduler.NEVER) nextOp else minOf(nextOp, nextFlush)
+                if (now == nextOp) {
+                    enqueuedAt.addLast(now)
+                    enqueued++
+                    nextOp += opInterval
+                }
+                if (now == nextFlush) {
+                    flush()
+                }
+                val delay = scheduler.delayMillis(enqueuedAt.size, now)
+                nextFlush = if (delay == AdaptiveFlushScheduler.NEVER) delay else now + delay
+            }
+        }
+
+        private fun flush() {
+            wakeUps++
+            flushTimes += now
+            while (enqueuedAt.isNotEmpty()) {
+                val batch = minOf(scheduler.batchSize(), enqueuedAt.size)
+                now += rttMillis
+                if (network.nextDouble() < failureRate) {
+                    failures++
+                    scheduler.onFailed(now)
+                    return
+                }
+                repeat(batch) { maxWaitMillis = maxOf(maxWaitMillis, now - enqueuedAt.removeFirst()) }
+                delivered += batch
+                scheduler.onSent(batch)
+            }
+        }
+    }
+
+    private fun scheduler(base: Long = 10_000, maxBatch: Int = 100, seed: Long = 7) =
+        AdaptiveFlushScheduler(base, 1_000, 15 * 60_000, maxBatch, java.util.Random(seed))
+
+    @Test
+    fun meteredNetworksWakeTheRadioLessOften() {
+        val wifi = Simulation(scheduler().apply { setNetwork(Network.UNMETERED) }, opsPerMinute = 6)
+        val mobile = Simulation(scheduler().apply { setNetwork(Network.METERED) }, opsPerMinute = 6)
+
+        wifi.run(HOUR)
+        mobile.run(HOUR)
+
+        // En Wi-Fi cada operación sale sola a los 5 s; con datos móviles la ventana de 20 s agrupa tres
+        assertEquals(360, wifi.wakeUps)
+        assertEquals(120, mobile.wakeUps)
+        assertTrue(wifi.maxWaitMillis <= 5_000 + wifi.rttMillis)
+        assertTrue(mobile.maxWaitMillis <= 20_000 + mobile.rttMillis)
+        assertEquals(wifi.delivered, mobile.delivered)
+    }
+
+    @Test
+    fun batteryStretchesOrShortensTheInterval() {
+        val scheduler = scheduler().apply { setNetwork(Network.METERED) }
+
+        scheduler.setBattery(0.8f, false)
+        assertEquals(20_000, scheduler.intervalMillis())
+        scheduler.setBattery(0.2f, false)
+        assertEquals(40_000, scheduler.intervalMillis())
+        scheduler.setBattery(0.1f, false)
+        assertEquals(80_000, scheduler.intervalMillis())
+        scheduler.setBattery(0.1f, true)
+        assertEquals(10_000, scheduler.intervalMillis())
+    }
+
+    @Test
+    fun fullBatchFlushesBeforeTheInterval() {
+        val scheduler = scheduler(maxBatch = 20)
+
+        assertEquals(5_000, scheduler.delayMillis(1, 0))
+        assertEquals(4_000, scheduler.delayMillis(9, 1_000))
+        assertEquals(0, scheduler.delayMillis(10, 1_500))
+    }
+
+    @Test
+    fun offlineNeverFlushes() {
+        val scheduler = scheduler()
+        scheduler.setNetwork(Network.OFFLINE)
+        val simulation = Simulation(scheduler, opsPerMinute = 60)
+
+        simulation.run(10 * MINUTE)
+        assertEquals(0, simulation.wakeUps)
+
+        scheduler.setNetwork(Network.UNMETERED)
+        simulation.run(MINUTE)
+        // Lo acumulado sin conexión llena un lote y sale en cuanto vuelve la red
+        assertTrue(simulation.flushTimes.first() <= 10 * MINUTE + 1_000)
+        assertTrue(simulation.delivered > 600)
+        assertTrue(simulation.enqueued - simulation.delivered <= 5)
+    }
+
+    @Test
+    fun failuresBackOffExponentiallyWithJitter() {
+        val scheduler = scheduler(base = 1_000)
+        var backoff = 1_000L
+
+        repeat(12) {
+            val delay = scheduler.onFailed(0)
+            assertTrue("delay=$delay backoff=$backoff", delay in backoff / 2..backoff)
+            assertEquals(delay, scheduler.delayMillis(1, 0))
+            backoff = minOf(backoff * 2, 15 * 60_000L)
+        }
+        assertEquals(15 * 60_000L, backoff)
+
+        scheduler.onSent(1)
+        assertEquals(0, scheduler.failures())
+        assertEquals(1_000, scheduler.delayMillis(1, 0))
+    }
+
+    @Test
+    fun jitterSpreadsRetriesOfDifferentClients() {
+        val delays = (1L..50L).map { seed ->
+            val scheduler = scheduler(seed = seed)
+            repeat(4) { scheduler.onFailed(0) }
+            scheduler.delayMillis(1, 0)
+        }
+
+        assertTrue(delays.toSet().size > 40)
+        assertTrue(delays.all { it in 40_000L..80_000L })
+    }
+
+    @Test
+    fun batchSizeGrowsAdditivelyAndHalvesOnFailure() {
+        val scheduler = scheduler(maxBatch = 100)
+        assertEquals(50, scheduler.batchSize())
+
+        repeat(3) { scheduler.onSent(scheduler.batchSize()) }
+        assertEquals(80, scheduler.batchSize())
+        repeat(10) { scheduler.onSent(scheduler.batchSize()) }
+        assertEquals(100, scheduler.batchSize())
+
+        // Un lote incompleto no demuestra que quepa más
+        scheduler.onFailed(0)
+        scheduler.onSent(10)
+        assertEquals(50, scheduler.batchSize())
+        scheduler.onFailed(0)
+        assertEquals(25, scheduler.batchSize())
+    }
+
+    @Test
+    fun deliversEverythingOnAFlakyNetwork() {
+        val simulation = Simulation(scheduler(), opsPerMinute = 120, rttMillis = 400, failureRate = 0.3)
+
+        simulation.run(HOUR)
+        simulation.scheduler.setNetwork(Network.UNMETERED)
+        val queued = simulation.enqueued
+        simulation.run(HOUR)
+
+        assertTrue(simulation.failures > 0)
+        assertTrue(simulation.delivered >= queued)
+    }
+
+    @Test
+    fun sameSeedGivesTheSameSchedule() {
+        fun schedule() = Simulation(scheduler(seed = 3), opsPerMinute = 30, failureRate = 0.2, seed = 5)
+            .apply { run(HOUR) }.flushTimes
+
+        assertEquals(schedule(), schedule())
+    }
+
+    private companion object {
+        const val MINUTE = 60_000L
+        const val HOUR = 60 * MINUTE
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.emmaintegrationtest.queue;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes and decodes upload batches in every {@link UploadEncoding}.
+ * <p>
+ * The JSON encoding writes the <code>{"operations":[...]}</code> envelope with the
+ * parameters next to <code>id</code>, <code>type</code> and <code>action</code>.
+ * <p>
+ * The framed encoding starts with a two byte magic, a version byte and the operation
+ * count, followed by one frame per operation laid out as <code>[length][body]</code>
+ * with varint lengths. A body holds the id, type, action and parameters as strings.
+ * Types, actions, parameter names and short values repeat across a batch, so they are
+ * written once and then referenced by their index in a per-batch dictionary; ids are
+ * always written inline. The low bit of a string's varint tag tells a reference
+ * (<code>index &lt;&lt; 1 | 1</code>) from an inline string (<code>length &lt;&lt; 1</code>).
+ */
+public final class OperationBatchCodec {
+
+    private static final int MAGIC_0 = 'E';
+    private static final int MAGIC_1 = 'O';
+    private static final int VERSION = 1;
+    /** Longer values are rarely repeated, so they are not worth a dictionary slot. */
+    static final int MAX_INTERNED_LENGTH = 32;
+    static final int MAX_DICTIONARY_SIZE = 1024;
+
+    private static final String ID = "id";
+    private static final String TYPE = "type";
+    private static final String ACTION = "action";
+    private static final String OPERATIONS = "operations";
+
+    private OperationBatchCodec() {
+    }
+
+    /**
+     * @param batch    Operations in send order.
+     * @param encoding Wire format.
+     * @return The request body.
+     */
+    public static byte[] encode(List<UploadOperation> batch, UploadEncoding encoding) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.size() * (encoding.isFramed() ? 48 : 96) + 16);
+        try {
+            OutputStream out = encoding.isGzip() ? new GZIPOutputStream(bytes, 8192) : bytes;
+            if (encoding.isFramed()) {
+                writeFrames(out, batch);
+            } else {
+                writeJson(out, batch);
+            }
+            out.close();
+        } catch (IOException e) {
+            // In-memory streams do not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param body     The request body.
+     * @param encoding Wire format, usually from {@link UploadEncoding#of(String, String)}.
+     * @return Operations in send order.
+     * @throws IOException If the body is damaged or not in the given format.
+     */
+    public static List<UploadOperation> decode(byte[] body, UploadEncoding encoding) throws IOException {
+        InputStream in = new ByteArrayInputStream(body);
+        if (encoding.isGzip()) {
+            in = new GZIPInputStream(in, 8192);
+        }
+        try (InputStream input = in) {
+            return encoding.isFramed() ? readFrames(input) : readJson(input);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed operations batch", e);
+        }
+    }
+
+    private static void writeJson(OutputStream out, List<UploadOperation> batch) throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.beginObject().name(OPERATIONS).beginArray();
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            UploadOperation operation = batch.get(i);
+            writer.beginObject()
+                    .name(ID).value(operation.getId())
+                    .name(TYPE).value(operation.getType())
+                    .name(ACTION).value(operation.getAction());
+            for (Map.Entry<String, String> param : operation.getParams().entrySet()) {
+                writer.name(param.getKey()).value(param.getValue());
+            }
+            writer.endObject();
+        }
+        writer.endArray().endObject();
+        writer.flush();
+    }
+
+    private static List<UploadOperation> readJson(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<UploadOperation> batch = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!OPERATIONS.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                batch.add(readJsonOperation(reader));
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return batch;
+    }
+
+    private static UploadOperation readJsonOperation(JsonReader reader) throws IOException {
+        String id = null;
+        String type = null;
+        String action = null;
+        Map<String, String> params = new LinkedHashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY || token == JsonToken.NULL) {
+                // Nested values such as captured responses are not operation parameters
+                reader.skipValue();
+                continue;
+            }
+            String value = token == JsonToken.BOOLEAN ? String.valueOf(reader.nextBoolean()) : reader.nextString();
+            if (ID.equals(name)) {
+                id = value;
+            } else if (TYPE.equals(name)) {
+                type = value;
+            } else if (ACTION.equals(name)) {
+                action = value;
+            } else {
+                params.put(name, value);
+            }
+        }
+        reader.endObject();
+        if (id == null || type == null || action == null) {
+            throw new IOException("Operation without id, type or action");
+        }
+        return new UploadOperation(id, type, action, params);
+    }
+
+    private static void writeFrames(OutputStream out, List<UploadOperation> batch) throws IOException {
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.write(VERSION);
+        writeVarint(out, batch.size());
+        Map<String, Integer> dictionary = new HashMap<>();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64);
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            UploadOperation operation = batch.get(i);
+            frame.reset();
+            writeString(frame, operation.getId(), null);
+            writeString(frame, operation.getType(), dictionary);
+            writeString(frame, operation.getAction(), dictionary);
+            Map<String, String> params = operation.getParams();
+            writeVarint(frame, params.size());
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                writeString(frame, param.getKey(), dictionary);
+                writeString(frame, param.getValue(), dictionary);
+            }
+            writeVarint(out, frame.size());
+            frame.writeTo(out);
+        }
+    }
+
+    private static List<UploadOperation> readFrames(InputStream in) throws IOException {
+        if (in.read() != MAGIC_0 || in.read() != MAGIC_1) {
+            throw new IOException("Not an operations batch");
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported operations batch version " + version);
+        }
+        int count = readVarint(in);
+        List<UploadOperation> batch = new ArrayList<>(Math.min(count, 1024));
+        List<String> dictionary = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int length = readVarint(in);
+            byte[] frame = readFully(in, length);
+            FrameReader reader = new FrameReader(frame);
+            String id = reader.readString(null);
+            String type = reader.readString(dictionary);
+            String action = reader.readString(dictionary);
+            int paramCount = reader.readVarint();
+            Map<String, String> params = new LinkedHashMap<>(Math.max(4, paramCount * 2));
+            for (int p = 0; p < paramCount; p++) {
+                params.put(reader.readString(dictionary), reader.readString(dictionary));
+            }
+            if (reader.position != frame.length) {
+                throw new IOException("Frame " + i + " has " + (frame.length - reader.position) + " trailing bytes");
+            }
+            batch.add(new UploadOperation(id, type, action, params));
+        }
+        return batch;
+    }
+
+    private static void writeString(OutputStream out, String value, Map<String, Integer> dictionary)
+            throws IOException {
+        if (dictionary != null) {
+            Integer index = dictionary.get(value);
+            if (index != null) {
+                writeVarint(out, index << 1 | 1);
+                return;
+            }
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, utf8.length << 1);
+        out.write(utf8);
+        if (dictionary != null && isInterned(utf8.length, dictionary.size())) {
+            dictionary.put(value, dictionary.size());
+        }
+    }
+
+    private static boolean isInterned(int length, int dictionarySize) {
+        return length <= MAX_INTERNED_LENGTH && dictionarySize < MAX_DICTIONARY_SIZE;
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated operations batch");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative frame length");
+        }
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new IOException("Truncated operations batch");
+            }
+            read += n;
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the strings of a single frame, so a bad length cannot run into the next one.
+     */
+    private static final class FrameReader {
+
+        private final byte[] frame;
+        private int position;
+
+        FrameReader(byte[] frame) {
+            this.frame = frame;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                if (position >= frame.length) {
+                    throw new IOException("Truncated frame");
+                }
+                int b = frame[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        String readString(List<String> dictionary) throws IOException {
+            int tag = readVarint();
+            if ((tag & 1) != 0) {
+                int index = tag >>> 1;
+                if (dictionary == null || index >= dictionary.size()) {
+                    throw new IOException("Unknown dictionary reference " + index);
+                }
+                return dictionary.get(index);
+            }
+            int length = tag >>> 1;
+            if (length > frame.length - position) {
+                throw new IOException("Truncated frame");
+            }
+            String value = new String(frame, position, length, StandardCharsets.UTF_8);
+            position += length;
+            if (dictionary != null && isInterned(length, dictionary.size())) {
+                dictionary.add(value);
+            }
+            return value;
+        }
+    }
+}
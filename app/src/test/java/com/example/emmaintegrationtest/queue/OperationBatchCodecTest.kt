@@ -0,0 +1,111 @@
+package com.example.emmaintegrationtest.queue
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.IOException
+import java.util.UUID
+import kotlin.random.Random
+
+/**
+ * Pruebas del [OperationBatchCodec] con una mezcla de operaciones parecida a la real.
+ *
+ * [mix] imita el tráfico de la aplicación: sobre todo eventos con su token y algún parámetro, y
+ * consultas de anuncios nativos y cupones, todas con identificadores UUID como los de las capturas.
+ */
+class OperationBatchCodecTest {
+
+    private fun mix(size: Int, seed: Int = 1): List<UploadOperation> {
+        val random = Random(seed)
+        val tokens = List(12) { UUID(random.nextLong(), random.nextLong()).toString().replace("-", "") }
+        return List(size) {
+            val id = UUID(random.nextLong(), random.nextLong()).toString()
+            when (random.nextInt(10)) {
+                in 0..6 -> UploadOperation(
+                    id, "event", "none", mapOf(
+                        "token" to tokens[random.nextInt(tokens.size)],
+                        "CATEGORY" to listOf("cart", "home", "profile")[random.nextInt(3)],
+                        "POSITION" to random.nextInt(20).toString(),
+                    )
+                )
+                in 7..8 -> UploadOperation(
+                    id, "native_ad", "check",
+                    mapOf("batch" to random.nextBoolean().toString(), "template_id" to "plantilla-nativead-android"),
+                )
+                else -> UploadOperation(id, "coupon", "check", null)
+            }
+        }
+    }
+
+    @Test
+    fun roundTripsEveryEncoding() {
+        val batch = mix(300) + UploadOperation("ü-1", "event", "none", mapOf("NAME" to "Cupón ñ €", "EMPTY" to ""))
+
+        UploadEncoding.values().forEach { encoding ->
+            assertEquals(encoding.name, batch, OperationBatchCodec.decode(OperationBatchCodec.encode(batch, encoding), encoding))
+        }
+        assertEquals(emptyList<UploadOperation>(), OperationBatchCodec.decode(
+            OperationBatchCodec.encode(emptyList(), UploadEncoding.FRAMED), UploadEncoding.FRAMED))
+    }
+
+    @Test
+    fun compactEncodingsShrinkRealisticBatches() {
+        listOf(10, 100, 500).forEach { size ->
+            val batch = mix(size)
+            val bytes = UploadEncoding.values().associateWith { OperationBatchCodec.encode(batch, it).size }
+
+            assertTrue(bytes.toString(), 3 * bytes.getValue(UploadEncoding.FRAMED) < 2 * bytes.getValue(UploadEncoding.JSON))
+            assertTrue(bytes.toString(), bytes.getValue(UploadEncoding.JSON_GZIP) < bytes.getValue(UploadEncoding.JSON) / 2)
+            assertTrue(bytes.toString(), bytes.getValue(UploadEncoding.FRAMED_GZIP) < bytes.getValue(UploadEncoding.JSON_GZIP))
+        }
+    }
+
+    @Test
+    fun dictionaryStopsGrowingAtItsLimit() {
+        // Valores cortos y todos distintos: llenan el diccionario y el resto se escribe en línea
+        val batch = List(OperationBatchCodec.MAX_DICTIONARY_SIZE + 500) {
+            UploadOperation(it.toString(), "event", "none", mapOf("POSITION" to "p$it"))
+        }
+
+        assertEquals(batch, OperationBatchCodec.decode(OperationBatchCodec.encode(batch, UploadEncoding.FRAMED), UploadEncoding.FRAMED))
+    }
+
+    @Test
+    fun headersSelectTheEncoding() {
+        UploadEncoding.values().forEach { encoding ->
+            assertEquals(encoding, UploadEncoding.of(encoding.contentType, encoding.contentEncoding))
+        }
+        assertEquals(UploadEncoding.JSON, UploadEncoding.of(null, null))
+        assertEquals(UploadEncoding.JSON, UploadEncoding.of("application/json; charset=utf-8", "identity"))
+        assertEquals(UploadEncoding.FRAMED_GZIP, UploadEncoding.of(UploadEncoding.FRAMED_CONTENT_TYPE, "GZIP"))
+        assertNull(UploadEncoding.of("text/plain", null))
+        assertNull(UploadEncoding.of(UploadEncoding.JSON_CONTENT_TYPE, "zstd"))
+    }
+
+    @Test
+    fun rejectsDamagedBatches() {
+        val framed = OperationBatchCodec.encode(mix(20), UploadEncoding.FRAMED)
+        val damaged = listOf(
+            framed.copyOf(framed.size - 3),
+            framed.copyOf().apply { this[0] = 'X'.code.toByte() },
+            framed.copyOf().apply { this[2] = 9 },
+            // La longitud del primer marco deja de coincidir con su contenido
+            framed.copyOf().apply { this[4] = (this[4] + 1).toByte() },
+        )
+
+        damaged.forEach { body ->
+            try {
+                OperationBatchCodec.decode(body, UploadEncoding.FRAMED)
+                fail("Se aceptó un lote dañado")
+            } catch (expected: IOException) {
+            }
+        }
+        try {
+            OperationBatchCodec.decode("""{"operations":[{"id":"1"}]}""".toByteArray(), UploadEncoding.JSON)
+            fail("Se aceptó una operación sin tipo")
+        } catch (expected: IOException) {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.emmaintegrationtest.queue
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.Collections
+
+/**
+ * Pruebas del [OperationJournal] y el [JournalFlusher] con un fichero temporal y una red simulada.
+ */
+class OperationJournalTest {
+
+    /**
+     * Red simulada que guarda los registros recibidos y puede fallar a demanda.
+     */
+    private class FakeNetworkSink : JournalFlusher.Sink {
+        val received: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        @Volatile var failing = false
+
+        override fun send(batch: MutableList<ByteArray>): Boolean {
+            if (failing) return false
+            batch.forEach { received.add(String(it)) }
+            return true
+        }
+    }
+
+    private lateinit var file: File
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("journal", ".bin")
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun open(size: Int = 4096) = OperationJournal.open(file, size)
+
+    @Test
+    fun recordsSurviveReopen() {
+        open().use { journal ->
+            repeat(3) { assertTrue(journal.append("event-$it".toByteArray())) }
+            journal.acknowledge(1)
+        }
+
+        open().use { journal ->
+            assertEquals(2, journal.size())
+            val records = journal.peek(10).map { String(it) }
+            assertEquals(listOf("event-1", "event-2"), records)
+        }
+    }
+
+    @Test
+    fun truncatesAtCorruptedRecord() {
+        open().use { journal ->
+            journal.append("order-1".toByteArray())
+            journal.append("order-2".toByteArray())
+            journal.append("order-3".toByteArray())
+        }
+        // Cabecera (16) + primer registro (8 + 7): se corrompe un byte del segundo payload
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(16L + 15 + 8)
+            raf.write('X'.code)
+        }
+
+        open().use { journal ->
+            assertEquals(1, journal.size())
+            assertArrayEquals("order-1".toByteArray(), journal.peek(10).single())
+            assertTrue(journal.append("order-4".toByteArray()))
+            assertEquals(listOf("order-1", "order-4"), journal.peek(10).map { String(it) })
+        }
+    }
+
+    @Test
+    fun flushesOnlyWhenOnline() {
+        open().use { journal ->
+            val sink = FakeNetworkSink()
+            val flusher = JournalFlusher(journal, sink, 2)
+            repeat(5) { journal.append("impression-$it".toByteArray()) }
+
+            flusher.requestFlush()
+            assertEquals(0, flusher.flush())
+            assertEquals(5, journal.size())
+
+            flusher.setOnline(true)
+            assertTrue(awaitEmpty(journal))
+            assertEquals((0 until 5).map { "impression-$it" }, sink.received)
+            flusher.shutdown()
+        }
+    }
+
+    @Test
+    fun keepsRecordsWhenSendFails() {
+        open().use { journal ->
+            val sink = FakeNetworkSink()
+            sink.failing = true
+            val flusher = JournalFlusher(journal, sink, 2)
+            repeat(5) { journal.append("event-$it".toByteArray()) }
+
+            flusher.setOnline(true)
+            assertEquals(0, flusher.flush())
+            assertEquals(5, journal.size())
+
+            sink.failing = false
+            flusher.requestFlush()
+            assertTrue(awaitEmpty(journal))
+            assertEquals((0 until 5).map { "event-$it" }, sink.received)
+            flusher.shutdown()
+        }
+    }
+
+    @Test
+    fun adaptiveFlusherRetriesAfterBackoff() {
+        open().use { journal ->
+            val sink = FakeNetworkSink().apply { failing = true }
+            val scheduler = AdaptiveFlushScheduler(50, 10, 1000, 4, java.util.Random(1))
+            val flusher = JournalFlusher(journal, sink, scheduler)
+            flusher.setOnline(true)
+
+            repeat(10) {
+                journal.append("event-$it".toByteArray())
+                flusher.requestFlush()
+            }
+            Thread.sleep(100)
+            assertEquals(10, journal.size())
+            assertTrue(scheduler.failures() > 0)
+
+            // La siguiente reintentona llega sola, sin nuevas escrituras
+            sink.failing = false
+            assertTrue(awaitEmpty(journal))
+            assertEquals((0 until 10).map { "event-$it" }, sink.received)
+            assertEquals(0, scheduler.failures())
+            flusher.shutdown()
+        }
+    }
+
+    @Test
+    fun compactsWhenFull() {
+        open(64).use { journal ->
+            // Cada registro ocupa 8 + 8 bytes: caben 3 después de la cabecera
+            repeat(3) { assertTrue(journal.append("event-0$it".toByteArray())) }
+            assertFalse(journal.append("event-03".toByteArray()))
+
+            journal.acknowledge(2)
+            assertTrue(journal.append("event-03".toByteArray()))
+            assertEquals(listOf("event-02", "event-03"), journal.peek(10).map { String(it) })
+        }
+        open(64).use { journal ->
+            assertEquals(listOf("event-02", "event-03"), journal.peek(10).map { String(it) })
+        }
+    }
+
+    @Test
+    fun finishesCompactionInterruptedByProcessDeath() {
+        open(64).use { journal ->
+            repeat(3) { journal.append("event-0$it".toByteArray()) }
+            journal.acknowledge(2)
+        }
+        // Muerte del proceso a mitad de mover el último registro: la copia aparte ya existe y
+        // la cabecera apunta al principio con la escritura todavía al final
+        val live = ByteArray(16)
+        RandomAccessFile(file, "rw").use { raf ->
+            raf.seek(16L + 32)
+            raf.readFully(live)
+            raf.seek(16)
+            raf.write(live, 0, 10)
+            raf.seek(4)
+            raf.writeInt(16)
+        }
+        OperationJournal.compactionFile(file).writeBytes(live)
+
+        open(64).use { journal ->
+            assertEquals(listOf("event-02"), journal.peek(10).map { String(it) })
+            assertTrue(journal.append("event-03".toByteArray()))
+        }
+        assertFalse(OperationJournal.compactionFile(file).exists())
+        open(64).use { journal ->
+            assertEquals(listOf("event-02", "event-03"), journal.peek(10).map { String(it) })
+        }
+    }
+
+    @Test
+    fun drainsWhileOffline() {
+        open().use { journal ->
+            val sink = FakeNetworkSink()
+            val flusher = JournalFlusher(journal, sink, 2)
+            repeat(5) { journal.append("click-$it".toByteArray()) }
+
+            assertEquals(0, flusher.flush())
+            assertEquals(5, flusher.drain())
+            assertEquals(0, journal.size())
+            assertEquals((0 until 5).map { "click-$it" }, sink.received)
+            flusher.shutdown()
+        }
+    }
+
+    private fun awaitEmpty(journal: OperationJournal, timeoutMillis: Long = 5000): Boolean {
+        val deadline = System.currentTimeMillis() + timeoutMillis
+        while (journal.size() > 0) {
+            if (System.currentTimeMillis() > deadline) return false
+            Thread.sleep(1)
+        }
+        return true
+    }
+}
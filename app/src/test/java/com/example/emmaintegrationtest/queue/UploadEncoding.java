@@ -0,0 +1,81 @@
+package com.example.emmaintegrationtest.queue;
+
+/**
+ * Wire format of a batch of operations sent in a single upload.
+ * <p>
+ * The format is announced with the <code>Content-Type</code> and
+ * <code>Content-Encoding</code> headers of the request, so a server that only knows
+ * {@link #JSON} can reject the others and the client can fall back.
+ * <p>
+ * The EMMA SDK sends its own requests, so the app has no upload to apply these formats
+ * to. They live with the tests: only the mock server and client used in the load tests
+ * and the benchmarks speak them, and none of it ships in the APK.
+ */
+public enum UploadEncoding {
+
+    /** The <code>{"operations":[...]}</code> envelope, as in the log captures. */
+    JSON(false, false),
+    /** The JSON envelope compressed with gzip. */
+    JSON_GZIP(false, true),
+    /** Length-prefixed binary frames, see {@link OperationBatchCodec}. */
+    FRAMED(true, false),
+    /** Binary frames compressed with gzip. */
+    FRAMED_GZIP(true, true);
+
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String FRAMED_CONTENT_TYPE = "application/vnd.emma.operations";
+    public static final String GZIP = "gzip";
+
+    private final boolean framed;
+    private final boolean gzip;
+
+    UploadEncoding(boolean framed, boolean gzip) {
+        this.framed = framed;
+        this.gzip = gzip;
+    }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public String getContentType() {
+        return framed ? FRAMED_CONTENT_TYPE : JSON_CONTENT_TYPE;
+    }
+
+    /**
+     * @return The <code>Content-Encoding</code> header, or <code>null</code> if the body is not compressed.
+     */
+    public String getContentEncoding() {
+        return gzip ? GZIP : null;
+    }
+
+    /**
+     * Resolves the encoding of a received batch from its headers.
+     *
+     * @param contentType     The <code>Content-Type</code> header, parameters are ignored.
+     * @param contentEncoding The <code>Content-Encoding</code> header, or <code>null</code>.
+     * @return The encoding, or <code>null</code> if the headers name an unsupported format.
+     */
+    public static UploadEncoding of(String contentType, String contentEncoding) {
+        boolean gzip;
+        if (contentEncoding == null || contentEncoding.isEmpty() || "identity".equalsIgnoreCase(contentEncoding)) {
+            gzip = false;
+        } else if (GZIP.equalsIgnoreCase(contentEncoding)) {
+            gzip = true;
+        } else {
+            return null;
+        }
+        String mediaType = contentType == null ? JSON_CONTENT_TYPE : contentType.split(";", 2)[0].trim();
+        if (FRAMED_CONTENT_TYPE.equalsIgnoreCase(mediaType)) {
+            return gzip ? FRAMED_GZIP : FRAMED;
+        }
+        if (JSON_CONTENT_TYPE.equalsIgnoreCase(mediaType)) {
+            return gzip ? JSON_GZIP : JSON;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.emmaintegrationtest.queue;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One operation of an upload batch: the <code>id</code>, <code>type</code> and
+ * <code>action</code> of the envelope plus its string parameters.
+ */
+public final class UploadOperation {
+
+    private final String id;
+    private final String type;
+    private final String action;
+    private final Map<String, String> params;
+
+    /**
+     * Class constructor.
+     *
+     * @param id     Operation identifier, unique within the batch.
+     * @param type   Operation type, for example <code>event</code>.
+     * @param action Operation action, for example <code>none</code> or <code>check</code>.
+     * @param params Parameters in insertion order, or <code>null</code>. Entries with a
+     *               <code>null</code> name or value are dropped.
+     */
+    public UploadOperation(String id, String type, String action, Map<String, String> params) {
+        if (id == null || type == null || action == null) {
+            throw new IllegalArgumentException("Operation id, type and action are required");
+        }
+        this.id = id;
+        this.type = type;
+        this.action = action;
+        if (params == null || params.isEmpty()) {
+            this.params = Collections.emptyMap();
+            return;
+        }
+        Map<String, String> copy = new LinkedHashMap<>(params.size() * 2);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getKey() != null && param.getValue() != null) {
+                copy.put(param.getKey(), param.getValue());
+            }
+        }
+        this.params = Collections.unmodifiableMap(copy);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UploadOperation)) {
+            return false;
+        }
+        UploadOperation that = (UploadOperation) o;
+        return id.equals(that.id) && type.equals(that.type) && action.equals(that.action)
+                && params.equals(that.params);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = id.hashCode();
+        result = 31 * result + type.hashCode();
+        result = 31 * result + action.hashCode();
+        return 31 * result + params.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + "/" + action + " " + id + " " + params;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.emmaintegrationtest.startup
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+
+/**
+ * Pruebas del [ConfigurationSnapshot] sobre un fichero temporal.
+ */
+class ConfigurationSnapshotTest {
+
+    private lateinit var file: File
+
+    private val snapshot = ConfigurationSnapshot(
+        "c2Vzc2lvbjprZXk=", "session", "key",
+        linkedMapOf("urlBase" to "https://api.emma.io/", "queueTime" to "10", "testInstallReferrer" to null),
+    )
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("config", ".snapshot")
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun readsWhatWasWritten() {
+        assertNull(ConfigurationSnapshot.read(file))
+
+        assertTrue(snapshot.write(file))
+        val read = ConfigurationSnapshot.read(file)!!
+
+        assertEquals(snapshot, read)
+        assertEquals(snapshot.settings, read.settings)
+        assertEquals(listOf("urlBase", "queueTime", "testInstallReferrer"), read.settings.keys.toList())
+        assertTrue(read.matches("c2Vzc2lvbjprZXk="))
+        assertFalse(read.matches("b3RyYTpjbGF2ZQ=="))
+        assertFalse(File(file.path + ".tmp").exists())
+    }
+
+    @Test
+    fun changedSettingsAreNotEqual() {
+        val changed = ConfigurationSnapshot(
+            snapshot.sessionKey, snapshot.apiUser, snapshot.apiKey, snapshot.settings + ("queueTime" to "5"),
+        )
+
+        assertNotEquals(snapshot, changed)
+        assertEquals(snapshot, ConfigurationSnapshot(snapshot.sessionKey, "session", "key", LinkedHashMap(snapshot.settings)))
+    }
+
+    @Test
+    fun ignoresDamagedOrForeignFiles() {
+        snapshot.write(file)
+        val size = file.length()
+
+        RandomAccessFile(file, "rw").use {
+            it.seek(size - 1)
+            val last = it.read()
+            it.seek(size - 1)
+            it.write(last.inv())
+        }
+        assertNull(ConfigurationSnapshot.read(file))
+
+        // Otra versión del formato se descarta aunque el contenido esté bien
+        snapshot.write(file)
+        RandomAccessFile(file, "rw").use { it.seek(4); it.writeInt(ConfigurationSnapshot.VERSION + 1) }
+        assertNull(ConfigurationSnapshot.read(file))
+
+        file.writeText("not a snapshot")
+        assertNull(ConfigurationSnapshot.read(file))
+    }
+
+    @Test
+    fun invalidateDeletesTheFile() {
+        snapshot.write(file)
+
+        ConfigurationSnapshot.invalidate(file)
+
+        assertFalse(file.exists())
+        assertNull(ConfigurationSnapshot.read(file))
+        ConfigurationSnapshot.invalidate(null)
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.emmaintegrationtest.startup
+
+import io.emma.android.enums.CommunicationTypes
+import io.emma.android.enums.EMMAPushType
+import io.emma.android.interfaces.EMMACouponsInterface
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMAEventRequest
+import io.emma.android.model.EMMANativeAd
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.mock
+import java.io.IOException
+
+/**
+ * Pruebas de ida y vuelta del [InvocationCodec].
+ */
+class InvocationCodecTest {
+
+    private fun roundTrip(call: PendingCall, vararg args: Any?): PendingInvocation {
+        val data = InvocationCodec.encode(PendingInvocation(call, *args))!!
+        return InvocationCodec.decode(data)
+    }
+
+    @Test
+    fun keepsStringsFloatsAndNulls() {
+        val decoded = roundTrip(PendingCall.START_ORDER, "pedido-1", null, 29.95f, "CUPON", null)
+
+        assertEquals(PendingCall.START_ORDER, decoded.call)
+        assertArrayEquals(arrayOf("pedido-1", null, 29.95f, "CUPON", null), decoded.args)
+    }
+
+    @Test
+    fun keepsBooleansAndEnums() {
+        assertArrayEquals(arrayOf<Any?>("token", EMMAPushType.FCM), roundTrip(PendingCall.ADD_PUSH_TOKEN, "token", EMMAPushType.FCM).args)
+        assertArrayEquals(arrayOf<Any?>(null, true), roundTrip(PendingCall.ON_NEW_NOTIFICATION, null, true).args)
+    }
+
+    @Test
+    fun keepsStringMapsWithNullValues() {
+        val extras = linkedMapOf("plan" to "premium", "referido" to null)
+
+        val decoded = roundTrip(PendingCall.LOGIN_USER, "usuario", "correo@example.com", extras)
+
+        assertEquals(extras, decoded.args[2])
+    }
+
+    @Test
+    fun keepsSerializableArguments() {
+        val values = arrayListOf("a", "b")
+
+        assertEquals(values, roundTrip(PendingCall.TRACK_EVENT, values).args[0])
+    }
+
+    @Test
+    fun keepsSdkModelObjects() {
+        // Eventos e impresiones son lo que más pasa por el diario: los modelos del SDK tienen que codificarse
+        val event = InvocationCodec.encode(PendingInvocation(PendingCall.TRACK_EVENT, EMMAEventRequest("compra")))
+        val impression = InvocationCodec.encode(
+            PendingInvocation(PendingCall.SEND_IN_APP_IMPRESSION, CommunicationTypes.NATIVE_AD, EMMANativeAd())
+        )
+
+        assertTrue(InvocationCodec.decode(event!!).args[0] is EMMAEventRequest)
+        val args = InvocationCodec.decode(impression!!).args
+        assertEquals(CommunicationTypes.NATIVE_AD, args[0])
+        assertTrue(args[1] is EMMACampaign)
+    }
+
+    @Test
+    fun cannotEncodeLiveObjects() {
+        val callback = mock(EMMACouponsInterface::class.java)
+
+        assertNull(InvocationCodec.encode(PendingInvocation(PendingCall.ADD_COUPONS_CALLBACK, callback)))
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsUnknownCalls() {
+        val data = InvocationCodec.encode(PendingInvocation(PendingCall.TRACK_ORDER))!!
+        // El nombre de la llamada va primero, con su longitud en los dos primeros bytes
+        data[2] = 'X'.code.toByte()
+
+        InvocationCodec.decode(data)
+    }
+
+    @Test(expected = IOException::class)
+    fun rejectsUnknownArgumentTags() {
+        val data = InvocationCodec.encode(PendingInvocation(PendingCall.CANCEL_ORDER, "pedido-1"))!!
+        data[2 + PendingCall.CANCEL_ORDER.name.length + 1] = 99
+
+        InvocationCodec.decode(data)
+    }
+}
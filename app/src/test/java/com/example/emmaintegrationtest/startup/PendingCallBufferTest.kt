@@ -0,0 +1,127 @@
+package com.example.emmaintegrationtest.startup
+
+import io.emma.android.controllers.EMMAController
+import io.emma.android.interfaces.EMMACouponsInterface
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Answers
+import org.mockito.Mockito.inOrder
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.withSettings
+import java.io.File
+
+/**
+ * Pruebas del [PendingCallBuffer] con un controlador simulado y un fichero de desbordamiento temporal.
+ */
+class PendingCallBufferTest {
+
+    private lateinit var file: File
+    private val controller = mock(EMMAController::class.java, withSettings().defaultAnswer(Answers.RETURNS_DEEP_STUBS))
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("pending", ".calls")
+        file.delete()
+    }
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    private fun cancel(order: Int) = PendingInvocation(PendingCall.CANCEL_ORDER, "pedido-$order")
+
+    private fun verifyCancelled(orders: IntRange) {
+        val orderController = controller.orderController
+        val inOrder = inOrder(orderController)
+        for (order in orders) {
+            inOrder.verify(orderController).cancelOrder("pedido-$order")
+        }
+        inOrder.verifyNoMoreInteractions()
+    }
+
+    @Test
+    fun replaysMemoryThenOverflowInCallOrder() {
+        val buffer = PendingCallBuffer(2, file)
+
+        (1..5).forEach { assertTrue(buffer.add(cancel(it))) }
+
+        assertEquals(5, buffer.size())
+        assertEquals(5, buffer.replay(controller))
+        verifyCancelled(1..5)
+        assertEquals(0, buffer.size())
+        assertFalse(file.exists())
+        with(buffer.metrics()) {
+            assertEquals(5, buffered)
+            assertEquals(5, replayed)
+            assertEquals(3, spilled)
+            assertEquals(0, dropped)
+        }
+    }
+
+    @Test
+    fun dropsBeyondCapacityWithoutOverflowFile() {
+        val buffer = PendingCallBuffer(2, null)
+
+        assertTrue(buffer.add(cancel(1)))
+        assertTrue(buffer.add(cancel(2)))
+        assertFalse(buffer.add(cancel(3)))
+
+        assertEquals(2, buffer.replay(controller))
+        verifyCancelled(1..2)
+        assertEquals(1, buffer.metrics().dropped)
+    }
+
+    @Test
+    fun dropsLiveObjectsThatCannotBeSpilled() {
+        val buffer = PendingCallBuffer(1, file)
+        buffer.add(cancel(1))
+
+        assertFalse(buffer.add(PendingInvocation(PendingCall.ADD_COUPONS_CALLBACK, mock(EMMACouponsInterface::class.java))))
+        assertEquals(1, buffer.metrics().dropped)
+    }
+
+    @Test
+    fun recoversOverflowFileFromPreviousProcess() {
+        val previous = PendingCallBuffer(0, file)
+        (1..3).forEach { previous.add(cancel(it)) }
+        // El proceso muere sin llegar a reproducirlas
+
+        val buffer = PendingCallBuffer(4, file)
+        assertEquals(3, buffer.size())
+        buffer.add(cancel(4))
+
+        assertEquals(4, buffer.replay(controller))
+        verifyCancelled(1..4)
+    }
+
+    @Test
+    fun cutsPartiallyWrittenLastRecord() {
+        val previous = PendingCallBuffer(0, file)
+        (1..2).forEach { previous.add(cancel(it)) }
+        file.appendBytes(byteArrayOf(0, 0, 0, 40, 1, 2))
+
+        val buffer = PendingCallBuffer(4, file)
+        assertEquals(2, buffer.size())
+        buffer.add(cancel(3))
+
+        assertEquals(3, buffer.replay(controller))
+        verifyCancelled(1..3)
+        assertEquals(0, buffer.metrics().dropped)
+    }
+
+    @Test
+    fun countsFailedReplaysAsDropped() {
+        val buffer = PendingCallBuffer(4, null)
+        buffer.add(PendingInvocation(PendingCall.CANCEL_ORDER))
+        buffer.add(cancel(1))
+
+        assertEquals(1, buffer.replay(controller))
+        verifyCancelled(1..1)
+        assertEquals(1, buffer.metrics().dropped)
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.emmaintegrationtest.startup
+
+import android.content.Intent
+import com.example.emmaintegrationtest.EMMA
+import com.example.emmaintegrationtest.metrics.FacadeMethod
+import com.example.emmaintegrationtest.metrics.StripedFacadeMetrics
+import com.example.emmaintegrationtest.push.PushTokenRegistry
+import com.example.emmaintegrationtest.push.RichPushPrefetcher
+import com.example.emmaintegrationtest.tracking.CampaignEventCoalescer
+import com.example.emmaintegrationtest.tracking.OrderBuilder
+import io.emma.android.controllers.EMMAConfig
+import io.emma.android.controllers.EMMAController
+import io.emma.android.enums.CommunicationTypes
+import io.emma.android.enums.EMMAPushType
+import io.emma.android.model.EMMACampaign
+import io.emma.android.model.EMMAEventRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Answers
+import org.mockito.MockedConstruction
+import org.mockito.MockedStatic
+import org.mockito.Mockito.any
+import org.mockito.Mockito.anyInt
+import org.mockito.Mockito.doAnswer
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.eq
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.mockConstruction
+import org.mockito.Mockito.mockStatic
+import org.mockito.Mockito.never
+import org.mockito.Mockito.timeout
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import org.mockito.Mockito.withSettings
+import java.io.File
+import java.nio.file.Files
+import java.util.IdentityHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pruebas de `EMMA.startSessionAsync` con un ejecutor que corre las etapas en el hilo que arranca.
+ *
+ * El controlador se simula al construirlo y `EMMAConfig.saveConfig` no hace nada, así que no hace
+ * falta un `Context`.
+ */
+class StartSessionAsyncTest {
+
+    private val calls = ArrayList<String>()
+    private val names = IdentityHashMap<EMMAEventRequest, String>()
+    private val direct = Executor { it.run() }
+    private lateinit var emma: EMMA
+    private lateinit var config: MockedStatic<EMMAConfig>
+    private lateinit var controllers: MockedConstruction<EMMAController>
+
+    @Before
+    fun setUp() {
+        emma = EMMA::class.java.getDeclaredConstructor().apply { isAccessible = true }.newInstance()
+        config = mockStatic(EMMAConfig::class.java)
+        controllers = mockConstruction(
+            EMMAController::class.java,
+            withSettings().defaultAnswer(Answers.RETURNS_DEEP_STUBS)
+        ) { controller, _ ->
+            calls += "create"
+            // Los sub-controladores se leen antes de empezar a simular sus métodos
+            val referrer = controller.referrerController
+            val attribution = controller.installAttributionController
+            val events = controller.eventController
+            doAnswer {
+                calls += "startSession"
+                // Llamada hecha mientras el controlador aún no está publicado
+                emma.trackEvent(event("during"))
+                null
+            }.`when`(controller).startSession(any())
+            doAnswer { calls += "referrer"; null }
+                .`when`(referrer).startInstallReferrerConnection()
+            doAnswer { calls += "attribution"; null }
+                .`when`(attribution).getInstallAttributionInfoGlobal(any(), any())
+            doAnswer { calls += "event:" + names[it.getArgument(0)]; null }
+                .`when`(events).trackEvent(any())
+        }
+    }
+
+    @After
+    fun tearDown() {
+        controllers.close()
+        config.close()
+    }
+
+    private fun event(name: String) = EMMAEventRequest(name).also { names[it] = name }
+
+    private fun configuration() = EMMA.Configuration.Builder(null).setSessionKey("key").build()
+
+    @Test
+    fun runsStagesInOrderAndReplaysDeferredCalls() {
+        emma.holdCallsBeforeStart(16, null)
+        emma.trackEvent(event("before"))
+
+        val report = emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+
+        assertNotNull(report)
+        assertEquals(
+            listOf("create", "startSession", "referrer", "attribution", "event:before", "event:during"),
+            calls
+        )
+        assertTrue(report.getTotalTime(TimeUnit.NANOSECONDS) > 0)
+        for (stage in StartupReport.Stage.values()) {
+            assertTrue("$stage", report.getStageTime(stage, TimeUnit.NANOSECONDS) > 0)
+        }
+        assertEquals(2L, emma.pendingCallMetrics.replayed)
+    }
+
+    @Test
+    fun clearsStartupFutureWhenStagesRunInline() {
+        emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+
+        assertNull(startupFuture())
+        assertTrue(emma.isSdkStarted)
+        // Ya arrancado: no devuelve el futuro anterior
+        assertNull(emma.startSessionAsync(configuration(), null, direct).get())
+    }
+
+    @Test
+    fun callsAfterStartGoStraightToController() {
+        emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+        calls.clear()
+
+        emma.trackEvent(event("after"))
+
+        assertEquals(listOf("event:after"), calls)
+        assertSame(controllers.constructed().single(), controller())
+    }
+
+    @Test
+    fun measuresCallsThatAreNeverHeld() {
+        val metrics = StripedFacadeMetrics()
+        emma.setMetrics(metrics)
+
+        emma.cancelInAppMessage("1")
+        emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+        emma.cancelInAppMessage("1")
+        emma.trackOrder(OrderBuilder.obtain("A4UE312").addProduct("1001", "Blue jeans", 1.0F, 10.0F))
+
+        val snapshot = metrics.snapshot()
+        assertEquals(2L, snapshot.get(FacadeMethod.CANCEL_IN_APP_MESSAGE).calls)
+        assertEquals(1L, snapshot.get(FacadeMethod.CANCEL_IN_APP_MESSAGE).dropped)
+        assertEquals(1L, snapshot.get(FacadeMethod.TRACK_BUILT_ORDER).calls)
+        assertEquals(1L, snapshot.get(FacadeMethod.TRACK_BUILT_ORDER).callLatency.count)
+    }
+
+    @Test
+    fun prefetchesRichPushWhenNotificationArrives() {
+        val directory = Files.createTempDirectory("rich-push").toFile()
+        try {
+            val configuration = EMMA.Configuration.Builder(null).setSessionKey("key")
+                .setPushPipeline(1, 4)
+                .setRichPushCache(directory, 1024 * 1024)
+                .build()
+            emma.startSessionAsync(configuration, null, direct).get(1, TimeUnit.SECONDS)
+            emma.richPushPrefetcher.shutdown()
+            val prefetcher = mock(RichPushPrefetcher::class.java)
+            EMMA::class.java.getDeclaredField("richPushPrefetcher").apply { isAccessible = true }.set(emma, prefetcher)
+            val intent = mock(Intent::class.java)
+            val push = controllers.constructed().single().pushController
+
+            emma.onNewNotification(intent, false)
+
+            verify(prefetcher, timeout(1000)).prefetch(intent)
+            verify(push, timeout(1000)).onNewNotification(intent, false)
+        } finally {
+            emma.reset()
+            directory.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun warmStartKeepsBaseUrlAndResetInvalidatesSnapshot() {
+        val file = File.createTempFile("config", ".snapshot").apply { delete() }
+        fun configuration() = EMMA.Configuration.Builder(null).setSessionKey("key")
+            .setWebServiceUrl("https://proxy.example.com/").setConfigurationSnapshot(file).build()
+        try {
+            emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+            assertTrue(file.exists())
+
+            // Nuevo proceso: la URL estática vuelve a su valor inicial
+            EMMAConfig.BASE_URL = null
+            val warm = EMMA::class.java.getDeclaredConstructor().apply { isAccessible = true }.newInstance()
+            warm.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+
+            config.verify({ EMMAConfig.saveConfig(any(), any()) }, times(1))
+            assertEquals("https://proxy.example.com/", EMMAConfig.BASE_URL)
+
+            warm.reset()
+            assertFalse(file.exists())
+        } finally {
+            EMMAConfig.BASE_URL = null
+            file.delete()
+        }
+    }
+
+    @Test
+    fun heldCallsGoThroughTheTokenRegistryAndTheCoalescer() {
+        val file = File.createTempFile("push", ".tokens").apply { delete() }
+        val campaign = mock(EMMACampaign::class.java).also { doReturn(7L).`when`(it).campaignID }
+        fun configuration() = EMMA.Configuration.Builder(null).setSessionKey("key")
+            .setPushTokenRegistry(file).setCampaignEventCoalescing(TimeUnit.HOURS.toMillis(1)).build()
+        fun launch(): EMMAController {
+            val emma = EMMA::class.java.getDeclaredConstructor().apply { isAccessible = true }.newInstance()
+            emma.holdCallsBeforeStart(16, null)
+            emma.addPushToken("token", EMMAPushType.FCM)
+            repeat(2) { emma.sendInAppImpression(CommunicationTypes.NATIVE_AD, campaign) }
+            emma.startSessionAsync(configuration(), null, direct).get(1, TimeUnit.SECONDS)
+            (field(emma, "pushTokenRegistry") as PushTokenRegistry).shutdown()
+            (field(emma, "campaignEventCoalescer") as CampaignEventCoalescer).shutdown()
+            return controllers.constructed().last()
+        }
+        try {
+            val first = launch()
+            verify(first.pushController).sendTokenToServer("token", EMMAPushType.FCM)
+            verify(first.campaignController, times(1)).sendImpression(anyInt(), eq(campaign))
+
+            // Nuevo proceso: el token ya enviado no se vuelve a subir
+            val second = launch()
+            verify(second.pushController, never()).sendTokenToServer(any(), any())
+        } finally {
+            file.delete()
+        }
+    }
+
+    private fun startupFuture(): Any? = field("startupFuture")
+
+    private fun controller(): Any? = field("emmaController")
+
+    private fun field(name: String): Any? = field(emma, name)
+
+    private fun field(emma: EMMA, name: String): Any? =
+        EMMA::class.java.getDeclaredField(name).apply { isAccessible = true }.get(emma)
+}
@@ -0,0 +1,113 @@
+package com.example.emmaintegrationtest.tracking
+
+import com.example.emmaintegrationtest.tracking.CampaignEventCoalescer.Kind
+import io.emma.android.enums.CommunicationTypes
+import io.emma.android.model.EMMACampaign
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito.doReturn
+import org.mockito.Mockito.mock
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+
+/**
+ * Pruebas del [CampaignEventCoalescer] con campañas simuladas.
+ */
+class CampaignEventCoalescerTest {
+
+    /**
+     * Destino que guarda cada lote como una lista de pares (tipo de evento, id de campaña).
+     */
+    private class RecordingSink : CampaignEventCoalescer.Sink {
+        val batches: MutableList<List<Pair<Kind, Long?>>> = Collections.synchronizedList(mutableListOf())
+
+        override fun dispatch(batch: CampaignEventCoalescer.Batch) {
+            batches.add((0 until batch.size()).map { batch.getKind(it) to batch.getCampaign(it).campaignID })
+        }
+    }
+
+    private fun campaign(id: Long?): EMMACampaign {
+        val campaign = mock(EMMACampaign::class.java)
+        doReturn(id).`when`(campaign).campaignID
+        return campaign
+    }
+
+    @Test
+    fun dropsDuplicatesWithinWindow() {
+        val sink = RecordingSink()
+        val coalescer = CampaignEventCoalescer(sink, TimeUnit.HOURS.toMillis(1))
+        val first = campaign(1)
+
+        repeat(10) { assertTrue(coalescer.offer(Kind.IMPRESSION, CommunicationTypes.NATIVE_AD, first)) }
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.NATIVE_AD, campaign(1))
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.NATIVE_AD, campaign(2))
+        coalescer.offer(Kind.CLICK, CommunicationTypes.NATIVE_AD, first)
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.COUPON, first)
+        coalescer.flush()
+
+        assertEquals(1, sink.batches.size)
+        assertEquals(
+            listOf(Kind.IMPRESSION to 1L, Kind.IMPRESSION to 2L, Kind.CLICK to 1L, Kind.IMPRESSION to 1L),
+            sink.batches[0]
+        )
+        assertEquals(10, coalescer.duplicates)
+        coalescer.shutdown()
+    }
+
+    @Test
+    fun forgetsKeysWhenWindowEnds() {
+        val sink = RecordingSink()
+        val coalescer = CampaignEventCoalescer(sink, 50)
+        val campaign = campaign(7)
+
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.BANNER, campaign)
+        val deadline = System.currentTimeMillis() + 5000
+        while (sink.batches.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5)
+        }
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.BANNER, campaign)
+        coalescer.shutdown()
+
+        assertEquals(2, sink.batches.sumOf { it.size })
+    }
+
+    @Test
+    fun campaignsWithoutIdAreNotCoalesced() {
+        val sink = RecordingSink()
+        val coalescer = CampaignEventCoalescer(sink, TimeUnit.HOURS.toMillis(1))
+        val campaign = campaign(null)
+
+        repeat(3) { coalescer.offer(Kind.DISMISSED_CLICK, CommunicationTypes.NATIVE_AD, campaign) }
+        coalescer.flush()
+
+        assertEquals(3, sink.batches.single().size)
+        coalescer.shutdown()
+    }
+
+    @Test
+    fun rejectsAfterShutdownAndFlushesPending() {
+        val sink = RecordingSink()
+        val coalescer = CampaignEventCoalescer(sink, TimeUnit.HOURS.toMillis(1))
+        coalescer.offer(Kind.IMPRESSION, CommunicationTypes.NATIVE_AD, campaign(1))
+
+        coalescer.shutdown()
+
+        assertEquals(1, sink.batches.single().size)
+        assertFalse(coalescer.offer(Kind.IMPRESSION, CommunicationTypes.NATIVE_AD, campaign(2)))
+    }
+
+    @Test
+    fun keysDoNotCollideAcrossKindsAndTypes() {
+        val keys = LongHashSet(16)
+        for (kind in Kind.values()) {
+            for (type in CommunicationTypes.values()) {
+                for (id in 0L..100L) {
+                    assertTrue(keys.add(CampaignEventCoalescer.key(kind, type, id)))
+                }
+            }
+        }
+        assertEquals(Kind.values().size * CommunicationTypes.values().size * 101, keys.size())
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.emmaintegrationtest.tracking
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Pruebas del [EventBatcher] contra un controlador simulado.
+ *
+ * La latencia y el rendimiento del encolado se miden en `EventBatcherBenchmark`, del módulo `benchmark`.
+ */
+class EventBatcherTest {
+
+    /**
+     * Controlador simulado que sólo cuenta los eventos y lotes recibidos.
+     */
+    private class StubEventController : EventBatcher.Sink<Int> {
+        val events = AtomicInteger()
+        val batches = AtomicInteger()
+        val maxBatch = AtomicInteger()
+
+        override fun dispatch(batch: MutableList<Int>) {
+            batches.incrementAndGet()
+            maxBatch.accumulateAndGet(batch.size, ::maxOf)
+            events.addAndGet(batch.size)
+        }
+
+        fun await(expected: Int, timeoutMillis: Long = 5000): Boolean {
+            val deadline = System.currentTimeMillis() + timeoutMillis
+            while (events.get() < expected) {
+                if (System.currentTimeMillis() > deadline) return false
+                Thread.sleep(1)
+            }
+            return true
+        }
+    }
+
+    @Test
+    fun flushesWhenBatchIsFull() {
+        val controller = StubEventController()
+        val batcher = EventBatcher(controller, 16, TimeUnit.HOURS.toMillis(1))
+
+        repeat(64) { assertTrue(batcher.offer(it)) }
+
+        assertTrue(controller.await(64))
+        assertEquals(16, controller.maxBatch.get())
+        batcher.shutdown()
+    }
+
+    @Test
+    fun flushesWhenQueueTimeElapses() {
+        val controller = StubEventController()
+        val batcher = EventBatcher(controller, 100, 50)
+
+        repeat(3) { batcher.offer(it) }
+
+        assertTrue(controller.await(3))
+        assertEquals(1, controller.batches.get())
+        batcher.shutdown()
+    }
+
+    @Test
+    fun keepsEnqueueOrder() {
+        val received = ArrayList<Int>()
+        val batcher = EventBatcher<Int>({ batch -> received.addAll(batch) }, 8, 10)
+
+        repeat(1000) { batcher.offer(it) }
+        batcher.flush()
+
+        assertEquals((0 until 1000).toList(), received)
+        batcher.shutdown()
+    }
+
+    @Test
+    fun drainsOnCallerWhenFull() {
+        val received = ArrayList<Int>()
+        val batcher = EventBatcher<Int>({ batch -> synchronized(received) { received.addAll(batch) } },
+            4, 4, TimeUnit.HOURS.toMillis(1))
+
+        repeat(100) { assertTrue(batcher.offer(it)) }
+        batcher.flush()
+
+        assertEquals((0 until 100).toList(), received)
+        batcher.shutdown()
+    }
+
+    @Test
+    fun rejectsWhenShutDown() {
+        val controller = StubEventController()
+        val batcher = EventBatcher(controller, 16, TimeUnit.HOURS.toMillis(1))
+
+        repeat(10) { batcher.offer(it) }
+        batcher.shutdown()
+
+        assertEquals(10, controller.events.get())
+        assertFalse(batcher.offer(0))
+    }
+
+    @Test
+    fun keepsEveryEventWithConcurrentProducers() {
+        val producers = 4
+        val perProducer = 50_000
+        val total = producers * perProducer
+        val controller = StubEventController()
+        val batcher = EventBatcher(controller, 1024, 256, 100)
+        val start = CountDownLatch(1)
+
+        val threads = (0 until producers).map {
+            Thread {
+                start.await()
+                for (i in 0 until perProducer) {
+                    assertTrue(batcher.offer(i))
+                }
+            }.apply { start() }
+        }
+
+        start.countDown()
+        threads.forEach { it.join() }
+        batcher.shutdown()
+
+        assertEquals(total, controller.events.get())
+        assertTrue(controller.maxBatch.get() <= 256)
+    }
+}
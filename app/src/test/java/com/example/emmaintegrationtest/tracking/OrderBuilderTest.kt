@@ -0,0 +1,71 @@
+package com.example.emmaintegrationtest.tracking
+
+import io.emma.android.EMMA
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.Mockito.inOrder
+import org.mockito.Mockito.mock
+
+/**
+ * Pruebas del [OrderBuilder]: crecimiento de los arrays, precio total, reutilización del pool y envío con la instancia del SDK.
+ */
+class OrderBuilderTest {
+
+    @Test
+    fun keepsProductsInOrderBeyondInitialCapacity() {
+        val order = OrderBuilder.obtain("1000012")
+        repeat(50) { order.addProduct("id-$it", "prod$it", 2.0F, 1.5F) }
+
+        assertEquals(50, order.productCount)
+        assertEquals("id-49", order.getProductId(49))
+        assertEquals(2.0F, order.getQuantity(49))
+        assertEquals(150.0F, order.totalPrice)
+        order.recycle()
+    }
+
+    @Test
+    fun explicitTotalPriceWins() {
+        val order = OrderBuilder.obtain("1000012").setTotalPrice(9.99F)
+        order.addProduct("1001", "prod1", 1.0F, 1.0F)
+
+        assertEquals(9.99F, order.totalPrice)
+        order.recycle()
+    }
+
+    @Test
+    fun recycledBuilderIsReusedEmpty() {
+        val extras = mapOf("CATEGORY" to "cart")
+        val first = OrderBuilder.obtain("1").setCustomerId("customer").setExtras(extras)
+        first.addProduct("1001", "prod1", 1.0F, 1.0F, extras)
+        first.recycle()
+
+        val second = OrderBuilder.obtain("2")
+        assertSame(first, second)
+        assertEquals("2", second.orderId)
+        assertNull(second.customerId)
+        assertNull(second.extras)
+        assertEquals(0, second.productCount)
+        assertNull(second.getProductExtras(0))
+        second.recycle()
+    }
+
+    @Test
+    fun sendsEveryStepThroughSdkInstance() {
+        val emma = mock(EMMA::class.java)
+        val order = OrderBuilder.obtain("1000012").setCustomerId("orden_pruebaa").setTotalPrice(10.0F)
+        order.addProduct("1001", "prod1", 1.0F, 4.0F)
+        order.addProduct("1002", "prod2", 2.0F, 3.0F)
+
+        emma.trackOrder(order)
+
+        val inOrder = inOrder(emma)
+        inOrder.verify(emma).startOrder("1000012", "orden_pruebaa", 10.0F, null, null)
+        inOrder.verify(emma).addProduct("1001", "prod1", 1.0F, 4.0F, null)
+        inOrder.verify(emma).addProduct("1002", "prod2", 2.0F, 3.0F, null)
+        inOrder.verify(emma).trackOrder()
+        // Reciclado: el siguiente obtain lo devuelve vacío
+        assertSame(order, OrderBuilder.obtain("2").also { it.recycle() })
+    }
+}
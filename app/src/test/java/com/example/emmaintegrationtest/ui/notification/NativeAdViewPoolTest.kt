@@ -0,0 +1,105 @@
+package com.example.emmaintegrationtest.ui.notification
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+/**
+ * Pruebas del [NativeAdViewPool] con vistas simuladas.
+ *
+ * `refreshCycleInflatesOncePerTemplate` reproduce el ciclo de `MainActivity.extractAndInflate`
+ * (coger una vista, pintar y devolver la anterior).
+ */
+class NativeAdViewPoolTest {
+
+    /**
+     * Vista simulada: pintar sólo cambia un texto.
+     */
+    private class FakeHolder(val templateId: String) {
+        var text: String? = null
+
+        fun bind(value: String) {
+            text = value
+        }
+    }
+
+    @Test
+    fun reusesReleasedHolderOfSameTemplate() {
+        val pool = NativeAdViewPool { FakeHolder(it) }
+
+        val first = pool.acquire("plantilla-a")
+        pool.release("plantilla-a", first)
+
+        assertSame(first, pool.acquire("plantilla-a"))
+        assertEquals(NativeAdViewPool.Stats(inflations = 1, reuses = 1, discarded = 0), pool.stats())
+    }
+
+    @Test
+    fun doesNotReuseAcrossTemplates() {
+        val pool = NativeAdViewPool { FakeHolder(it) }
+
+        val first = pool.acquire("plantilla-a")
+        pool.release("plantilla-a", first)
+        val second = pool.acquire("plantilla-b")
+
+        assertNotSame(first, second)
+        assertEquals("plantilla-b", second.templateId)
+        assertEquals(2L, pool.stats().inflations)
+    }
+
+    @Test
+    fun discardsBeyondMaxPerTemplate() {
+        val pool = NativeAdViewPool(maxPerTemplate = 2) { FakeHolder(it) }
+
+        val holders = List(3) { pool.acquire("plantilla-a") }
+        holders.forEach { pool.release("plantilla-a", it) }
+
+        assertEquals(1L, pool.stats().discarded)
+        pool.acquire("plantilla-a")
+        pool.acquire("plantilla-a")
+        pool.acquire("plantilla-a")
+        assertEquals(4L, pool.stats().inflations)
+    }
+
+    @Test
+    fun handsDroppedHoldersToDiscard() {
+        val dropped = ArrayList<FakeHolder>()
+        val pool = NativeAdViewPool(maxPerTemplate = 1, discard = { dropped += it }) { FakeHolder(it) }
+
+        val (first, second) = List(2) { pool.acquire("plantilla-a") }
+        pool.release("plantilla-a", first)
+        pool.release("plantilla-a", second)
+        assertEquals(listOf(second), dropped)
+
+        pool.clear()
+        assertEquals(listOf(second, first), dropped)
+    }
+
+    @Test
+    fun refreshCycleInflatesOncePerTemplate() {
+        val templates = listOf("plantilla-a", "plantilla-b")
+        val pool = NativeAdViewPool { FakeHolder(it) }
+        var shown: FakeHolder? = null
+        val refresh = { i: Int ->
+            val templateId = templates[i % templates.size]
+            val current = shown
+            val holder = if (current != null && current.templateId == templateId) current else pool.acquire(templateId)
+            holder.bind("anuncio $i")
+            if (holder !== current) {
+                current?.let { pool.release(it.templateId, it) }
+                shown = holder
+            }
+        }
+
+        repeat(REFRESHES, refresh)
+
+        assertEquals(templates.size.toLong(), pool.stats().inflations)
+        assertEquals((REFRESHES - templates.size).toLong(), pool.stats().reuses)
+        assertEquals("anuncio ${REFRESHES - 1}", shown?.text)
+    }
+
+    private companion object {
+        const val REFRESHES = 1000
+    }
+}
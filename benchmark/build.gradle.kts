@@ -0,0 +1,62 @@
+import com.android.build.api.variant.ApplicationAndroidComponentsExtension
+
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+// The benchmarks measure the EMMA facade compiled in the Android application module. JMH runs on a
+// plain JVM, so the app's debug classes are used together with the classes.jar of its AAR
+// dependencies and the android.jar stubs (only needed to load the classes, never executed).
+evaluationDependsOn(":app")
+
+val app = project(":app")
+
+val appClasses = files(
+    app.layout.buildDirectory.dir("intermediates/javac/debug/compileDebugJavaWithJavac/classes"),
+    app.layout.buildDirectory.dir("tmp/kotlin-classes/debug")
+).builtBy(app.tasks.named("compileDebugJavaWithJavac"), app.tasks.named("compileDebugKotlin"))
+
+// Helpers that only exist for tests and benchmarks (the upload encodings and the native ad stream
+// decoder) live in the app's unit test sources, so they stay out of the APK
+val appTestClasses = files(
+    app.layout.buildDirectory.dir("intermediates/javac/debugUnitTest/compileDebugUnitTestJavaWithJavac/classes"),
+    app.layout.buildDirectory.dir("tmp/kotlin-classes/debugUnitTest")
+).builtBy(app.tasks.named("compileDebugUnitTestJavaWithJavac"), app.tasks.named("compileDebugUnitTestKotlin"))
+
+val appRuntimeClasspath = app.configurations.named("debugRuntimeClasspath").map { configuration ->
+    configuration.incoming.artifactView {
+        attributes {
+            attribute(Attribute.of("artifactType", String::class.java), "android-classes-jar")
+        }
+    }.files
+}
+
+val androidBootClasspath = app.extensions.getByType<ApplicationAndroidComponentsExtension>()
+    .sdkComponents.bootClasspath
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    jmhImplementation(appClasses)
+    jmhImplementation(appTestClasses)
+    jmhImplementation(files(appRuntimeClasspath))
+    jmhImplementation(files(androidBootClasspath))
+    jmhImplementation(libs.mockito.core)
+    jmhImplementation(libs.gson)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Allocation rate per operation (gc.alloc.rate.norm)
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    // Recorded responses the fixtures are built from
+    jvmArgsAppend.add("-Demma.logs=${app.projectDir}/src/main/java/com/example/emmaintegrationtest/logs")
+}
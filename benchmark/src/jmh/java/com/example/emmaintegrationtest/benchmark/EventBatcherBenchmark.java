@@ -0,0 +1,64 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.tracking.EventBatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.emma.android.model.EMMAEventRequest;
+
+/**
+ * Enqueue cost of {@link EventBatcher} against a stub controller that only counts the
+ * events it receives, with one producer and with four concurrent producers.
+ * <p>
+ * Reported both as throughput and as sampled latency, so the p50 and p99 of a single
+ * {@link EventBatcher#offer(Object)} can be read next to the ops/s. A small
+ * <code>capacity</code> makes the producers drain the buffer themselves when it fills.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventBatcherBenchmark {
+
+    @Param({"1024", "65536"})
+    int capacity;
+
+    private final LongAdder dispatched = new LongAdder();
+    private EventBatcher<EMMAEventRequest> batcher;
+    private EMMAEventRequest eventRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batcher = new EventBatcher<>(batch -> dispatched.add(batch.size()), capacity, 256, 100);
+        eventRequest = new EMMAEventRequest("benchmark_event");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean offer() {
+        return batcher.offer(eventRequest);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean offerContended() {
+        return batcher.offer(eventRequest);
+    }
+}
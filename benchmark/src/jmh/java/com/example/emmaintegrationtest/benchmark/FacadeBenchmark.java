@@ -0,0 +1,171 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import com.example.emmaintegrationtest.EMMA;
+import com.example.emmaintegrationtest.metrics.StripedFacadeMetrics;
+import com.example.emmaintegrationtest.tracking.EventBatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.emma.android.controllers.EMMAController;
+import io.emma.android.enums.CommunicationTypes;
+import io.emma.android.model.EMMACampaign;
+import io.emma.android.model.EMMAEventRequest;
+
+/**
+ * Hot paths of the {@link EMMA} facade against a stubbed {@link EMMAController}.
+ * <p>
+ * The benchmark methods are shared by {@link FacadeThroughputBenchmark} (ops/s) and
+ * {@link FacadeLatencyBenchmark} (sampled latency percentiles). Run both with
+ * <code>./gradlew :benchmark:jmh</code>; the gc profiler adds the allocation rate.
+ */
+public abstract class FacadeBenchmark {
+
+    /**
+     * Facade started with the stubbed controller.
+     */
+    @State(Scope.Benchmark)
+    public static class Started {
+
+        EMMA emma;
+        EMMAController controller;
+        EMMAEventRequest eventRequest;
+        EMMACampaign campaign;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            emma = EMMA.getInstance();
+            controller = StubEMMAController.create();
+            StubEMMAController.install(emma, controller);
+            eventRequest = new EMMAEventRequest("benchmark_event");
+            campaign = mock(EMMACampaign.class, withSettings().stubOnly());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            StubEMMAController.install(emma, null);
+        }
+    }
+
+    /**
+     * Facade that has not been started, so every call is dropped by the guard.
+     */
+    @State(Scope.Benchmark)
+    public static class NotStarted {
+
+        EMMA emma;
+        EMMAEventRequest eventRequest;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            emma = EMMA.getInstance();
+            StubEMMAController.install(emma, null);
+            eventRequest = new EMMAEventRequest("benchmark_event");
+        }
+    }
+
+    /**
+     * Installs an {@link EventBatcher} in the started facade.
+     */
+    @State(Scope.Benchmark)
+    public static class Batching {
+
+        private EventBatcher<EMMAEventRequest> eventBatcher;
+
+        @Setup(Level.Trial)
+        public void setUp(Started started) {
+            final EMMAController controller = started.controller;
+            eventBatcher = new EventBatcher<>(batch -> {
+                for (int i = 0, size = batch.size(); i < size; i++) {
+                    controller.getEventController().trackEvent(batch.get(i));
+                }
+            }, 1 << 16, 256, 100);
+            StubEMMAController.setField(started.emma, "eventBatcher", eventBatcher);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(Started started) {
+            StubEMMAController.setField(started.emma, "eventBatcher", null);
+            eventBatcher.shutdown();
+        }
+    }
+
+    /**
+     * Enables {@link StripedFacadeMetrics} in the started facade.
+     */
+    @State(Scope.Benchmark)
+    public static class Measured {
+
+        @Setup(Level.Trial)
+        public void setUp(Started started) {
+            started.emma.setMetrics(new StripedFacadeMetrics());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(Started started) {
+            started.emma.setMetrics(null);
+        }
+    }
+
+    @Benchmark
+    public EMMA getInstance() {
+        return EMMA.getInstance();
+    }
+
+    @Benchmark
+    public boolean isSdkStarted(Started started) {
+        return EMMA.getInstance().isSdkStarted();
+    }
+
+    @Benchmark
+    public void trackEventNotStarted(NotStarted notStarted) {
+        notStarted.emma.trackEvent(notStarted.eventRequest);
+    }
+
+    @Benchmark
+    public void trackEvent(Started started) {
+        started.emma.trackEvent(started.eventRequest);
+    }
+
+    @Benchmark
+    public void trackEventMeasured(Started started, Measured measured) {
+        started.emma.trackEvent(started.eventRequest);
+    }
+
+    @Benchmark
+    public void trackEventBatched(Started started, Batching batching) {
+        started.emma.trackEvent(started.eventRequest);
+    }
+
+    @Benchmark
+    public void directControllerTrackEvent(Started started) {
+        started.controller.getEventController().trackEvent(started.eventRequest);
+    }
+
+    @Benchmark
+    public void orderSequence(Started started) {
+        EMMA emma = started.emma;
+        emma.startOrder("1000012", "customer", 2.0F);
+        emma.addProduct("1001", "prod1", 1.0F, 1.0F);
+        emma.addProduct("1002", "prod2", 1.0F, 1.0F);
+        emma.trackOrder();
+    }
+
+    @Benchmark
+    public void sendInAppImpression(Started started) {
+        started.emma.sendInAppImpression(CommunicationTypes.NATIVE_AD, started.campaign);
+    }
+
+    @Benchmark
+    public void directControllerImpression(Started started) {
+        started.controller.getCampaignController()
+                .sendImpression(CommunicationTypes.NATIVE_AD.getCommunicationId(), started.campaign);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FacadeBenchmark} reported as sampled latency, including the p99 percentile.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FacadeLatencyBenchmark extends FacadeBenchmark {
+}
@@ -0,0 +1,112 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.links.LinkDomainMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classification of link hosts against <code>domains</code> tracked powlink domains, a
+ * fifth of them wildcards, plus a short powlink list of a tenth of the size.
+ * <p>
+ * <code>compiled</code> uses {@link LinkDomainMatcher}; <code>scan</code> walks both
+ * <code>String[]</code> lists for every host, as a plain array check does. Each
+ * invocation classifies {@link #HOSTS} hosts: half configured hosts, a quarter
+ * subdomains of wildcards and a quarter unknown hosts, which a scan has to compare
+ * against every domain. <code>compile</code> is the cost paid when a list changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LinkDomainBenchmark {
+
+    static final int HOSTS = 64;
+
+    @Param({"10", "100", "500"})
+    int domains;
+
+    private String[] powlinkDomains;
+    private String[] shortPowlinkDomains;
+    private String[] hosts;
+    private LinkDomainMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        powlinkDomains = domains(domains, "campaign", random);
+        shortPowlinkDomains = domains(Math.max(1, domains / 10), "go", random);
+        hosts = new String[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            String domain = powlinkDomains[random.nextInt(powlinkDomains.length)];
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    hosts[i] = domain.startsWith("*.") ? "www" + domain.substring(1) : domain;
+                    break;
+                case 2:
+                    hosts[i] = "promo" + i + "." + domain.replace("*.", "");
+                    break;
+                default:
+                    hosts[i] = "unknown" + i + ".example.net";
+                    break;
+            }
+        }
+        matcher = LinkDomainMatcher.compile(powlinkDomains, shortPowlinkDomains);
+    }
+
+    private static String[] domains(int count, String prefix, Random random) {
+        String[] domains = new String[count];
+        for (int i = 0; i < count; i++) {
+            String domain = prefix + i + "-" + Integer.toString(random.nextInt(1 << 20), 36) + ".powlink.io";
+            domains[i] = i % 5 == 4 ? "*." + domain : domain;
+        }
+        return domains;
+    }
+
+    @Benchmark
+    public void compiled(Blackhole blackhole) {
+        for (String host : hosts) {
+            blackhole.consume(matcher.match(host));
+        }
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        for (String host : hosts) {
+            LinkDomainMatcher.Kind kind = scan(powlinkDomains, host) ? LinkDomainMatcher.Kind.POWLINK
+                    : scan(shortPowlinkDomains, host) ? LinkDomainMatcher.Kind.SHORT_POWLINK : null;
+            blackhole.consume(kind);
+        }
+    }
+
+    @Benchmark
+    public LinkDomainMatcher compile() {
+        return LinkDomainMatcher.compile(powlinkDomains, shortPowlinkDomains);
+    }
+
+    private static boolean scan(String[] domains, String host) {
+        for (String domain : domains) {
+            if (domain.startsWith("*.")) {
+                int suffix = domain.length() - 1;
+                if (host.length() > suffix
+                        && host.regionMatches(true, host.length() - suffix, domain, 1, suffix)) {
+                    return true;
+                }
+            } else if (domain.equalsIgnoreCase(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
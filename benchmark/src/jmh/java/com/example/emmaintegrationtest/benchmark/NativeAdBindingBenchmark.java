@@ -0,0 +1,127 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.inapp.NativeAdBindingPlan;
+import com.example.emmaintegrationtest.inapp.NativeAdPayload;
+import com.example.emmaintegrationtest.inapp.NativeAdPayloadField;
+import com.example.emmaintegrationtest.inapp.NativeAdStreamDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+
+/**
+ * Rendering of one recorded native ad from <code>logs</code> into a view target.
+ * <p>
+ * <code>plan</code> uses the {@link NativeAdBindingPlan} compiled for the template;
+ * <code>lookup</code> indexes the fields by name and looks up <code>Title</code>,
+ * <code>Body</code> and <code>container</code> on every render, as
+ * <code>extractAndInflate</code> used to. <code>gc.alloc.rate.norm</code> shows the
+ * garbage per render.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NativeAdBindingBenchmark {
+
+    private static final String LOGS_PROPERTY = "emma.logs";
+    private static final String DEFAULT_LOGS = "../app/src/main/java/com/example/emmaintegrationtest/logs";
+
+    @Param({"nativead_log.json", "nativead_batch_log.json"})
+    String log;
+
+    private NativeAdPayload nativeAd;
+    private NativeAdBindingPlan plan;
+    private Target target;
+
+    /**
+     * Stand-in for the recycled view: keeps the last value of each slot.
+     */
+    private static final class Target implements NativeAdBindingPlan.Target {
+        final String[] fields = new String[8];
+        final String[] containerFields = new String[8];
+
+        @Override
+        public void bindField(int slot, String value) {
+            fields[slot] = value;
+        }
+
+        @Override
+        public void bindContainerField(int row, int slot, String value) {
+            containerFields[slot] = value;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path path = Paths.get(System.getProperty(LOGS_PROPERTY, DEFAULT_LOGS), log);
+        List<NativeAdPayload> ads = new ArrayList<>();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            NativeAdStreamDecoder.INSTANCE.decode(reader, ad -> {
+                ads.add(ad);
+                return Unit.INSTANCE;
+            });
+        }
+        nativeAd = ads.get(0);
+        plan = NativeAdBindingPlan.Companion.compile(nativeAd);
+        target = new Target();
+    }
+
+    @Benchmark
+    public int plan(Blackhole blackhole) {
+        int rows = plan.bind(nativeAd, target);
+        blackhole.consume(target);
+        return rows;
+    }
+
+    @Benchmark
+    public int lookup(Blackhole blackhole) {
+        Map<String, NativeAdPayloadField> content = byName(nativeAd.getFields());
+        target.bindField(0, value(content.get("Title")));
+        target.bindField(1, value(content.get("Body")));
+        NativeAdPayloadField container = content.get("container");
+        int rows = 0;
+        if (container != null) {
+            for (List<NativeAdPayloadField> row : container.getContent()) {
+                Map<String, NativeAdPayloadField> rowContent = byName(row);
+                target.bindContainerField(rows, 0, value(rowContent.get("Title")));
+                target.bindContainerField(rows, 1, value(rowContent.get("Body")));
+                rows++;
+            }
+        }
+        blackhole.consume(target);
+        return rows;
+    }
+
+    private static Map<String, NativeAdPayloadField> byName(List<NativeAdPayloadField> fields) {
+        Map<String, NativeAdPayloadField> content = new HashMap<>();
+        for (NativeAdPayloadField field : fields) {
+            content.put(field.getName(), field);
+        }
+        return content;
+    }
+
+    private static String value(NativeAdPayloadField field) {
+        return field == null ? null : field.getValue();
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.inapp.NativeAdPayload;
+import com.example.emmaintegrationtest.inapp.NativeAdPayloadField;
+import com.example.emmaintegrationtest.inapp.NativeAdStreamDecoder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+
+/**
+ * Decoding of native ad batch responses with <code>ads</code> ads, built from
+ * <code>logs/nativead_batch_log.json</code> by repeating its ad.
+ * <p>
+ * <code>streaming</code> uses {@link NativeAdStreamDecoder}; <code>tree</code> parses the
+ * whole response into a Gson tree first, as a full materialization does, and then maps
+ * the same model. <code>gc.alloc.rate.norm</code> shows the garbage per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NativeAdDecodeBenchmark {
+
+    private static final String LOGS_PROPERTY = "emma.logs";
+    private static final String DEFAULT_LOGS = "../app/src/main/java/com/example/emmaintegrationtest/logs";
+
+    @Param({"10", "1000"})
+    int ads;
+
+    private String response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path log = Paths.get(System.getProperty(LOGS_PROPERTY, DEFAULT_LOGS), "nativead_batch_log.json");
+        JsonObject root = JsonParser.parseString(new String(Files.readAllBytes(log), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        JsonObject body = root.getAsJsonArray("operations").get(0).getAsJsonObject().getAsJsonObject("response");
+        JsonObject ad = body.getAsJsonArray("native_ads").get(0).getAsJsonObject();
+        JsonArray scaled = new JsonArray(ads);
+        for (int i = 0; i < ads; i++) {
+            JsonObject copy = ad.deepCopy();
+            copy.addProperty("campaign_id", 32577 + i);
+            scaled.add(copy);
+        }
+        body.add("native_ads", scaled);
+        response = root.toString();
+    }
+
+    @Benchmark
+    public int streaming(Blackhole blackhole) {
+        return NativeAdStreamDecoder.INSTANCE.decode(new StringReader(response), nativeAd -> {
+            blackhole.consume(nativeAd);
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Benchmark
+    public int tree(Blackhole blackhole) {
+        JsonObject root = JsonParser.parseReader(new StringReader(response)).getAsJsonObject();
+        int count = 0;
+        for (JsonElement operation : root.getAsJsonArray("operations")) {
+            JsonObject body = operation.getAsJsonObject().getAsJsonObject("response");
+            for (JsonElement nativeAd : body.getAsJsonArray("native_ads")) {
+                blackhole.consume(toPayload(nativeAd.getAsJsonObject()));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static NativeAdPayload toPayload(JsonObject ad) {
+        Map<String, String> params = new LinkedHashMap<>();
+        JsonElement paramsElement = ad.get("params");
+        if (paramsElement != null && paramsElement.isJsonObject()) {
+            for (Map.Entry<String, JsonElement> param : paramsElement.getAsJsonObject().entrySet()) {
+                params.put(param.getKey(), string(param.getValue()));
+            }
+        }
+        return new NativeAdPayload(ad.get("campaign_id").getAsLong(), string(ad.get("id")),
+                string(ad.get("cta")), string(ad.get("tag")), ad.get("show_on").getAsInt(),
+                "1".equals(string(ad.get("can_close"))), params, toFields(ad.get("fields")));
+    }
+
+    private static List<NativeAdPayloadField> toFields(JsonElement element) {
+        if (element == null || !element.isJsonArray()) {
+            return Collections.emptyList();
+        }
+        List<NativeAdPayloadField> fields = new ArrayList<>();
+        for (JsonElement fieldElement : element.getAsJsonArray()) {
+            JsonObject field = fieldElement.getAsJsonObject();
+            List<List<NativeAdPayloadField>> content = new ArrayList<>();
+            JsonElement contentElement = field.get("content");
+            if (contentElement != null && contentElement.isJsonArray()) {
+                for (JsonElement row : contentElement.getAsJsonArray()) {
+                    content.add(toFields(row));
+                }
+            }
+            fields.add(new NativeAdPayloadField(string(field.get("name")), string(field.get("type")),
+                    string(field.get("subtype")), string(field.get("value")),
+                    field.has("custom") && field.get("custom").getAsBoolean(),
+                    field.has("mandatory") && field.get("mandatory").getAsBoolean(), content));
+        }
+        return fields;
+    }
+
+    private static String string(JsonElement element) {
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.EMMA;
+import com.example.emmaintegrationtest.tracking.OrderBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.emma.android.controllers.EMMAController;
+
+/**
+ * Checkout of a cart with <code>products</code> line items, one facade call per step
+ * against a single {@link OrderBuilder} hand-off.
+ * <p>
+ * Compare <code>gc.alloc.rate.norm</code> of both methods to see the per-order garbage
+ * of the facade. The sub-controllers are no-op stubs, so what the SDK allocates for each
+ * order controller call is not measured; it is paid the same with the builder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderBenchmark {
+
+    @Param({"2", "200"})
+    int products;
+
+    private EMMA emma;
+    private String[] productIds;
+    private String[] productNames;
+    private Map<String, String> orderExtras;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        emma = EMMA.getInstance();
+        EMMAController controller = StubEMMAController.create();
+        StubEMMAController.install(emma, controller);
+        orderExtras = new HashMap<>();
+        orderExtras.put("CATEGORY", "cart");
+        productIds = new String[products];
+        productNames = new String[products];
+        for (int i = 0; i < products; i++) {
+            productIds[i] = Integer.toString(1000 + i);
+            productNames[i] = "prod" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        StubEMMAController.install(emma, null);
+    }
+
+    /**
+     * Current cart screens: extras and product records created per checkout.
+     */
+    @Benchmark
+    public void facadeCalls() {
+        Map<String, String> extras = new HashMap<>();
+        extras.put("CATEGORY", "cart");
+        emma.startOrder("1000012", "customer", 0.0F, extras);
+        for (int i = 0; i < products; i++) {
+            Map<String, String> productExtras = new HashMap<>();
+            productExtras.put("POSITION", productIds[i]);
+            emma.addProduct(productIds[i], productNames[i], 1.0F, 1.0F, productExtras);
+        }
+        emma.trackOrder();
+    }
+
+    @Benchmark
+    public void pooledOrderBuilder() {
+        OrderBuilder order = OrderBuilder.obtain("1000012")
+                .setCustomerId("customer")
+                .setExtras(orderExtras);
+        for (int i = 0; i < products; i++) {
+            order.addProduct(productIds[i], productNames[i], 1.0F, 1.0F);
+        }
+        emma.trackOrder(order);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import static net.bytebuddy.matcher.ElementMatchers.isDeclaredBy;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.withSettings;
+
+import com.example.emmaintegrationtest.EMMA;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ByteArrayClassLoader;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.FixedValue;
+import net.bytebuddy.implementation.StubMethod;
+
+import org.mockito.Mockito;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.emma.android.controllers.EMMAController;
+
+/**
+ * Builds an {@link EMMAController} whose sub-controllers do nothing, and installs it
+ * into the {@link EMMA} singleton so the facade can be measured in isolation.
+ * <p>
+ * The stubs are no-op subclasses generated with ByteBuddy and instantiated without
+ * calling their constructors, so they neither allocate nor record invocations and the
+ * allocation rate reported by the gc profiler belongs to the facade. Final classes
+ * fall back to stub-only Mockito mocks, which allocate on every call. The
+ * <code>directController*</code> baselines measure the stub cost.
+ * <p>
+ * ByteBuddy and Objenesis come with mockito-core.
+ */
+final class StubEMMAController {
+
+    private static final String[] SUB_CONTROLLERS = {
+            "getEventController",
+            "getOrderController",
+            "getCampaignController",
+            "getUserController",
+            "getPushController",
+    };
+
+    private static final ObjenesisStd objenesis = new ObjenesisStd();
+    // Single loader for every stub, so the controller stub can reference the sub-controller ones
+    private static final ClassLoader stubLoader = new ByteArrayClassLoader(
+            EMMAController.class.getClassLoader(), false, Collections.emptyMap());
+
+    private StubEMMAController() {
+    }
+
+    static EMMAController create() {
+        Map<String, Object> getters = new LinkedHashMap<>();
+        try {
+            for (String getter : SUB_CONTROLLERS) {
+                Method method = EMMAController.class.getMethod(getter);
+                getters.put(getter, noOp(method.getReturnType(), new LinkedHashMap<>()));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to stub EMMAController", e);
+        }
+        return noOp(EMMAController.class, getters);
+    }
+
+    static void install(EMMA emma, EMMAController controller) {
+        setField(emma, "emmaController", controller);
+    }
+
+    static void setField(EMMA emma, String name, Object value) {
+        try {
+            Field field = EMMA.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(emma, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to set EMMA." + name, e);
+        }
+    }
+
+    /**
+     * @param type    Class to stub.
+     * @param getters Methods returning a fixed value, by name. Every other method
+     *                returns the default value of its type.
+     */
+    private static <T> T noOp(Class<T> type, Map<String, Object> getters) {
+        try {
+            DynamicType.Builder<T> builder = new ByteBuddy()
+                    .subclass(type)
+                    .method(not(isDeclaredBy(Object.class)))
+                    .intercept(StubMethod.INSTANCE);
+            for (Map.Entry<String, Object> getter : getters.entrySet()) {
+                builder = builder.method(named(getter.getKey()))
+                        .intercept(FixedValue.reference(getter.getValue()));
+            }
+            Class<? extends T> stubType = builder.make()
+                    .load(stubLoader, ClassLoadingStrategy.Default.INJECTION)
+                    .getLoaded();
+            return objenesis.newInstance(stubType);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            return mock(type, getters);
+        }
+    }
+
+    private static <T> T mock(Class<T> type, Map<String, Object> getters) {
+        T stub = Mockito.mock(type, withSettings().stubOnly());
+        try {
+            for (Map.Entry<String, Object> getter : getters.entrySet()) {
+                type.getMethod(getter.getKey()).invoke(doReturn(getter.getValue()).when(stub));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to stub " + type.getName(), e);
+        }
+        return stub;
+    }
+}
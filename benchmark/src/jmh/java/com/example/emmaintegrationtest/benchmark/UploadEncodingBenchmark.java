@@ -0,0 +1,92 @@
+package com.example.emmaintegrationtest.benchmark;
+
+import com.example.emmaintegrationtest.queue.OperationBatchCodec;
+import com.example.emmaintegrationtest.queue.UploadEncoding;
+import com.example.emmaintegrationtest.queue.UploadOperation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of an upload batch of <code>operations</code> in each
+ * {@link UploadEncoding}.
+ * <p>
+ * The batch mixes events with a token and a couple of parameters, native ad checks and
+ * coupon checks in the proportions of the replay harness, with UUID ids as in the log
+ * captures. The scores give the CPU cost per batch on each side; the body sizes are
+ * checked by <code>OperationBatchCodecTest</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UploadEncodingBenchmark {
+
+    private static final String[] CATEGORIES = {"cart", "home", "profile"};
+
+    @Param({"JSON", "JSON_GZIP", "FRAMED", "FRAMED_GZIP"})
+    UploadEncoding encoding;
+
+    @Param({"10", "100", "500"})
+    int operations;
+
+    private List<UploadOperation> batch;
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        batch = mix(operations, new Random(1));
+        body = OperationBatchCodec.encode(batch, encoding);
+    }
+
+    static List<UploadOperation> mix(int size, Random random) {
+        String[] tokens = new String[12];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = new UUID(random.nextLong(), random.nextLong()).toString().replace("-", "");
+        }
+        List<UploadOperation> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String id = new UUID(random.nextLong(), random.nextLong()).toString();
+            int kind = random.nextInt(10);
+            Map<String, String> params = new LinkedHashMap<>();
+            if (kind < 7) {
+                params.put("token", tokens[random.nextInt(tokens.length)]);
+                params.put("CATEGORY", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+                params.put("POSITION", Integer.toString(random.nextInt(20)));
+                batch.add(new UploadOperation(id, "event", "none", params));
+            } else if (kind < 9) {
+                params.put("batch", Boolean.toString(random.nextBoolean()));
+                params.put("template_id", "plantilla-nativead-android");
+                batch.add(new UploadOperation(id, "native_ad", "check", params));
+            } else {
+                batch.add(new UploadOperation(id, "coupon", "check", null));
+            }
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return OperationBatchCodec.encode(batch, encoding);
+    }
+
+    @Benchmark
+    public List<UploadOperation> decode() throws IOException {
+        return OperationBatchCodec.decode(body, encoding);
+    }
+}
@@ -25,4 +25,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "EMMA Integration Test"
 include(":app")
+include(":benchmark")
 